@@ -0,0 +1,102 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.calc.impl;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for {@link NumericCalcCompiler}.
+ */
+public class NumericCalcCompilerTest extends FoodMartTestCase {
+
+  /**
+   * Formulas whose value is checked with and without compilation. Some of
+   * them evaluate to null, or divide by null, for some cells.
+   */
+  private static final String[] FORMULAS = {
+    "[Measures].[Unit Sales] + [Measures].[Store Sales] * 2",
+    "[Measures].[Store Sales] - [Measures].[Store Cost] / 3",
+    "-([Measures].[Unit Sales] - 1000)",
+    "[Measures].[Unit Sales] / ([Product].[Food], [Measures].[Unit Sales])",
+    "([Gender].[F], [Measures].[Unit Sales])"
+      + " - ([Gender].[M], [Measures].[Unit Sales])",
+    "1 + IIf([Measures].[Unit Sales] > 1000, [Measures].[Unit Sales],"
+      + " [Measures].[Store Sales] * 10)",
+    "2 * IIf([Measures].[Unit Sales] <> 79, 1, 0)",
+    "1 + CoalesceEmpty(([Time].[1998].[Q1], [Measures].[Unit Sales]),"
+      + " ([Time].[1997].[Q4], [Measures].[Unit Sales]), 7)",
+    "CoalesceEmpty(([Time].[1998], [Measures].[Unit Sales]), 3)"
+      + " / ([Time].[1998], [Measures].[Unit Sales])",
+    "([Time].[1998], [Measures].[Unit Sales])"
+      + " - ([Time].[1998], [Measures].[Store Sales])",
+  };
+
+  public void testCompiledFormulasMatchInterpreted() {
+    for ( String formula : FORMULAS ) {
+      final String query =
+        "with member [Measures].[Foo] as '" + formula + "'\n"
+          + "select {[Measures].[Foo]} on columns,\n"
+          + " {[Store].[USA].Children, [Store].[Mexico]} on rows\n"
+          + "from [Sales]";
+      propSaver.set( propSaver.properties.CompileNumericCalcs, false );
+      final String expected =
+        TestContext.toString( executeQuery( query ) );
+      propSaver.set( propSaver.properties.CompileNumericCalcs, true );
+      assertEquals(
+        formula,
+        expected,
+        TestContext.toString( executeQuery( query ) ) );
+    }
+  }
+
+  public void testNullDenominatorProducesNull() {
+    final String query =
+      "with member [Measures].[Foo] as"
+        + " '[Measures].[Unit Sales] / ([Time].[1998], [Measures].[Unit Sales])'\n"
+        + "select {[Measures].[Foo]} on columns from [Sales]";
+    propSaver.set( propSaver.properties.NullDenominatorProducesNull, true );
+    propSaver.set( propSaver.properties.CompileNumericCalcs, true );
+    assertQueryReturns(
+      query,
+      "Axis #0:\n"
+        + "{}\n"
+        + "Axis #1:\n"
+        + "{[Measures].[Foo]}\n"
+        + "Row #0: \n" );
+  }
+
+  public void testPlan() {
+    final String expr =
+      "IIf([Measures].[Unit Sales] > 0, [Measures].[Store Sales], 0)"
+        + " / [Measures].[Unit Sales]";
+    propSaver.set( propSaver.properties.CompileNumericCalcs, true );
+    final String plan = getTestContext().compileExpression( expr, true );
+    assertTrue( plan, plan.contains( "CompiledDoubleCalc" ) );
+
+    // Expressions that do not start with an arithmetic operator are compiled
+    // as usual.
+    final String plan2 =
+      getTestContext().compileExpression(
+        "IIf([Measures].[Unit Sales] > 0, 1, 2)", true );
+    assertFalse( plan2, plan2.contains( "CompiledDoubleCalc" ) );
+
+    propSaver.set( propSaver.properties.CompileNumericCalcs, false );
+    final String plan3 = getTestContext().compileExpression( expr, true );
+    assertFalse( plan3, plan3.contains( "CompiledDoubleCalc" ) );
+  }
+}
+
+// End NumericCalcCompilerTest.java
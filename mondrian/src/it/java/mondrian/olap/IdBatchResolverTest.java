@@ -48,6 +48,9 @@ public class IdBatchResolverTest  extends BatchTestCase {
     @Captor
     private ArgumentCaptor<MatchType> matchType;
 
+    @Captor
+    private ArgumentCaptor<List<Member>> parentMembers;
+
     @Override
     public void setUp() {
         MockitoAnnotations.initMocks(this);
@@ -219,6 +222,64 @@ public class IdBatchResolverTest  extends BatchTestCase {
             sortedNames(childNames.getAllValues().get(3)));
     }
 
+    public void testBatchAcrossParents() {
+        propSaver.set(propSaver.properties.BatchMemberResolution, true);
+        assertContains(
+            "Resolved map omitted one or more members",
+            batchResolve(
+                "SELECT "
+                + "{[Store].[USA].[WA].[Bellingham],"
+                + "[Store].[USA].[CA].[Beverly Hills],"
+                + "[Store].[USA].[WA].[Bremerton],"
+                + "[Store].[USA].[CA].[Los Angeles]}"
+                + "on 0 FROM SALES"),
+            list(
+                "[Store].[USA].[WA].[Bellingham]",
+                "[Store].[USA].[CA].[Beverly Hills]",
+                "[Store].[USA].[WA].[Bremerton]",
+                "[Store].[USA].[CA].[Los Angeles]"));
+
+        // The cities of both states are looked up together.
+        verify(
+            query.getSchemaReader(true), times(1))
+            .lookupMemberChildrenByNames(
+                parentMembers.capture(),
+                childNames.capture(),
+                matchType.capture());
+        assertEquals(
+            "[[Store].[USA].[CA], [Store].[USA].[WA]]",
+            sortedUniqueNames(parentMembers.getValue()));
+        assertEquals(
+            "[[Bellingham], [Beverly Hills], [Bremerton], [Los Angeles]]",
+            sortedNames(childNames.getValue()));
+    }
+
+    public void testStrToSetAcrossParents() {
+        final String mdx =
+            "select StrToSet(\"{[Store].[USA].[WA].[Bellingham],"
+            + " [Store].[USA].[CA].[Beverly Hills],"
+            + " [Store].[Mexico].[DF].[Mexico City],"
+            + " [Store].[USA].[WA].[Bremerton]}\", [Store]) on 0"
+            + " from [Sales]";
+        final String expected =
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Store].[USA].[WA].[Bellingham]}\n"
+            + "{[Store].[USA].[CA].[Beverly Hills]}\n"
+            + "{[Store].[Mexico].[DF].[Mexico City]}\n"
+            + "{[Store].[USA].[WA].[Bremerton]}\n"
+            + "Row #0: 2,237\n"
+            + "Row #0: 21,333\n"
+            + "Row #0: \n"
+            + "Row #0: 24,576\n";
+        getTestContext().flushSchemaCache();
+        assertQueryReturns(mdx, expected);
+        propSaver.set(propSaver.properties.BatchMemberResolution, true);
+        getTestContext().flushSchemaCache();
+        assertQueryReturns(mdx, expected);
+    }
+
     public void testSetWithNullMember() {
         assertContains(
             "Resolved map omitted one or more members",
@@ -485,6 +546,15 @@ public class IdBatchResolverTest  extends BatchTestCase {
         return Arrays.toString(items.toArray());
     }
 
+    private String sortedUniqueNames(List<Member> members) {
+        final List<String> names = new ArrayList<String>();
+        for (Member member : members) {
+            names.add(member.getUniqueName());
+        }
+        Collections.sort(names);
+        return names.toString();
+    }
+
     private Collection<String> list(String... items) {
         return Arrays.asList(items);
     }
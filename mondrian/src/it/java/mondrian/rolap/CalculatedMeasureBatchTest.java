@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.Result;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for {@link CalculatedMeasureBatch}.
+ */
+public class CalculatedMeasureBatchTest extends FoodMartTestCase {
+
+  /**
+   * Checks that a query returns the same result whether calculated measures are evaluated in batches or one cell at
+   * a time, and returns the batch that evaluated them.
+   */
+  private CalculatedMeasureBatch assertSameResult( String query ) {
+    propSaver.set( propSaver.properties.BatchCalculatedMeasures, false );
+    final Result unbatched = executeQuery( query );
+    assertNull( ( (RolapResult) unbatched ).getMeasureBatch() );
+    final String expected = TestContext.toString( unbatched );
+    propSaver.set( propSaver.properties.BatchCalculatedMeasures, true );
+    final Result batched = executeQuery( query );
+    assertEquals( expected, TestContext.toString( batched ) );
+    final CalculatedMeasureBatch batch = ( (RolapResult) batched ).getMeasureBatch();
+    assertNotNull( batch );
+    return batch;
+  }
+
+  public void testArithmetic() {
+    final CalculatedMeasureBatch batch = assertSameResult(
+      "with member [Measures].[Price] as '[Measures].[Store Sales] / [Measures].[Unit Sales]', format_string = '#.00'\n"
+        + "member [Measures].[Margin] as '-([Measures].[Store Cost] - [Measures].[Store Sales]) * 100 + 1'\n"
+        + "member [Measures].[Share] as '[Measures].[Unit Sales] / ([Gender].[All Gender], [Measures].[Unit Sales])'\n"
+        + "select {[Measures].[Unit Sales], [Measures].[Price], [Measures].[Margin], [Measures].[Share]} on columns,\n"
+        + " {[Gender].Members} * {[Store].[USA].Children, [Store].[Mexico]} on rows\n"
+        + "from [Sales]" );
+    // 3 genders times 4 stores, times 3 calculated measures.
+    assertTrue( batch.getDeferredCellCount() >= 36 );
+    assertTrue( batch.getBatchCount() > 0 );
+  }
+
+  /**
+   * Divides by cells that are empty, and by more cells than fit in one batch.
+   */
+  public void testNullsAndLargeResult() {
+    final CalculatedMeasureBatch batch = assertSameResult(
+      "with member [Measures].[Growth] as"
+        + " '([Time].[1998], [Measures].[Unit Sales]) / ([Time].[1997], [Measures].[Unit Sales]) - 1'\n"
+        + "select {[Measures].[Growth]} on columns,\n"
+        + " [Product].[Product Name].Members on rows\n"
+        + "from [Sales]" );
+    // There are more products than fit in one batch.
+    assertTrue( batch.getDeferredCellCount() > CalculatedMeasureBatch.BATCH_SIZE );
+    assertTrue( batch.getBatchCount() >= 2 );
+  }
+
+  public void testNullDenominatorProducesNull() {
+    propSaver.set( propSaver.properties.NullDenominatorProducesNull, true );
+    final CalculatedMeasureBatch batch = assertSameResult(
+      "with member [Measures].[Foo] as"
+        + " '[Measures].[Unit Sales] / ([Time].[1998], [Measures].[Unit Sales])'\n"
+        + "select {[Measures].[Foo]} on columns,\n"
+        + " {[Store].[USA].Children} on rows\n"
+        + "from [Sales]" );
+    assertTrue( batch.getDeferredCellCount() >= 3 );
+  }
+
+  /**
+   * Cells with more than one calculated member, and formulas that do not
+   * qualify, are evaluated as usual.
+   */
+  public void testMixedCalculations() {
+    final CalculatedMeasureBatch batch = assertSameResult(
+      "with member [Measures].[Price] as '[Measures].[Store Sales] / [Measures].[Unit Sales]'\n"
+        + "member [Measures].[Average] as 'Avg([Store].[USA].Children, [Measures].[Unit Sales])'\n"
+        + "member [Gender].[Diff] as '[Gender].[F] - [Gender].[M]', solve_order = 2\n"
+        + "select {[Measures].[Unit Sales], [Measures].[Price], [Measures].[Average]} on columns,\n"
+        + " {[Gender].Members, [Gender].[Diff]} on rows\n"
+        + "from [Sales]" );
+    // [Price] qualifies at the three genders; [Average], and the cells of [Diff], are evaluated as usual.
+    assertTrue( batch.getDeferredCellCount() >= 3 );
+  }
+}
+
+// End CalculatedMeasureBatchTest.java
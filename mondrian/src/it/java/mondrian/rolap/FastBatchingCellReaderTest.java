@@ -15,6 +15,7 @@ package mondrian.rolap;
 import mondrian.olap.Connection;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.MondrianServer;
+import mondrian.olap.Util;
 import mondrian.rolap.agg.*;
 import mondrian.server.*;
 import mondrian.spi.Dialect;
@@ -142,6 +143,59 @@ public class FastBatchingCellReaderTest extends BatchTestCase {
     assertFalse( fbcr.shouldUseGroupingFunction() );
   }
 
+  public void testShouldUseUnionAll() {
+    propSaver.set( MondrianProperties.instance().UnionAllBatching, true );
+    propSaver.set( MondrianProperties.instance().EnableGroupingSets, true );
+    assertFalse( createFbcr( true, salesCube ).shouldUseUnionAll() );
+    assertEquals( getTestContext().getDialect().allowsFromQuery(),
+        createFbcr( false, salesCube ).shouldUseUnionAll() );
+    propSaver.set( MondrianProperties.instance().UnionAllBatching, false );
+    assertFalse( createFbcr( false, salesCube ).shouldUseUnionAll() );
+  }
+
+  /**
+   * Tests that a query whose cells need several independent segment loads
+   * returns the same result when those loads are combined into one UNION ALL
+   * statement.
+   */
+  public void testUnionAllBatchingSameResult() {
+    if ( !getTestContext().getDialect().allowsFromQuery() ) {
+      return;
+    }
+    final String mdx =
+        "select {[Measures].[Unit Sales], [Measures].[Store Sales]} on 0,\n"
+        + " {[Gender].[Gender].Members, [Marital Status].[Marital Status].Members,\n"
+        + "  [Store].[Store Country].Members, [Product].[Product Family].Members} on 1\n"
+        + "from [Sales]";
+    propSaver.set( MondrianProperties.instance().EnableGroupingSets, false );
+    final TestContext context = getTestContext();
+    final String expected = TestContext.toString( context.executeQuery( mdx ) );
+    context.flushSchemaCache();
+    propSaver.set( MondrianProperties.instance().UnionAllBatching, true );
+    propSaver.set( MondrianProperties.instance().UnionAllBatchSize, 2 );
+    final List<String> unionQueries = Collections.synchronizedList( new ArrayList<String>() );
+    RolapUtil.setHook( new RolapUtil.ExecuteQueryHook() {
+      public void onExecuteQuery( String sql ) {
+        if ( sql.contains( "union all" ) ) {
+          unionQueries.add( sql );
+        }
+      }
+    } );
+    try {
+      assertEquals( expected, TestContext.toString( context.executeQuery( mdx ) ) );
+    } finally {
+      RolapUtil.setHook( null );
+    }
+    assertFalse( "expected a UNION ALL statement", unionQueries.isEmpty() );
+    final StringBuilder branch = new StringBuilder( "select 0" );
+    branch.append( context.getDialect().allowsAs() ? " as " : " " );
+    context.getDialect().quoteIdentifier( branch, "branch" );
+    for ( String sql : unionQueries ) {
+      assertTrue( sql, sql.startsWith( branch.toString() ) );
+      assertTrue( sql, sql.contains( "union all" + Util.nl + "select 1" ) );
+    }
+  }
+
   public void testDoesDBSupportGroupingSets() {
     final Dialect dialect = getTestContext().getDialect();
     FastBatchingCellReader fbcr = new FastBatchingCellReader( e, salesCube, aggMgr ) {
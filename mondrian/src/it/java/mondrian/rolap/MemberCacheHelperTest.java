@@ -12,6 +12,7 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.rolap.sql.MemberChildrenConstraint;
 
 import junit.framework.TestCase;
@@ -21,6 +22,8 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import org.eigenbase.util.property.IntegerProperty;
+
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -166,6 +169,43 @@ public class MemberCacheHelperTest extends TestCase {
             children.subList(1, 3), members);
     }
 
+    /**
+     * Tests that the maximum weight bounds the list caches but does not
+     * evict members by key, which would cause a member still in use to be
+     * created again.
+     */
+    public void testMaxWeightDoesNotEvictMembers() {
+        final IntegerProperty maxWeight =
+            MondrianProperties.instance().MemberCacheMaxWeight;
+        final int savedMaxWeight = maxWeight.get();
+        maxWeight.set(2);
+        try {
+            final MemberCacheHelper helper = new MemberCacheHelper(null);
+            final List<MemberKey> keys = new ArrayList<MemberKey>();
+            final List<RolapMember> members = new ArrayList<RolapMember>();
+            for (int i = 0; i < 10; i++) {
+                final MemberKey key = mockMemberKey();
+                final RolapMember member = mock(RolapMember.class);
+                keys.add(key);
+                members.add(member);
+                helper.putMember(key, member);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                assertSame(members.get(i), helper.getMember(keys.get(i)));
+            }
+
+            // A list of five members weighs six, more than the maximum.
+            fillChildren(children, 5);
+            helper.putChildren(
+                parentMember, defMemChildrenConstraint, children);
+            assertNull(
+                helper.getChildrenFromCache(
+                    parentMember, defMemChildrenConstraint));
+        } finally {
+            maxWeight.set(savedMaxWeight);
+        }
+    }
+
     private MemberKey mockMemberKey() {
         MemberKey mock = mock(MemberKey.class);
         when(mock.getLevel()).thenReturn(mock(RolapLevel.class));
@@ -12,13 +12,20 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.Cube;
 import mondrian.olap.Hierarchy;
+import mondrian.olap.Id;
 import mondrian.olap.Level;
+import mondrian.olap.Member;
 import mondrian.olap.MondrianDef;
 import mondrian.olap.MondrianDef.Relation;
 import mondrian.olap.MondrianDef.RelationOrJoin;
+import mondrian.olap.SchemaReader;
 import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.sql.DataSource;
 
 import static org.mockito.Mockito.mock;
@@ -49,6 +56,100 @@ public class RolapCubeHierarchyTest extends FoodMartTestCase {
         + "Row #2: 285,011.92\n");
   }
 
+  /**
+   * Tests that members of the lowest level of a shared hierarchy are correct
+   * when they are not cached for each cube.
+   */
+  public void testFlyweightCubeMembers() {
+    final String salesQuery =
+        "select {[Measures].[Unit Sales]} on columns,\n"
+        + " {[Store].[Store Name].Members} on rows\n"
+        + "from [Sales]";
+    final String warehouseQuery =
+        "select {[Measures].[Units Shipped]} on columns,\n"
+        + " {[Store].[Store Name].Members} on rows\n"
+        + "from [Warehouse]";
+    propSaver.set(propSaver.properties.FlyweightCubeMembers, false);
+    TestContext testContext = getTestContext().withFreshConnection();
+    final String salesResult =
+        TestContext.toString(testContext.executeQuery(salesQuery));
+    final String warehouseResult =
+        TestContext.toString(testContext.executeQuery(warehouseQuery));
+
+    propSaver.set(propSaver.properties.FlyweightCubeMembers, true);
+    testContext = getTestContext().withFreshConnection();
+    assertEquals(
+        salesResult,
+        TestContext.toString(testContext.executeQuery(salesQuery)));
+    assertEquals(
+        warehouseResult,
+        TestContext.toString(testContext.executeQuery(warehouseQuery)));
+
+    // Members are wrapped each time they are read, and are equal to each
+    // other and to the members found by name.
+    final Cube cube = testContext.getConnection().getSchema()
+        .lookupCube("Sales", true);
+    final SchemaReader schemaReader =
+        cube.getSchemaReader(null).withLocus();
+    final Member vancouver =
+        schemaReader.getMemberByUniqueName(
+            Id.Segment.toList("Store", "Canada", "BC", "Vancouver"), true);
+    final Level storeName = vancouver.getLevel().getChildLevel();
+    final List<Member> members = schemaReader.getLevelMembers(storeName, false);
+    final List<Member> members2 =
+        schemaReader.getLevelMembers(storeName, false);
+    assertEquals(members, members2);
+    assertNotSame(members.get(0), members2.get(0));
+    assertEquals("[Store].[Canada].[BC].[Vancouver].[Store 19]",
+        members.get(0).getUniqueName());
+    assertEquals(vancouver, members.get(0).getParentMember());
+    assertEquals(
+        members.get(0),
+        schemaReader.getMemberByUniqueName(
+            Id.Segment.toList(
+                "Store", "Canada", "BC", "Vancouver", "Store 19"), true));
+  }
+
+  /**
+   * Tests that non-empty children at the lowest level of a shared hierarchy
+   * are cached per cube when members are flyweight, so that evaluating them
+   * again issues no SQL.
+   */
+  public void testFlyweightCubeMembersNonEmptyChildrenCached() {
+    final String query =
+        "select {[Measures].[Unit Sales]} on columns,\n"
+        + " NON EMPTY [Store].[USA].[CA].[San Francisco].Children on rows\n"
+        + "from [Sales]";
+    propSaver.set(propSaver.properties.FlyweightCubeMembers, true);
+    propSaver.set(propSaver.properties.EnableNativeNonEmpty, true);
+    final TestContext testContext = getTestContext().withFreshConnection();
+    final AtomicInteger statementCount = new AtomicInteger();
+    RolapUtil.setHook(
+        new RolapUtil.ExecuteQueryHook() {
+          public void onExecuteQuery(String sql) {
+            if (sql.contains("store_name")) {
+              statementCount.incrementAndGet();
+            }
+          }
+        });
+    try {
+      final String result =
+          TestContext.toString(testContext.executeQuery(query));
+      assertTrue(result, result.contains("Store 14"));
+      assertTrue(statementCount.get() > 0);
+
+      statementCount.set(0);
+      assertEquals(
+          result,
+          TestContext.toString(testContext.executeQuery(query)));
+      assertEquals(
+          "children read with a context constraint must be cached",
+          0, statementCount.get());
+    } finally {
+      RolapUtil.setHook(null);
+    }
+  }
+
   public void testInit_NoFactCube() {
     RolapCubeDimension cubeDimension = mock(RolapCubeDimension.class);
     RolapCube cubeDimension_cube = mock(RolapCube.class);
@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.olap.Result;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for {@link RolapResultCache}.
+ */
+public class RolapResultCacheTest extends FoodMartTestCase {
+  private static final String QUERY =
+    "with member [Measures].[Price] as '[Measures].[Store Sales] / [Measures].[Unit Sales]', format_string = '#.00'\n"
+      + "select {[Measures].[Unit Sales], [Measures].[Price]} on columns,\n"
+      + " non empty {[Store].[USA].Children} on rows\n"
+      + "from [Sales]";
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    RolapResultCache.instance().clear();
+    propSaver.set( propSaver.properties.EnableResultCache, true );
+  }
+
+  protected void tearDown() throws Exception {
+    RolapResultCache.instance().clear();
+    super.tearDown();
+  }
+
+  public void testCachedResultIsSame() {
+    final Result result = executeQuery( QUERY );
+    assertFalse( result instanceof RolapResultCache.CachedResult );
+    assertEquals( 1, RolapResultCache.instance().size() );
+
+    final Result cachedResult = executeQuery( QUERY );
+    assertTrue( cachedResult instanceof RolapResultCache.CachedResult );
+    assertEquals( TestContext.toString( result ), TestContext.toString( cachedResult ) );
+    assertEquals(
+      result.getCell( new int[] { 1, 2 } ).getPropertyValue( "CELL_ORDINAL" ),
+      cachedResult.getCell( new int[] { 1, 2 } ).getPropertyValue( "CELL_ORDINAL" ) );
+
+    // Drill-through is delegated to a result that has an evaluator.
+    final String sql = result.getCell( new int[] { 0, 0 } ).getDrillThroughSQL( false );
+    assertEquals( sql, cachedResult.getCell( new int[] { 0, 0 } ).getDrillThroughSQL( false ) );
+  }
+
+  public void testFlushEvicts() {
+    executeQuery( QUERY );
+    assertEquals( 1, RolapResultCache.instance().size() );
+
+    // Flushing a cube that the query does not read keeps the result.
+    final CacheControl cacheControl = getTestContext().getCacheControl();
+    final Cube warehouse = getConnection().getSchema().lookupCube( "Warehouse", true );
+    cacheControl.flush( cacheControl.createMeasuresRegion( warehouse ) );
+    assertEquals( 1, RolapResultCache.instance().size() );
+
+    final Cube sales = getConnection().getSchema().lookupCube( "Sales", true );
+    cacheControl.flush( cacheControl.createMeasuresRegion( sales ) );
+    assertEquals( 0, RolapResultCache.instance().size() );
+    assertFalse( executeQuery( QUERY ) instanceof RolapResultCache.CachedResult );
+  }
+
+  public void testVolatileQueryNotCached() {
+    executeQuery(
+      "with member [Measures].[Today] as 'Now()'\n"
+        + "select {[Measures].[Today]} on columns from [Sales]" );
+    assertEquals( 0, RolapResultCache.instance().size() );
+  }
+
+  public void testDisabled() {
+    propSaver.set( propSaver.properties.EnableResultCache, false );
+    executeQuery( QUERY );
+    executeQuery( QUERY );
+    assertEquals( 0, RolapResultCache.instance().size() );
+  }
+
+  public void testDisableCaching() {
+    executeQuery( QUERY );
+    assertEquals( 1, RolapResultCache.instance().size() );
+
+    // A result cached earlier is not served while caching is disabled.
+    propSaver.set( propSaver.properties.DisableCaching, true );
+    assertFalse( executeQuery( QUERY ) instanceof RolapResultCache.CachedResult );
+    assertEquals( 1, RolapResultCache.instance().size() );
+  }
+}
+
+// End RolapResultCacheTest.java
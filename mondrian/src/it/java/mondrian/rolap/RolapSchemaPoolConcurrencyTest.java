@@ -28,6 +28,7 @@ import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -35,6 +36,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static mondrian.rolap.RolapConnectionProperties.CatalogContent;
 import static mondrian.rolap.RolapConnectionProperties.UseContentChecksum;
@@ -42,6 +44,7 @@ import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 
 /**
  * @author Andrey Khayrutdinov
@@ -81,6 +84,8 @@ public class RolapSchemaPoolConcurrencyTest extends TestCase
         SchemaKey key = (SchemaKey) invocation.getArguments()[4];
         ByteString md5 = (ByteString) invocation.getArguments()[5];
         RolapConnection connection = mock(RolapConnection.class);
+        when(connection.getConnectInfo())
+            .thenReturn((Util.PropertyList) invocation.getArguments()[2]);
         //noinspection deprecation
         return new RolapSchema(key, md5, connection);
     }
@@ -202,6 +207,114 @@ public class RolapSchemaPoolConcurrencyTest extends TestCase
     }
 
 
+    /**
+     * Tests that concurrent requests for a schema build it once, and that
+     * requests for other schemas are not held up while it is being built.
+     */
+    public void testSingleFlightLoad() throws Exception {
+        final String slowContent = UUID.randomUUID().toString();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger creates = new AtomicInteger();
+        doAnswer(
+            invocation -> {
+                if (slowContent.equals(invocation.getArguments()[3])) {
+                    creates.incrementAndGet();
+                    started.countDown();
+                    release.await();
+                }
+                return answer(invocation);
+            })
+            .when(poolSpy)
+            .createRolapSchema(
+                nullable(String.class),
+                nullable(DataSource.class),
+                nullable(Util.PropertyList.class),
+                nullable(String.class),
+                nullable(SchemaKey.class),
+                nullable(ByteString.class));
+
+        final DataSource ds = mock(DataSource.class);
+        final Util.PropertyList slowList = new Util.PropertyList();
+        slowList.put(CatalogContent.name(), slowContent);
+        final int gettersAmount = 5;
+        ExecutorService executorService =
+            Executors.newFixedThreadPool(gettersAmount + 1);
+        try {
+            List<Future<RolapSchema>> futures =
+                new ArrayList<Future<RolapSchema>>();
+            for (int i = 0; i < gettersAmount; i++) {
+                futures.add(
+                    executorService.submit(
+                        () -> poolSpy.get("catalog", ds, slowList)));
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // another schema loads while the first is still being built
+            final Util.PropertyList fastList = new Util.PropertyList();
+            fastList.put(CatalogContent.name(), UUID.randomUUID().toString());
+            RolapSchema fastSchema =
+                executorService.submit(
+                    () -> poolSpy.get("catalog", ds, fastList))
+                    .get(10, TimeUnit.SECONDS);
+            addedSchemas.add(fastSchema);
+
+            release.countDown();
+            RolapSchema schema = futures.get(0).get(10, TimeUnit.SECONDS);
+            addedSchemas.add(schema);
+            for (Future<RolapSchema> future : futures) {
+                assertSame(schema, future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, creates.get());
+            assertSame(schema, poolSpy.get("catalog", ds, slowList));
+        } finally {
+            release.countDown();
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a schema being reloaded keeps being served until the new
+     * schema is ready, and then is replaced by it.
+     */
+    public void testReload() throws Exception {
+        final DataSource ds = mock(DataSource.class);
+        final Util.PropertyList list = new Util.PropertyList();
+        list.put(CatalogContent.name(), UUID.randomUUID().toString());
+        final RolapSchema oldSchema = poolSpy.get("catalog", ds, list);
+        addedSchemas.add(oldSchema);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(
+            invocation -> {
+                release.await();
+                return answer(invocation);
+            })
+            .when(poolSpy)
+            .createRolapSchema(
+                nullable(String.class),
+                nullable(DataSource.class),
+                nullable(Util.PropertyList.class),
+                nullable(String.class),
+                nullable(SchemaKey.class),
+                nullable(ByteString.class));
+
+        try {
+            Future<RolapSchema> reload = poolSpy.reload(oldSchema);
+            assertSame(reload, poolSpy.reload(oldSchema));
+            assertSame(oldSchema, poolSpy.get("catalog", ds, list));
+
+            release.countDown();
+            RolapSchema newSchema = reload.get(10, TimeUnit.SECONDS);
+            addedSchemas.add(newSchema);
+            assertNotSame(oldSchema, newSchema);
+            assertSame(newSchema, poolSpy.get("catalog", ds, list));
+        } finally {
+            release.countDown();
+        }
+    }
+
+
     private void runTest(final List<? extends Callable<String>> actors)
             throws Exception
     {
@@ -13,6 +13,8 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.Access;
+import mondrian.olap.MondrianDef;
 import mondrian.olap.Util;
 import mondrian.olap.Util.PropertyList;
 import mondrian.spi.DynamicSchemaProcessor;
@@ -23,6 +25,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.sql.DataSource;
 
 /**
@@ -172,6 +179,207 @@ public class RolapSchemaPoolTest extends FoodMartTestCase {
         assertTrue(schema == schemaDS);
     }
 
+    /**
+     * Tests that a schema whose cubes are created in parallel has the same
+     * cubes and shared dimensions, and gives the same results, as one whose
+     * cubes are created one after another.
+     */
+    public void testParallelCubeLoad() {
+        final String query =
+            "select [Measures].[Store Sales] on 0,\n"
+            + " [Store].[Store Country].Members on 1\n"
+            + "from [Warehouse and Sales]";
+        final TestContext testContext = getTestContext().withSchemaPool(false);
+
+        propSaver.set(propSaver.properties.SchemaLoadThreads, 1);
+        final RolapSchema schema =
+            (RolapSchema) testContext.getConnection().getSchema();
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+
+        propSaver.set(propSaver.properties.SchemaLoadThreads, 4);
+        final TestContext parallelContext =
+            getTestContext().withSchemaPool(false);
+        final RolapSchema parallelSchema =
+            (RolapSchema) parallelContext.getConnection().getSchema();
+        assertNotSame(schema, parallelSchema);
+        assertEquals(
+            cubeNames(schema.getCubeList()),
+            cubeNames(parallelSchema.getCubeList()));
+        assertEquals(
+            schema.getSharedHierarchies().length,
+            parallelSchema.getSharedHierarchies().length);
+        assertEquals(
+            expected,
+            TestContext.toString(parallelContext.executeQuery(query)));
+    }
+
+    /**
+     * Tests that schemas that differ only in their roles share their cubes,
+     * but not their roles, if
+     * {@link mondrian.olap.MondrianProperties#ShareSchemaStructure} is set.
+     */
+    public void testShareSchemaStructure() throws IOException {
+        RolapSchemaPool pool = RolapSchemaPool.instance();
+        pool.clear();
+        propSaver.set(propSaver.properties.ShareSchemaStructure, true);
+
+        final String catalogUrl = getFoodmartCatalogUrl().toString();
+        final String catalog = Util.readVirtualFileAsString(catalogUrl);
+        final RolapSchema schemaA =
+            pool.get(
+                catalogUrl, "connectionKey", "joeTheUser", "aDataSource",
+                tenantConnectInfo(catalog, "A"));
+        final RolapSchema schemaB =
+            pool.get(
+                catalogUrl, "connectionKey", "joeTheUser", "aDataSource",
+                tenantConnectInfo(catalog, "B"));
+        assertNotSame(schemaA, schemaB);
+        assertSame(schemaA.lookupCube("Sales"), schemaB.lookupCube("Sales"));
+        assertNotNull(schemaA.lookupRole("Tenant A"));
+        assertNull(schemaA.lookupRole("Tenant B"));
+        assertNotNull(schemaB.lookupRole("Tenant B"));
+        assertNull(schemaB.lookupRole("Tenant A"));
+
+        // A tenant's role applies to the shared cubes.
+        final RolapCube salesCube = schemaB.lookupCube("Sales");
+        assertEquals(
+            Access.NONE,
+            schemaB.lookupRole("Tenant B").getAccess(salesCube));
+        assertEquals(
+            Access.ALL,
+            schemaB.lookupRole("Tenant B")
+                .getAccess(schemaB.lookupCube("Warehouse")));
+
+        // The schemas are distinct, and each role has access to its own
+        // schema.
+        assertFalse(schemaA.equals(schemaB));
+        assertEquals(
+            Access.ALL, schemaB.lookupRole("Tenant B").getAccess(schemaB));
+
+        // Removing a tenant's schema does not affect the shared structure.
+        pool.remove(schemaB);
+        assertTrue(pool.contains(schemaA));
+        assertSame(salesCube, schemaA.lookupCube("Sales"));
+        assertFalse(schemaA.isStructureReleased());
+
+        // Removing the base schema while a tenant's schema uses its structure
+        // does not flush it; removing the last user does.
+        final RolapSchema schemaE =
+            pool.get(
+                catalogUrl, "connectionKey", "joeTheUser", "aDataSource",
+                tenantConnectInfo(catalog, "E"));
+        assertSame(salesCube, schemaE.lookupCube("Sales"));
+        pool.remove(schemaA);
+        assertFalse(schemaE.isStructureReleased());
+        pool.remove(schemaE);
+        assertTrue(schemaE.isStructureReleased());
+
+        // Without the property, each schema has its own cubes.
+        pool.clear();
+        propSaver.set(propSaver.properties.ShareSchemaStructure, false);
+        final RolapSchema schemaC =
+            pool.get(
+                catalogUrl, "connectionKey", "joeTheUser", "aDataSource",
+                tenantConnectInfo(catalog, "A"));
+        final RolapSchema schemaD =
+            pool.get(
+                catalogUrl, "connectionKey", "joeTheUser", "aDataSource",
+                tenantConnectInfo(catalog, "B"));
+        assertNotSame(
+            schemaC.lookupCube("Sales"), schemaD.lookupCube("Sales"));
+    }
+
+    private Util.PropertyList tenantConnectInfo(
+        String catalog,
+        String tenant)
+    {
+        final String role =
+            "<Role name=\"Tenant " + tenant + "\">\n"
+            + "  <SchemaGrant access=\"all\">\n"
+            + "    <CubeGrant cube=\"Sales\" access=\"none\"/>\n"
+            + "  </SchemaGrant>\n"
+            + "</Role>\n";
+        Util.PropertyList connectInfo =
+            Util.parseConnectString(TestContext.getDefaultConnectString());
+        connectInfo.put(
+            RolapConnectionProperties.CatalogContent.name(),
+            catalog.replace("</Schema>", role + "</Schema>"));
+        return connectInfo;
+    }
+
+    /**
+     * Tests that, when cubes are created in parallel, every two cubes that
+     * share a fact table or a shared dimension are created one after the
+     * other.
+     */
+    public void testCubeLoadDependencies() {
+        final RolapSchema schema =
+            (RolapSchema) getTestContext().getConnection().getSchema();
+        final List<MondrianDef.Cube> xmlCubes =
+            Arrays.asList(schema.getXMLSchema().cubes);
+        final List<Set<Integer>> dependencies =
+            RolapCubeLoader.dependencies(xmlCubes);
+        assertEquals(xmlCubes.size(), dependencies.size());
+
+        // Cubes that each cube waits for, directly or indirectly.
+        final List<Set<Integer>> closures = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < dependencies.size(); i++) {
+            final Set<Integer> closure = new TreeSet<Integer>();
+            for (int j : dependencies.get(i)) {
+                assertTrue(j < i);
+                closure.add(j);
+                closure.addAll(closures.get(j));
+            }
+            closures.add(closure);
+        }
+        int sharedCount = 0;
+        for (int i = 0; i < xmlCubes.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                if (shareStructure(xmlCubes.get(i), xmlCubes.get(j))) {
+                    ++sharedCount;
+                    assertTrue(
+                        xmlCubes.get(i).name + " must wait for "
+                        + xmlCubes.get(j).name,
+                        closures.get(i).contains(j));
+                }
+            }
+        }
+        assertTrue(sharedCount > 0);
+    }
+
+    private static boolean shareStructure(
+        MondrianDef.Cube cube1,
+        MondrianDef.Cube cube2)
+    {
+        if (cube1.fact != null
+            && cube2.fact != null
+            && RolapUtil.makeRolapStarKey(cube1.fact).equals(
+                RolapUtil.makeRolapStarKey(cube2.fact)))
+        {
+            return true;
+        }
+        for (MondrianDef.CubeDimension dimension1 : cube1.dimensions) {
+            for (MondrianDef.CubeDimension dimension2 : cube2.dimensions) {
+                if (dimension1 instanceof MondrianDef.DimensionUsage
+                    && dimension2 instanceof MondrianDef.DimensionUsage
+                    && ((MondrianDef.DimensionUsage) dimension1).source.equals(
+                        ((MondrianDef.DimensionUsage) dimension2).source))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> cubeNames(List<RolapCube> cubes) {
+        final Set<String> names = new TreeSet<String>();
+        for (RolapCube cube : cubes) {
+            names.add(cube.getName());
+        }
+        return names;
+    }
 
     protected URL getFoodmartCatalogUrl() {
         // Works if we are running in root directory of source tree
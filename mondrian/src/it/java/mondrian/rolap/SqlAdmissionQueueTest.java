@@ -0,0 +1,200 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import junit.framework.TestCase;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.QueryCanceledException;
+import mondrian.resource.MondrianResource;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+
+import org.eigenbase.util.property.IntegerProperty;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit test for {@link SqlAdmissionQueue}.
+ */
+public class SqlAdmissionQueueTest extends TestCase {
+    private final Locus locus =
+        new Locus(Execution.NONE, "SqlAdmissionQueueTest", null);
+
+    /**
+     * Tests that waiting statements are admitted in the order they arrive,
+     * and that the time they wait is recorded.
+     */
+    public void testOrder() throws Exception {
+        final SqlAdmissionQueue queue =
+            new SqlAdmissionQueue("ds", Purpose.CELL_SEGMENT, 1);
+        assertEquals(0, queue.acquire(locus));
+        final List<Integer> order =
+            Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            final int id = i;
+            final Thread thread =
+                new Thread(
+                    new Runnable() {
+                        public void run() {
+                            queue.acquire(locus);
+                            order.add(id);
+                            queue.release();
+                        }
+                    });
+            thread.start();
+            threads.add(thread);
+            // Let the thread join the queue before starting the next one.
+            while (queue.getInfo().queuedCount < i + 1) {
+                Thread.sleep(10);
+            }
+        }
+        Thread.sleep(50);
+        queue.release();
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+        assertEquals("[0, 1, 2]", order.toString());
+        assertEquals(4, queue.getInfo().totalAdmittedCount);
+        assertEquals(0, queue.getInfo().admittedCount);
+        assertTrue(queue.getInfo().maxQueueMillis >= 50);
+    }
+
+    /**
+     * Tests that a statement whose execution is canceled while it waits
+     * leaves the queue, and does not hold up the statements behind it.
+     */
+    public void testCancel() throws Exception {
+        final SqlAdmissionQueue queue =
+            new SqlAdmissionQueue("ds", Purpose.TUPLES, 1);
+        queue.acquire(locus);
+        final boolean[] canceled = {false};
+        final Execution execution =
+            new Execution(null, 0) {
+                public synchronized void checkCancelOrTimeout() {
+                    if (canceled[0]) {
+                        throw MondrianResource.instance().QueryCanceled.ex();
+                    }
+                }
+            };
+        final Throwable[] thrown = {null};
+        final Thread thread =
+            new Thread(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            queue.acquire(
+                                new Locus(execution, "testCancel", null));
+                        } catch (Throwable e) {
+                            thrown[0] = e;
+                        }
+                    }
+                });
+        thread.start();
+        while (queue.getInfo().queuedCount < 1) {
+            Thread.sleep(10);
+        }
+        synchronized (execution) {
+            canceled[0] = true;
+        }
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(thrown[0] instanceof QueryCanceledException);
+        assertEquals(0, queue.getInfo().queuedCount);
+
+        queue.release();
+        assertEquals(0, queue.acquire(locus));
+    }
+
+    /**
+     * Tests that the queues of a data source share its limit, so that one
+     * purpose's statements wait while the others hold every permit.
+     */
+    public void testDataSourceLimit() throws Exception {
+        final SqlAdmissionQueue.DataSourceCount dataSourceCount =
+            new SqlAdmissionQueue.DataSourceCount(2);
+        final SqlAdmissionQueue segments =
+            new SqlAdmissionQueue(
+                "ds", Purpose.CELL_SEGMENT, 5, dataSourceCount);
+        final SqlAdmissionQueue tuples =
+            new SqlAdmissionQueue("ds", Purpose.TUPLES, 1, dataSourceCount);
+        assertEquals(2, segments.getInfo().limit);
+        assertEquals(0, segments.acquire(locus));
+        assertEquals(0, segments.acquire(locus));
+        final long[] queueNanos = {-1};
+        final Thread thread =
+            new Thread(
+                new Runnable() {
+                    public void run() {
+                        queueNanos[0] = tuples.acquire(locus);
+                    }
+                });
+        thread.start();
+        while (tuples.getInfo().queuedCount < 1) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, tuples.getInfo().dataSourceAdmittedCount);
+        segments.release();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(queueNanos[0] > 0);
+        assertEquals(1, tuples.getInfo().admittedCount);
+        assertEquals(2, tuples.getInfo().dataSourceAdmittedCount);
+        tuples.release();
+        segments.release();
+        assertEquals(0, segments.getInfo().dataSourceAdmittedCount);
+    }
+
+    /**
+     * Tests that each purpose of a data source has its own queue, whose
+     * limit may be set for that purpose.
+     */
+    public void testQueuePerPurpose() {
+        final IntegerProperty property =
+            MondrianProperties.instance().QueryLimitTuples;
+        final int previous = property.get();
+        property.set(3);
+        try {
+            final DataSource dataSource = mock(DataSource.class);
+            final SqlAdmissionQueue tuples =
+                SqlAdmissionQueue.forDataSource(dataSource, Purpose.TUPLES);
+            final SqlAdmissionQueue segments =
+                SqlAdmissionQueue.forDataSource(
+                    dataSource, Purpose.CELL_SEGMENT);
+            assertNotSame(tuples, segments);
+            assertSame(
+                tuples,
+                SqlAdmissionQueue.forDataSource(dataSource, Purpose.TUPLES));
+            assertNotSame(
+                tuples,
+                SqlAdmissionQueue.forDataSource(
+                    mock(DataSource.class), Purpose.TUPLES));
+            assertEquals(3, tuples.getInfo().limit);
+            assertEquals("TUPLES", tuples.getInfo().purpose);
+            assertEquals(
+                MondrianProperties.instance().QueryLimit.get(),
+                segments.getInfo().limit);
+        } finally {
+            property.set(previous);
+        }
+    }
+}
+
+// End SqlAdmissionQueueTest.java
@@ -0,0 +1,122 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import junit.framework.TestCase;
+import mondrian.olap.ResourceLimitExceededException;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+
+/**
+ * Unit test for {@link SqlConcurrencyLimiter}.
+ */
+public class SqlConcurrencyLimiterTest extends TestCase {
+    private final Locus locus =
+        new Locus(Execution.NONE, "SqlConcurrencyLimiterTest", null);
+
+    /**
+     * Tests that a statement is rejected when the limit is in use and the
+     * queue is full, and that the rejection is counted.
+     */
+    public void testReject() {
+        final SqlConcurrencyLimiter limiter =
+            new SqlConcurrencyLimiter("ds", 2, 10, 0, 1000);
+        limiter.acquire(locus);
+        limiter.acquire(locus);
+        try {
+            limiter.acquire(locus);
+            fail("expected rejection");
+        } catch (ResourceLimitExceededException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("'ds'"));
+        }
+        assertEquals(1, limiter.getInfo().rejectedCount);
+        assertEquals(2, limiter.getInfo().inFlightCount);
+        limiter.release(1000000L, true);
+        limiter.acquire(locus);
+    }
+
+    /**
+     * Tests that a statement that waits too long is rejected.
+     */
+    public void testQueueTimeout() {
+        final SqlConcurrencyLimiter limiter =
+            new SqlConcurrencyLimiter("ds", 1, 10, 10, 50);
+        limiter.acquire(locus);
+        final long start = System.currentTimeMillis();
+        try {
+            limiter.acquire(locus);
+            fail("expected rejection");
+        } catch (ResourceLimitExceededException e) {
+            // ok
+        }
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        assertEquals(0, limiter.getInfo().queuedCount);
+    }
+
+    /**
+     * Tests that a waiting statement proceeds when a permit is released.
+     */
+    public void testWait() throws Exception {
+        final SqlConcurrencyLimiter limiter =
+            new SqlConcurrencyLimiter("ds", 1, 10, 10, 10000);
+        limiter.acquire(locus);
+        final Thread thread =
+            new Thread(
+                new Runnable() {
+                    public void run() {
+                        limiter.acquire(locus);
+                    }
+                });
+        thread.start();
+        Thread.sleep(50);
+        assertEquals(1, limiter.getInfo().queuedCount);
+        limiter.release(1000000L, true);
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertEquals(1, limiter.getInfo().inFlightCount);
+        assertEquals(0, limiter.getInfo().queuedCount);
+    }
+
+    /**
+     * Tests that the limit grows while it is in use and statements run at a
+     * steady pace, and shrinks when statements fail or slow down.
+     */
+    public void testAdapt() {
+        final SqlConcurrencyLimiter limiter =
+            new SqlConcurrencyLimiter("ds", 2, 4, 0, 1000);
+        for (int i = 0; i < 100; i++) {
+            final int limit = limiter.getLimit();
+            for (int j = 0; j < limit; j++) {
+                limiter.acquire(locus);
+            }
+            for (int j = 0; j < limit; j++) {
+                limiter.release(1000000L, true);
+            }
+        }
+        assertEquals(4, limiter.getLimit());
+
+        // A failure shrinks the limit.
+        limiter.acquire(locus);
+        limiter.release(1000000L, false);
+        assertEquals(3, limiter.getLimit());
+
+        // So does a sudden slowdown, but not below 1.
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire(locus);
+            limiter.release(100000000L, true);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+}
+
+// End SqlConcurrencyLimiterTest.java
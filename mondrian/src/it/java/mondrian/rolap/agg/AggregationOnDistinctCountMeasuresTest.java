@@ -482,6 +482,25 @@ public class AggregationOnDistinctCountMeasuresTest extends BatchTestCase {
             + "Row #0: 11,257.28\n");
     }
 
+    /**
+     * Tests that, with large aggregate sets enabled, a distinct-count
+     * measure can be aggregated over a list longer than
+     * {@link MondrianProperties#MaxConstraints}.
+     */
+    public void testAggregationOverLargeListWithLargeAggregateSets() {
+        propSaver.set(props.MaxConstraints, 3);
+        propSaver.set(props.LargeAggregateSets, true);
+        assertQueryReturns(
+            makeQuery("[MEASURES].[CUSTOMER COUNT]"),
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Customer Count]}\n"
+            + "Axis #2:\n"
+            + "{[Product].[X]}\n"
+            + "Row #0: 1,360\n");
+    }
+
     private String makeQuery(String measureName) {
         return "WITH MEMBER PRODUCT.X as 'Aggregate({"
             + "[Product].[All Products].[Drink].[Alcoholic Beverages].[Beer and Wine].[Beer].[Good],\n"
@@ -1479,6 +1498,49 @@ public class AggregationOnDistinctCountMeasuresTest extends BatchTestCase {
             optimized.toString());
     }
 
+    /**
+     * Tests that tuples contained in other tuples of the list, and repeated
+     * tuples, are removed.
+     */
+    public void testRemoveOverlappingTupleEntries() {
+        Member usaMember =
+            member(
+                Id.Segment.toList("Store", "All Stores", "USA"),
+                salesCubeSchemaReader);
+        Member caMember =
+            member(
+                Id.Segment.toList(
+                    "Store", "All Stores", "USA", "CA"),
+                salesCubeSchemaReader);
+        Member canadaMember =
+            member(
+                Id.Segment.toList("Store", "All Stores", "Canada"),
+                salesCubeSchemaReader);
+        Member femaleMember =
+            member(
+                Id.Segment.toList("Gender", "All Gender", "F"),
+                salesCubeSchemaReader);
+        Member maleMember =
+            member(
+                Id.Segment.toList("Gender", "All Gender", "M"),
+                salesCubeSchemaReader);
+        Member allGender = allMember("Gender", salesCube);
+
+        TupleList tl = new ArrayTupleList(2);
+        tl.add(Arrays.asList(caMember, femaleMember));
+        tl.add(Arrays.asList(usaMember, allGender));
+        tl.add(Arrays.asList(canadaMember, maleMember));
+        tl.add(Arrays.asList(usaMember, maleMember));
+        tl.add(Arrays.asList(canadaMember, maleMember));
+
+        TupleList trimmed =
+            AggregateFunDef.AggregateCalc.removeOverlappingTupleEntries(tl);
+        assertEquals(
+            "[[[Store].[USA], [Gender].[All Gender]],"
+            + " [[Store].[Canada], [Gender].[M]]]",
+            trimmed.toString());
+    }
+
     private boolean tuppleListContains(
         TupleList tuples,
         Member memberByUniqueName)
@@ -0,0 +1,318 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Id;
+import mondrian.olap.Member;
+import mondrian.olap.SchemaReader;
+import mondrian.rolap.RolapAggregator;
+import mondrian.rolap.RolapCube;
+import mondrian.rolap.RolapUtil;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit test for {@link ColumnarFactTable}.
+ */
+public class ColumnarFactTableTest extends FoodMartTestCase {
+    /**
+     * Tests that codes are packed into the narrowest array that holds them.
+     */
+    public void testCodes() {
+        for (int dictionarySize : new int[] {2, 256, 257, 65536, 70000}) {
+            final int[] codes = new int[1000];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = (i * 7919) % dictionarySize;
+            }
+            final ColumnarFactTable.Codes packed =
+                ColumnarFactTable.Codes.of(codes, 900, dictionarySize);
+            for (int i = 0; i < 900; i++) {
+                assertEquals(codes[i], packed.get(i));
+            }
+        }
+    }
+
+    /**
+     * Tests that a grouping key space wider than 63 bits is refused, rather
+     * than letting group keys overflow and collide.
+     */
+    public void testKeySpace() {
+        assertEquals(1, ColumnarFactTable.keySpace(new int[0]));
+        assertEquals(
+            6 * 1000 * 1,
+            ColumnarFactTable.keySpace(new int[] {6, 1000, 0}));
+        // 2^62 fits.
+        assertEquals(
+            1L << 62,
+            ColumnarFactTable.keySpace(
+                new int[] {1 << 20, 1 << 20, 1 << 20, 1 << 2}));
+        // 2^63 and 2^64 do not.
+        assertEquals(
+            -1,
+            ColumnarFactTable.keySpace(
+                new int[] {1 << 20, 1 << 20, 1 << 20, 1 << 3}));
+        assertEquals(
+            -1,
+            ColumnarFactTable.keySpace(
+                new int[] {1 << 20, 1 << 20, 1 << 20, 1 << 4}));
+        // A product that wraps around to a small positive number.
+        assertEquals(
+            -1,
+            ColumnarFactTable.keySpace(
+                new int[] {65537, 65537, 65537, 65537, 65537}));
+    }
+
+    /**
+     * Tests that merging partial aggregates gives the same result whether
+     * groups are held densely or sparsely.
+     */
+    public void testGroups() {
+        final RolapAggregator[] aggregators = {
+            RolapAggregator.Sum, RolapAggregator.Min, RolapAggregator.Max
+        };
+        for (int denseSpace : new int[] {10, -1}) {
+            final ColumnarFactTable.Groups a =
+                new ColumnarFactTable.Groups(aggregators, denseSpace);
+            final ColumnarFactTable.Groups b =
+                new ColumnarFactTable.Groups(aggregators, denseSpace);
+            add(a, 3, 5d);
+            add(a, 7, 2d);
+            add(b, 3, 1d);
+            add(b, 9, 4d);
+            a.merge(b);
+            assertEquals(3, a.size);
+            final int slot = a.slot(3);
+            assertEquals(6d, a.values[0][slot]);
+            assertEquals(1d, a.values[1][slot]);
+            assertEquals(5d, a.values[2][slot]);
+            assertEquals(2, a.counts[0][slot]);
+            assertEquals(4d, a.values[0][a.slot(9)]);
+        }
+    }
+
+    private static void add(
+        ColumnarFactTable.Groups groups, long key, double value)
+    {
+        final int slot = groups.slot(key);
+        for (int j = 0; j < groups.values.length; j++) {
+            groups.values[j][slot] = value;
+            groups.counts[j][slot] = 1;
+        }
+    }
+
+    /**
+     * Tests that a query returns the same result whether its segments are
+     * loaded by SQL or from the in-memory copy of the fact table.
+     */
+    public void testSameResultAsSql() throws InterruptedException {
+        final String mdx =
+            "select {[Measures].[Unit Sales], [Measures].[Store Cost],\n"
+            + " [Measures].[Sales Count]} on 0,\n"
+            + " non empty [Gender].[Gender].Members\n"
+            + "   * {[Marital Status].[M], [Marital Status].[S]} on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[Q2]";
+        assertSameResultAsSql(getTestContext(), "Sales", mdx);
+    }
+
+    /**
+     * Tests that fact rows with no match in a dimension table are counted
+     * by queries that do not use that dimension, as they are by SQL. Only
+     * two promotions are in the inline table.
+     */
+    public void testUnmatchedDimensionRows() throws InterruptedException {
+        final TestContext testContext = getTestContext().create(
+            null,
+            "<Cube name=\"Sales_inline\">\n"
+            + "  <Table name=\"sales_fact_1997\"/>\n"
+            + "  <DimensionUsage name=\"Time\" source=\"Time\""
+            + " foreignKey=\"time_id\"/>\n"
+            + "  <Dimension name=\"Alternative Promotion\""
+            + " foreignKey=\"promotion_id\">\n"
+            + "    <Hierarchy hasAll=\"true\" primaryKey=\"promo_id\">\n"
+            + "      <InlineTable alias=\"alt_promotion\">\n"
+            + "        <ColumnDefs>\n"
+            + "          <ColumnDef name=\"promo_id\" type=\"Numeric\"/>\n"
+            + "          <ColumnDef name=\"promo_name\" type=\"String\"/>\n"
+            + "        </ColumnDefs>\n"
+            + "        <Rows>\n"
+            + "          <Row>\n"
+            + "            <Value column=\"promo_id\">0</Value>\n"
+            + "            <Value column=\"promo_name\">Promo0</Value>\n"
+            + "          </Row>\n"
+            + "          <Row>\n"
+            + "            <Value column=\"promo_id\">1</Value>\n"
+            + "            <Value column=\"promo_name\">Promo1</Value>\n"
+            + "          </Row>\n"
+            + "        </Rows>\n"
+            + "      </InlineTable>\n"
+            + "      <Level name=\"Alternative Promotion\" column=\"promo_id\""
+            + " nameColumn=\"promo_name\" uniqueMembers=\"true\"/>\n"
+            + "    </Hierarchy>\n"
+            + "  </Dimension>\n"
+            + "  <Measure name=\"Unit Sales\" column=\"unit_sales\""
+            + " aggregator=\"sum\" formatString=\"Standard\"/>\n"
+            + "</Cube>",
+            null,
+            null,
+            null,
+            null);
+        assertSameResultAsSql(
+            testContext,
+            "Sales_inline",
+            "select [Time].[1997].Children on 0,\n"
+            + " {[Alternative Promotion].[All Alternative Promotions],\n"
+            + "  [Alternative Promotion].[All Alternative Promotions]"
+            + ".Children} on 1\n"
+            + "from [Sales_inline]");
+    }
+
+    /**
+     * Tests that flushing the cache discards the in-memory copy, and that a
+     * refresh that finds too many rows discards it too, so that segments
+     * are loaded by SQL rather than from stale contents.
+     */
+    public void testFlushAndOverflow() throws InterruptedException {
+        final TestContext context = getTestContext();
+        propSaver.set(
+            propSaver.properties.ColumnarFactTables, "sales_fact_1997");
+        final RolapCube cube =
+            (RolapCube) context.getConnection().getSchema()
+                .lookupCube("Sales", true);
+        final ColumnarFactTable table = waitForTable(cube);
+
+        final int maxRows = propSaver.properties.ColumnarMaxRows.get();
+        propSaver.set(propSaver.properties.ColumnarMaxRows, 10);
+        table.refresh();
+        assertNull(ColumnarFactTable.forStar(cube.getStar()));
+
+        // A flush allows the table to be read again; it still has too many
+        // rows.
+        final CacheControl cacheControl =
+            context.getConnection().getCacheControl(null);
+        cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+        assertNull(ColumnarFactTable.forStar(cube.getStar()));
+
+        propSaver.set(propSaver.properties.ColumnarMaxRows, maxRows);
+        cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+        assertSame(table, waitForTable(cube));
+    }
+
+    /**
+     * Tests that flushing a region of the cache reads again only the fact
+     * rows in that region, keeping the rest of the in-memory copy, and that
+     * segments loaded afterwards are the same as before.
+     */
+    public void testFlushRegionRereadsRegion() throws InterruptedException {
+        final TestContext context = getTestContext();
+        propSaver.set(
+            propSaver.properties.ColumnarFactTables, "sales_fact_1997");
+        final RolapCube cube =
+            (RolapCube) context.getConnection().getSchema()
+                .lookupCube("Sales", true);
+        final ColumnarFactTable table = waitForTable(cube);
+        final int rowCount = table.getRowCount();
+        final String mdx =
+            "select [Time].[1997].Children on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]";
+        final String expected =
+            TestContext.toString(context.executeQuery(mdx));
+
+        final SchemaReader schemaReader =
+            cube.getSchemaReader(null).withLocus();
+        final Member memberQ1 = schemaReader.getMemberByUniqueName(
+            Id.Segment.toList("Time", "1997", "Q1"), true);
+        final CacheControl cacheControl =
+            context.getConnection().getCacheControl(null);
+        final List<String> factQueries =
+            Collections.synchronizedList(new ArrayList<String>());
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    if (sql.contains("sales_fact_1997")
+                        && !sql.contains("group by"))
+                    {
+                        factQueries.add(sql);
+                    }
+                }
+            });
+        try {
+            cacheControl.flush(
+                cacheControl.createCrossjoinRegion(
+                    cacheControl.createMeasuresRegion(cube),
+                    cacheControl.createMemberRegion(memberQ1, false)));
+            assertSame(table, waitForTable(cube));
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        assertEquals(1, factQueries.size());
+        assertTrue(factQueries.get(0), factQueries.get(0).contains("'Q1'"));
+        assertEquals(rowCount, table.getRowCount());
+        assertEquals(
+            expected,
+            TestContext.toString(context.executeQuery(mdx)));
+    }
+
+    /**
+     * Executes a query by SQL, then with the cube's fact table in memory,
+     * and checks that the results are the same.
+     */
+    private void assertSameResultAsSql(
+        TestContext context,
+        String cubeName,
+        String mdx)
+        throws InterruptedException
+    {
+        final String expected =
+            TestContext.toString(context.executeQuery(mdx));
+        final RolapCube cube =
+            (RolapCube) context.getConnection().getSchema()
+                .lookupCube(cubeName, true);
+
+        // Flush the segments that SQL loaded, then read the table.
+        final CacheControl cacheControl =
+            context.getConnection().getCacheControl(null);
+        cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+        propSaver.set(
+            propSaver.properties.ColumnarFactTables, "sales_fact_1997");
+        waitForTable(cube);
+        assertEquals(
+            expected,
+            TestContext.toString(context.executeQuery(mdx)));
+    }
+
+    private static ColumnarFactTable waitForTable(RolapCube cube)
+        throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 60000;
+        while (true) {
+            final ColumnarFactTable table =
+                ColumnarFactTable.forStar(cube.getStar());
+            if (table != null) {
+                return table;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("fact table was not read into memory");
+            }
+            Thread.sleep(100);
+        }
+    }
+}
+
+// End ColumnarFactTableTest.java
@@ -0,0 +1,183 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import junit.framework.TestCase;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit test for {@link FairSqlScheduler}.
+ */
+public class FairSqlSchedulerTest extends TestCase {
+    private final Locus locus =
+        new Locus(Execution.NONE, "FairSqlSchedulerTest", null);
+
+    /**
+     * Tests the order in which queued requests run: interactive before
+     * batch, owners in turn, cheaper before more expensive.
+     */
+    public void testOrder() throws Exception {
+        final FairSqlScheduler scheduler = new FairSqlScheduler(1, 0);
+        final List<String> order =
+            Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            // Occupy the only thread, so that the others queue up.
+            final Future<String> blocker =
+                scheduler.submit(
+                    request(SqlScheduler.Priority.INTERACTIVE, "x", 0),
+                    new Callable<String>() {
+                        public String call() throws Exception {
+                            latch.await();
+                            return "blocker";
+                        }
+                    });
+            final List<Future<String>> futures =
+                new ArrayList<Future<String>>();
+            futures.add(
+                submit(
+                    scheduler, order, "batch",
+                    SqlScheduler.Priority.BATCH, "a", 1));
+            futures.add(
+                submit(
+                    scheduler, order, "a-expensive",
+                    SqlScheduler.Priority.INTERACTIVE, "a", 1000));
+            futures.add(
+                submit(
+                    scheduler, order, "a-cheap",
+                    SqlScheduler.Priority.INTERACTIVE, "a", 10));
+            futures.add(
+                submit(
+                    scheduler, order, "b",
+                    SqlScheduler.Priority.INTERACTIVE, "b", 5000));
+            latch.countDown();
+            assertEquals("blocker", blocker.get(10, TimeUnit.SECONDS));
+            for (Future<String> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(
+                Arrays.asList("a-cheap", "b", "a-expensive", "batch"),
+                order);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Tests that no more than the given number of statements run
+     * concurrently against a data source.
+     */
+    public void testDataSourceLimit() throws Exception {
+        final FairSqlScheduler scheduler = new FairSqlScheduler(4, 2);
+        final Object dataSource = new Object();
+        final Semaphore running = new Semaphore(0);
+        final int[] max = {0};
+        final int[] current = {0};
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(
+                    scheduler.submit(
+                        new SqlScheduler.Request(
+                            locus, SqlScheduler.Priority.INTERACTIVE,
+                            i, dataSource, -1),
+                        new Callable<Void>() {
+                            public Void call() throws Exception {
+                                synchronized (max) {
+                                    ++current[0];
+                                    max[0] = Math.max(max[0], current[0]);
+                                }
+                                Thread.sleep(20);
+                                synchronized (max) {
+                                    --current[0];
+                                }
+                                running.release();
+                                return null;
+                            }
+                        }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(8, running.availablePermits());
+            assertTrue(max[0] <= 2);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a request whose locus has no execution runs, rather than
+     * killing the dispatcher and leaving its caller waiting.
+     */
+    public void testNoExecution() throws Exception {
+        final FairSqlScheduler scheduler = new FairSqlScheduler(1, 0);
+        try {
+            final Locus noExecution = mock(Locus.class);
+            assertNull(noExecution.execution);
+            final Future<String> future =
+                scheduler.submit(
+                    new SqlScheduler.Request(
+                        noExecution, SqlScheduler.Priority.BATCH, null,
+                        null, -1),
+                    new Callable<String>() {
+                        public String call() {
+                            return "done";
+                        }
+                    });
+            assertEquals("done", future.get(10, TimeUnit.SECONDS));
+            final List<String> order =
+                Collections.synchronizedList(new ArrayList<String>());
+            assertEquals(
+                "next",
+                submit(
+                    scheduler, order, "next",
+                    SqlScheduler.Priority.INTERACTIVE, "a", 1)
+                    .get(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private SqlScheduler.Request request(
+        SqlScheduler.Priority priority, Object owner, long cost)
+    {
+        return new SqlScheduler.Request(locus, priority, owner, null, cost);
+    }
+
+    private Future<String> submit(
+        FairSqlScheduler scheduler,
+        final List<String> order,
+        final String name,
+        SqlScheduler.Priority priority,
+        Object owner,
+        long cost)
+    {
+        return scheduler.submit(
+            request(priority, owner, cost),
+            new Callable<String>() {
+                public String call() {
+                    order.add(name);
+                    return name;
+                }
+            });
+    }
+}
+
+// End FairSqlSchedulerTest.java
@@ -1021,6 +1021,66 @@ public class SegmentBuilderTest extends BatchTestCase {
     return new TreeSet<Comparable>(list);
   }
 
+  /**
+   * Tests that patching a segment replaces the cells of its excluded region
+   * with those of a freshly loaded slice, keeps the other cells, and removes
+   * the excluded region.
+   */
+  public void testPatch() {
+      final List<SegmentColumn> columns = asList(
+          new SegmentColumn("day", 3, toSortedSet(1, 2, 3)),
+          new SegmentColumn("store", 3, null));
+      final SegmentHeader header = makeDummySegmentHeader(columns);
+      final SegmentHeader constrained =
+          header.constrain(
+              new SegmentColumn[] {
+                  new SegmentColumn("day", 3, toSortedSet(3))
+              });
+      // (day, store) has value day * 10 + store
+      final double[] values = {10, 11, 20, 21, 30, 31};
+      final SegmentBody body =
+          new DenseDoubleSegmentBody(
+              new BitSet(),
+              values,
+              Arrays.<Pair<SortedSet<Comparable>, Boolean>>asList(
+                  of(toSortedSet(1, 2, 3), false),
+                  of(toSortedSet("a", "b"), false)));
+      // Since the flush, (3, b) has gone and (3, c) has arrived.
+      final Map<CellKey, Object> sliceValues = new HashMap<CellKey, Object>();
+      sliceValues.put(CellKey.Generator.newCellKey(new int[] {0, 0}), 100d);
+      sliceValues.put(CellKey.Generator.newCellKey(new int[] {0, 1}), 300d);
+      final SegmentBody sliceBody =
+          new SparseSegmentBody(
+              sliceValues,
+              Arrays.<Pair<SortedSet<Comparable>, Boolean>>asList(
+                  of(toSortedSet(3), false),
+                  of(toSortedSet("a", "c"), false)));
+
+      final Pair<SegmentHeader, SegmentBody> patched =
+          SegmentBuilder.patch(
+              constrained, body, sliceBody, Dialect.Datatype.Numeric, false);
+      assertEquals(header, patched.left);
+      assertTrue(patched.left.getExcludedRegions().isEmpty());
+
+      final SegmentBody patchedBody = patched.right;
+      final Comparable[] days =
+          patchedBody.getAxisValueSets()[0].toArray(new Comparable[0]);
+      final Comparable[] stores =
+          patchedBody.getAxisValueSets()[1].toArray(new Comparable[0]);
+      assertEquals("[a, b, c]", Arrays.toString(stores));
+      final Map<String, Object> cells = new TreeMap<String, Object>();
+      for (Map.Entry<CellKey, Object> entry
+          : patchedBody.getValueMap().entrySet())
+      {
+          final int[] ordinals = entry.getKey().getOrdinals();
+          cells.put(
+              days[ordinals[0]] + "" + stores[ordinals[1]], entry.getValue());
+      }
+      assertEquals(
+          "{1a=10.0, 1b=11.0, 2a=20.0, 2b=21.0, 3a=100.0, 3c=300.0}",
+          cells.toString());
+  }
+
   public void testRollupWithNonUniqueColumns() {
       Pair<SegmentHeader, SegmentBody> rollup =
           SegmentBuilder.rollup(
@@ -18,16 +18,21 @@ import mondrian.rolap.*;
 import mondrian.server.*;
 import mondrian.server.Statement;
 import mondrian.spi.Dialect;
+import mondrian.test.PerformanceTest;
 import mondrian.test.SqlPattern;
 import mondrian.util.DelegatingInvocationHandler;
 
 import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
+import static org.mockito.Mockito.*;
+
 /**
  * <p>Test for <code>SegmentLoader</code></p>
  *
@@ -75,6 +80,38 @@ public class SegmentLoaderTest extends BatchTestCase {
         cacheMgr = null;
     }
 
+    /**
+     * Tests that the estimated cost of a UNION ALL statement counts the rows
+     * of every load it combines, not only the first.
+     */
+    public void testEstimateUnionCost() {
+        final SegmentLoader.Load small = mockLoad(10, 1);
+        final SegmentLoader.Load large = mockLoad(1000, 2);
+        assertEquals(10, SegmentLoader.estimateCost(small.groupingSets));
+        assertEquals(2000, SegmentLoader.estimateCost(large.groupingSets));
+        assertEquals(
+            2010,
+            SegmentLoader.estimateUnionCost(Arrays.asList(small, large)));
+        assertEquals(
+            -1,
+            SegmentLoader.estimateUnionCost(
+                Arrays.asList(small, mockLoad(-1, 1))));
+    }
+
+    private SegmentLoader.Load mockLoad(long cardinality, int segmentCount) {
+        final RolapStar.Column column = mock(RolapStar.Column.class);
+        when(column.getApproxCardinality()).thenReturn(cardinality);
+        final GroupingSet groupingSet = mock(GroupingSet.class);
+        when(groupingSet.getColumns())
+            .thenReturn(new RolapStar.Column[] {column});
+        when(groupingSet.getPredicates())
+            .thenReturn(new StarColumnPredicate[1]);
+        when(groupingSet.getSegments())
+            .thenReturn(Collections.nCopies(segmentCount, mock(Segment.class)));
+        return new SegmentLoader.Load(
+            1, Collections.singletonList(groupingSet), null);
+    }
+
     public void testRollup() throws Exception {
         for (boolean rollup : new Boolean[] {true, false}) {
             PrintWriter pw = new PrintWriter(System.out);
@@ -637,6 +674,129 @@ public class SegmentLoaderTest extends BatchTestCase {
         }
     }
 
+    /**
+     * Tests the fetch size chosen for segment loads.
+     */
+    public void testGetFetchSize() {
+        final Dialect dialect = mock(Dialect.class);
+        when(dialect.getDatabaseProduct())
+            .thenReturn(Dialect.DatabaseProduct.ORACLE);
+        assertEquals(500, SegmentLoader.getFetchSize(dialect, 3));
+        assertEquals(2000, SegmentLoader.getFetchSize(dialect, 2000));
+        assertEquals(10000, SegmentLoader.getFetchSize(dialect, 1000000));
+        when(dialect.getDatabaseProduct())
+            .thenReturn(Dialect.DatabaseProduct.MYSQL);
+        assertEquals(0, SegmentLoader.getFetchSize(dialect, 2000));
+
+        propSaver.set(propSaver.properties.SegmentFetchSize, 100);
+        assertEquals(100, SegmentLoader.getFetchSize(dialect, 2000));
+        propSaver.set(propSaver.properties.SegmentFetchSize, -1);
+        assertEquals(0, SegmentLoader.getFetchSize(dialect, 2000));
+    }
+
+    /**
+     * Tests that values read into a row list through the typed accessors
+     * match those read as objects, and compares the time taken. Reads 10
+     * million rows if {@link PerformanceTest#LOGGER} is at debug level, 10
+     * thousand otherwise.
+     */
+    public void testTypedFetch() throws SQLException {
+        final int rowCount =
+            PerformanceTest.LOGGER.isDebugEnabled() ? 10000000 : 10000;
+        final List<SqlStatement.Type> types =
+            Arrays.asList(
+                SqlStatement.Type.INT,
+                SqlStatement.Type.LONG,
+                SqlStatement.Type.DOUBLE);
+
+        long start = System.nanoTime();
+        final SegmentLoader.RowList typed = new SegmentLoader.RowList(types);
+        final ResultSet typedResultSet = syntheticResultSet(rowCount);
+        while (typedResultSet.next()) {
+            typed.createRow();
+            for (int i = 0; i < types.size(); i++) {
+                typed.populateFrom(i, typedResultSet, i + 1);
+            }
+        }
+        final long typedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final SegmentLoader.RowList boxed =
+            new SegmentLoader.RowList(
+                Collections.nCopies(types.size(), SqlStatement.Type.OBJECT));
+        final ResultSet boxedResultSet = syntheticResultSet(rowCount);
+        while (boxedResultSet.next()) {
+            boxed.createRow();
+            for (int i = 0; i < types.size(); i++) {
+                boxed.setObject(i, boxedResultSet.getObject(i + 1));
+            }
+        }
+        final long boxedNanos = System.nanoTime() - start;
+        PerformanceTest.LOGGER.debug(
+            "Fetched " + rowCount + " rows: typed " + typedNanos / 1000000
+            + " ms, boxed " + boxedNanos / 1000000 + " ms");
+
+        assertEquals(rowCount, typed.size());
+        assertEquals(rowCount, boxed.size());
+        for (typed.first(), boxed.first(); typed.next();) {
+            assertTrue(boxed.next());
+            for (int i = 0; i < types.size(); i++) {
+                final Object o = boxed.getObject(i);
+                if (o == null) {
+                    assertTrue(typed.isNull(i));
+                } else {
+                    assertFalse(typed.isNull(i));
+                    assertEquals(
+                        ((Number) o).doubleValue(),
+                        ((Number) typed.getObject(i)).doubleValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a result set with columns (INT, BIGINT, DOUBLE) whose values
+     * are computed from the row number; every seventh measure is null.
+     */
+    private static ResultSet syntheticResultSet(final int rowCount) {
+        return (ResultSet) Proxy.newProxyInstance(
+            SegmentLoaderTest.class.getClassLoader(),
+            new Class[] {ResultSet.class},
+            new InvocationHandler() {
+                int row = -1;
+                boolean wasNull;
+
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    final String name = method.getName();
+                    if (name.equals("next")) {
+                        return ++row < rowCount;
+                    }
+                    if (name.equals("wasNull")) {
+                        return wasNull;
+                    }
+                    final int column = (Integer) args[0];
+                    wasNull = column == 3 && row % 7 == 0;
+                    final long value =
+                        column == 1 ? row % 1000 : column == 2 ? row : row * 3;
+                    if (name.equals("getInt")) {
+                        return (int) value;
+                    } else if (name.equals("getLong")) {
+                        return value;
+                    } else if (name.equals("getDouble")) {
+                        return wasNull ? 0d : value / 2d;
+                    } else if (name.equals("getObject")) {
+                        return wasNull
+                            ? null
+                            : column == 1 ? (Object) (int) value
+                            : column == 2 ? (Object) value
+                            : (Object) (value / 2d);
+                    }
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+    }
+
     public void testGetGroupingBitKey() throws SQLException {
         Object[] data = {
             "1997", "Food", "Deli", "M", "6047", 0, 0, 0, 0
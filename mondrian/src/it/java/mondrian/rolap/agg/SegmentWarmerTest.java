@@ -0,0 +1,137 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapSchema;
+import mondrian.rolap.RolapStar;
+import mondrian.spi.SegmentColumn;
+import mondrian.spi.SegmentHeader;
+import mondrian.util.ByteString;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link SegmentWarmer}.
+ */
+public class SegmentWarmerTest extends TestCase {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final ByteString CHECKSUM =
+        new ByteString(new byte[] {1, 2, 3});
+
+    /**
+     * Tests that segments are ranked by how often and how recently they
+     * were loaded, and only those of the star are returned.
+     */
+    public void testTop() {
+        final SegmentWarmer warmer = new SegmentWarmer(null);
+        final long now = 10 * DAY;
+        final SegmentHeader often = header("sales_fact", "Unit Sales");
+        final SegmentHeader recent = header("sales_fact", "Store Sales");
+        final SegmentHeader once = header("sales_fact", "Store Cost");
+        final SegmentHeader other = header("inventory_fact", "Units Ordered");
+
+        // Loaded 4 times two days ago: scores 1.
+        for (int i = 0; i < 4; i++) {
+            warmer.record(often, now - 2 * DAY);
+        }
+        // Loaded twice just now: scores 2.
+        warmer.record(recent, now);
+        warmer.record(recent, now);
+        // Loaded once a day ago: scores 0.5.
+        warmer.record(once, now - DAY);
+        for (int i = 0; i < 10; i++) {
+            warmer.record(other, now);
+        }
+
+        final RolapStar star = star("sales_fact");
+        assertEquals(
+            Arrays.asList(recent, often, once),
+            warmer.top(star, 10, now));
+        assertEquals(
+            Arrays.asList(recent, often),
+            warmer.top(star, 2, now));
+        assertEquals(
+            Collections.singletonList(other),
+            warmer.top(star("inventory_fact"), 10, now));
+    }
+
+    /**
+     * Tests that the record survives being written to a file and read back.
+     */
+    public void testWriteRead() throws Exception {
+        final File file = File.createTempFile("warmup", ".ser");
+        try {
+            final long now = System.currentTimeMillis();
+            final SegmentWarmer warmer = new SegmentWarmer(null);
+            final SegmentHeader a = header("sales_fact", "Unit Sales");
+            final SegmentHeader b = header("sales_fact", "Store Sales");
+            warmer.record(a, now);
+            warmer.record(b, now);
+            warmer.record(b, now);
+            warmer.write(file);
+
+            final SegmentWarmer warmer2 = new SegmentWarmer(file.getPath());
+            assertEquals(
+                Arrays.asList(b, a),
+                warmer2.top(star("sales_fact"), 10, now));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that a missing file yields an empty record.
+     */
+    public void testReadMissingFile() throws Exception {
+        final File file = File.createTempFile("warmup", ".ser");
+        file.delete();
+        final SegmentWarmer warmer = new SegmentWarmer(file.getPath());
+        assertTrue(warmer.top(star("sales_fact"), 10, 0).isEmpty());
+        assertEquals(-1d, warmer.getCoverage());
+    }
+
+    private static SegmentHeader header(String factTable, String measure) {
+        return new SegmentHeader(
+            "FoodMart",
+            CHECKSUM,
+            "Sales",
+            measure,
+            Collections.singletonList(
+                new SegmentColumn("store.store_state", -1, null)),
+            Collections.<String>emptyList(),
+            factTable,
+            BitKey.Factory.makeBitKey(3),
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    private static RolapStar star(String factTable) {
+        final RolapSchema schema = mock(RolapSchema.class);
+        when(schema.getName()).thenReturn("FoodMart");
+        when(schema.getChecksum()).thenReturn(CHECKSUM);
+        final RolapStar.Table table = mock(RolapStar.Table.class);
+        when(table.getAlias()).thenReturn(factTable);
+        final RolapStar star = mock(RolapStar.class);
+        when(star.getSchema()).thenReturn(schema);
+        when(star.getFactTable()).thenReturn(table);
+        return star;
+    }
+}
+
+// End SegmentWarmerTest.java
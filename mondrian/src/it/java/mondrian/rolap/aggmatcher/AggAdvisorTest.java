@@ -0,0 +1,136 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.MondrianDef;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.RolapStatisticsCache;
+import mondrian.test.PropertyRestoringTestCase;
+
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link AggAdvisor}.
+ */
+public class AggAdvisorTest extends PropertyRestoringTestCase {
+    private static final int COLUMN_COUNT = 8;
+    private static final long FACT_ROWS = 1000000;
+
+    private RolapStar star;
+    private AggAdvisor advisor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        star = mock(RolapStar.class);
+        when(star.getColumnCount()).thenReturn(COLUMN_COUNT);
+        // columns 0, 1, 2 have cardinality 10, 1000, 500000; 7 is a measure
+        final long[] cardinalities = {10, 1000, 500000};
+        for (int i = 0; i < cardinalities.length; i++) {
+            final RolapStar.Column column = mock(RolapStar.Column.class);
+            when(column.getApproxCardinality()).thenReturn(cardinalities[i]);
+            when(star.getColumn(i)).thenReturn(column);
+        }
+        final RolapStar.Measure measure = mock(RolapStar.Measure.class);
+        when(measure.getCubeName()).thenReturn("Sales");
+        when(star.getColumn(7)).thenReturn(measure);
+        advisor = spy(new AggAdvisor(star));
+        doReturn(FACT_ROWS).when(advisor).getFactRowCount();
+    }
+
+    /**
+     * Tests that tables are ranked by the time they save per row, and that
+     * time already saved by a better table is not counted again.
+     */
+    public void testRank() {
+        advisor.add(bitKey(0), bitKey(7), 1000000000L);
+        advisor.add(bitKey(0, 1), bitKey(7), 300000000L);
+        advisor.add(bitKey(0, 1), bitKey(7), 200000000L);
+        advisor.add(bitKey(2), bitKey(7), 5000000000L);
+
+        final List<AggAdvisor.Recommendation> recommendations =
+            advisor.recommend(10);
+        assertEquals(3, recommendations.size());
+
+        final AggAdvisor.Recommendation first = recommendations.get(0);
+        assertEquals(1, first.getRank());
+        assertEquals(bitKey(0), first.getLevelBitKey());
+        assertEquals(bitKey(7), first.getMeasureBitKey());
+        assertEquals(10, first.getRowCount());
+        assertEquals("Sales", first.getCubeName());
+        assertEquals("agg_c_1_fact", tableName(first));
+
+        // {0, 1} only gets credit for its own loads, {0} having already
+        // been chosen.
+        final AggAdvisor.Recommendation second = recommendations.get(1);
+        assertEquals(bitKey(0, 1), second.getLevelBitKey());
+        assertEquals(10000, second.getRowCount());
+        assertEquals(495000000L, second.getSavedNanos());
+
+        // {2} saves the most time, but stores the most rows.
+        assertEquals(bitKey(2), recommendations.get(2).getLevelBitKey());
+
+        assertEquals(1, advisor.recommend(1).size());
+        advisor.clear();
+        assertTrue(advisor.recommend(10).isEmpty());
+    }
+
+    /**
+     * Tests that a table as large as the fact table is not recommended.
+     */
+    public void testNoBenefit() {
+        advisor.add(bitKey(1, 2), bitKey(7), 1000000000L);
+        assertTrue(advisor.recommend(10).isEmpty());
+    }
+
+    /**
+     * Tests that loads are only recorded if the property is set.
+     */
+    public void testRecord() {
+        final RolapStar.Table factTable = mock(RolapStar.Table.class);
+        when(star.getFactTable()).thenReturn(factTable);
+        final RolapStatisticsCache statisticsCache =
+            mock(RolapStatisticsCache.class);
+        when(
+            statisticsCache.getRelationCardinality(
+                (MondrianDef.Relation) any(), (String) any(), anyLong()))
+            .thenReturn(FACT_ROWS);
+        when(star.getStatisticsCache()).thenReturn(statisticsCache);
+
+        propSaver.set(propSaver.properties.AggregateAdvisor, false);
+        AggAdvisor.record(star, bitKey(0), bitKey(7), 1000L);
+        assertTrue(AggAdvisor.forStar(star).recommend(10).isEmpty());
+        propSaver.set(propSaver.properties.AggregateAdvisor, true);
+        AggAdvisor.record(star, bitKey(0), bitKey(7), 1000L);
+        assertEquals(1, AggAdvisor.forStar(star).recommend(10).size());
+    }
+
+    private String tableName(AggAdvisor.Recommendation recommendation) {
+        final RolapStar.Table factTable = mock(RolapStar.Table.class);
+        when(factTable.getAlias()).thenReturn("fact");
+        when(star.getFactTable()).thenReturn(factTable);
+        return recommendation.getTableName();
+    }
+
+    private BitKey bitKey(int... bits) {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(COLUMN_COUNT);
+        for (int bit : bits) {
+            bitKey.set(bit);
+        }
+        return bitKey;
+    }
+}
+
+// End AggAdvisorTest.java
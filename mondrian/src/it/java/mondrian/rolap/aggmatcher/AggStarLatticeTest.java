@@ -0,0 +1,158 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.aggmatcher;
+
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.StarColumnPredicate;
+import mondrian.rolap.agg.ValueColumnPredicate;
+import mondrian.test.PropertyRestoringTestCase;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link AggStarLattice}.
+ */
+public class AggStarLatticeTest extends PropertyRestoringTestCase {
+    private static final int COLUMN_COUNT = 8;
+
+    private RolapStar star;
+    private RolapStar.Column column;
+    private AggStarLattice lattice;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        star = mock(RolapStar.class);
+        when(star.getColumnCount()).thenReturn(COLUMN_COUNT);
+        column = mock(RolapStar.Column.class);
+        when(star.getColumn(anyInt())).thenReturn(column);
+        final RolapStar.Table factTable = mock(RolapStar.Table.class);
+        when(factTable.getAlias()).thenReturn("fact");
+        when(star.getFactTable()).thenReturn(factTable);
+        lattice = new AggStarLattice(star);
+    }
+
+    /**
+     * Tests that the smallest non-empty aggregate table that has the
+     * query's columns is chosen, and that the choice is memoized.
+     */
+    public void testSmallest() {
+        // levels 0, 1, 2; measure 7
+        final AggStar big = aggStar("big", 1000, 1000, true, 0, 1, 2, 7);
+        final AggStar small = aggStar("small", 100, 100, true, 0, 1, 7);
+        final AggStar empty = aggStar("empty", 0, 0, true, 0, 7);
+        final AggStar noMeasure = aggStar("noMeasure", 1, 1, true, 0, 1);
+        lattice.add(big);
+        lattice.add(small);
+        lattice.add(empty);
+        lattice.add(noMeasure);
+
+        final boolean[] rollup = {false};
+        assertSame(
+            small,
+            lattice.findAgg(bitKey(0), bitKey(7), null, null, rollup));
+        assertTrue(rollup[0]);
+        assertSame(
+            small,
+            lattice.findAgg(bitKey(0, 1), bitKey(7), null, null, rollup));
+        assertFalse(rollup[0]);
+        assertSame(
+            big,
+            lattice.findAgg(bitKey(0, 2), bitKey(7), null, null, rollup));
+        assertNull(
+            lattice.findAgg(bitKey(3), bitKey(7), null, null, rollup));
+
+        // The second lookup of the same bit keys does not match again.
+        verify(small, times(2)).isFullyCollapsed();
+        lattice.findAgg(bitKey(0, 1), bitKey(7), null, null, rollup);
+        verify(small, times(2)).isFullyCollapsed();
+        lattice.invalidate();
+        lattice.findAgg(bitKey(0, 1), bitKey(7), null, null, rollup);
+        verify(small, times(3)).isFullyCollapsed();
+
+        assertEquals(4, lattice.getAggStars().size());
+        lattice.clear();
+        assertNull(
+            lattice.findAgg(bitKey(0, 1), bitKey(7), null, null, rollup));
+    }
+
+    /**
+     * Tests that, when choosing by cost, an aggregate table that must be
+     * rolled up loses to a slightly larger one that need not, unless the
+     * query's predicates are selective.
+     */
+    public void testCost() {
+        propSaver.set(propSaver.properties.ChooseAggregateByCost, true);
+        final AggStar exact = aggStar("exact", 1000, 1000, true, 0, 7);
+        final AggStar detailed = aggStar("detailed", 900, 900, true, 0, 1, 7);
+        lattice.add(exact);
+        lattice.add(detailed);
+
+        final boolean[] rollup = {false};
+        assertSame(
+            exact,
+            lattice.findAgg(bitKey(0), bitKey(7), null, null, rollup));
+        assertFalse(rollup[0]);
+
+        when(column.getApproxCardinality()).thenReturn(100L);
+        assertSame(
+            detailed,
+            lattice.findAgg(
+                bitKey(0),
+                bitKey(7),
+                new RolapStar.Column[] {column},
+                new StarColumnPredicate[] {mock(ValueColumnPredicate.class)},
+                rollup));
+        assertTrue(rollup[0]);
+
+        propSaver.set(propSaver.properties.ChooseAggregateByCost, false);
+        assertSame(
+            detailed,
+            lattice.findAgg(bitKey(0), bitKey(7), null, null, rollup));
+    }
+
+    private BitKey bitKey(int... bits) {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(COLUMN_COUNT);
+        for (int bit : bits) {
+            bitKey.set(bit);
+        }
+        return bitKey;
+    }
+
+    private AggStar aggStar(
+        String name,
+        long size,
+        long rowCount,
+        boolean collapsed,
+        int... bits)
+    {
+        final AggStar aggStar = mock(AggStar.class);
+        final BitKey bitKey = bitKey(bits);
+        final BitKey measureBitKey = bitKey(7).and(bitKey);
+        when(aggStar.getBitKey()).thenReturn(bitKey);
+        when(aggStar.getLevelBitKey())
+            .thenReturn(bitKey.andNot(measureBitKey));
+        when(aggStar.getMeasureBitKey()).thenReturn(measureBitKey);
+        when(aggStar.getDistinctMeasureBitKey()).thenReturn(bitKey());
+        when(aggStar.superSetMatch(any(BitKey.class))).thenCallRealMethod();
+        when(aggStar.isFullyCollapsed()).thenReturn(collapsed);
+        when(aggStar.getSize()).thenReturn(size);
+        final AggStar.FactTable factTable = mock(AggStar.FactTable.class);
+        when(factTable.getName()).thenReturn(name);
+        when(factTable.getNumberOfRows()).thenReturn(rowCount);
+        when(aggStar.getFactTable()).thenReturn(factTable);
+        return aggStar;
+    }
+}
+
+// End AggStarLatticeTest.java
@@ -0,0 +1,81 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.cache;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link ConcurrentSmartCache}.
+ */
+public class ConcurrentSmartCacheTest extends TestCase {
+    public void testPutGetRemove() {
+        final SmartCache<String, String> cache =
+            new ConcurrentSmartCache<String, String>(0);
+        assertNull(cache.put("a", "1"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", cache.put("a", "2"));
+        assertEquals(1, cache.size());
+        // Putting null is the same as removing.
+        assertEquals("2", cache.put("a", null));
+        assertNull(cache.get("a"));
+        cache.put("b", "3");
+        assertEquals("3", cache.remove("b"));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that a list weighs one plus its size, and that the cache evicts
+     * entries once the total weight exceeds the maximum.
+     */
+    public void testWeightedEviction() {
+        final SmartCache<Integer, List<Integer>> cache =
+            new ConcurrentSmartCache<Integer, List<Integer>>(100);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, Arrays.asList(i, i, i, i));
+        }
+        // Each entry weighs 5, so at most 20 of them fit.
+        assertTrue(cache.size() <= 20);
+        assertNotNull(cache.get(99));
+    }
+
+    public void testExecute() {
+        final SmartCache<Integer, String> cache =
+            new ConcurrentSmartCache<Integer, String>(0);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, String.valueOf(i));
+        }
+        cache.execute(
+            new SmartCache.SmartCacheTask<Integer, String>() {
+                public void execute(
+                    Iterator<Map.Entry<Integer, String>> iterator)
+                {
+                    while (iterator.hasNext()) {
+                        final Map.Entry<Integer, String> entry =
+                            iterator.next();
+                        if (entry.getKey() % 2 == 0) {
+                            iterator.remove();
+                        } else {
+                            entry.setValue("x" + entry.getValue());
+                        }
+                    }
+                }
+            });
+        assertEquals(5, cache.size());
+        assertNull(cache.get(4));
+        assertEquals("x5", cache.get(5));
+    }
+}
+
+// End ConcurrentSmartCacheTest.java
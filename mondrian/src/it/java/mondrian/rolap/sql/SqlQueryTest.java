@@ -19,12 +19,18 @@ import mondrian.spi.impl.*;
 import mondrian.test.SqlPattern;
 import mondrian.test.TestContext;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.*;
 
 import static mondrian.spi.Dialect.DatabaseProduct.MYSQL;
 import static mondrian.spi.Dialect.DatabaseProduct.POSTGRESQL;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -806,6 +812,186 @@ public class SqlQueryTest extends BatchTestCase {
             new SqlPattern(Dialect.DatabaseProduct.MYSQL, sql, sql.length());
         assertQuerySql(context, mdx, new SqlPattern[]{mySqlPattern});
     }
+
+    /**
+     * Tests that a parameterized query replaces string and numeric values by
+     * parameters, in the order that they occur in the SQL, and inlines
+     * values of other datatypes.
+     */
+    public void testParameterizedSql() {
+        final Dialect dialect = getTestContext().getDialect();
+        for (boolean parameterized : new boolean[] {false, true}) {
+            final SqlQuery sqlQuery = new SqlQuery(dialect, false);
+            sqlQuery.setParameterized(parameterized);
+            sqlQuery.addSelect("c1", null);
+            sqlQuery.addFromTable("s", "t1", "t1alias", null, null, true);
+            final StringBuilder buf = new StringBuilder("c2 = ");
+            sqlQuery.quote(buf, "CA", Dialect.Datatype.String);
+            sqlQuery.addWhere(buf.toString());
+            buf.setLength(0);
+            buf.append("c3 = ");
+            sqlQuery.quote(buf, 1997, Dialect.Datatype.Integer);
+            sqlQuery.addWhere(buf.toString());
+            buf.setLength(0);
+            buf.append("c4 = ");
+            sqlQuery.quote(buf, "1997-01-01", Dialect.Datatype.Date);
+            sqlQuery.addWhere(buf.toString());
+
+            final StringBuilder dateBuf = new StringBuilder("c4 = ");
+            dialect.quote(dateBuf, "1997-01-01", Dialect.Datatype.Date);
+            final ParameterizedSql parameterizedSql =
+                ParameterizedSql.parse(sqlQuery.toString());
+            if (!parameterized) {
+                assertNull(parameterizedSql);
+                continue;
+            }
+            assertNotNull(parameterizedSql);
+            final String sql = parameterizedSql.getSql();
+            assertTrue(sql, sql.contains("c2 = ?"));
+            assertTrue(sql, sql.contains("c3 = ?"));
+            assertTrue(sql, sql.contains(dateBuf));
+            assertEquals(
+                Arrays.<Object>asList("CA", 1997L),
+                parameterizedSql.getParameterValues());
+        }
+    }
+
+    /**
+     * Tests that a parameterized query binds a list of values as one array
+     * parameter if its dialect can.
+     */
+    public void testParameterizedSqlArray() {
+        final Dialect dialect = spy(getTestContext().getDialect());
+        when(dialect.getArrayParameterTypeName(Dialect.Datatype.Integer))
+            .thenReturn("int8");
+        when(dialect.getArrayParameterTypeName(Dialect.Datatype.Date))
+            .thenReturn(null);
+        final SqlQuery sqlQuery = new SqlQuery(dialect, false);
+        final StringBuilder buf = new StringBuilder();
+        assertFalse(
+            sqlQuery.quoteArray(
+                buf, "x", Arrays.asList(1, 2, 3), Dialect.Datatype.Integer));
+        assertEquals(0, buf.length());
+
+        sqlQuery.setParameterized(true);
+        assertTrue(
+            sqlQuery.quoteArray(
+                buf, "x", Arrays.asList(1, 2, 3), Dialect.Datatype.Integer));
+        final ParameterizedSql parameterizedSql =
+            ParameterizedSql.parse(buf.toString());
+        assertEquals("x = ANY (?)", parameterizedSql.getSql());
+        assertEquals(
+            Collections.singletonList(Arrays.asList(1L, 2L, 3L)),
+            parameterizedSql.getParameterValues());
+
+        buf.setLength(0);
+        assertFalse(
+            sqlQuery.quoteArray(
+                buf,
+                "x",
+                Arrays.asList("1997-01-01", "1997-01-02"),
+                Dialect.Datatype.Date));
+        assertEquals(0, buf.length());
+    }
+
+    /**
+     * Tests that, in PostgreSQL, a string value is bound with an unspecified
+     * type, and a list of strings is not bound as a varchar array. The
+     * value may be the key of a level whose type defaults to String but
+     * whose column is an integer; PostgreSQL rejects
+     * <code>integer = character varying</code>.
+     */
+    public void testParameterizedSqlPostgreSql() throws SQLException {
+        final Connection connection = mock(Connection.class);
+        final DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(metaData.getDatabaseProductName())
+            .thenReturn(Dialect.DatabaseProduct.POSTGRESQL.name());
+        when(connection.getMetaData()).thenReturn(metaData);
+        final Dialect dialect = new PostgreSqlDialect(connection);
+        final SqlQuery sqlQuery = new SqlQuery(dialect, false);
+        sqlQuery.setParameterized(true);
+
+        final StringBuilder buf = new StringBuilder("\"store_id\" = ");
+        sqlQuery.quote(buf, "123", Dialect.Datatype.String);
+        buf.append(" and \"unit_sales\" = ");
+        sqlQuery.quote(buf, 5, Dialect.Datatype.Integer);
+        final ParameterizedSql parameterizedSql =
+            ParameterizedSql.parse(buf.toString());
+        assertEquals(
+            "\"store_id\" = ? and \"unit_sales\" = ?",
+            parameterizedSql.getSql());
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        parameterizedSql.bind(statement);
+        verify(statement).setObject(1, "123", Types.OTHER);
+        verify(statement).setObject(2, 5L);
+
+        buf.setLength(0);
+        assertFalse(
+            sqlQuery.quoteArray(
+                buf,
+                "\"store_id\"",
+                Arrays.asList("1", "2"),
+                Dialect.Datatype.String));
+        assertEquals(0, buf.length());
+        assertTrue(
+            sqlQuery.quoteArray(
+                buf,
+                "\"store_id\"",
+                Arrays.asList(1, 2),
+                Dialect.Datatype.Integer));
+    }
+
+    /**
+     * Tests that parameterized SQL works for a level whose type is String
+     * but whose key column is an integer.
+     */
+    public void testParameterizedSqlStringKeyOfIntegerColumn() {
+        final TestContext testContext =
+            getTestContext().createSubstitutingCube(
+                "Sales",
+                "  <Dimension name=\"Store Id\" foreignKey=\"store_id\">\n"
+                + "    <Hierarchy hasAll=\"true\" primaryKey=\"store_id\">\n"
+                + "      <Table name=\"store\"/>\n"
+                + "      <Level name=\"Store Id\" column=\"store_id\""
+                + " type=\"String\" uniqueMembers=\"true\"/>\n"
+                + "    </Hierarchy>\n"
+                + "  </Dimension>\n");
+        final String mdx =
+            "select [Measures].[Unit Sales] on 0,\n"
+            + " {[Store Id].[2], [Store Id].[3], [Store Id].[6]} on 1\n"
+            + "from [Sales]";
+        final String expected =
+            TestContext.toString(testContext.executeQuery(mdx));
+
+        propSaver.set(prop.GenerateParameterizedSql, true);
+        testContext.flushSchemaCache();
+        assertEquals(
+            expected,
+            TestContext.toString(
+                testContext.withFreshConnection().executeQuery(mdx)));
+    }
+
+    /**
+     * Tests that a query whose segments and members are read by
+     * parameterized SQL returns the same result as one that inlines values.
+     */
+    public void testParameterizedSqlResult() {
+        final String mdx =
+            "select {[Measures].[Unit Sales], [Measures].[Store Sales]} on 0,\n"
+            + " {[Store].[USA].[CA].Children, [Store].[USA].[OR].Children,\n"
+            + "  [Store].[Mexico].[Zacatecas].Children} on 1\n"
+            + "from [Sales]\n"
+            + "where ([Time].[1997].[Q1], [Gender].[F])";
+        final String expected =
+            TestContext.toString(getTestContext().executeQuery(mdx));
+
+        propSaver.set(prop.GenerateParameterizedSql, true);
+        getTestContext().flushSchemaCache();
+        final TestContext testContext = getTestContext().withFreshConnection();
+        assertEquals(
+            expected,
+            TestContext.toString(testContext.executeQuery(mdx)));
+    }
 }
 
 // End SqlQueryTest.java
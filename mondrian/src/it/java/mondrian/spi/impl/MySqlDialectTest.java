@@ -116,5 +116,20 @@ public class MySqlDialectTest extends TestCase {
     }
   }
 
+  public void testGenerateLimitOffset() {
+    assertTrue(dialect.supportsLimitOffset());
+    dialect.generateLimitOffset(buf, 100, 20);
+    assertEquals(" LIMIT 20 OFFSET 100", buf.toString());
+
+    buf.setLength(0);
+    dialect.generateLimitOffset(buf, 0, 20);
+    assertEquals(" LIMIT 20", buf.toString());
+
+    // MySQL does not allow OFFSET without LIMIT.
+    buf.setLength(0);
+    dialect.generateLimitOffset(buf, 100, 0);
+    assertEquals(" LIMIT 100, 18446744073709551615", buf.toString());
+  }
+
 }
 // End MySqlDialectTest.java
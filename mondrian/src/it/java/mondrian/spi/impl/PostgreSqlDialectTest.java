@@ -54,5 +54,20 @@ public class PostgreSqlDialectTest extends TestCase {
     assertEquals( "cast(table.column as text) is not null and cast(table.column as text) ~ '.*a.*'", sql );
   }
 
+  public void testGenerateLimitOffset() {
+    assertTrue( dialect.supportsLimitOffset() );
+    StringBuilder buf = new StringBuilder( "select * from t" );
+    dialect.generateLimitOffset( buf, 100, 20 );
+    assertEquals( "select * from t LIMIT 20 OFFSET 100", buf.toString() );
+
+    buf = new StringBuilder();
+    dialect.generateLimitOffset( buf, 0, 20 );
+    assertEquals( " LIMIT 20", buf.toString() );
+
+    buf = new StringBuilder();
+    dialect.generateLimitOffset( buf, 100, 0 );
+    assertEquals( " OFFSET 100", buf.toString() );
+  }
+
 }
 //End PostgreSqlDialectTest.java
@@ -582,6 +582,28 @@ public class AccessControlTest extends FoodMartTestCase {
             + "[Store].[USA].[CA].[San Francisco].[Store 14]");
     }
 
+    /**
+     * Tests that restricting the members of a level in SQL to those that the
+     * role may see gives the same members as filtering them afterwards.
+     */
+    public void testGrantHierarchyPushMemberAccessToSql() {
+        propSaver.set(propSaver.properties.PushMemberAccessToSql, true);
+        testGrantHierarchy1a();
+        testGrantHierarchy2();
+        testGrantHierarchy5();
+        final TestContext testContext = getRestrictedTestContext();
+        testContext.assertAxisReturns(
+            "[Store].[Store City].members",
+            "[Store].[Mexico].[Guerrero].[Acapulco]\n"
+            + "[Store].[Mexico].[Jalisco].[Guadalajara]\n"
+            + "[Store].[Mexico].[Veracruz].[Orizaba]\n"
+            + "[Store].[Mexico].[Yucatan].[Merida]\n"
+            + "[Store].[Mexico].[Zacatecas].[Camacho]\n"
+            + "[Store].[Mexico].[Zacatecas].[Hidalgo]\n"
+            + "[Store].[USA].[CA].[Los Angeles]\n"
+            + "[Store].[USA].[CA].[San Francisco]");
+    }
+
     public void testGrantHierarchy6() {
         // assert: parent if at top level is null
         getRestrictedTestContext().assertAxisReturns(
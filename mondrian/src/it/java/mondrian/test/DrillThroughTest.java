@@ -21,8 +21,10 @@ import org.olap4j.OlapConnection;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.sql.DataSource;
@@ -1330,6 +1332,18 @@ public class DrillThroughTest extends FoodMartTestCase {
         assertMaxRows("firstrowset 30", 0);
     }
 
+    /**
+     * Tests a page of drill-through rows in the middle of the result. If the
+     * dialect supports it, the range is applied in SQL; the maximum still
+     * counts the skipped rows.
+     */
+    public void testDrillthroughPage() throws SQLException {
+        assertMaxRows("maxrows 15 firstrowset 5", 10);
+        assertMaxRows("maxrows 29 firstrowset 28", 1);
+        assertMaxRows("maxrows 5 firstrowset 5", 0);
+        assertMaxRows("maxrows 5 firstrowset 10", 0);
+    }
+
     private void assertMaxRows(String firstMaxRow, int expectedCount)
         throws SQLException
     {
@@ -1440,6 +1454,38 @@ public class DrillThroughTest extends FoodMartTestCase {
         assertEquals(86837, cell.getDrillThroughCount());
     }
 
+    /**
+     * Tests that the drill-through count of a cell is computed once per
+     * result, however often it is asked for.
+     */
+    public void testDrillThroughCountCached() {
+        Result result = executeQuery(
+            "SELECT [Measures].[Unit Sales] on 0\n"
+            + "from Sales");
+        final Cell cell = result.getCell(new int[]{0});
+        final List<String> countQueries = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    if (sql.contains("count(*)")) {
+                        synchronized (countQueries) {
+                            countQueries.add(sql);
+                        }
+                    }
+                }
+            });
+        try {
+            assertEquals(86837, cell.getDrillThroughCount());
+            assertEquals(86837, cell.getDrillThroughCount());
+            assertEquals(
+                86837,
+                result.getCell(new int[]{0}).getDrillThroughCount());
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        assertEquals(countQueries.toString(), 1, countQueries.size());
+    }
+
     /**
      * Test case for bug <a href="http://jira.pentaho.com/browse/MONDRIAN-751">
      * MONDRIAN-751, "Drill SQL does not include slicer members in WHERE
@@ -156,6 +156,47 @@ public class MonitorTest extends FoodMartTestCase {
         // sort
         // (other expensive operations similar to sort?)
     }
+
+    /**
+     * Tests that the monitor shows the aggregate tables that
+     * {@link mondrian.rolap.aggmatcher.AggAdvisor} recommends for the
+     * segment loads of queries.
+     */
+    public void testAggregateRecommendations() {
+        propSaver.set(propSaver.properties.AggregateAdvisor, true);
+        propSaver.set(propSaver.properties.AggregateAdvisorMaxTables, 1);
+        final TestContext context = getTestContext().withFreshConnection();
+        context.flushSchemaCache();
+        context.executeQuery(
+            "select [Time].[1997].Children on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]");
+
+        final Monitor monitor =
+            MondrianServer.forConnection(context.getConnection())
+                .getMonitor();
+        AggregateRecommendationInfo sales = null;
+        for (AggregateRecommendationInfo info
+            : monitor.getAggregateRecommendations())
+        {
+            // At most one table is recommended per star.
+            assertEquals(1, info.rank);
+            if (info.factTable.equals("sales_fact_1997")
+                && info.cubeName.equals("Sales"))
+            {
+                sales = info;
+            }
+        }
+        assertNotNull(sales);
+        println(sales.createTableDdl);
+        assertEquals("agg_c_1_sales_fact_1997", sales.tableName);
+        assertTrue(sales.rowCount > 0);
+        assertNotNull(sales.createTableDdl);
+        assertTrue(
+            sales.createTableDdl, sales.createTableDdl.contains(sales.tableName));
+        assertNotNull(sales.insertDdl);
+        assertTrue(sales.aggName, sales.aggName.contains(sales.tableName));
+    }
 }
 
 // End MonitorTest.java
@@ -13,7 +13,9 @@
 
 package mondrian.test;
 
+import mondrian.calc.TupleCursor;
 import mondrian.olap.*;
+import mondrian.olap4j.CellSetColumns;
 import mondrian.xmla.XmlaHandler;
 
 import org.olap4j.*;
@@ -694,6 +696,90 @@ public class Olap4jTest extends FoodMartTestCase {
                                         .getSegmentList())
                         .isVisible());
     }
+
+    /**
+     * Tests that {@link CellSetColumns} returns the same values and positions
+     * as the cells and axes of a cell set.
+     */
+    public void testCellSetColumns() throws SQLException {
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        final CellSet cellSet =
+            connection.createStatement().executeOlapQuery(
+                "with member [Measures].[Name] as"
+                + " '[Store].CurrentMember.Name'\n"
+                + "select {[Measures].[Unit Sales], [Measures].[Store Sales],"
+                + " [Measures].[Name]} on columns,\n"
+                + " {[Store].[Store Country].Members} on rows\n"
+                + "from [Sales]");
+        assertTrue(cellSet.isWrapperFor(CellSetColumns.class));
+        final CellSetColumns columns = cellSet.unwrap(CellSetColumns.class);
+        assertEquals(9, columns.getCellCount());
+        assertColumnsMatchCells(cellSet, columns);
+        // Canada, the first row, has no sales; its name is not numeric.
+        assertTrue(columns.getNulls().get(0));
+        assertTrue(columns.getNonNumerics().get(2));
+
+        final TupleCursor cursor = columns.getPositionCursor(1);
+        int n = 0;
+        while (cursor.forward()) {
+            assertEquals(
+                cellSet.getAxes().get(1).getPositions().get(n).getMembers()
+                    .get(0).getUniqueName(),
+                cursor.member(0).getUniqueName());
+            ++n;
+        }
+        assertEquals(3, n);
+        cellSet.close();
+    }
+
+    /**
+     * Tests that {@link CellSetColumns} matches the cells of a cell set with
+     * three axes, whose cell coordinates are decoded from the keys under
+     * which the result stores its cells.
+     */
+    public void testCellSetColumnsThreeAxes() throws SQLException {
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        final CellSet cellSet =
+            connection.createStatement().executeOlapQuery(
+                "select {[Measures].[Unit Sales], [Measures].[Store Cost]}"
+                + " on columns,\n"
+                + " {[Store].[Store Country].Members} on rows,\n"
+                + " {[Gender].Members} on pages\n"
+                + "from [Sales]");
+        final CellSetColumns columns = cellSet.unwrap(CellSetColumns.class);
+        assertEquals(18, columns.getCellCount());
+        assertColumnsMatchCells(cellSet, columns);
+        cellSet.close();
+    }
+
+    private void assertColumnsMatchCells(
+        CellSet cellSet,
+        CellSetColumns columns)
+    {
+        final double[] values = columns.getValues();
+        for (int i = 0; i < columns.getCellCount(); i++) {
+            final Cell cell = cellSet.getCell(i);
+            final int formatStringId = columns.getFormatStringIds()[i];
+            assertEquals(
+                cell.getPropertyValue(
+                    Property.StandardCellProperty.FORMAT_STRING),
+                formatStringId < 0
+                    ? null
+                    : columns.getFormatStrings().get(formatStringId));
+            assertEquals(cell.isNull(), columns.getNulls().get(i));
+            if (cell.isNull()) {
+                assertTrue(Double.isNaN(values[i]));
+            } else if (cell.getValue() instanceof Number) {
+                assertEquals(cell.getDoubleValue(), values[i], 0d);
+                assertFalse(columns.getNonNumerics().get(i));
+            } else {
+                assertTrue(columns.getNonNumerics().get(i));
+                assertEquals(cell.getValue(), columns.getValue(i));
+            }
+        }
+    }
 }
 
 // End Olap4jTest.java
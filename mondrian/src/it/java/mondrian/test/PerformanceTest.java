@@ -571,6 +571,93 @@ public class PerformanceTest extends FoodMartTestCase {
         + "1,184,028" );
   }
 
+  /**
+   * Compares the time taken to evaluate arithmetic calculated members with
+   * and without {@link mondrian.olap.MondrianProperties#CompileNumericCalcs}.
+   * The cells come from the cache after the first iteration, so the time is
+   * mostly spent evaluating the calculated members.
+   */
+  public void testCompiledNumericCalcs() {
+    if ( !LOGGER.isDebugEnabled() ) {
+      return;
+    }
+    final String mdx =
+      "with member [Measures].[Margin] as\n"
+        + "  IIf([Measures].[Store Sales] > 0,\n"
+        + "    ([Measures].[Store Sales] - [Measures].[Store Cost])\n"
+        + "      / [Measures].[Store Sales],\n"
+        + "    0) * 100\n"
+        + "member [Measures].[Adjusted] as\n"
+        + "  CoalesceEmpty([Measures].[Sales Count], 0) * 2\n"
+        + "    + -[Measures].[Unit Sales] / 3\n"
+        + "select {[Measures].[Margin], [Measures].[Adjusted]} on 0,\n"
+        + "  [Product].[Product Name].Members * [Gender].[Gender].Members on 1\n"
+        + "from [Sales]";
+    String expected = null;
+    for ( boolean compile : new boolean[] {false, true} ) {
+      propSaver.set( propSaver.properties.CompileNumericCalcs, compile );
+      final Statistician statistician =
+        new Statistician(
+          "testCompiledNumericCalcs: "
+            + ( compile ? "compiled" : "interpreted" ) );
+      for ( int i = 0; i < 10; i++ ) {
+        final long start = System.currentTimeMillis();
+        final String actual = TestContext.toString( executeQuery( mdx ) );
+        statistician.record( start );
+        if ( expected == null ) {
+          expected = actual;
+        } else {
+          assertEquals( expected, actual );
+        }
+      }
+      statistician.printDurations();
+    }
+  }
+
+  /**
+   * Compares the time taken to evaluate arithmetic calculated measures with
+   * and without {@link mondrian.olap.MondrianProperties#BatchCalculatedMeasures}.
+   * The cells come from the cache after the first iteration, so the time is
+   * mostly spent evaluating the calculated measures.
+   */
+  public void testBatchCalculatedMeasures() {
+    if ( !LOGGER.isDebugEnabled() ) {
+      return;
+    }
+    final String mdx =
+      "with member [Measures].[Price] as\n"
+        + "  [Measures].[Store Sales] / [Measures].[Unit Sales]\n"
+        + "member [Measures].[Margin] as\n"
+        + "  ([Measures].[Store Sales] - [Measures].[Store Cost]) * 100\n"
+        + "    / [Measures].[Store Sales]\n"
+        + "member [Measures].[Growth] as\n"
+        + "  ([Time].[1998], [Measures].[Unit Sales])\n"
+        + "    / ([Time].[1997], [Measures].[Unit Sales]) - 1\n"
+        + "select {[Measures].[Price], [Measures].[Margin],\n"
+        + "  [Measures].[Growth]} on 0,\n"
+        + "  [Product].[Product Name].Members * [Gender].[Gender].Members on 1\n"
+        + "from [Sales]";
+    String expected = null;
+    for ( boolean batch : new boolean[] {false, true} ) {
+      propSaver.set( propSaver.properties.BatchCalculatedMeasures, batch );
+      final Statistician statistician =
+        new Statistician(
+          "testBatchCalculatedMeasures: "
+            + ( batch ? "batched" : "per cell" ) );
+      for ( int i = 0; i < 10; i++ ) {
+        final long start = System.currentTimeMillis();
+        final String actual = TestContext.toString( executeQuery( mdx ) );
+        statistician.record( start );
+        if ( expected == null ) {
+          expected = actual;
+        } else {
+          assertEquals( expected, actual );
+        }
+      }
+      statistician.printDurations();
+    }
+  }
+
   private static long printDuration( String desc, long t0 ) {
     final long t1 = System.currentTimeMillis();
     final long duration = t1 - t0;
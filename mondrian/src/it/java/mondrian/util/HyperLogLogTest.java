@@ -0,0 +1,165 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.util;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Unit test for {@link HyperLogLog}.
+ */
+public class HyperLogLogTest extends TestCase {
+    /**
+     * Tests that small counts are nearly exact.
+     */
+    public void testSmall() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        assertEquals(0, sketch.cardinality());
+        for (int i = 0; i < 100; i++) {
+            sketch.add(i);
+            sketch.add(i);
+        }
+        sketch.add(null);
+        final long count = sketch.cardinality();
+        assertTrue(String.valueOf(count), count >= 99 && count <= 102);
+        assertEquals(count, sketch.intValue());
+        assertEquals((double) count, sketch.doubleValue());
+        assertEquals(String.valueOf(count), sketch.toString());
+    }
+
+    /**
+     * Tests that large counts are within 3 standard errors.
+     */
+    public void testLarge() {
+        for (int precision : new int[] {8, 12, 14}) {
+            final HyperLogLog sketch = new HyperLogLog(precision);
+            final int n = 200000;
+            for (int i = 0; i < n; i++) {
+                sketch.add("key" + i);
+            }
+            assertWithinError(n, sketch);
+        }
+    }
+
+    /**
+     * Tests that the merge of two sketches equals the sketch of the union
+     * of their streams.
+     */
+    public void testMerge() {
+        final HyperLogLog a = new HyperLogLog(12);
+        final HyperLogLog b = new HyperLogLog(12);
+        final HyperLogLog all = new HyperLogLog(12);
+        for (int i = 0; i < 30000; i++) {
+            a.add(i);
+            all.add(i);
+        }
+        for (int i = 20000; i < 50000; i++) {
+            b.add(i);
+            all.add(i);
+        }
+        final HyperLogLog union = HyperLogLog.union(Arrays.asList(a, b));
+        assertEquals(all, union);
+        assertWithinError(50000, union);
+
+        // union did not modify its arguments
+        assertWithinError(30000, a);
+        a.merge(b);
+        assertEquals(all, a);
+    }
+
+    /**
+     * Tests that merging a sketch of higher precision gives the same result
+     * as building the sketch at the lower precision.
+     */
+    public void testFold() {
+        final HyperLogLog low = new HyperLogLog(10);
+        final HyperLogLog high = new HyperLogLog(14);
+        for (int i = 0; i < 10000; i++) {
+            low.add(i);
+            high.add(i);
+        }
+        final HyperLogLog union = HyperLogLog.union(Arrays.asList(high, low));
+        assertEquals(10, union.getPrecision());
+        assertEquals(low, union);
+
+        final HyperLogLog folded = new HyperLogLog(10);
+        folded.merge(high);
+        assertEquals(low, folded);
+        try {
+            high.merge(low);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    /**
+     * Tests serialization to and from bytes.
+     */
+    public void testBytes() {
+        final HyperLogLog sketch = new HyperLogLog(6);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(i);
+        }
+        final byte[] bytes = sketch.toBytes();
+        assertEquals(4 + 1 + 64, bytes.length);
+        final HyperLogLog sketch2 = HyperLogLog.fromBytes(bytes);
+        assertEquals(sketch, sketch2);
+        assertEquals(sketch.cardinality(), sketch2.cardinality());
+
+        assertNull(HyperLogLog.fromBytes(new byte[0]));
+        assertNull(HyperLogLog.fromBytes("HLL".getBytes()));
+        assertNull(HyperLogLog.fromBytes(Arrays.copyOf(bytes, 20)));
+        assertNull(
+            HyperLogLog.fromBytes("not a sketch at all".getBytes()));
+    }
+
+    /**
+     * Tests that a key hashes the same whatever numeric type it has.
+     */
+    public void testNumericKeys() {
+        final long hash = HyperLogLog.hash(42);
+        assertEquals(hash, HyperLogLog.hash(42L));
+        assertEquals(hash, HyperLogLog.hash((short) 42));
+        assertEquals(hash, HyperLogLog.hash(42d));
+        assertEquals(hash, HyperLogLog.hash(new BigDecimal("42")));
+        assertEquals(hash, HyperLogLog.hash(new BigDecimal("42.00")));
+        assertFalse(hash == HyperLogLog.hash(43));
+        assertEquals(
+            HyperLogLog.hash(new BigDecimal("1.5")),
+            HyperLogLog.hash(new BigDecimal("1.50")));
+    }
+
+    public void testPrecision() {
+        try {
+            new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        assertEquals(0.01625d, HyperLogLog.standardError(12), 0.00001d);
+    }
+
+    private static void assertWithinError(long expected, HyperLogLog sketch) {
+        final double error =
+            3 * HyperLogLog.standardError(sketch.getPrecision()) * expected;
+        final long actual = sketch.cardinality();
+        assertTrue(
+            "expected " + expected + " +/- " + error + ", got " + actual,
+            Math.abs(actual - expected) <= error);
+    }
+}
+
+// End HyperLogLogTest.java
@@ -14,6 +14,7 @@
 package mondrian.calc.impl;
 
 import mondrian.calc.*;
+import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.type.*;
 
@@ -39,6 +40,25 @@ public class BetterExpCompiler extends AbstractExpCompiler {
         super(evaluator, validator, resultStyles);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If {@link MondrianProperties#CompileNumericCalcs} is set, compiles
+     * arithmetic expressions using {@link NumericCalcCompiler}.
+     */
+    public Calc compile(Exp exp) {
+        if (exp instanceof ResolvedFunCall
+            && MondrianProperties.instance().CompileNumericCalcs.get())
+        {
+            final Calc calc =
+                NumericCalcCompiler.compile((ResolvedFunCall) exp, this);
+            if (calc != null) {
+                return calc;
+            }
+        }
+        return super.compile(exp);
+    }
+
     public TupleCalc compileTuple(Exp exp) {
         final Calc calc = compile(exp);
         final Type type = exp.getType();
@@ -0,0 +1,456 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.olap.fun.FunUtil;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles a numeric expression built from arithmetic operators into a
+ * single {@link DoubleCalc}, whose value is computed by a chain of method
+ * handles rather than by a tree of calculations.
+ *
+ * <p>The following are compiled into the chain: the operators <code>+</code>,
+ * <code>-</code> (binary and unary), <code>*</code>, <code>/</code> and
+ * parentheses; numeric comparisons; and numeric <code>IIf</code> and
+ * <code>CoalesceEmpty</code>. Any other expression beneath them, such as a
+ * member reference or an aggregate function, is compiled by the
+ * {@link ExpCompiler} as usual, and the chain calls the resulting
+ * calculation. Values pass between the operators as unboxed doubles, with
+ * {@link FunUtil#DoubleNull} representing null, and each operator treats
+ * null exactly as the calculation built by its function definition does.
+ *
+ * <p>Only an expression whose outermost operator is arithmetic is compiled,
+ * so that the compiled calculation returns values of the same type as the
+ * one it replaces. The chain is built by {@link #compile}, which returns
+ * null if it cannot compile the expression; the caller then compiles it as
+ * usual.
+ *
+ * @see MondrianProperties#CompileNumericCalcs
+ */
+public final class NumericCalcCompiler {
+    private static final Logger LOGGER =
+        LogManager.getLogger(NumericCalcCompiler.class);
+
+    private static final MethodType DOUBLE_TYPE =
+        MethodType.methodType(double.class, Evaluator.class);
+    private static final MethodType BOOLEAN_TYPE =
+        MethodType.methodType(boolean.class, Evaluator.class);
+
+    private static final MethodHandle EVALUATE_DOUBLE;
+    private static final MethodHandle EVALUATE_BOOLEAN;
+    private static final MethodHandle ADD;
+    private static final MethodHandle SUBTRACT;
+    private static final MethodHandle MULTIPLY;
+    private static final MethodHandle DIVIDE;
+    private static final MethodHandle DIVIDE_NULL_DENOMINATOR_IS_NULL;
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle LESS;
+    private static final MethodHandle LESS_OR_EQUAL;
+    private static final MethodHandle GREATER;
+    private static final MethodHandle GREATER_OR_EQUAL;
+    private static final MethodHandle EQUAL;
+    private static final MethodHandle NOT_EQUAL;
+    private static final MethodHandle IS_NULL;
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final MethodType unary =
+            MethodType.methodType(double.class, double.class);
+        final MethodType binary =
+            MethodType.methodType(double.class, double.class, double.class);
+        final MethodType comparison =
+            MethodType.methodType(boolean.class, double.class, double.class);
+        try {
+            EVALUATE_DOUBLE =
+                lookup.findVirtual(DoubleCalc.class, "evaluateDouble", DOUBLE_TYPE);
+            EVALUATE_BOOLEAN =
+                lookup.findVirtual(
+                    BooleanCalc.class, "evaluateBoolean", BOOLEAN_TYPE);
+            final Class<NumericCalcCompiler> c = NumericCalcCompiler.class;
+            ADD = lookup.findStatic(c, "add", binary);
+            SUBTRACT = lookup.findStatic(c, "subtract", binary);
+            MULTIPLY = lookup.findStatic(c, "multiply", binary);
+            DIVIDE = lookup.findStatic(c, "divide", binary);
+            DIVIDE_NULL_DENOMINATOR_IS_NULL =
+                lookup.findStatic(c, "divideNullDenominatorIsNull", binary);
+            NEGATE = lookup.findStatic(c, "negate", unary);
+            LESS = lookup.findStatic(c, "less", comparison);
+            LESS_OR_EQUAL = lookup.findStatic(c, "lessOrEqual", comparison);
+            GREATER = lookup.findStatic(c, "greater", comparison);
+            GREATER_OR_EQUAL =
+                lookup.findStatic(c, "greaterOrEqual", comparison);
+            EQUAL = lookup.findStatic(c, "equal", comparison);
+            NOT_EQUAL = lookup.findStatic(c, "notEqual", comparison);
+            IS_NULL =
+                lookup.findStatic(
+                    c, "isNull",
+                    MethodType.methodType(boolean.class, double.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ExpCompiler compiler;
+
+    /** Calculations called by the chain. */
+    private final List<Calc> calcs = new ArrayList<Calc>();
+
+    private NumericCalcCompiler(ExpCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Compiles a call to an arithmetic operator into a calculation, or
+     * returns null if the call is not to an arithmetic operator.
+     *
+     * @param call Call
+     * @param compiler Compiler for the expressions beneath the operators
+     * @return Compiled calculation, or null
+     */
+    public static DoubleCalc compile(
+        ResolvedFunCall call,
+        ExpCompiler compiler)
+    {
+        if (!isArithmetic(call.getFunDef())) {
+            return null;
+        }
+        final NumericCalcCompiler numericCompiler =
+            new NumericCalcCompiler(compiler);
+        final MethodHandle handle;
+        try {
+            handle = numericCompiler.compileDouble(call);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Could not compile '" + call + "'", e);
+            return null;
+        }
+        final List<Calc> calcs = numericCompiler.calcs;
+        return new CompiledDoubleCalc(
+            call, calcs.toArray(new Calc[calcs.size()]), handle);
+    }
+
+    /**
+     * Returns a handle of type (Evaluator)double that evaluates a numeric
+     * expression.
+     */
+    private MethodHandle compileDouble(Exp exp) {
+        if (exp instanceof ResolvedFunCall) {
+            final ResolvedFunCall call = (ResolvedFunCall) exp;
+            final FunDef funDef = call.getFunDef();
+            final String name = funDef.getName();
+            if (isArithmetic(funDef)) {
+                if (funDef.getSyntax() == Syntax.Prefix) {
+                    return combine(NEGATE, compileDouble(call.getArg(0)));
+                }
+                final MethodHandle op;
+                if (name.equals("+")) {
+                    op = ADD;
+                } else if (name.equals("-")) {
+                    op = SUBTRACT;
+                } else if (name.equals("*")) {
+                    op = MULTIPLY;
+                } else if (MondrianProperties.instance()
+                    .NullDenominatorProducesNull.get())
+                {
+                    op = DIVIDE_NULL_DENOMINATOR_IS_NULL;
+                } else {
+                    op = DIVIDE;
+                }
+                return combine(
+                    op,
+                    compileDouble(call.getArg(0)),
+                    compileDouble(call.getArg(1)));
+            }
+            if (name.equals("()")
+                && funDef.getSyntax() == Syntax.Parentheses
+                && funDef.getReturnCategory() == Category.Numeric)
+            {
+                return compileDouble(call.getArg(0));
+            }
+            if (name.equals("IIf")
+                && hasCategories(
+                    funDef,
+                    Category.Numeric,
+                    Category.Logical, Category.Numeric, Category.Numeric))
+            {
+                // Only the chosen branch is evaluated.
+                return MethodHandles.guardWithTest(
+                    compileBoolean(call.getArg(0)),
+                    compileDouble(call.getArg(1)),
+                    compileDouble(call.getArg(2)));
+            }
+            if (name.equals("CoalesceEmpty")
+                && funDef.getReturnCategory() == Category.Numeric)
+            {
+                // Evaluate the arguments from the last: each step returns
+                // the value of its argument, unless it is null, in which
+                // case it evaluates the steps after it.
+                final Exp[] args = call.getArgs();
+                MethodHandle handle = compileDouble(args[args.length - 1]);
+                for (int i = args.length - 2; i >= 0; i--) {
+                    final MethodHandle rest =
+                        MethodHandles.dropArguments(handle, 0, double.class);
+                    final MethodHandle self =
+                        MethodHandles.dropArguments(
+                            MethodHandles.identity(double.class),
+                            1,
+                            Evaluator.class);
+                    final MethodHandle test =
+                        MethodHandles.dropArguments(
+                            IS_NULL, 1, Evaluator.class);
+                    handle =
+                        MethodHandles.foldArguments(
+                            MethodHandles.guardWithTest(test, rest, self),
+                            compileDouble(args[i]));
+                }
+                return handle;
+            }
+        }
+        final DoubleCalc calc = compiler.compileDouble(exp);
+        if (calc instanceof ConstantCalc) {
+            return MethodHandles.dropArguments(
+                MethodHandles.constant(
+                    double.class, calc.evaluateDouble(null)),
+                0,
+                Evaluator.class);
+        }
+        calcs.add(calc);
+        return EVALUATE_DOUBLE.bindTo(calc);
+    }
+
+    /**
+     * Returns a handle of type (Evaluator)boolean that evaluates a boolean
+     * expression.
+     */
+    private MethodHandle compileBoolean(Exp exp) {
+        if (exp instanceof ResolvedFunCall) {
+            final ResolvedFunCall call = (ResolvedFunCall) exp;
+            final FunDef funDef = call.getFunDef();
+            if (funDef.getSyntax() == Syntax.Infix
+                && hasCategories(
+                    funDef,
+                    Category.Logical, Category.Numeric, Category.Numeric))
+            {
+                final MethodHandle op = getComparison(funDef.getName());
+                if (op != null) {
+                    return combine(
+                        op,
+                        compileDouble(call.getArg(0)),
+                        compileDouble(call.getArg(1)));
+                }
+            }
+        }
+        final BooleanCalc calc = compiler.compileBoolean(exp);
+        calcs.add(calc);
+        return EVALUATE_BOOLEAN.bindTo(calc);
+    }
+
+    private static MethodHandle getComparison(String name) {
+        if (name.equals("<")) {
+            return LESS;
+        } else if (name.equals("<=")) {
+            return LESS_OR_EQUAL;
+        } else if (name.equals(">")) {
+            return GREATER;
+        } else if (name.equals(">=")) {
+            return GREATER_OR_EQUAL;
+        } else if (name.equals("=")) {
+            return EQUAL;
+        } else if (name.equals("<>")) {
+            return NOT_EQUAL;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether a function is an arithmetic operator on numbers.
+     */
+    private static boolean isArithmetic(FunDef funDef) {
+        final String name = funDef.getName();
+        switch (funDef.getSyntax()) {
+        case Infix:
+            return (name.equals("+")
+                || name.equals("-")
+                || name.equals("*")
+                || name.equals("/"))
+                && hasCategories(
+                    funDef,
+                    Category.Numeric, Category.Numeric, Category.Numeric);
+        case Prefix:
+            return name.equals("-")
+                && hasCategories(funDef, Category.Numeric, Category.Numeric);
+        default:
+            return false;
+        }
+    }
+
+    private static boolean hasCategories(
+        FunDef funDef,
+        int returnCategory,
+        int... parameterCategories)
+    {
+        if (funDef.getReturnCategory() != returnCategory) {
+            return false;
+        }
+        final int[] categories = funDef.getParameterCategories();
+        if (categories.length != parameterCategories.length) {
+            return false;
+        }
+        for (int i = 0; i < categories.length; i++) {
+            if (categories[i] != parameterCategories[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies an operator to the values of several handles of type
+     * (Evaluator)double, giving a handle of type (Evaluator)R.
+     */
+    private static MethodHandle combine(
+        MethodHandle op,
+        MethodHandle... args)
+    {
+        final MethodHandle handle = MethodHandles.filterArguments(op, 0, args);
+        return MethodHandles.permuteArguments(
+            handle,
+            MethodType.methodType(op.type().returnType(), Evaluator.class),
+            new int[args.length]);
+    }
+
+    // The following methods implement the operators as their function
+    // definitions in BuiltinFunTable do.
+
+    private static double add(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull) {
+            return v1;
+        } else if (v1 == FunUtil.DoubleNull) {
+            return v0;
+        } else {
+            return v0 + v1;
+        }
+    }
+
+    private static double subtract(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull) {
+            return v1 == FunUtil.DoubleNull ? FunUtil.DoubleNull : -v1;
+        } else if (v1 == FunUtil.DoubleNull) {
+            return v0;
+        } else {
+            return v0 - v1;
+        }
+    }
+
+    private static double multiply(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull) {
+            return FunUtil.DoubleNull;
+        }
+        return v0 * v1;
+    }
+
+    private static double divide(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull) {
+            return FunUtil.DoubleNull;
+        } else if (v1 == FunUtil.DoubleNull) {
+            return Double.POSITIVE_INFINITY;
+        } else {
+            return v0 / v1;
+        }
+    }
+
+    private static double divideNullDenominatorIsNull(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull) {
+            return FunUtil.DoubleNull;
+        }
+        return v0 / v1;
+    }
+
+    private static double negate(double v) {
+        return v == FunUtil.DoubleNull ? FunUtil.DoubleNull : -v;
+    }
+
+    private static boolean isNull(double v) {
+        return v == FunUtil.DoubleNull;
+    }
+
+    private static boolean isComparable(double v0, double v1) {
+        return !Double.isNaN(v0)
+            && !Double.isNaN(v1)
+            && v0 != FunUtil.DoubleNull
+            && v1 != FunUtil.DoubleNull;
+    }
+
+    private static boolean less(double v0, double v1) {
+        return isComparable(v0, v1) ? v0 < v1 : FunUtil.BooleanNull;
+    }
+
+    private static boolean lessOrEqual(double v0, double v1) {
+        return isComparable(v0, v1) ? v0 <= v1 : FunUtil.BooleanNull;
+    }
+
+    private static boolean greater(double v0, double v1) {
+        return isComparable(v0, v1) ? v0 > v1 : FunUtil.BooleanNull;
+    }
+
+    private static boolean greaterOrEqual(double v0, double v1) {
+        return isComparable(v0, v1) ? v0 >= v1 : FunUtil.BooleanNull;
+    }
+
+    private static boolean equal(double v0, double v1) {
+        return isComparable(v0, v1) ? v0 == v1 : FunUtil.BooleanNull;
+    }
+
+    private static boolean notEqual(double v0, double v1) {
+        return isComparable(v0, v1) ? v0 != v1 : FunUtil.BooleanNull;
+    }
+
+    /**
+     * Calculation whose value is computed by a method handle.
+     */
+    private static class CompiledDoubleCalc extends AbstractDoubleCalc {
+        private final MethodHandle handle;
+
+        CompiledDoubleCalc(Exp exp, Calc[] calcs, MethodHandle handle) {
+            super(exp, calcs);
+            assert handle.type().equals(DOUBLE_TYPE);
+            this.handle = handle;
+        }
+
+        public double evaluateDouble(Evaluator evaluator) {
+            try {
+                return (double) handle.invokeExact(evaluator);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw Util.newError(e, "while evaluating " + exp);
+            }
+        }
+    }
+}
+
+// End NumericCalcCompiler.java
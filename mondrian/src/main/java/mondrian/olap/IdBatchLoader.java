@@ -0,0 +1,274 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.olap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Loads, in bulk, the members named by a list of identifiers, so that
+ * resolving the identifiers one at a time afterwards finds the members in
+ * the member cache.
+ *
+ * <p>The identifiers are processed one level at a time. At each level, the
+ * names whose parent has been found are grouped by the level of the parent,
+ * and the children of all parents in a group are read together, in chunks of
+ * at most {@link MondrianProperties#MaxConstraints} parents and names. For
+ * example, the identifiers
+ *
+ * <blockquote><pre>
+ *   [Store].[USA].[CA].[Los Angeles]
+ *   [Store].[USA].[WA].[Seattle]
+ *   [Store].[USA].[WA].[Tacoma]</pre></blockquote>
+ *
+ * <p>need one lookup for [USA], one for [CA] and [WA], and one for the
+ * three cities. The number of lookups grows with the number of levels, not
+ * the number of parents.
+ *
+ * <p>The children of a dimension or hierarchy are looked for among the
+ * children of its all member; those not found there, such as the all member
+ * itself or the top-level members of a hierarchy without an all member, are
+ * looked up one at a time. There are few such names.
+ *
+ * <p>Like {@link IdBatchResolver}, this class makes no assurances that all
+ * identifiers are loaded. Names that are not found are left for the usual
+ * resolution, which reports them.
+ */
+public final class IdBatchLoader {
+    static final Logger LOGGER = LogManager.getLogger(IdBatchLoader.class);
+
+    private final SchemaReader schemaReader;
+    private final Cube cube;
+
+    /** Prefixes of identifiers that have been resolved to members. */
+    private final Map<List<Id.Segment>, Member> members =
+        new HashMap<List<Id.Segment>, Member>();
+
+    /** Prefixes of identifiers that resolve to a dimension or hierarchy.
+     * Their children that are not found among the children of the all
+     * member are looked up one at a time. */
+    private final Set<List<Id.Segment>> heads =
+        new HashSet<List<Id.Segment>>();
+
+    /** All members of the hierarchies of {@link #heads}. */
+    private final Map<List<Id.Segment>, Member> allMembers =
+        new HashMap<List<Id.Segment>, Member>();
+
+    private IdBatchLoader(SchemaReader schemaReader, Cube cube) {
+        this.schemaReader = schemaReader;
+        this.cube = cube;
+    }
+
+    /**
+     * Loads the members named by a collection of identifiers.
+     *
+     * @param schemaReader Schema reader
+     * @param cube Cube
+     * @param names Identifiers, each a list of segments
+     */
+    public static void load(
+        SchemaReader schemaReader,
+        Cube cube,
+        Collection<List<Id.Segment>> names)
+    {
+        if (names.size() < 2) {
+            return;
+        }
+        new IdBatchLoader(schemaReader, cube).loadAll(names);
+    }
+
+    private void loadAll(Collection<List<Id.Segment>> names) {
+        int maxDepth = 0;
+        for (List<Id.Segment> name : names) {
+            maxDepth = Math.max(maxDepth, name.size());
+        }
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            // Prefixes of this depth, grouped by the level of their parent.
+            final Map<Level, List<List<Id.Segment>>> levelToPrefixes =
+                new LinkedHashMap<Level, List<List<Id.Segment>>>();
+            final Set<List<Id.Segment>> seen = new HashSet<List<Id.Segment>>();
+            final List<List<Id.Segment>> headChildren =
+                new ArrayList<List<Id.Segment>>();
+            for (List<Id.Segment> name : names) {
+                if (name.size() < depth) {
+                    continue;
+                }
+                final List<Id.Segment> prefix =
+                    new ArrayList<Id.Segment>(name.subList(0, depth));
+                if (!seen.add(prefix)) {
+                    continue;
+                }
+                if (depth == 1) {
+                    lookupHead(prefix);
+                    continue;
+                }
+                if (heads.contains(prefix.subList(0, depth - 1))) {
+                    headChildren.add(prefix);
+                }
+                final Member parent = parentOf(prefix);
+                if (parent == null
+                    || parent.isCalculated()
+                    || parent.isMeasure()
+                    || parent.isNull()
+                    || !(prefix.get(depth - 1) instanceof Id.NameSegment))
+                {
+                    continue;
+                }
+                List<List<Id.Segment>> prefixes =
+                    levelToPrefixes.get(parent.getLevel());
+                if (prefixes == null) {
+                    prefixes = new ArrayList<List<Id.Segment>>();
+                    levelToPrefixes.put(parent.getLevel(), prefixes);
+                }
+                prefixes.add(prefix);
+            }
+            for (List<List<Id.Segment>> prefixes : levelToPrefixes.values()) {
+                loadChildren(prefixes);
+            }
+            for (List<Id.Segment> prefix : headChildren) {
+                if (!members.containsKey(prefix)) {
+                    lookupHead(prefix);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the member that is the parent of the member named by a prefix:
+     * the member named by the prefix's own prefix, or the all member of the
+     * hierarchy that it names.
+     */
+    private Member parentOf(List<Id.Segment> prefix) {
+        final List<Id.Segment> parentPrefix =
+            prefix.subList(0, prefix.size() - 1);
+        final Member parent = members.get(parentPrefix);
+        return parent != null ? parent : allMembers.get(parentPrefix);
+    }
+
+    /**
+     * Looks up a prefix whose parent is the cube or a dimension or
+     * hierarchy.
+     */
+    private void lookupHead(List<Id.Segment> prefix) {
+        final OlapElement element;
+        try {
+            element =
+                Util.lookupCompound(
+                    schemaReader, cube, prefix, false, Category.Unknown);
+        } catch (Exception e) {
+            LOGGER.debug(
+                "Failed to resolve '" + Util.implode(prefix)
+                + "' during batch member loading",
+                e);
+            return;
+        }
+        final Hierarchy hierarchy;
+        if (element instanceof Member) {
+            members.put(prefix, (Member) element);
+            return;
+        } else if (element instanceof Dimension) {
+            hierarchy = ((Dimension) element).getHierarchy();
+        } else if (element instanceof Hierarchy) {
+            hierarchy = (Hierarchy) element;
+        } else {
+            return;
+        }
+        heads.add(prefix);
+        if (hierarchy != null && hierarchy.hasAll()) {
+            allMembers.put(prefix, hierarchy.getAllMember());
+        }
+    }
+
+    /**
+     * Reads the children of the parents of a list of prefixes, whose parents
+     * all belong to the same level, and records the members that the
+     * prefixes name.
+     */
+    private void loadChildren(List<List<Id.Segment>> prefixes) {
+        final Set<Member> parentSet = new LinkedHashSet<Member>();
+        final Set<Id.NameSegment> nameSet =
+            new LinkedHashSet<Id.NameSegment>();
+        for (List<Id.Segment> prefix : prefixes) {
+            parentSet.add(parentOf(prefix));
+            nameSet.add((Id.NameSegment) prefix.get(prefix.size() - 1));
+        }
+        final List<Member> parents = new ArrayList<Member>(parentSet);
+        final List<Id.NameSegment> names =
+            new ArrayList<Id.NameSegment>(nameSet);
+        final int chunkSize =
+            Math.max(1, MondrianProperties.instance().MaxConstraints.get());
+
+        final Map<Member, List<Member>> parentToChildren =
+            new HashMap<Member, List<Member>>();
+        for (int i = 0; i < parents.size(); i += chunkSize) {
+            final List<Member> parentChunk =
+                parents.subList(i, Math.min(parents.size(), i + chunkSize));
+            for (int j = 0; j < names.size(); j += chunkSize) {
+                final List<Id.NameSegment> nameChunk =
+                    names.subList(j, Math.min(names.size(), j + chunkSize));
+                for (Member child : lookupChildren(parentChunk, nameChunk)) {
+                    List<Member> children =
+                        parentToChildren.get(child.getParentMember());
+                    if (children == null) {
+                        children = new ArrayList<Member>();
+                        parentToChildren.put(child.getParentMember(), children);
+                    }
+                    children.add(child);
+                }
+            }
+        }
+
+        for (List<Id.Segment> prefix : prefixes) {
+            final List<Member> children =
+                parentToChildren.get(parentOf(prefix));
+            if (children == null) {
+                continue;
+            }
+            final Id.Segment segment = prefix.get(prefix.size() - 1);
+            for (Member child : children) {
+                if (segment.matches(child.getName())) {
+                    members.put(prefix, child);
+                    break;
+                }
+            }
+        }
+    }
+
+    private List<Member> lookupChildren(
+        List<Member> parents,
+        List<Id.NameSegment> names)
+    {
+        try {
+            if (parents.size() == 1) {
+                return schemaReader.lookupMemberChildrenByNames(
+                    parents.get(0), names, MatchType.EXACT);
+            }
+            return schemaReader.lookupMemberChildrenByNames(
+                parents, names, MatchType.EXACT);
+        } catch (Exception e) {
+            // Don't fail; resolution will look the members up again.
+            LOGGER.info(
+                String.format(
+                    "Failure while looking up children of %d members "
+                    + "during batch member loading. Child member refs: %s",
+                    parents.size(),
+                    Arrays.toString(names.toArray())),
+                e);
+        }
+        return Collections.emptyList();
+    }
+}
+
+// End IdBatchLoader.java
@@ -133,9 +133,27 @@ public final class IdBatchResolver {
      * respective resolved Exp.
      */
     public Map<QueryPart, QueryPart> resolve() {
+        if (MondrianProperties.instance().BatchMemberResolution.get()) {
+            loadAcrossParents(identifiers);
+        }
         return resolveInParentGroupings(identifiers);
     }
 
+    /**
+     * Loads the supported identifiers into the member cache, grouping
+     * children of different parents in the same level, so that the lookups
+     * of {@link #resolveInParentGroupings} find them in cache.
+     */
+    private void loadAcrossParents(SortedSet<Id> identifiers) {
+        final List<List<Id.Segment>> names = new ArrayList<List<Id.Segment>>();
+        for (Id id : identifiers) {
+            if (supportedIdentifier(id)) {
+                names.add(id.getSegments());
+            }
+        }
+        IdBatchLoader.load(query.getSchemaReader(true), cube, names);
+    }
+
     /**
      *  Loops through the SortedSet of Ids, attempting to load sets of
      *  children of parent Ids.
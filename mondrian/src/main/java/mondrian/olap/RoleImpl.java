@@ -14,11 +14,13 @@ package mondrian.olap;
 
 import mondrian.rolap.RolapCube;
 import mondrian.rolap.RolapCubeDimension;
+import mondrian.rolap.RolapMember;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Default implementation of the {@link Role} interface.
@@ -109,6 +111,9 @@ public class RoleImpl implements Role {
      */
     public void makeImmutable() {
         mutable = false;
+        for (HierarchyAccessImpl hierarchyAccess : hierarchyGrants.values()) {
+            hierarchyAccess.compile();
+        }
     }
 
     /**
@@ -607,10 +612,9 @@ public class RoleImpl implements Role {
         // Then let's check ask the parent level.
         Access access = getAccess(member.getLevel());
         LOGGER.trace(
-            "Access level " + access
-            + " granted to level " + member.getUniqueName()
-            + " because of the grant to level "
-            + member.getLevel().getUniqueName());
+            "Access level {} granted to level {} because of the grant to"
+            + " level {}",
+            access, member.getUniqueName(), member.getLevel().getUniqueName());
         return access;
     }
 
@@ -655,6 +659,31 @@ public class RoleImpl implements Role {
             hierarchy, Access.ALL, null, null, Role.RollupPolicy.FULL);
     }
 
+    /**
+     * Returns the members whose grants can make members of a level
+     * accessible, grouped by level, or null if they are not known.
+     *
+     * <p>A member of the level is accessible only if it is one of the
+     * members or a descendant of one; some such members may still be
+     * inaccessible. The members are known only for the compiled access of an
+     * immutable {@link RoleImpl} to a hierarchy with custom access.
+     *
+     * @param hierarchyAccess Access of a role to a hierarchy
+     * @param level Level of the hierarchy
+     * @return Members whose grants can make members of the level accessible,
+     *   or null
+     */
+    public static Map<Level, List<Member>> getAccessibleAncestors(
+        HierarchyAccess hierarchyAccess,
+        Level level)
+    {
+        if (!(hierarchyAccess instanceof HierarchyAccessImpl)) {
+            return null;
+        }
+        return ((HierarchyAccessImpl) hierarchyAccess)
+            .getAccessibleAncestors(level);
+    }
+
     /**
      * Returns a role that is the union of the given roles.
      *
@@ -682,6 +711,9 @@ public class RoleImpl implements Role {
         private final RollupPolicy rollupPolicy;
         private final Role role;
 
+        /** Compiled member grants; null while the role is mutable. */
+        private volatile AccessIndex index;
+
         /**
          * Creates a <code>HierarchyAccessImpl</code>.
          * @param role A role this access belongs to.
@@ -861,86 +893,113 @@ public class RoleImpl implements Role {
             if (this.access != Access.CUSTOM) {
                 return this.access;
             }
-            MemberAccess mAccess =
+            final AccessIndex index = this.index;
+            if (index != null) {
+                return index.getAccess(member);
+            }
+            final MemberAccess mAccess =
                 memberGrants.get(member.getUniqueName());
+            MemberAccess pAccess = null;
+            if (mAccess == null) {
+                for (Member m = member.getParentMember();
+                    m != null && pAccess == null;
+                    m = m.getParentMember())
+                {
+                    pAccess = memberGrants.get(m.getUniqueName());
+                }
+            }
+            return computeAccess(member, mAccess, pAccess);
+        }
+
+        /**
+         * Computes the access to a member.
+         *
+         * @param member Member
+         * @param mAccess Grant on the member, or null
+         * @param pAccess Grant on the nearest ancestor of the member that
+         *   has one, or null
+         * @return Access to the member
+         */
+        private Access computeAccess(
+            Member member,
+            MemberAccess mAccess,
+            MemberAccess pAccess)
+        {
             Access access = mAccess == null ? null : mAccess.access;
             // Check for an explicit deny.
             if (access == Access.NONE) {
                 LOGGER.trace(
-                    "Access level " + Access.NONE
-                    + " granted to member " + member.getUniqueName()
-                    + " because it is explicitly denided.");
+                    "Access level {} granted to member {}"
+                    + " because it is explicitly denided.",
+                    Access.NONE, member.getUniqueName());
                 return Access.NONE;
             }
             // Check for explicit grant
             if (access == Access.ALL || access == Access.CUSTOM) {
                 LOGGER.trace(
-                    "Access level " + access
-                    + " granted to member " + member.getUniqueName());
+                    "Access level {} granted to member {}",
+                    access, member.getUniqueName());
                 return access;
             }
             // Restricted is ok. This means an explicit grant
             // followed by a deny of one of the children: so custom.
             if (access == Access.RESTRICTED) {
                 LOGGER.trace(
-                    "Access level " + Access.CUSTOM
-                    + " granted to member " + member.getUniqueName()
-                    + " because it was RESTRICTED. ");
+                    "Access level {} granted to member {}"
+                    + " because it was RESTRICTED. ",
+                    Access.CUSTOM, member.getUniqueName());
                 return Access.CUSTOM;
             }
             // Check if the member is out of the bounds
             // defined by topLevel and bottomLevel
             if (!checkLevelIsOkWithRestrictions(this, member.getLevel())) {
                 LOGGER.trace(
-                    "Access denided to member " + member.getUniqueName()
-                    + " because its level " + member.getLevel().getUniqueName()
-                    + " is out of the permitted bounds of between "
-                    + this.topLevel.getUniqueName()
-                    + " and "
-                    + this.bottomLevel.getUniqueName());
+                    "Access denided to member {} because its level {}"
+                    + " is out of the permitted bounds of between {} and {}",
+                    member.getUniqueName(),
+                    member.getLevel().getUniqueName(),
+                    this.topLevel.getUniqueName(),
+                    this.bottomLevel.getUniqueName());
                 return Access.NONE;
             }
             // Nothing was explicitly defined for this member.
             // Check for grants on its parents
-            for (Member m = member.getParentMember();
-                m != null;
-                m = m.getParentMember())
-            {
-                MemberAccess pAccess =
-                    memberGrants.get(m.getUniqueName());
-                final Access parentAccess = pAccess == null
-                    ? null
-                    : pAccess.access;
-                if (parentAccess == null) {
-                    // No explicit rules for this parent
-                    continue;
-                }
+            if (pAccess != null) {
+                final Access parentAccess = pAccess.access;
                 // Check for parent deny
                 if (parentAccess == Access.NONE
                     || parentAccess == Access.CUSTOM)
                 {
                     LOGGER.trace(
-                        "Access denided to member " + member.getUniqueName()
-                        + " because its parent " + m.getUniqueName()
-                        + " is of access level " + parentAccess);
+                        "Access denided to member {} because its parent {}"
+                        + " is of access level {}",
+                        member.getUniqueName(),
+                        pAccess.member.getUniqueName(),
+                        parentAccess);
                     return Access.NONE;
                 }
                 // Both RESTRICTED and ALL are OK for parents.
                 LOGGER.trace(
-                    "Access level ALL granted to member "
-                    + member.getUniqueName()
-                    + " because its parent " + m.getUniqueName()
-                    + " is of access level " + parentAccess);
+                    "Access level ALL granted to member {} because its"
+                    + " parent {} is of access level {}",
+                    member.getUniqueName(),
+                    pAccess.member.getUniqueName(),
+                    parentAccess);
                 return Access.ALL;
             }
             // Check for inherited access from ancestors.
             // "Custom" is not good enough. We are looking for "all" access.
-            access = role.getAccess(member.getLevel());
-            if (access == Access.ALL) {
+            final AccessIndex index = this.index;
+            final Access levelAccess =
+                index == null
+                    ? role.getAccess(member.getLevel())
+                    : index.getLevelAccess(member.getLevel());
+            if (levelAccess == Access.ALL) {
                 LOGGER.trace(
-                    "Access ALL granted to member " + member.getUniqueName()
-                    + " because its level " + member.getLevel().getUniqueName()
-                    + " is of access level ALL");
+                    "Access ALL granted to member {} because its level {}"
+                    + " is of access level ALL",
+                    member.getUniqueName(),
+                    member.getLevel().getUniqueName());
                 return Access.ALL;
             }
             // This member might be at a level allowed by the
@@ -949,19 +1008,49 @@ public class RoleImpl implements Role {
             // those bounds, we give access.
             if (memberGrants.size() == 0) {
                 LOGGER.trace(
-                    "Access level ALL granted to member "
-                    + member.getUniqueName()
-                    + " because it lies between the permitted level bounds and there are no explicit member grants defined in hierarchy "
-                    + member.getHierarchy().getUniqueName());
+                    "Access level ALL granted to member {} because it lies"
+                    + " between the permitted level bounds and there are no"
+                    + " explicit member grants defined in hierarchy {}",
+                    member.getUniqueName(),
+                    member.getHierarchy().getUniqueName());
                 return Access.ALL;
             }
             // No access
             LOGGER.trace(
-                "Access denided to member " + member.getUniqueName()
-                + " because none of its parents allow access to it.");
+                "Access denided to member {} because none of its parents"
+                + " allow access to it.",
+                member.getUniqueName());
             return Access.NONE;
         }
 
+        /**
+         * Compiles the member grants into an index. Called when the role is
+         * made immutable; until then, {@link #getAccess(Member)} looks up
+         * the grants by unique name.
+         */
+        void compile() {
+            index = new AccessIndex(this);
+        }
+
+        /**
+         * Returns the members whose grants can make members of a level
+         * accessible, grouped by level, or null if the access to members
+         * of the level does not depend on member grants alone. A member of
+         * the level is accessible only if it is one of the members, or a
+         * descendant of one.
+         */
+        Map<Level, List<Member>> getAccessibleAncestors(Level level) {
+            final AccessIndex index = this.index;
+            if (access != Access.CUSTOM
+                || index == null
+                || memberGrants.isEmpty()
+                || !checkLevelIsOkWithRestrictions(this, level))
+            {
+                return null;
+            }
+            return index.getAccessibleAncestors(level);
+        }
+
         public final int getTopLevelDepth() {
             return topLevel.getDepth();
         }
@@ -979,6 +1068,10 @@ public class RoleImpl implements Role {
          * restricted by the access controls of this role instance.
          */
         public boolean hasInaccessibleDescendants(Member member) {
+            final AccessIndex index = this.index;
+            if (index != null) {
+                return index.hasInaccessibleDescendants(member);
+            }
             for (MemberAccess access : memberGrants.values()) {
                 switch (access.access) {
                 case NONE:
@@ -1057,6 +1150,191 @@ public class RoleImpl implements Role {
         }
     }
 
+    /**
+     * The member grants of a hierarchy, compiled into a tree keyed by the
+     * keys of the members on the path from the root of the hierarchy.
+     *
+     * <p>Finding the grants that apply to a member walks down the tree once,
+     * rather than looking up the unique names of the member and each of its
+     * ancestors. The access to each member is remembered, up to a limit.
+     */
+    private static class AccessIndex {
+        private static final int MAX_CACHED_MEMBERS = 100000;
+
+        /** Marks a level whose members cannot be restricted to the
+         * descendants of a list of members. */
+        private static final Map<Level, List<Member>> NO_ANCESTORS =
+            Collections.unmodifiableMap(new HashMap<Level, List<Member>>());
+
+        private final HierarchyAccessImpl hierarchyAccess;
+        private final Node root = new Node();
+        private final Map<Member, Access> memberAccessMap =
+            new ConcurrentHashMap<Member, Access>();
+        private final Map<Level, Access> levelAccessMap =
+            new ConcurrentHashMap<Level, Access>();
+        private final Map<Level, Map<Level, List<Member>>> ancestorsMap =
+            new ConcurrentHashMap<Level, Map<Level, List<Member>>>();
+
+        AccessIndex(HierarchyAccessImpl hierarchyAccess) {
+            this.hierarchyAccess = hierarchyAccess;
+            for (MemberAccess grant : hierarchyAccess.memberGrants.values()) {
+                final boolean restricts =
+                    grant.access == Access.NONE
+                    || grant.access == Access.CUSTOM;
+                Node node = root;
+                for (Member member : path(grant.member)) {
+                    Node child = node.children.get(key(member));
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(key(member), child);
+                    }
+                    node = child;
+                    node.restrictedBelow |= restricts;
+                }
+                node.grant = grant;
+            }
+        }
+
+        Access getAccess(Member member) {
+            Access access = memberAccessMap.get(member);
+            if (access == null) {
+                // Find the member's own grant and the grant of its nearest
+                // ancestor that has one.
+                MemberAccess mAccess = null;
+                MemberAccess pAccess = null;
+                final List<Member> path = path(member);
+                Node node = root;
+                for (int i = 0; i < path.size(); i++) {
+                    node = node.children.get(key(path.get(i)));
+                    if (node == null) {
+                        break;
+                    }
+                    if (i == path.size() - 1) {
+                        mAccess = node.grant;
+                    } else if (node.grant != null) {
+                        pAccess = node.grant;
+                    }
+                }
+                access =
+                    hierarchyAccess.computeAccess(
+                        member, mAccess, mAccess == null ? pAccess : null);
+                if (memberAccessMap.size() >= MAX_CACHED_MEMBERS) {
+                    memberAccessMap.clear();
+                }
+                memberAccessMap.put(member, access);
+            }
+            return access;
+        }
+
+        Access getLevelAccess(Level level) {
+            Access access = levelAccessMap.get(level);
+            if (access == null) {
+                access = hierarchyAccess.role.getAccess(level);
+                levelAccessMap.put(level, access);
+            }
+            return access;
+        }
+
+        boolean hasInaccessibleDescendants(Member member) {
+            Node node = root;
+            for (Member m : path(member)) {
+                node = node.children.get(key(m));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.restrictedBelow;
+        }
+
+        Map<Level, List<Member>> getAccessibleAncestors(Level level) {
+            Map<Level, List<Member>> map = ancestorsMap.get(level);
+            if (map == null) {
+                map = computeAccessibleAncestors(level);
+                if (map == null) {
+                    map = NO_ANCESTORS;
+                }
+                ancestorsMap.put(level, map);
+            }
+            return map == NO_ANCESTORS ? null : map;
+        }
+
+        private Map<Level, List<Member>> computeAccessibleAncestors(
+            Level level)
+        {
+            if (getLevelAccess(level) == Access.ALL) {
+                // Every member within the level bounds is accessible unless
+                // denied.
+                return null;
+            }
+            // A member of the level is accessible only if it is granted
+            // anything but NONE, or if its nearest ancestor with a grant is
+            // granted ALL or RESTRICTED.
+            final int depth = level.getDepth();
+            final Map<Level, List<Member>> map =
+                new LinkedHashMap<Level, List<Member>>();
+            for (MemberAccess grant : hierarchyAccess.memberGrants.values()) {
+                final int grantDepth = grant.member.getLevel().getDepth();
+                final boolean accessible =
+                    grantDepth == depth
+                        ? grant.access != Access.NONE
+                        : grantDepth < depth
+                            && (grant.access == Access.ALL
+                                || grant.access == Access.RESTRICTED);
+                if (!accessible) {
+                    continue;
+                }
+                if (grant.member.isAll() || grant.member.isCalculated()) {
+                    return null;
+                }
+                List<Member> members = map.get(grant.member.getLevel());
+                if (members == null) {
+                    members = new ArrayList<Member>();
+                    map.put(grant.member.getLevel(), members);
+                }
+                members.add(grant.member);
+            }
+            return Collections.unmodifiableMap(map);
+        }
+
+        /**
+         * Returns a member and its ancestors, starting at the root.
+         */
+        private static List<Member> path(Member member) {
+            final List<Member> path = new ArrayList<Member>();
+            for (Member m = member; m != null; m = m.getParentMember()) {
+                path.add(m);
+            }
+            Collections.reverse(path);
+            return path;
+        }
+
+        /**
+         * Returns the key of a member within its parent: its key, or its
+         * unique name if it has no key.
+         */
+        private static Object key(Member member) {
+            if (member instanceof RolapMember) {
+                final Object key = ((RolapMember) member).getKey();
+                if (key != null) {
+                    return key;
+                }
+            }
+            return member.getUniqueName();
+        }
+
+        /**
+         * Node of the tree, for a member with a grant or an ancestor of one.
+         */
+        private static class Node {
+            private final Map<Object, Node> children =
+                new HashMap<Object, Node>();
+            private MemberAccess grant;
+            /** Whether this member or a descendant is granted NONE or
+             * CUSTOM. */
+            private boolean restrictedBelow;
+        }
+    }
+
     /**
      * Implementation of {@link mondrian.olap.Role.HierarchyAccess} that
      * delegates all methods to an underlying hierarchy access.
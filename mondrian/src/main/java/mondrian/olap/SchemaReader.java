@@ -469,6 +469,19 @@ public interface SchemaReader {
         List<Id.NameSegment> childNames,
         MatchType matchType);
 
+    /**
+     * Finds the children of a list of members that have any of the given
+     * names. All parents must belong to the same level.
+     *
+     * <p>A child is returned if its name is any of the names, even if it was
+     * only looked for under another parent; callers match each child to
+     * its parent.
+     */
+    List<Member> lookupMemberChildrenByNames(
+        List<Member> parents,
+        List<Id.NameSegment> childNames,
+        MatchType matchType);
+
     /**
      * Returns an object which can evaluate an expression in native SQL, or
      * null if this is not possible.
@@ -248,9 +248,11 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
             // .testOptimizeListWithTuplesOfLength3 on Access. Without
             // the optimization, we generate a statement 7000
             // characters long and Access gives "Query is too complex".
-            // The optimization is expensive, so we only want to do it
-            // if the DBMS can't execute the query otherwise.
-            if (false) {
+            // We only do it for large sets, where the predicate would
+            // otherwise be larger than it needs to be.
+            final boolean largeSets =
+                MondrianProperties.instance().LargeAggregateSets.get();
+            if (largeSets) {
                 tupleList = removeOverlappingTupleEntries(tupleList);
             }
             tupleList =
@@ -258,7 +260,9 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
                     tupleList,
                     evaluator.getSchemaReader(),
                     evaluator.getMeasureCube());
-            if (checkSize) {
+            if (checkSize && !largeSets) {
+                // For large sets, the predicate is split into several IN
+                // lists when it is translated to SQL.
                 checkIfAggregationSizeIsTooLarge(tupleList);
             }
             return tupleList;
@@ -281,36 +285,92 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
         public static TupleList removeOverlappingTupleEntries(
             TupleList list)
         {
-            TupleList trimmedList = list.cloneList(list.size());
-            Member[] tuple1 = new Member[list.getArity()];
-            Member[] tuple2 = new Member[list.getArity()];
-            final TupleCursor cursor1 = list.tupleCursor();
-            while (cursor1.forward()) {
-                cursor1.currentToArray(tuple1, 0);
-                if (trimmedList.isEmpty()) {
-                    trimmedList.addTuple(tuple1);
-                } else {
-                    boolean ignore = false;
-                    final TupleIterator iterator = trimmedList.tupleIterator();
-                    while (iterator.forward()) {
-                        iterator.currentToArray(tuple2, 0);
-                        if (isSuperSet(tuple1, tuple2)) {
-                            iterator.remove();
-                        } else if (isSuperSet(tuple2, tuple1)
-                            || isEqual(tuple1, tuple2))
-                        {
-                            ignore = true;
-                            break;
-                        }
-                    }
-                    if (!ignore) {
-                        trimmedList.addTuple(tuple1);
-                    }
+            final int arity = list.getArity();
+            final List<Member[]> tuples = new ArrayList<Member[]>();
+            final Set<List<Member>> distinctTuples =
+                new HashSet<List<Member>>();
+            final TupleCursor cursor = list.tupleCursor();
+            while (cursor.forward()) {
+                final Member[] tuple = new Member[arity];
+                cursor.currentToArray(tuple, 0);
+                if (distinctTuples.add(Arrays.asList(tuple))) {
+                    tuples.add(tuple);
+                }
+            }
+            if (tuples.isEmpty()) {
+                return list.cloneList(0);
+            }
+
+            // Index the tuples by their member in the position that has the
+            // most distinct members. The tuples that may contain a tuple are
+            // those indexed under the member in that position or one of its
+            // ancestors, so each tuple is compared with a few others rather
+            // than with all of them.
+            int indexPosition = 0;
+            int maxDistinctCount = 0;
+            for (int i = 0; i < arity; i++) {
+                final Set<Member> members = new HashSet<Member>();
+                for (Member[] tuple : tuples) {
+                    members.add(tuple[i]);
+                }
+                if (members.size() > maxDistinctCount) {
+                    maxDistinctCount = members.size();
+                    indexPosition = i;
+                }
+            }
+            final Map<Member, List<Member[]>> index =
+                new HashMap<Member, List<Member[]>>();
+            for (Member[] tuple : tuples) {
+                List<Member[]> indexedTuples = index.get(tuple[indexPosition]);
+                if (indexedTuples == null) {
+                    indexedTuples = new ArrayList<Member[]>();
+                    index.put(tuple[indexPosition], indexedTuples);
+                }
+                indexedTuples.add(tuple);
+            }
+
+            final TupleList trimmedList = list.cloneList(tuples.size());
+            for (Member[] tuple : tuples) {
+                if (!isContained(tuple, indexPosition, index)) {
+                    trimmedList.addTuple(tuple);
                 }
             }
             return trimmedList;
         }
 
+        /**
+         * Returns whether a tuple is contained in another tuple of an index.
+         *
+         * @param tuple Tuple
+         * @param indexPosition Position of the member by which the tuples
+         *   are indexed
+         * @param index Tuples indexed by their member in the position
+         * @return Whether the tuple is contained in another tuple
+         */
+        private static boolean isContained(
+            Member[] tuple,
+            int indexPosition,
+            Map<Member, List<Member[]>> index)
+        {
+            for (Member m = tuple[indexPosition];
+                m != null;
+                m = m.getParentMember())
+            {
+                final List<Member[]> indexedTuples = index.get(m);
+                if (indexedTuples == null) {
+                    continue;
+                }
+                for (Member[] indexedTuple : indexedTuples) {
+                    if (indexedTuple != tuple
+                        && isSuperSet(indexedTuple, tuple))
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
         /**
          * Returns whether tuple1 is a superset of tuple2.
          *
@@ -455,82 +515,63 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
             SchemaReader reader,
             Cube baseCubeForMeasure)
         {
-            boolean didOptimize;
-            Set<Member> membersToBeOptimized = new LinkedHashSet<Member>();
-            Set<Member> optimizedMembers = new LinkedHashSet<Member>();
-            while (members.size() > 0) {
-                Iterator<Member> iterator = members.iterator();
-                Member first = iterator.next();
-                if (first.isAll()) {
-                    optimizedMembers.clear();
-                    optimizedMembers.add(first);
-                    return optimizedMembers;
-                }
-                membersToBeOptimized.add(first);
-                iterator.remove();
-
-                Member firstParentMember = first.getParentMember();
-                while (iterator.hasNext()) {
-                    Member current =  iterator.next();
-                    if (current.isAll()) {
-                        optimizedMembers.clear();
-                        optimizedMembers.add(current);
+            while (true) {
+                for (Member member : members) {
+                    if (member.isAll()) {
+                        final Set<Member> optimizedMembers =
+                            new LinkedHashSet<Member>();
+                        optimizedMembers.add(member);
                         return optimizedMembers;
                     }
+                }
 
-                    Member currentParentMember = current.getParentMember();
-                    if (firstParentMember == null
-                        && currentParentMember == null
-                        || (firstParentMember != null
-                        && firstParentMember.equals(currentParentMember)))
-                    {
-                        membersToBeOptimized.add(current);
-                        iterator.remove();
+                // Group the members by parent, in order of first occurrence.
+                final Map<Member, List<Member>> parentToMembers =
+                    new LinkedHashMap<Member, List<Member>>();
+                for (Member member : members) {
+                    final Member parentMember = member.getParentMember();
+                    List<Member> siblings = parentToMembers.get(parentMember);
+                    if (siblings == null) {
+                        siblings = new ArrayList<Member>();
+                        parentToMembers.put(parentMember, siblings);
                     }
+                    siblings.add(member);
                 }
 
-                int childCountOfParent = -1;
-                if (firstParentMember != null) {
-                    childCountOfParent =
-                        getChildCount(firstParentMember, reader);
-                }
-                if (childCountOfParent != -1
-                    && membersToBeOptimized.size() == childCountOfParent
-                    && canOptimize(firstParentMember, baseCubeForMeasure))
+                // Replace each group that comprises all of the children of
+                // its parent by the parent.
+                final Set<Member> optimizedMembers =
+                    new LinkedHashSet<Member>();
+                boolean didOptimize = false;
+                for (Map.Entry<Member, List<Member>> entry
+                    : parentToMembers.entrySet())
                 {
-                    optimizedMembers.add(firstParentMember);
-                    didOptimize = true;
-                } else {
-                    optimizedMembers.addAll(membersToBeOptimized);
-                    didOptimize = false;
-                }
-                membersToBeOptimized.clear();
-
-                if (members.size() == 0 && didOptimize) {
-                    Set temp = members;
-                    members = optimizedMembers;
-                    optimizedMembers = temp;
+                    final Member parentMember = entry.getKey();
+                    final List<Member> siblings = entry.getValue();
+                    int childCountOfParent = -1;
+                    if (parentMember != null) {
+                        childCountOfParent =
+                            getChildCount(parentMember, reader);
+                    }
+                    if (childCountOfParent != -1
+                        && siblings.size() == childCountOfParent
+                        && canOptimize(parentMember, baseCubeForMeasure))
+                    {
+                        optimizedMembers.add(parentMember);
+                        didOptimize = true;
+                    } else {
+                        optimizedMembers.addAll(siblings);
+                        didOptimize = false;
+                    }
                 }
-            }
-            return optimizedMembers;
-        }
 
-        /**
-         * Returns whether tuples are equal. They must have the same length.
-         *
-         * @param tuple1 First tuple
-         * @param tuple2 Second tuple
-         * @return whether tuples are equal
-         */
-        private static boolean isEqual(Member[] tuple1, Member[] tuple2) {
-            for (int i = 0; i < tuple1.length; i++) {
-                if (!tuple1[i].getUniqueName().equals(
-                        tuple2[i].getUniqueName()))
-                {
-                    return false;
+                // If the last group was replaced by its parent, the parents
+                // may in turn make up the whole of their parent.
+                if (!didOptimize) {
+                    return optimizedMembers;
                 }
+                members = optimizedMembers;
             }
-            return true;
         }
 
         private static boolean canOptimize(
@@ -34,6 +34,7 @@ import mondrian.olap.ExpBase;
 import mondrian.olap.FunDef;
 import mondrian.olap.Hierarchy;
 import mondrian.olap.Id;
+import mondrian.olap.IdBatchLoader;
 import mondrian.olap.Level;
 import mondrian.olap.Literal;
 import mondrian.olap.MatchType;
@@ -1710,6 +1711,11 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     String string,
     List<Hierarchy> hierarchies ) {
+    if ( MondrianProperties.instance().BatchMemberResolution.get() ) {
+      final IdentifierParser.NameListBuilder nameBuilder = new IdentifierParser.NameListBuilder();
+      IdentifierParser.parseTupleList( nameBuilder, string );
+      IdBatchLoader.load( evaluator.getSchemaReader(), evaluator.getCube(), nameBuilder.nameList );
+    }
     final IdentifierParser.TupleListBuilder builder =
       new IdentifierParser.TupleListBuilder(
         evaluator.getSchemaReader(),
@@ -1773,6 +1779,11 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     String string,
     Hierarchy hierarchy ) {
+    if ( MondrianProperties.instance().BatchMemberResolution.get() ) {
+      final IdentifierParser.NameListBuilder nameBuilder = new IdentifierParser.NameListBuilder();
+      IdentifierParser.parseMemberList( nameBuilder, string );
+      IdBatchLoader.load( evaluator.getSchemaReader(), evaluator.getCube(), nameBuilder.nameList );
+    }
     IdentifierParser.MemberListBuilder builder =
       new IdentifierParser.MemberListBuilder(
         evaluator.getSchemaReader(),
@@ -111,6 +111,18 @@ public class UdfResolver implements Resolver {
         return false;
     }
 
+    /**
+     * Returns whether a function definition was created by a
+     * {@code UdfResolver}, that is, whether it calls a
+     * {@link UserDefinedFunction}.
+     *
+     * @param funDef Function definition
+     * @return Whether function is user-defined
+     */
+    public static boolean isUserDefined(FunDef funDef) {
+        return funDef instanceof UdfFunDef;
+    }
+
     public String[] getReservedWords() {
         final String[] reservedWords = udf.getReservedWords();
         return reservedWords == null ? emptyStringArray : reservedWords;
@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.olap4j;
+
+import mondrian.calc.TupleCursor;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Bulk access to the cells and positions of a cell set.
+ *
+ * <p>Reading a large cell set through {@link org.olap4j.CellSet#getCell}
+ * creates a coordinate list and a cell object for each cell. This interface
+ * returns all values at once, as arrays indexed by cell ordinal, and
+ * iterates over the positions of an axis without creating olap4j objects.
+ * Obtain it by calling {@link java.sql.Wrapper#unwrap unwrap} on a cell set
+ * created by the Mondrian olap4j driver:
+ *
+ * <blockquote><pre>
+ * CellSet cellSet = statement.executeOlapQuery(mdx);
+ * CellSetColumns columns = cellSet.unwrap(CellSetColumns.class);
+ * double[] values = columns.getValues();
+ * BitSet nulls = columns.getNulls();</pre></blockquote>
+ *
+ * <p>Cell ordinals are as in {@link org.olap4j.CellSet#getCell(int)}: the
+ * first axis varies fastest. The arrays are computed on first use, and the
+ * same arrays are returned by subsequent calls; callers must not modify
+ * them.
+ */
+public interface CellSetColumns {
+    /**
+     * Returns the number of cells.
+     */
+    int getCellCount();
+
+    /**
+     * Returns the numeric value of each cell. The element of a cell that is
+     * null, or whose value is not a number, is {@link Double#NaN}.
+     *
+     * @see #getNulls()
+     * @see #getNonNumerics()
+     */
+    double[] getValues();
+
+    /**
+     * Returns the set of ordinals of cells that are null.
+     */
+    BitSet getNulls();
+
+    /**
+     * Returns the set of ordinals of cells whose value is neither null nor a
+     * number; for example, strings and errors. Use {@link #getValue(int)} to
+     * read them.
+     */
+    BitSet getNonNumerics();
+
+    /**
+     * Returns the value of a cell, as {@link org.olap4j.Cell#getValue()}.
+     *
+     * @param ordinal Cell ordinal
+     * @return Value of cell
+     */
+    Object getValue(int ordinal);
+
+    /**
+     * Returns, for each cell, the index of its format string in
+     * {@link #getFormatStrings()}, or -1 if the cell has no format string.
+     */
+    int[] getFormatStringIds();
+
+    /**
+     * Returns the distinct format strings of the cells.
+     */
+    List<String> getFormatStrings();
+
+    /**
+     * Returns a cursor over the positions of an axis. The cursor reads the
+     * axis's tuples in place; {@link TupleCursor#member(int)} returns a
+     * member of the current position.
+     *
+     * @param axisOrdinal Ordinal of axis (0 for columns, 1 for rows, etc.)
+     * @return Cursor over positions
+     */
+    TupleCursor getPositionCursor(int axisOrdinal);
+}
+
+// End CellSetColumns.java
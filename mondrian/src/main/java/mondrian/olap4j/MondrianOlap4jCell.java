@@ -14,6 +14,7 @@ package mondrian.olap4j;
 
 import mondrian.olap.*;
 import mondrian.rolap.RolapCell;
+import mondrian.rolap.RolapResultCache;
 import mondrian.rolap.SqlStatement;
 
 import org.apache.logging.log4j.Logger;
@@ -36,7 +37,7 @@ import java.util.List;
 class MondrianOlap4jCell implements Cell {
     private final int[] coordinates;
     private final MondrianOlap4jCellSet olap4jCellSet;
-    final RolapCell cell;
+    final mondrian.olap.Cell cell;
 
     /**
      * Creates a MondrianOlap4jCell.
@@ -48,7 +49,7 @@ class MondrianOlap4jCell implements Cell {
     MondrianOlap4jCell(
         int[] coordinates,
         MondrianOlap4jCellSet olap4jCellSet,
-        RolapCell cell)
+        mondrian.olap.Cell cell)
     {
         assert coordinates != null;
         assert olap4jCellSet != null;
@@ -166,8 +167,9 @@ class MondrianOlap4jCell implements Cell {
         if (rowCountSlot != null) {
             rowCountSlot[0] = cell.getDrillThroughCount();
         }
+        final RolapCell rolapCell = RolapResultCache.getRolapCell(cell);
         final SqlStatement sqlStmt =
-            cell.drillThroughInternal(
+            rolapCell.drillThroughInternal(
                 maxRowCount, firstRowOrdinal, fields, extendedContext,
                 logger);
         return sqlStmt.getWrappedResultSet();
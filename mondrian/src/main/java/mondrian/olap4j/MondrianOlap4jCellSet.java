@@ -16,7 +16,6 @@ package mondrian.olap4j;
 import mondrian.olap.Axis;
 import mondrian.olap.*;
 import mondrian.rolap.RolapAxis;
-import mondrian.rolap.RolapCell;
 import mondrian.server.Execution;
 import mondrian.spi.ProfileHandler;
 
@@ -53,6 +52,7 @@ abstract class MondrianOlap4jCellSet
     private final List<CellSetAxis> axisList =
         new ArrayList<CellSetAxis>();
     private CellSetAxis filterAxis;
+    private CellSetColumns columns;
 
     /**
      * Creates a MondrianOlap4jCellSet.
@@ -170,9 +170,9 @@ abstract class MondrianOlap4jCellSet
     }
 
     private Cell getCellInternal(int[] pos) {
-        RolapCell cell;
+        mondrian.olap.Cell cell;
         try {
-            cell = (RolapCell) result.getCell(pos);
+            cell = result.getCell(pos);
         } catch (MondrianException e) {
             if (e.getMessage().indexOf("coordinates out of range") >= 0) {
                 int[] dimensions = new int[getAxes().size()];
@@ -856,11 +856,25 @@ abstract class MondrianOlap4jCellSet
     // implement Wrapper
 
     public <T> T unwrap(Class<T> iface) throws SQLException {
-        throw new UnsupportedOperationException();
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        if (iface == CellSetColumns.class) {
+            return iface.cast(getColumns());
+        }
+        throw olap4jStatement.olap4jConnection.helper.createException(
+            "does not implement '" + iface + "'");
     }
 
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
-        throw new UnsupportedOperationException();
+        return iface.isInstance(this) || iface == CellSetColumns.class;
+    }
+
+    private synchronized CellSetColumns getColumns() {
+        if (columns == null) {
+            columns = new MondrianOlap4jCellSetColumns(result);
+        }
+        return columns;
     }
 }
 
@@ -0,0 +1,198 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.olap4j;
+
+import mondrian.calc.TupleCursor;
+import mondrian.olap.Axis;
+import mondrian.olap.Cell;
+import mondrian.olap.Result;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapAxis;
+import mondrian.rolap.RolapResult;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link CellSetColumns}
+ * for the Mondrian OLAP engine.
+ */
+class MondrianOlap4jCellSetColumns implements CellSetColumns {
+    private final Result result;
+    private final int[] axisSizes;
+    private final int cellCount;
+
+    private double[] values;
+    private BitSet nulls;
+    private BitSet nonNumerics;
+    private int[] formatStringIds;
+    private List<String> formatStrings;
+
+    /**
+     * Creates a MondrianOlap4jCellSetColumns.
+     *
+     * @param result Result of the cell set
+     */
+    MondrianOlap4jCellSetColumns(Result result) {
+        this.result = result;
+        final Axis[] axes = result.getAxes();
+        this.axisSizes = new int[axes.length];
+        long count = 1;
+        for (int i = 0; i < axes.length; i++) {
+            axisSizes[i] = axes[i].getPositions().size();
+            count *= axisSizes[i];
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "Cell set has too many cells (" + count + ")");
+        }
+        this.cellCount = (int) count;
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public double[] getValues() {
+        load();
+        return values;
+    }
+
+    public BitSet getNulls() {
+        load();
+        return nulls;
+    }
+
+    public BitSet getNonNumerics() {
+        load();
+        return nonNumerics;
+    }
+
+    public Object getValue(int ordinal) {
+        return result.getCell(toPos(ordinal)).getValue();
+    }
+
+    public int[] getFormatStringIds() {
+        load();
+        return formatStringIds;
+    }
+
+    public List<String> getFormatStrings() {
+        load();
+        return formatStrings;
+    }
+
+    public TupleCursor getPositionCursor(int axisOrdinal) {
+        return ((RolapAxis) result.getAxes()[axisOrdinal]).getTupleList()
+            .tupleCursor();
+    }
+
+    private int[] toPos(int ordinal) {
+        if (ordinal < 0 || ordinal >= cellCount) {
+            throw new IndexOutOfBoundsException(
+                "Cell ordinal " + ordinal + " lies outside CellSet bounds "
+                + Arrays.toString(axisSizes));
+        }
+        final int[] pos = new int[axisSizes.length];
+        for (int i = 0; i < axisSizes.length; i++) {
+            pos[i] = ordinal % axisSizes[i];
+            ordinal /= axisSizes[i];
+        }
+        return pos;
+    }
+
+    /**
+     * Reads the values and format strings of all cells, in one pass, if
+     * they have not been read already.
+     *
+     * <p>The cells of a {@link RolapResult} are read from its storage,
+     * without creating a {@link Cell} for each; other results are read cell
+     * by cell.
+     */
+    private synchronized void load() {
+        if (values != null) {
+            return;
+        }
+        final Loader loader = new Loader();
+        if (!(result instanceof RolapResult
+              && ((RolapResult) result).visitCells(loader)))
+        {
+            final int[] pos = new int[axisSizes.length];
+            for (int ordinal = 0; ordinal < cellCount; ordinal++) {
+                final Cell cell = result.getCell(pos);
+                loader.visit(
+                    pos,
+                    cell.isNull() ? null : cell.getValue(),
+                    cell.getCachedFormatString());
+                // Advance the coordinates; the first axis varies fastest.
+                for (int i = 0; i < pos.length; i++) {
+                    if (++pos[i] < axisSizes[i]) {
+                        break;
+                    }
+                    pos[i] = 0;
+                }
+            }
+        }
+        this.nulls = loader.nulls;
+        this.nonNumerics = loader.nonNumerics;
+        this.formatStringIds = loader.formatStringIds;
+        this.formatStrings = Collections.unmodifiableList(loader.formatStrings);
+        this.values = loader.values;
+    }
+
+    /**
+     * Collects the values and format strings of cells into arrays indexed by
+     * cell ordinal. Cells that are not visited are null and have no format
+     * string.
+     */
+    private class Loader implements RolapResult.CellVisitor {
+        final double[] values = new double[cellCount];
+        final BitSet nulls = new BitSet(cellCount);
+        final BitSet nonNumerics = new BitSet();
+        final int[] formatStringIds = new int[cellCount];
+        final List<String> formatStrings = new ArrayList<String>();
+        final Map<String, Integer> formatStringMap =
+            new HashMap<String, Integer>();
+
+        Loader() {
+            Arrays.fill(values, Double.NaN);
+            nulls.set(0, cellCount);
+            Arrays.fill(formatStringIds, -1);
+        }
+
+        public void visit(int[] pos, Object value, String formatString) {
+            int ordinal = 0;
+            for (int i = pos.length - 1; i >= 0; i--) {
+                ordinal = ordinal * axisSizes[i] + pos[i];
+            }
+            if (value != null && value != Util.nullValue) {
+                nulls.clear(ordinal);
+                if (value instanceof Number) {
+                    values[ordinal] = ((Number) value).doubleValue();
+                } else {
+                    nonNumerics.set(ordinal);
+                }
+            }
+            if (formatString != null) {
+                Integer id = formatStringMap.get(formatString);
+                if (id == null) {
+                    id = formatStrings.size();
+                    formatStrings.add(formatString);
+                    formatStringMap.put(formatString, id);
+                }
+                formatStringIds[ordinal] = id;
+            }
+        }
+    }
+}
+
+// End MondrianOlap4jCellSetColumns.java
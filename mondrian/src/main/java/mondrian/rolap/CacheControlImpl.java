@@ -202,6 +202,8 @@ public class CacheControlImpl implements CacheControl {
             throw MondrianResource.instance().CacheFlushRegionMustContainMembers
                 .ex();
         }
+        final List<RolapStar> starList = getStarList(region);
+        RolapResultCache.instance().evict(starList);
         final UnionCellRegion union = normalize((CellRegionImpl) region);
         for (CellRegionImpl cellRegion : union.regions) {
             // Figure out the bits.
@@ -260,6 +262,7 @@ public class CacheControlImpl implements CacheControl {
 
     public void flushSchemaCache() {
         RolapSchemaPool.instance().clear();
+        RolapResultCache.instance().clear();
         // In some cases, the request might originate from a reference
         // to the schema which isn't in the pool anymore. We must also call
         // the cleanup procedure on the current connection.
@@ -893,6 +896,9 @@ public class CacheControlImpl implements CacheControl {
                 }
                 // Apply it all.
                 ((MemberEditCommandPlus) cmd).commit();
+
+                // Cached results may contain the members on their axes.
+                RolapResultCache.instance().clear();
             } finally {
                 Locus.pop(locus);
             }
@@ -0,0 +1,449 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.mdx.MemberExpr;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.olap.fun.FunUtil;
+
+import java.util.*;
+
+/**
+ * Evaluates calculated measures for many cells of a result at a time.
+ *
+ * <p>A calculated measure qualifies if its formula consists of the operators
+ * <code>+</code>, <code>-</code> (binary and unary), <code>*</code> and
+ * <code>/</code> and parentheses, applied to numeric literals and to
+ * operands that each read one cell: a stored measure, or a tuple of a stored
+ * measure and non-calculated members of other hierarchies. For example,
+ * <code>[Measures].[Store Sales] / [Measures].[Unit Sales]</code> and
+ * <code>[Measures].[Unit Sales] / ([Time].[1997], [Measures].[Unit
+ * Sales])</code> qualify.
+ *
+ * <p>When {@link RolapResult} reaches a cell whose only calculated member is
+ * such a measure, it calls {@link Formula#gather} instead of evaluating the
+ * cell. That reads the operands of the cell, through the evaluator's cell
+ * reader, into one array per operand. When the arrays are full, or the pass
+ * over the cells is over, {@link #flush} applies the formula to each array
+ * in turn, element by element, and stores the results in the cells. Nulls
+ * are represented by {@link FunUtil#DoubleNull}, and each operator treats
+ * them as its function definition does.
+ */
+class CalculatedMeasureBatch {
+    /**
+     * Number of cells that are evaluated together.
+     */
+    static final int BATCH_SIZE = 1024;
+
+    /**
+     * Marks measures whose formula does not qualify.
+     */
+    private static final Formula NONE = new Formula(null, null);
+
+    private final Map<Member, Formula> formulas =
+        new HashMap<Member, Formula>();
+
+    /**
+     * Returns the formula with which to evaluate the current cell of an
+     * evaluator, or null if the cell must be evaluated as usual.
+     *
+     * @param evaluator Evaluator
+     * @return Formula, or null
+     */
+    Formula lookup(RolapEvaluator evaluator) {
+        final RolapCalculation calculation = evaluator.getSoleCalculation();
+        if (!(calculation instanceof RolapMemberCalculation)
+            || evaluator.mightReturnNullForUnrelatedDimension())
+        {
+            return null;
+        }
+        final Member measure =
+            evaluator.getContext(evaluator.getCube().getMeasuresHierarchy());
+        if (!measure.isCalculated()
+            || calculation.getHierarchyOrdinal()
+            != measure.getHierarchy().getOrdinalInCube())
+        {
+            return null;
+        }
+        Formula formula = formulas.get(measure);
+        if (formula == null) {
+            formula = compile(measure.getExpression());
+            formulas.put(measure, formula);
+        }
+        return formula == NONE ? null : formula;
+    }
+
+    /**
+     * Returns the number of cells whose evaluation has been deferred to a
+     * batch. For testing.
+     */
+    int getDeferredCellCount() {
+        int n = 0;
+        for (Formula formula : formulas.values()) {
+            n += formula.deferredCellCount;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of batches of cells that have been evaluated. For
+     * testing.
+     */
+    int getBatchCount() {
+        int n = 0;
+        for (Formula formula : formulas.values()) {
+            n += formula.batchCount;
+        }
+        return n;
+    }
+
+    /**
+     * Evaluates the cells that have been gathered but not evaluated.
+     */
+    void flush() {
+        for (Formula formula : formulas.values()) {
+            if (formula != NONE) {
+                formula.flush();
+            }
+        }
+    }
+
+    /**
+     * Discards the cells that have been gathered but not evaluated.
+     */
+    void clear() {
+        for (Formula formula : formulas.values()) {
+            if (formula != NONE) {
+                formula.count = 0;
+                Arrays.fill(formula.cells, null);
+            }
+        }
+    }
+
+    private static Formula compile(Exp exp) {
+        final List<Member[]> operands = new ArrayList<Member[]>();
+        final Node node = compile(exp, operands);
+        if (node == null) {
+            return NONE;
+        }
+        return new Formula(
+            node, operands.toArray(new Member[operands.size()][]));
+    }
+
+    /**
+     * Converts an expression into a node, adding the operands it reads to a
+     * list. Returns null if the expression does not qualify.
+     */
+    private static Node compile(Exp exp, List<Member[]> operands) {
+        if (exp instanceof Literal) {
+            final Object value = ((Literal) exp).getValue();
+            return value instanceof Number
+                ? new ConstantNode(((Number) value).doubleValue())
+                : null;
+        }
+        if (exp instanceof MemberExpr) {
+            return operand(
+                new Member[] {((MemberExpr) exp).getMember()}, operands);
+        }
+        if (!(exp instanceof ResolvedFunCall)) {
+            return null;
+        }
+        final ResolvedFunCall call = (ResolvedFunCall) exp;
+        final FunDef funDef = call.getFunDef();
+        final String name = funDef.getName();
+        final Exp[] args = call.getArgs();
+        switch (funDef.getSyntax()) {
+        case Parentheses:
+            if (args.length == 1) {
+                return compile(args[0], operands);
+            }
+            final Member[] members = new Member[args.length];
+            for (int i = 0; i < args.length; i++) {
+                if (!(args[i] instanceof MemberExpr)) {
+                    return null;
+                }
+                members[i] = ((MemberExpr) args[i]).getMember();
+            }
+            return operand(members, operands);
+        case Prefix:
+            if (!name.equals("-")
+                || funDef.getReturnCategory() != Category.Numeric)
+            {
+                return null;
+            }
+            final Node node = compile(args[0], operands);
+            return node == null ? null : new NegateNode(node);
+        case Infix:
+            if (funDef.getReturnCategory() != Category.Numeric
+                || !(name.equals("+")
+                    || name.equals("-")
+                    || name.equals("*")
+                    || name.equals("/")))
+            {
+                return null;
+            }
+            final Node left = compile(args[0], operands);
+            final Node right = compile(args[1], operands);
+            if (left == null || right == null) {
+                return null;
+            }
+            return new BinaryNode(
+                name.charAt(0),
+                MondrianProperties.instance().NullDenominatorProducesNull.get(),
+                left,
+                right);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns a node that reads the cell at a tuple, or null if the tuple
+     * does not consist of one stored measure and non-calculated members.
+     */
+    private static Node operand(Member[] members, List<Member[]> operands) {
+        int measureCount = 0;
+        for (Member member : members) {
+            if (member.isCalculated() || member.isNull()) {
+                return null;
+            }
+            if (member.isMeasure()) {
+                if (!(member instanceof RolapStoredMeasure)) {
+                    return null;
+                }
+                ++measureCount;
+            }
+        }
+        if (measureCount != 1) {
+            return null;
+        }
+        operands.add(members);
+        return new OperandNode(operands.size() - 1);
+    }
+
+    /**
+     * Formula of a calculated measure, and the operands of the cells that
+     * are waiting to be evaluated by it.
+     */
+    static class Formula {
+        private final Node node;
+        private final Member[][] operands;
+        private final double[][] values;
+        private final RolapResult.CellInfo[] cells;
+        private int count;
+        private int deferredCellCount;
+        private int batchCount;
+
+        Formula(Node node, Member[][] operands) {
+            this.node = node;
+            this.operands = operands;
+            if (node == null) {
+                this.values = null;
+                this.cells = null;
+            } else {
+                this.values = new double[operands.length][BATCH_SIZE];
+                this.cells = new RolapResult.CellInfo[BATCH_SIZE];
+            }
+        }
+
+        /**
+         * Reads the operands of the current cell of an evaluator. Returns
+         * false if an operand is not numeric, in which case the cell must be
+         * evaluated as usual.
+         *
+         * <p>If this method returns true, the caller must call
+         * {@link #defer} with the cell before gathering another cell.
+         */
+        boolean gather(RolapEvaluator evaluator) {
+            final int savepoint = evaluator.savepoint();
+            try {
+                for (int i = 0; i < operands.length; i++) {
+                    evaluator.setContext(operands[i]);
+                    final Object o = evaluator.evaluateCurrent();
+                    evaluator.restore(savepoint);
+                    if (o == null) {
+                        values[i][count] = FunUtil.DoubleNull;
+                    } else if (o instanceof Number) {
+                        values[i][count] = ((Number) o).doubleValue();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                evaluator.restore(savepoint);
+            }
+        }
+
+        /**
+         * Records the cell whose operands were read by the last call to
+         * {@link #gather}, so that its value is set when the formula is
+         * evaluated.
+         */
+        void defer(RolapResult.CellInfo cell) {
+            cells[count++] = cell;
+            ++deferredCellCount;
+            if (count == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (count == 0) {
+                return;
+            }
+            ++batchCount;
+            final double[] result = new double[count];
+            node.evaluate(values, count, result);
+            for (int i = 0; i < count; i++) {
+                final double d = result[i];
+                cells[i].value = d == FunUtil.DoubleNull ? null : d;
+                cells[i] = null;
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Node of a formula. Computes a value for each of a number of cells.
+     */
+    private static abstract class Node {
+        /**
+         * Computes the values of this node.
+         *
+         * @param values Values of the operands, one array per operand
+         * @param count Number of cells
+         * @param result Array into which to write the values
+         */
+        abstract void evaluate(double[][] values, int count, double[] result);
+    }
+
+    private static class ConstantNode extends Node {
+        private final double value;
+
+        ConstantNode(double value) {
+            this.value = value;
+        }
+
+        void evaluate(double[][] values, int count, double[] result) {
+            Arrays.fill(result, 0, count, value);
+        }
+    }
+
+    private static class OperandNode extends Node {
+        private final int ordinal;
+
+        OperandNode(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
+        void evaluate(double[][] values, int count, double[] result) {
+            System.arraycopy(values[ordinal], 0, result, 0, count);
+        }
+    }
+
+    private static class NegateNode extends Node {
+        private final Node node;
+
+        NegateNode(Node node) {
+            this.node = node;
+        }
+
+        void evaluate(double[][] values, int count, double[] result) {
+            node.evaluate(values, count, result);
+            for (int i = 0; i < count; i++) {
+                final double v = result[i];
+                result[i] = v == FunUtil.DoubleNull ? FunUtil.DoubleNull : -v;
+            }
+        }
+    }
+
+    /**
+     * Applies an arithmetic operator. The treatment of nulls follows the
+     * definitions of the operators in
+     * {@link mondrian.olap.fun.BuiltinFunTable}.
+     */
+    private static class BinaryNode extends Node {
+        private final char op;
+        private final boolean nullDenominatorProducesNull;
+        private final Node left;
+        private final Node right;
+
+        BinaryNode(
+            char op,
+            boolean nullDenominatorProducesNull,
+            Node left,
+            Node right)
+        {
+            this.op = op;
+            this.nullDenominatorProducesNull = nullDenominatorProducesNull;
+            this.left = left;
+            this.right = right;
+        }
+
+        void evaluate(double[][] values, int count, double[] result) {
+            final double[] v1s = new double[count];
+            left.evaluate(values, count, result);
+            right.evaluate(values, count, v1s);
+            final double n = FunUtil.DoubleNull;
+            switch (op) {
+            case '+':
+                for (int i = 0; i < count; i++) {
+                    final double v0 = result[i];
+                    final double v1 = v1s[i];
+                    result[i] = v0 == n ? v1 : v1 == n ? v0 : v0 + v1;
+                }
+                break;
+            case '-':
+                for (int i = 0; i < count; i++) {
+                    final double v0 = result[i];
+                    final double v1 = v1s[i];
+                    result[i] =
+                        v0 == n ? (v1 == n ? n : -v1)
+                            : v1 == n ? v0 : v0 - v1;
+                }
+                break;
+            case '*':
+                for (int i = 0; i < count; i++) {
+                    final double v0 = result[i];
+                    final double v1 = v1s[i];
+                    result[i] = v0 == n || v1 == n ? n : v0 * v1;
+                }
+                break;
+            case '/':
+                if (nullDenominatorProducesNull) {
+                    for (int i = 0; i < count; i++) {
+                        final double v0 = result[i];
+                        final double v1 = v1s[i];
+                        result[i] = v0 == n || v1 == n ? n : v0 / v1;
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        final double v0 = result[i];
+                        final double v1 = v1s[i];
+                        result[i] =
+                            v0 == n ? n
+                                : v1 == n ? Double.POSITIVE_INFINITY
+                                    : v0 / v1;
+                    }
+                }
+                break;
+            default:
+                throw Util.newInternal("unexpected operator " + op);
+            }
+        }
+    }
+}
+
+// End CalculatedMeasureBatch.java
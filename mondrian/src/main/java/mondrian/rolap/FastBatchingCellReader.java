@@ -592,6 +592,12 @@ class BatchLoader {
             && dialect.supportsGroupingSets();
     }
 
+    final boolean shouldUseUnionAll() {
+        return MondrianProperties.instance().UnionAllBatching.get()
+            && dialect.allowsFromQuery()
+            && !shouldUseGroupingFunction();
+    }
+
     private void recordCellRequest2(final CellRequest request) {
         // If there is a segment matching these criteria, write it to the list
         // of found segments, and remove the cell request from the list.
@@ -667,6 +673,7 @@ class BatchLoader {
 
         if (!headersInCache.isEmpty()) {
             for (SegmentHeader headerInCache : headersInCache) {
+                SegmentWarmer.recordHit(headerInCache);
                 final Future<SegmentBody> future =
                     index.getFuture(locus.execution, headerInCache);
 
@@ -896,6 +903,14 @@ class BatchLoader {
             for (CompositeBatch batch : groupedBatches) {
                 batch.load(segmentMapFutures);
             }
+        } else if (shouldUseUnionAll()) {
+            LOGGER.debug("Using UNION ALL");
+            final GroupingSetsCollector collector =
+                new GroupingSetsCollector(false, true);
+            for (Batch batch : batchList) {
+                batch.loadAggregation(collector, segmentMapFutures);
+            }
+            loadUnions(collector.getLoads(), segmentMapFutures);
         } else {
             // Load batches in turn.
             for (Batch batch : batchList) {
@@ -922,6 +937,48 @@ class BatchLoader {
             futures);
     }
 
+    /**
+     * Starts a list of loads, combining those on the same star into
+     * statements of up to {@link MondrianProperties#UnionAllBatchSize}
+     * branches.
+     */
+    private void loadUnions(
+        List<SegmentLoader.Load> loads,
+        List<Future<Map<Segment, SegmentWithData>>> segmentMapFutures)
+    {
+        final Map<RolapStar, List<SegmentLoader.Load>> loadsByStar =
+            new LinkedHashMap<RolapStar, List<SegmentLoader.Load>>();
+        for (SegmentLoader.Load load : loads) {
+            List<SegmentLoader.Load> list = loadsByStar.get(load.getStar());
+            if (list == null) {
+                list = new ArrayList<SegmentLoader.Load>();
+                loadsByStar.put(load.getStar(), list);
+            }
+            list.add(load);
+        }
+        final int batchSize =
+            Math.max(1, MondrianProperties.instance().UnionAllBatchSize.get());
+        final SegmentLoader segmentLoader = new SegmentLoader(cacheMgr);
+        for (List<SegmentLoader.Load> list : loadsByStar.values()) {
+            for (int i = 0; i < list.size(); i += batchSize) {
+                final List<SegmentLoader.Load> chunk =
+                    list.subList(i, Math.min(list.size(), i + batchSize));
+                if (chunk.size() == 1) {
+                    final SegmentLoader.Load load = chunk.get(0);
+                    segmentLoader.load(
+                        load.getCellRequestCount(),
+                        load.getGroupingSets(),
+                        load.getCompoundPredicateList(),
+                        segmentMapFutures);
+                } else {
+                    segmentLoader.loadUnion(
+                        new ArrayList<SegmentLoader.Load>(chunk),
+                        segmentMapFutures);
+                }
+            }
+        }
+    }
+
     static List<CompositeBatch> groupBatches(List<Batch> batchList) {
         Map<AggregationKey, CompositeBatch> batchGroups =
             new HashMap<AggregationKey, CompositeBatch>();
@@ -1057,6 +1114,11 @@ class BatchLoader {
                 cellRequestCount += batch.cellRequestCount;
             }
 
+            // The collector is empty if the batches contained only sketch
+            // measures, which load themselves.
+            if (batchCollector.getGroupingSets().isEmpty()) {
+                return;
+            }
             getSegmentLoader().load(
                 cellRequestCount,
                 batchCollector.getGroupingSets(),
@@ -1253,6 +1315,28 @@ class BatchLoader {
             final StarColumnPredicate[] predicates = initPredicates();
             final long t1 = System.currentTimeMillis();
 
+            // Each sketch measure is loaded by a query of its own, which
+            // groups by the measure's operand, and cannot be combined with
+            // other measures or grouping sets.
+            for (Iterator<RolapStar.Measure> iterator =
+                     measuresList.iterator();
+                 iterator.hasNext();)
+            {
+                final RolapStar.Measure measure = iterator.next();
+                if (measure.getAggregator().isSketch()) {
+                    AggregationManager.loadAggregation(
+                        cacheMgr,
+                        cellRequestCount,
+                        Collections.singletonList(measure),
+                        columns,
+                        batchKey,
+                        predicates,
+                        new GroupingSetsCollector(false),
+                        segmentFutures);
+                    iterator.remove();
+                }
+            }
+
             // TODO: optimize key sets; drop a constraint if more than x% of
             // the members are requested; whether we should get just the cells
             // requested or expand to a n-cube
@@ -1508,6 +1592,8 @@ class BatchLoader {
                 && hasSameMeasureList(other)
                 && !hasDistinctCountMeasure()
                 && !other.hasDistinctCountMeasure()
+                && !hasSketchMeasure()
+                && !other.hasSketchMeasure()
                 && haveSameStarAndAggregation(other)
                 && haveSameClosureColumns(other);
         }
@@ -1583,6 +1669,15 @@ class BatchLoader {
             return getDistinctMeasureCount(measuresList) > 0;
         }
 
+        boolean hasSketchMeasure() {
+            for (RolapStar.Measure measure : measuresList) {
+                if (measure.getAggregator().isSketch()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         boolean hasSameCompoundPredicate(Batch other) {
             final StarPredicate starPredicate = compoundPredicate();
             final StarPredicate otherStarPredicate = other.compoundPredicate();
@@ -14,6 +14,7 @@
 package mondrian.rolap;
 
 import mondrian.rolap.agg.GroupingSet;
+import mondrian.rolap.agg.SegmentLoader;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -29,16 +30,48 @@ public class GroupingSetsCollector {
 
     private final boolean useGroupingSets;
 
+    private final boolean deferLoads;
+
     private ArrayList<GroupingSet> groupingSets = new ArrayList<GroupingSet>();
 
+    private final List<SegmentLoader.Load> loads =
+        new ArrayList<SegmentLoader.Load>();
+
     public GroupingSetsCollector(boolean useGroupingSets) {
+        this(useGroupingSets, false);
+    }
+
+    /**
+     * Creates a GroupingSetsCollector.
+     *
+     * @param useGroupingSets Whether to collect grouping sets, to be loaded
+     *   by one statement using GROUPING SETS
+     * @param deferLoads Whether to collect loads, rather than start them,
+     *   so that they can be combined using UNION ALL; ignored if
+     *   useGroupingSets
+     */
+    public GroupingSetsCollector(boolean useGroupingSets, boolean deferLoads) {
         this.useGroupingSets = useGroupingSets;
+        this.deferLoads = deferLoads && !useGroupingSets;
     }
 
     public boolean useGroupingSets() {
         return useGroupingSets;
     }
 
+    public boolean deferLoads() {
+        return deferLoads;
+    }
+
+    public void addLoad(SegmentLoader.Load load) {
+        assert deferLoads;
+        loads.add(load);
+    }
+
+    public List<SegmentLoader.Load> getLoads() {
+        return loads;
+    }
+
     public void add(GroupingSet aggInfo) {
         assert groupingSets.isEmpty()
             || groupingSets.get(0).getColumns().length
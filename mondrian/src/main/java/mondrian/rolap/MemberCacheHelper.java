@@ -29,6 +29,13 @@ import static org.apache.commons.collections.CollectionUtils.filter;
 /**
  * Encapsulation of member caching.
  *
+ * <p>Synchronization. Lookups do not lock: the caches are
+ * {@link ConcurrentSmartCache}s, and the lists and collections stored in them
+ * are never modified once published; {@link #removeMember} and
+ * {@link #putChildren} replace them with modified copies instead.
+ * {@link #flushCache} and {@link #removeMember} synchronize on this helper,
+ * so that the maps are modified together.
+ *
  * @author Will Gorman
  */
 public class MemberCacheHelper implements MemberCache {
@@ -65,10 +72,25 @@ public class MemberCacheHelper implements MemberCache {
      */
     public MemberCacheHelper(RolapHierarchy rolapHierarchy) {
         this.rolapHierarchy = rolapHierarchy;
-        this.mapLevelToMembers = new SmartMemberListCache<>();
-        this.mapKeyToMember = new SoftSmartCache<>();
-        this.mapMemberToChildren = new SmartMemberListCache<>();
-        this.mapParentToNamedChildren = new SmartIncrementalCache<>();
+        this.props = MondrianProperties.instance();
+        final int maxWeight = props.MemberCacheMaxWeight.get();
+        this.mapLevelToMembers =
+            new SmartMemberListCache<>(
+                new ConcurrentSmartCache<Pair<RolapLevel, Object>,
+                    List<RolapMember>>(maxWeight));
+        // Members stay softly referenced whatever the maximum weight. A
+        // member evicted while it is still referenced would be created
+        // again on the next lookup, and there would be two RolapMember
+        // objects for the same key.
+        this.mapKeyToMember = new ConcurrentSmartCache<Object, RolapMember>(0);
+        this.mapMemberToChildren =
+            new SmartMemberListCache<>(
+                new ConcurrentSmartCache<Pair<RolapMember, Object>,
+                    List<RolapMember>>(maxWeight));
+        this.mapParentToNamedChildren =
+            new SmartIncrementalCache<>(
+                new ConcurrentSmartCache<RolapMember, Collection<RolapMember>>(
+                    maxWeight));
 
         if (rolapHierarchy != null) {
             changeListener =
@@ -76,8 +98,6 @@ public class MemberCacheHelper implements MemberCache {
         } else {
             changeListener = null;
         }
-
-        props = MondrianProperties.instance();
     }
 
     public RolapMember getMember(
@@ -105,9 +125,16 @@ public class MemberCacheHelper implements MemberCache {
         return getMember(key, true);
     }
 
-    public synchronized void checkCacheStatus() {
-        if (changeListener != null && changeListener.isHierarchyChanged(rolapHierarchy)) {
-            flushCache();
+    public void checkCacheStatus() {
+        // Most hierarchies have no change listener; don't lock for them.
+        final DataSourceChangeListener listener = changeListener;
+        if (listener == null) {
+            return;
+        }
+        synchronized (this) {
+            if (listener.isHierarchyChanged(rolapHierarchy)) {
+                flushCache();
+            }
         }
     }
 
@@ -227,15 +254,19 @@ public class MemberCacheHelper implements MemberCache {
           return;
         }
 
+        // Readers iterate over the cached collection without locking, so
+        // never modify it in place; publish a sorted copy instead. If two
+        // threads race, one set of names may be lost; it will be re-read.
         Collection<RolapMember> cachedChildren =
             mapParentToNamedChildren.get(parent);
-        if (cachedChildren == null) {
-            // initialize with a sorted set
-            mapParentToNamedChildren.put(
-                parent, new TreeSet<>(children));
-        } else {
-            mapParentToNamedChildren.addToEntry(parent, children);
+        final TreeSet<RolapMember> newChildren =
+            cachedChildren == null
+                ? new TreeSet<>(children)
+                : new TreeSet<>(cachedChildren);
+        if (cachedChildren != null) {
+            newChildren.addAll(children);
         }
+        mapParentToNamedChildren.put(parent, newChildren);
     }
 
     public List<RolapMember> getLevelMembersFromCache(
@@ -299,7 +330,10 @@ public class MemberCacheHelper implements MemberCache {
                   if (member.equals(currentMember)) {
                       iterator.remove();
                   } else if (parent.equals(currentMember)) {
-                      entry.getValue().remove(member);
+                      final Collection<RolapMember> siblings =
+                          new TreeSet<>(entry.getValue());
+                      siblings.remove(member);
+                      entry.setValue(siblings);
                   }
               }
           } );
@@ -327,9 +361,12 @@ public class MemberCacheHelper implements MemberCache {
                       if (constraint
                           == DefaultMemberChildrenConstraint.instance())
                       {
-                          List<RolapMember> siblings = entry.getValue();
+                          // Copy, because readers do not lock.
+                          List<RolapMember> siblings =
+                              new ArrayList<>(entry.getValue());
                           boolean removedIt = siblings.remove( member );
                           Util.discard(removedIt);
+                          entry.setValue(siblings);
                       } else {
                           iter.remove();
                       }
@@ -241,6 +241,20 @@ class RestrictedMemberReader extends DelegatingMemberReader {
                 return Collections.emptyList();
             }
         }
+        if (constraint == DefaultTupleConstraint.instance()
+            && MondrianProperties.instance().PushMemberAccessToSql.get())
+        {
+            final Map<Level, List<Member>> accessibleAncestors =
+                getAccessibleAncestors(level);
+            if (accessibleAncestors != null) {
+                if (accessibleAncestors.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                constraint =
+                    new RoleAccessConstraint(
+                        hierarchyAccess, accessibleAncestors);
+            }
+        }
         final List<RolapMember> membersInLevel =
             memberReader.getMembersInLevel(
                 level, constraint);
@@ -249,6 +263,35 @@ class RestrictedMemberReader extends DelegatingMemberReader {
         return filteredMembers;
     }
 
+    /**
+     * Returns the members whose grants can make members of a level
+     * accessible, or null if the members of the level cannot be restricted
+     * in SQL.
+     */
+    private Map<Level, List<Member>> getAccessibleAncestors(RolapLevel level) {
+        if (ragged) {
+            return null;
+        }
+        for (Level l : getHierarchy().getLevels()) {
+            if (((RolapLevel) l).isParentChild()) {
+                return null;
+            }
+        }
+        final Map<Level, List<Member>> accessibleAncestors =
+            RoleImpl.getAccessibleAncestors(hierarchyAccess, level);
+        if (accessibleAncestors == null) {
+            return null;
+        }
+        final int maxConstraints =
+            MondrianProperties.instance().MaxConstraints.get();
+        for (List<Member> members : accessibleAncestors.values()) {
+            if (members.size() > maxConstraints) {
+                return null;
+            }
+        }
+        return accessibleAncestors;
+    }
+
     public RolapMember getDefaultMember() {
         RolapMember defaultMember =
             (RolapMember) getHierarchy().getDefaultMember();
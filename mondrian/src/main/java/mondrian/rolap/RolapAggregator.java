@@ -13,13 +13,18 @@
 package mondrian.rolap;
 
 import mondrian.calc.Calc;
+import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleList;
 import mondrian.olap.*;
 import mondrian.olap.fun.AggregateFunDef;
 import mondrian.olap.fun.FunUtil;
+import mondrian.server.Execution;
 import mondrian.spi.Dialect;
 import mondrian.spi.Dialect.Datatype;
+import mondrian.util.CancellationChecker;
+import mondrian.util.HyperLogLog;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -212,11 +217,72 @@ public abstract class RolapAggregator extends EnumeratedValues.BasicValue implem
     };
   };
 
+  /**
+   * Approximate distinct count. Each cell holds a {@link HyperLogLog} sketch of the distinct values of the operand, which
+   * evaluates to the estimated count. Unlike {@link #DistinctCount}, sketches can be merged, so cells roll up in memory
+   * and in {@code Aggregate}, and can be stored in aggregate tables.
+   *
+   * <p>The database does not compute the sketches. The query that loads a segment groups by the operand as well as the
+   * segment's columns, and each row's operand value is added to the sketch of its cell. A value that is a serialized
+   * sketch ({@link HyperLogLog#toBytes()}), as read from an aggregate table, is merged instead.
+   */
+  public static final RolapAggregator ApproxDistinctCount =
+      new RolapAggregator( "approx-distinct-count", index++, false ) {
+        public Object aggregate( Evaluator evaluator, TupleList members, Calc exp ) {
+          final List<HyperLogLog> sketches = new ArrayList<HyperLogLog>();
+          boolean notReady = false;
+          final Execution execution = evaluator.getQuery().getStatement().getCurrentExecution();
+          final TupleCursor cursor = members.tupleCursor();
+          int currentIteration = 0;
+          while ( cursor.forward() ) {
+            CancellationChecker.checkCancelOrTimeout( currentIteration++, execution );
+            cursor.setContext( evaluator );
+            final Object o = exp.evaluate( evaluator );
+            if ( o == RolapUtil.valueNotReadyException ) {
+              // Carry on, so that the batching cell reader finds out about all the cells we need.
+              notReady = true;
+            } else if ( o instanceof HyperLogLog ) {
+              sketches.add( (HyperLogLog) o );
+            } else if ( o != null && o != Util.nullValue ) {
+              throw new MondrianException( "Aggregator " + this.name + " cannot roll up value '" + o
+                  + "', which is not a sketch" );
+            }
+          }
+          if ( notReady ) {
+            return RolapUtil.valueNotReadyException;
+          }
+          return sketches.isEmpty() ? Util.nullValue : HyperLogLog.union( sketches );
+        }
+
+        public String getExpression( String operand ) {
+          // The query groups by the operand; see AbstractQuerySpec.
+          return operand;
+        }
+
+        public boolean isSketch() {
+          return true;
+        }
+
+        public boolean supportsFastAggregates( Dialect.Datatype dataType ) {
+          return true;
+        }
+
+        public Object aggregate( List<Object> rawData, Datatype datatype ) {
+          final List<HyperLogLog> sketches = new ArrayList<HyperLogLog>( rawData.size() );
+          for ( Object data : rawData ) {
+            if ( data instanceof HyperLogLog ) {
+              sketches.add( (HyperLogLog) data );
+            }
+          }
+          return sketches.isEmpty() ? null : HyperLogLog.union( sketches );
+        }
+      };
+
   /**
    * List of all valid aggregation operators.
    */
   public static final EnumeratedValues<RolapAggregator> enumeration =
-      new EnumeratedValues<>( new RolapAggregator[] { Sum, Count, Min, Max, Avg, DistinctCount } );
+      new EnumeratedValues<>( new RolapAggregator[] { Sum, Count, Min, Max, Avg, DistinctCount, ApproxDistinctCount } );
 
   /**
    * This is the base class for implementing aggregators over sum and average columns in an aggregate table. These
@@ -388,6 +454,15 @@ public abstract class RolapAggregator extends EnumeratedValues.BasicValue implem
     return buf.toString();
   }
 
+  /**
+   * Returns whether cells of this aggregator hold sketches that are built in memory from the stream of values of its
+   * operand, rather than values computed by the database. A query that loads such a measure groups by the operand, so
+   * the measure must be loaded on its own.
+   */
+  public boolean isSketch() {
+    return false;
+  }
+
   /**
    * If this is a distinct aggregator, returns the corresponding non-distinct aggregator, otherwise throws an error.
    */
@@ -172,6 +172,13 @@ public class RolapCell implements Cell {
                 new ArrayList<OlapElement>(),
                 true);
 
+        // The result does not change, so neither does the count. Clients that
+        // page through the rows of a cell ask for it once per page.
+        final Integer count = result.getDrillThroughCount(sql);
+        if (count != null) {
+            return count;
+        }
+
         final SqlStatement stmt =
             RolapUtil.executeQuery(
                 connection.getDataSource(),
@@ -185,7 +192,9 @@ public class RolapCell implements Cell {
             assert rs.getMetaData().getColumnCount() == 1;
             rs.next();
             ++stmt.rowCount;
-            return rs.getInt(1);
+            final int rowCount = rs.getInt(1);
+            result.putDrillThroughCount(sql, rowCount);
+            return rowCount;
         } catch (SQLException e) {
             throw stmt.handle(e);
         } finally {
@@ -481,6 +490,29 @@ public class RolapCell implements Cell {
 
         // Generate SQL.
         String sql = getDrillThroughSQL(fields, extendedContext);
+
+        final Statement statement =
+            result.getExecution().getMondrianStatement();
+        final Execution execution = new Execution(statement, 0);
+        final Connection connection = statement.getMondrianConnection();
+        final Schema schema = statement.getSchema();
+        Dialect dialect = ((RolapSchema) schema).getDialect();
+
+        // If the dialect can, let the database skip to the first row and stop
+        // after the last, rather than reading and discarding rows. The
+        // maximum counts the skipped rows, as JDBC's setMaxRows does.
+        final int offset = Math.max(firstRowOrdinal, 0);
+        int skipRowCount = firstRowOrdinal;
+        if ((offset > 0 || maxRowCount > 0)
+            && (maxRowCount <= 0 || maxRowCount > offset)
+            && dialect.supportsLimitOffset())
+        {
+            final StringBuilder buf = new StringBuilder(sql);
+            dialect.generateLimitOffset(
+                buf, offset, maxRowCount > 0 ? maxRowCount - offset : 0);
+            sql = buf.toString();
+            skipRowCount = 0;
+        }
         if (logger != null && logger.isDebugEnabled()) {
             logger.debug("drill through sql: " + sql);
         }
@@ -488,17 +520,11 @@ public class RolapCell implements Cell {
         // Choose the appropriate scrollability. If we need to start from an
         // offset row, it is useful that the cursor is scrollable, but not
         // essential.
-        final Statement statement =
-            result.getExecution().getMondrianStatement();
-        final Execution execution = new Execution(statement, 0);
-        final Connection connection = statement.getMondrianConnection();
         int resultSetType = ResultSet.TYPE_SCROLL_INSENSITIVE;
         int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
-        final Schema schema = statement.getSchema();
-        Dialect dialect = ((RolapSchema) schema).getDialect();
         if (!dialect.supportsResultSetConcurrency(
                 resultSetType, resultSetConcurrency)
-            || firstRowOrdinal <= 1)
+            || skipRowCount <= 1)
         {
             // downgrade to non-scroll cursor, since we can
             // fake absolute() via forward fetch
@@ -510,7 +536,7 @@ public class RolapCell implements Cell {
                 sql,
                 null,
                 maxRowCount,
-                firstRowOrdinal,
+                skipRowCount,
                 new SqlStatement.StatementLocus(
                     execution,
                     "RolapCell.drillThrough",
@@ -596,18 +596,32 @@ public class RolapConnection extends ConnectionBase {
    *                                        the property file
    */
   public Result execute( final Execution execution ) {
+    return execute( execution, true );
+  }
+
+  /**
+   * Executes a statement without looking up or storing its result in the
+   * {@link RolapResultCache result cache}.
+   *
+   * @param execution Execution context (includes statement, query)
+   */
+  Result executeUncached( final Execution execution ) {
+    return execute( execution, false );
+  }
+
+  private Result execute( final Execution execution, final boolean useCache ) {
     return
       server.getResultShepherd()
         .shepherdExecution(
           execution,
           new Callable<Result>() {
             public Result call() throws Exception {
-              return executeInternal( execution );
+              return executeInternal( execution, useCache );
             }
           } );
   }
 
-  private Result executeInternal( final Execution execution ) {
+  private Result executeInternal( final Execution execution, boolean useCache ) {
     execution.setContextMap();
     final Statement statement = execution.getMondrianStatement();
     // Cleanup any previous executions still running
@@ -645,19 +659,29 @@ public class RolapConnection extends ConnectionBase {
         RolapUtil.MDX_LOGGER.debug( currId + ": " + Util.unparse( query ) );
       }
 
+      final RolapResultCache resultCache = RolapResultCache.instance();
+      final RolapResultCache.Key cacheKey =
+        useCache ? resultCache.key( this, query ) : null;
       final Locus locus = new Locus( execution, null, "Loading cells" );
       Locus.push( locus );
       Result result;
       try {
         statement.start( execution );
-        ( (RolapCube) query.getCube() ).clearCachedAggregations( true );
-        result = new RolapResult( execution, true );
-        int i = 0;
-        for ( QueryAxis axis : query.getAxes() ) {
-          if ( axis.isNonEmpty() ) {
-            result = new NonEmptyResult( result, execution, i );
+        result =
+          cacheKey == null ? null : resultCache.get( cacheKey, this, execution );
+        if ( result == null ) {
+          ( (RolapCube) query.getCube() ).clearCachedAggregations( true );
+          result = new RolapResult( execution, true );
+          int i = 0;
+          for ( QueryAxis axis : query.getAxes() ) {
+            if ( axis.isNonEmpty() ) {
+              result = new NonEmptyResult( result, execution, i );
+            }
+            ++i;
+          }
+          if ( cacheKey != null ) {
+            resultCache.put( cacheKey, result );
           }
-          ++i;
         }
       } finally {
         Locus.pop( locus );
@@ -12,6 +12,7 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 
 import org.apache.commons.dbcp2.ConnectionFactory;
@@ -194,6 +195,18 @@ class RolapConnectionPool {
               new PoolableConnectionFactory( connectionFactory, null );
             poolableConnectionFactory.setDefaultAutoCommit( true );
 
+            // keep prepared statements open, per connection, so that
+            // parameterized SQL is not prepared again each time it is run
+            final MondrianProperties properties = MondrianProperties.instance();
+            final int maxOpenPreparedStatements =
+              properties.MaxOpenPreparedStatements.get();
+            if ( properties.GenerateParameterizedSql.get()
+                && maxOpenPreparedStatements > 0 ) {
+              poolableConnectionFactory.setPoolStatements( true );
+              poolableConnectionFactory.setMaxOpenPreparedStatements(
+                maxOpenPreparedStatements );
+            }
+
             // use GenericObjectPool, which provides for resource limits
             GenericObjectPoolConfig config = new GenericObjectPoolConfig( );
             config.setMaxTotal( 50 );
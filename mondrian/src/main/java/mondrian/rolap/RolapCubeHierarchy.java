@@ -26,12 +26,14 @@ import mondrian.rolap.sql.TupleConstraint;
 import mondrian.util.UnsupportedList;
 
 import java.sql.SQLException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 /**
  * Hierarchy that is associated with a specific Cube.
@@ -463,8 +465,8 @@ public class RolapCubeHierarchy extends RolapHierarchy {
   /**
    * member reader wrapper - uses existing member reader, but wraps and caches all intermediate members.
    *
-   * <p>Synchronization. Most synchronization takes place within SmartMemberReader. All synchronization is done on
-   * the cacheHelper object.
+   * <p>Synchronization. Most synchronization takes place within SmartMemberReader. Cache hits do not lock; loads
+   * and the creation of new cube members synchronize on the cacheHelper object.
    */
   public class CacheRolapCubeHierarchyMemberReader extends SmartMemberReader implements RolapCubeHierarchyMemberReader {
     /**
@@ -481,6 +483,7 @@ public class RolapCubeHierarchy extends RolapHierarchy {
      */
     protected MemberCacheHelper rolapCubeCacheHelper;
     private final boolean enableCache = MondrianProperties.instance().EnableRolapCubeMemberCache.get();
+    private final boolean flyweight = MondrianProperties.instance().FlyweightCubeMembers.get();
 
     public CacheRolapCubeHierarchyMemberReader() {
       super( new SqlMemberSource( RolapCubeHierarchy.this ) );
@@ -588,7 +591,12 @@ public class RolapCubeHierarchy extends RolapHierarchy {
           if ( rolapCubeCacheHelper.getChildrenFromCache( member, constraint ) == null ) {
             final List<RolapMember> cacheList = entry.getValue();
 
-            if ( enableCache ) {
+            // Unconstrained children at a flyweight level are read again from the shared reader's cache. Children
+            // read with a context constraint come from our own SQL, so they are cached here as for other levels.
+            if ( enableCache
+              && !( !joinReq
+                && member instanceof RolapCubeMember
+                && isFlyweight( ( (RolapCubeMember) member ).getLevel().getChildLevel() ) ) ) {
               rolapCubeCacheHelper.putChildren( member, constraint, cacheList );
             }
           }
@@ -597,72 +605,52 @@ public class RolapCubeHierarchy extends RolapHierarchy {
     }
 
     @Override
-    public Map<? extends Member, Access> getMemberChildren( List<RolapMember> parentMembers, List<RolapMember> children,
-                                                            MemberChildrenConstraint constraint ) {
-      synchronized ( cacheHelper ) {
-        checkCacheStatus();
-
-        List<RolapMember> missed = new ArrayList<>();
-
-        for ( RolapMember parentMember : parentMembers ) {
-          List<RolapMember> list = rolapCubeCacheHelper.getChildrenFromCache( parentMember, constraint );
-
-          if ( list == null ) {
-            // the null member has no children
-            if ( !parentMember.isNull() ) {
-              missed.add( parentMember );
-            }
-          } else {
-            children.addAll( list );
-          }
-        }
-
-        if ( !missed.isEmpty() ) {
-          readMemberChildren( missed, children, constraint );
-        }
-      }
-
-      return Util.toNullValuesMap( children );
+    protected List<RolapMember> getChildrenFromCache( RolapMember parentMember, MemberChildrenConstraint constraint ) {
+      return rolapCubeCacheHelper.getChildrenFromCache( parentMember, constraint );
     }
 
+    @Override
+    protected List<RolapMember> getMembersInLevelFromCache( RolapLevel level, TupleConstraint constraint ) {
+      return rolapCubeCacheHelper.getLevelMembersFromCache( level, constraint );
+    }
 
     @Override
-    public List<RolapMember> getMembersInLevel( RolapLevel level, TupleConstraint constraint ) {
-      synchronized ( cacheHelper ) {
-        checkCacheStatus();
+    protected List<RolapMember> readMembersInLevel( RolapLevel level, TupleConstraint constraint ) {
+      List<RolapMember> members = rolapCubeCacheHelper.getLevelMembersFromCache( level, constraint );
 
-        List<RolapMember> members = rolapCubeCacheHelper.getLevelMembersFromCache( level, constraint );
+      if ( members != null ) {
+        return members;
+      }
 
-        if ( members != null ) {
-          return members;
-        }
+      // if a join is required, we need to pass in the RolapCubeLevel vs. the regular level
+      boolean joinReq = ( constraint instanceof SqlContextConstraint );
+      List<RolapMember> list;
+      final RolapCubeLevel cubeLevel = (RolapCubeLevel) level;
 
-        // if a join is required, we need to pass in the RolapCubeLevel vs. the regular level
-        boolean joinReq = ( constraint instanceof SqlContextConstraint );
-        List<RolapMember> list;
-        final RolapCubeLevel cubeLevel = (RolapCubeLevel) level;
+      if ( !joinReq ) {
+        list = rolapHierarchy.getMemberReader().getMembersInLevel( cubeLevel.getRolapLevel(), constraint );
 
-        if ( !joinReq ) {
-          list = rolapHierarchy.getMemberReader().getMembersInLevel( cubeLevel.getRolapLevel(), constraint );
-        } else {
-          list = super.getMembersInLevel( level, constraint );
+        if ( isFlyweight( cubeLevel ) ) {
+          return new CubeMemberList( this, list, cubeLevel );
         }
+      } else {
+        list = super.readMembersInLevel( level, constraint );
+      }
 
-        List<RolapMember> newlist = new ArrayList<>();
+      List<RolapMember> newlist = new ArrayList<>();
 
-        for ( RolapMember member : list ) {
-          // note that there is a special case for the all member
+      for ( RolapMember member : list ) {
+        // note that there is a special case for the all member
 
-          // REVIEW: disabled, to see what happens. if this code is for performance, we should check level.isAll at
-          // the top of the method; if it is for correctness, leave the code in
-          RolapCubeMember cubeMember = lookupCubeMemberWithParent( member, cubeLevel );
-          newlist.add( cubeMember );
-        }
+        // REVIEW: disabled, to see what happens. if this code is for performance, we should check level.isAll at
+        // the top of the method; if it is for correctness, leave the code in
+        RolapCubeMember cubeMember = lookupCubeMemberWithParent( member, cubeLevel );
+        newlist.add( cubeMember );
+      }
 
-        rolapCubeCacheHelper.putChildren( level, constraint, newlist );
+      rolapCubeCacheHelper.putChildren( level, constraint, newlist );
 
-        return newlist;
-      }
+      return newlist;
     }
 
     private RolapCubeMember lookupCubeMemberWithParent( RolapMember member, RolapCubeLevel cubeLevel ) {
@@ -690,31 +678,47 @@ public class RolapCubeHierarchy extends RolapHierarchy {
     }
 
     public RolapCubeMember lookupCubeMember( RolapCubeMember parent, RolapMember member, RolapCubeLevel level ) {
-      synchronized ( cacheHelper ) {
-        if ( member.getKey() == RolapUtil.sqlNullValue && member.isAll() ) {
-          return getAllMember();
-        }
+      if ( member.getKey() == RolapUtil.sqlNullValue && member.isAll() ) {
+        return getAllMember();
+      }
+
+      if ( !enableCache || isFlyweight( level ) ) {
+        return new RolapCubeMember( parent, member, level );
+      }
 
-        RolapCubeMember cubeMember;
+      Object key = rolapCubeCacheHelper.makeKey( parent, member.getKey() );
+      RolapCubeMember cubeMember = (RolapCubeMember) rolapCubeCacheHelper.getMember( key, false );
 
-        if ( enableCache ) {
-          Object key = rolapCubeCacheHelper.makeKey( parent, member.getKey() );
+      if ( cubeMember == null ) {
+        // Check again under the lock, so that there is only one cube member per key.
+        synchronized ( cacheHelper ) {
           cubeMember = (RolapCubeMember) rolapCubeCacheHelper.getMember( key, false );
 
           if ( cubeMember == null ) {
             cubeMember = new RolapCubeMember( parent, member, level );
             rolapCubeCacheHelper.putMember( key, cubeMember );
-          } else {
-            if ( level.hasOrdinalExp() ) {
-              fixOrdinal( cubeMember, member.getOrdinal() );
-            }
+            return cubeMember;
           }
-        } else {
-          cubeMember = new RolapCubeMember( parent, member, level );
         }
+      }
 
-        return cubeMember;
+      if ( level.hasOrdinalExp() ) {
+        fixOrdinal( cubeMember, member.getOrdinal() );
       }
+
+      return cubeMember;
+    }
+
+    /**
+     * Returns whether the members of a level are wrapped on demand rather than cached. See
+     * {@link MondrianProperties#FlyweightCubeMembers}.
+     */
+    private boolean isFlyweight( RolapCubeLevel level ) {
+      return flyweight
+        && level != null
+        && level.getChildLevel() == null
+        && !level.isAll()
+        && !level.isParentChild();
     }
 
     private void fixOrdinal( RolapCubeMember rlCubeMemberToFix, int ordinalToSet ) {
@@ -732,6 +736,11 @@ public class RolapCubeHierarchy extends RolapHierarchy {
 
     @Override
     protected void checkCacheStatus() {
+      if ( cacheHelper.getChangeListener() == null ) {
+        // Nothing can change; don't lock.
+        return;
+      }
+
       synchronized ( cacheHelper ) {
         // if necessary, flush all caches:
         //   - shared SmartMemberReader RolapMember cache
@@ -757,6 +766,30 @@ public class RolapCubeHierarchy extends RolapHierarchy {
     }
   }
 
+  /**
+   * List of the members of a level of a cube hierarchy that wraps the list of members of the underlying level, held
+   * by the shared hierarchy's member reader. Each member is wrapped when it is accessed.
+   */
+  private static class CubeMemberList extends AbstractList<RolapMember> implements RandomAccess {
+    private final CacheRolapCubeHierarchyMemberReader reader;
+    private final List<RolapMember> list;
+    private final RolapCubeLevel cubeLevel;
+
+    CubeMemberList( CacheRolapCubeHierarchyMemberReader reader, List<RolapMember> list, RolapCubeLevel cubeLevel ) {
+      this.reader = reader;
+      this.list = list;
+      this.cubeLevel = cubeLevel;
+    }
+
+    public RolapMember get( int index ) {
+      return reader.lookupCubeMemberWithParent( list.get( index ), cubeLevel );
+    }
+
+    public int size() {
+      return list.size();
+    }
+  }
+
   /**
    * Same as {@link RolapCubeHierarchyMemberReader} but without caching anything.
    */
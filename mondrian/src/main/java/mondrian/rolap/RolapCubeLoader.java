@@ -0,0 +1,267 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.olap.MondrianDef;
+import mondrian.olap.Util;
+import mondrian.server.Locus;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the cubes of a schema while it is loading, and reports how long
+ * each phase takes to {@link RolapUtil#PROFILE_LOGGER}.
+ *
+ * <p>Regular cubes are created first, then virtual cubes, which refer to
+ * regular cubes. If {@link mondrian.olap.MondrianProperties#SchemaLoadThreads}
+ * is greater than 1, regular cubes are created in parallel, subject to the
+ * following dependencies (see {@link #dependencies}):<ul>
+ *
+ * <li>A cube waits for the previous cube with the same fact table, because
+ * both add columns to the same {@link RolapStar}.</li>
+ *
+ * <li>A cube waits for the previous cube that uses each of its shared
+ * dimensions. The first cube to use a shared dimension creates it; the
+ * others reuse its hierarchies and member readers, whose caches are not
+ * all synchronized, so cubes that share a dimension are created one after
+ * another.</li>
+ *
+ * </ul>
+ *
+ * <p>Virtual cubes are created one after another, in the current thread,
+ * once every regular cube exists. A virtual cube uses the dimensions,
+ * measures and calculated members of several regular cubes, so it would
+ * depend on most of the other virtual cubes anyway.
+ *
+ * <p>Cubes that are created in parallel therefore share only the schema's
+ * state, which is synchronized: its map of cubes, its shared hierarchies
+ * and member readers, its star registry and its warning list. Each cube
+ * registers calculated members only in itself. Cubes that depend on each
+ * other are created in the same order as they would be one after another,
+ * and the schema is the same.
+ */
+class RolapCubeLoader {
+    private final RolapSchema schema;
+    private final MondrianDef.Schema xmlSchema;
+    private final int threadCount;
+
+    /**
+     * Creates a RolapCubeLoader.
+     *
+     * @param schema Schema being loaded
+     * @param xmlSchema XML definition of schema
+     * @param threadCount Maximum number of threads; if 1 or less, cubes are
+     *   created in the current thread
+     */
+    RolapCubeLoader(
+        RolapSchema schema,
+        MondrianDef.Schema xmlSchema,
+        int threadCount)
+    {
+        this.schema = schema;
+        this.xmlSchema = xmlSchema;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Creates all enabled cubes and virtual cubes of the schema.
+     */
+    void load() {
+        final ExecutorService executor =
+            threadCount > 1
+                ? Util.getExecutorService(
+                    threadCount,
+                    threadCount,
+                    1,
+                    "mondrian.rolap.RolapCubeLoader$worker",
+                    null)
+                : null;
+        try {
+            long start = System.currentTimeMillis();
+            final int cubeCount = loadCubes(executor);
+            long end = System.currentTimeMillis();
+            report("cubes", cubeCount, end - start, Math.max(1, threadCount));
+
+            start = end;
+            final int virtualCubeCount = loadVirtualCubes();
+            end = System.currentTimeMillis();
+            report("virtual cubes", virtualCubeCount, end - start, 1);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private int loadCubes(ExecutorService executor) {
+        final List<MondrianDef.Cube> xmlCubes =
+            new ArrayList<MondrianDef.Cube>();
+        for (MondrianDef.Cube xmlCube : xmlSchema.cubes) {
+            if (xmlCube.isEnabled()) {
+                xmlCubes.add(xmlCube);
+            }
+        }
+        if (executor == null) {
+            for (MondrianDef.Cube xmlCube : xmlCubes) {
+                new RolapCube(schema, xmlSchema, xmlCube, true);
+            }
+            return xmlCubes.size();
+        }
+
+        final List<Set<Integer>> dependencies = dependencies(xmlCubes);
+        final List<CompletableFuture<Void>> futures =
+            new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < xmlCubes.size(); i++) {
+            final MondrianDef.Cube xmlCube = xmlCubes.get(i);
+            final List<CompletableFuture<Void>> predecessors =
+                new ArrayList<CompletableFuture<Void>>();
+            for (int j : dependencies.get(i)) {
+                predecessors.add(futures.get(j));
+            }
+            futures.add(
+                CompletableFuture.allOf(
+                    predecessors.toArray(
+                        new CompletableFuture[predecessors.size()]))
+                    .thenRunAsync(
+                        withLocus(
+                            () -> new RolapCube(
+                                schema, xmlSchema, xmlCube, true)),
+                        executor));
+        }
+        await(futures);
+        return futures.size();
+    }
+
+    /**
+     * Returns, for each cube, the positions of the earlier cubes that must
+     * be created before it: the previous cube with the same fact table, and
+     * the previous cube that uses each of its shared dimensions.
+     *
+     * @param xmlCubes Cubes, in schema order
+     * @return For each cube, the positions of the cubes it waits for
+     */
+    static List<Set<Integer>> dependencies(List<MondrianDef.Cube> xmlCubes) {
+        final List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>();
+        final Map<List<String>, Integer> factToLastCube =
+            new HashMap<List<String>, Integer>();
+        final Map<String, Integer> sharedDimensionToLastCube =
+            new HashMap<String, Integer>();
+        for (int i = 0; i < xmlCubes.size(); i++) {
+            final MondrianDef.Cube xmlCube = xmlCubes.get(i);
+            final Set<Integer> predecessors = new TreeSet<Integer>();
+            if (xmlCube.fact != null) {
+                final Integer previous =
+                    factToLastCube.put(
+                        RolapUtil.makeRolapStarKey(xmlCube.fact), i);
+                if (previous != null) {
+                    predecessors.add(previous);
+                }
+            }
+            for (MondrianDef.CubeDimension xmlDimension : xmlCube.dimensions) {
+                if (xmlDimension instanceof MondrianDef.DimensionUsage) {
+                    final Integer previous =
+                        sharedDimensionToLastCube.put(
+                            ((MondrianDef.DimensionUsage) xmlDimension).source,
+                            i);
+                    if (previous != null && previous != i) {
+                        predecessors.add(previous);
+                    }
+                }
+            }
+            dependencies.add(predecessors);
+        }
+        return dependencies;
+    }
+
+    private int loadVirtualCubes() {
+        int count = 0;
+        for (MondrianDef.VirtualCube xmlVirtualCube : xmlSchema.virtualCubes) {
+            if (xmlVirtualCube.isEnabled()) {
+                new RolapCube(schema, xmlSchema, xmlVirtualCube, true);
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Wraps a task so that it runs in the current thread's locus, if any.
+     * Creating a cube needs a locus, for instance to find the aggregation
+     * manager of a new star.
+     */
+    private static Runnable withLocus(final Runnable runnable) {
+        if (Locus.isEmpty()) {
+            return runnable;
+        }
+        final Locus locus = Locus.peek();
+        return () -> {
+            Locus.push(locus);
+            try {
+                runnable.run();
+            } finally {
+                Locus.pop(locus);
+            }
+        };
+    }
+
+    /**
+     * Waits for all tasks to complete, then throws the error of the first
+     * task, in schema order, that failed.
+     */
+    private static void await(List<CompletableFuture<Void>> futures) {
+        Throwable throwable = null;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (throwable == null) {
+                    throwable = e;
+                }
+            }
+        }
+        if (throwable == null) {
+            return;
+        }
+        while (throwable instanceof CompletionException
+            && throwable.getCause() != null)
+        {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        throw Util.newError(throwable, "while creating cubes");
+    }
+
+    private void report(
+        String phase,
+        int count,
+        long millis,
+        int threads)
+    {
+        if (RolapUtil.PROFILE_LOGGER.isDebugEnabled()) {
+            RolapUtil.PROFILE_LOGGER.debug(
+                "Schema '" + schema.getName() + "': created " + count + " "
+                + phase + " in " + millis + " ms using " + threads
+                + " thread(s)");
+        }
+    }
+}
+
+// End RolapCubeLoader.java
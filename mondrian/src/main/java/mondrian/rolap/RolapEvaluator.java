@@ -1129,6 +1129,15 @@ public class RolapEvaluator implements Evaluator {
     return root.getParameterValue( slot );
   }
 
+  /**
+   * Returns the calculation that applies to the current context, if there is exactly one.
+   *
+   * @return Sole calculation, or null if there are none or several
+   */
+  final RolapCalculation getSoleCalculation() {
+    return calculationCount == 1 ? calculations[0] : null;
+  }
+
   final void addCalculation( RolapCalculation calculation, boolean reversible ) {
     assert calculation != null;
     calculations[calculationCount++] = calculation;
@@ -183,6 +183,10 @@ public class RolapNativeSql {
             if (measure.isCalculated()) {
                 return null; // ??
             }
+            if (measure.getAggregator().isSketch()) {
+                // Sketches are built in memory; SQL cannot compute them.
+                return null;
+            }
             if (!saveStoredMeasure(measure)) {
                 return null;
             }
@@ -22,6 +22,7 @@ import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -100,6 +101,7 @@ public class RolapResult extends ResultBase {
   private CellInfoContainer cellInfos;
   private FastBatchingCellReader batchingReader;
   private final CellReader aggregatingReader;
+  private final CalculatedMeasureBatch measureBatch;
   private Modulos modulos = null;
   private final int maxEvalDepth = MondrianProperties.instance().MaxEvalDepth.get();
 
@@ -108,6 +110,11 @@ public class RolapResult extends ResultBase {
   private final Map<Integer, Integer> positionsIndexes = new HashMap<Integer, Integer>();
   private final Map<Integer, List<List<Member>>> positionsCurrent = new HashMap<Integer, List<List<Member>>>();
 
+  /**
+   * Row counts of drill-through queries on the cells of this result, keyed by the SQL that counts them.
+   */
+  private final Map<String, Integer> drillThroughCounts = new ConcurrentHashMap<String, Integer>();
+
   /**
    * Creates a RolapResult.
    *
@@ -136,6 +143,11 @@ public class RolapResult extends ResultBase {
     }
     RolapCube cube = (RolapCube) query.getCube();
     this.batchingReader = new FastBatchingCellReader( execution, cube, aggMgr );
+    // Evaluators that test or profile each evaluation need to see every cell.
+    this.measureBatch =
+        MondrianProperties.instance().BatchCalculatedMeasures.get() && evaluator.getClass() == RolapEvaluator.class
+            ? new CalculatedMeasureBatch()
+            : null;
 
     this.cellInfos = ( query.axes.length > 4 ) ? new CellInfoMap( point ) : new CellInfoPool( query.axes.length );
 
@@ -899,6 +911,28 @@ public class RolapResult extends ResultBase {
     return new RolapCell( this, pos.clone(), ci );
   }
 
+  /**
+   * Passes the value and format string of each evaluated cell of this result to a visitor, without creating a
+   * {@link Cell} for each. Cells are visited in no particular order; a cell that is not visited is empty.
+   *
+   * <p>
+   * Returns false, having visited no cells, if the cells of a high-cardinality axis are evaluated only when they are
+   * accessed; the caller must then use {@link #getCell(int[])}.
+   *
+   * @param visitor
+   *          Visitor
+   * @return whether the cells were visited
+   */
+  public boolean visitCells( CellVisitor visitor ) {
+    for ( Boolean highCardinality : positionsHighCardinality.values() ) {
+      if ( Boolean.TRUE.equals( highCardinality ) ) {
+        return false;
+      }
+    }
+    cellInfos.visit( visitor );
+    return true;
+  }
+
   private TupleIterable executeAxis( Evaluator evaluator, QueryAxis queryAxis, Calc axisCalc, boolean construct,
       AxisMemberList axisMembers ) {
     if ( queryAxis == null ) {
@@ -943,11 +977,17 @@ public class RolapResult extends ResultBase {
       evaluator.setCellReader( batchingReader );
       try {
         executeStripe( query.axes.length - 1, evaluator, pos );
+        if ( measureBatch != null ) {
+          measureBatch.flush();
+        }
       } catch ( CellRequestQuantumExceededException e ) {
         // Safe to ignore. Need to call 'phase' and loop again.
         // Decrement count because it wasn't a recursive formula that
         // caused the iteration.
         --count;
+        if ( measureBatch != null ) {
+          measureBatch.clear();
+        }
       }
       evaluator.restore( savepoint );
 
@@ -985,6 +1025,29 @@ public class RolapResult extends ResultBase {
     return batchingReader.isDirty();
   }
 
+  /**
+   * Returns the row count of a drill-through query, if it has been counted.
+   *
+   * @param sql
+   *          SQL that counts the rows
+   * @return Number of rows, or null if not yet counted
+   */
+  Integer getDrillThroughCount( String sql ) {
+    return drillThroughCounts.get( sql );
+  }
+
+  /**
+   * Records the row count of a drill-through query.
+   *
+   * @param sql
+   *          SQL that counts the rows
+   * @param count
+   *          Number of rows
+   */
+  void putDrillThroughCount( String sql, int count ) {
+    drillThroughCounts.put( sql, count );
+  }
+
   /**
    * Evaluates an expression. Intended for evaluating named sets.
    *
@@ -1068,9 +1131,17 @@ public class RolapResult extends ResultBase {
         execution.checkCancelOrTimeout();
         final int savepoint = revaluator.savepoint();
         revaluator.setContext( members );
-        Object o;
+        // If the cell's formula can be evaluated in a batch, read its
+        // operands now, and set its value when the batch is evaluated.
+        final CalculatedMeasureBatch.Formula formula =
+            measureBatch == null ? null : measureBatch.lookup( revaluator );
+        boolean deferred = false;
+        Object o = null;
         try {
-          o = revaluator.evaluateCurrent();
+          deferred = formula != null && formula.gather( revaluator );
+          if ( !deferred ) {
+            o = revaluator.evaluateCurrent();
+          }
         } catch ( MondrianEvaluationException e ) {
           LOGGER.warn( "Mondrian: exception in executeStripe.", e );
           o = e;
@@ -1132,7 +1203,9 @@ public class RolapResult extends ResultBase {
           Util.discard( e );
         }
 
-        if ( o != RolapUtil.valueNotReadyException ) {
+        if ( deferred ) {
+          formula.defer( ci );
+        } else if ( o != RolapUtil.valueNotReadyException ) {
           ci.value = o;
         }
       }
@@ -1387,6 +1460,14 @@ public class RolapResult extends ResultBase {
     return evaluator;
   }
 
+  /**
+   * Returns the batch in which calculated measures were evaluated, or null if they were evaluated one cell at a time.
+   * For testing.
+   */
+  CalculatedMeasureBatch getMeasureBatch() {
+    return measureBatch;
+  }
+
   Evaluator getEvaluator( int[] pos ) {
     // Set up evaluator's context, so that context-dependent format
     // strings work properly.
@@ -1867,6 +1948,25 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Receives the cells of a result.
+   *
+   * @see RolapResult#visitCells(CellVisitor)
+   */
+  public interface CellVisitor {
+    /**
+     * Receives a cell.
+     *
+     * @param pos
+     *          Coordinates of the cell; the array is reused between calls
+     * @param value
+     *          Value of the cell; null or {@link Util#nullValue} if the cell is empty
+     * @param formatString
+     *          Format string of the cell, or null
+     */
+    void visit( int[] pos, Object value, String formatString );
+  }
+
   /**
    * API for the creation and lookup of {@link CellInfo} objects. There are two implementations, one that uses a Map for
    * storage and the other uses an ObjectPool.
@@ -1907,6 +2007,14 @@ public class RolapResult extends ResultBase {
      * @return the CellInfo found or null.
      */
     CellInfo lookup( int[] pos );
+
+    /**
+     * Passes each CellInfo object in this container, with the location where it is stored, to a visitor.
+     *
+     * @param visitor
+     *          Visitor
+     */
+    void visit( CellVisitor visitor );
   }
 
   /**
@@ -1957,6 +2065,13 @@ public class RolapResult extends ResultBase {
       CellKey key = CellKey.Generator.newCellKey( pos );
       return this.cellInfoMap.get( key );
     }
+
+    public void visit( CellVisitor visitor ) {
+      for ( Map.Entry<CellKey, CellInfo> entry : this.cellInfoMap.entrySet() ) {
+        final CellInfo ci = entry.getValue();
+        visitor.visit( entry.getKey().getOrdinals(), ci.value, ci.formatString );
+      }
+    }
   }
 
   /**
@@ -2079,15 +2194,34 @@ public class RolapResult extends ResultBase {
 
     private final ObjectPool<CellInfo> cellInfoPool;
     private final CellKeyMaker cellKeyMaker;
+    private final int axisLength;
 
     CellInfoPool( int axisLength ) {
       this.cellInfoPool = new ObjectPool<CellInfo>();
       this.cellKeyMaker = createCellKeyMaker( axisLength );
+      this.axisLength = axisLength;
     }
 
     CellInfoPool( int axisLength, int initialSize ) {
       this.cellInfoPool = new ObjectPool<CellInfo>( initialSize );
       this.cellKeyMaker = createCellKeyMaker( axisLength );
+      this.axisLength = axisLength;
+    }
+
+    /**
+     * Returns the multiplier that the {@link CellKeyMaker} for a number of axes applies to each successive axis.
+     */
+    private static long maxAxisSize( int axisLength ) {
+      switch ( axisLength ) {
+        case 2:
+          return MAX_AXIS_SIZE_2;
+        case 3:
+          return MAX_AXIS_SIZE_3;
+        case 4:
+          return MAX_AXIS_SIZE_4;
+        default:
+          return Long.MAX_VALUE;
+      }
     }
 
     private static CellKeyMaker createCellKeyMaker( int axisLength ) {
@@ -2128,6 +2262,20 @@ public class RolapResult extends ResultBase {
       long key = this.cellKeyMaker.generate( pos );
       return this.cellInfoPool.add( new CellInfo( key ) );
     }
+
+    public void visit( CellVisitor visitor ) {
+      // Decode each key into the position from which the CellKeyMaker generated it.
+      final long maxAxisSize = maxAxisSize( axisLength );
+      final int[] pos = new int[axisLength];
+      for ( CellInfo ci : this.cellInfoPool ) {
+        long key = ci.key;
+        for ( int i = 0; i < axisLength; i++ ) {
+          pos[i] = (int) ( key % maxAxisSize );
+          key /= maxAxisSize;
+        }
+        visitor.visit( pos, ci.value, ci.formatString );
+      }
+    }
   }
 
   static TupleList mergeAxes( TupleList axis1, TupleIterable axis2, boolean ordered ) {
@@ -0,0 +1,646 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.calc.ResultStyle;
+import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleList;
+import mondrian.mdx.MdxVisitorImpl;
+import mondrian.mdx.MemberExpr;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.olap.fun.UdfResolver;
+import mondrian.server.Execution;
+import mondrian.server.Statement;
+import mondrian.util.ByteString;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.olap4j.AllocationPolicy;
+import org.olap4j.Scenario;
+
+import java.util.*;
+
+/**
+ * Cache of the results of MDX queries.
+ *
+ * <p>If {@link MondrianProperties#EnableResultCache} is set,
+ * {@link RolapConnection} looks up each query here before it evaluates it,
+ * and stores the result afterwards. A result is keyed by the unparsed text of
+ * the query, the schema, role and locale of the connection, and the values of
+ * the query's parameters. The cache holds a copy of the axes and of the value,
+ * formatted value and requested properties of each cell, so that it keeps no
+ * evaluator alive. Operations that need an evaluator, such as drill-through,
+ * re-execute the query the first time they are called on a cached result.
+ *
+ * <p>Each entry records the {@link RolapStar}s of the cubes its query reads.
+ * {@link CacheControlImpl} evicts the entries that read a star when it
+ * flushes cells of that star, and {@link RolapSchema} evicts the entries of a
+ * schema when the schema is flushed. Entries are evicted in least recently
+ * used order when their estimated size exceeds
+ * {@link MondrianProperties#ResultCacheMaxMegabytes}.
+ */
+public class RolapResultCache {
+    private static final Logger LOGGER =
+        LogManager.getLogger(RolapResultCache.class);
+
+    private static final RolapResultCache INSTANCE = new RolapResultCache();
+
+    /**
+     * Functions whose value may change between executions of a query.
+     * Queries that call them are not cached.
+     */
+    private static final Set<String> VOLATILE_FUNCTIONS =
+        new HashSet<String>(
+            Arrays.asList(
+                "Now", "Date", "Time", "Timer", "Rnd", "LookupCube"));
+
+    private final LinkedHashMap<Key, Entry> map =
+        new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    private long byteCount;
+
+    /**
+     * Incremented each time entries are evicted by a flush. A result is not
+     * stored if a flush happened while it was being evaluated, because it may
+     * contain values that were flushed.
+     */
+    private long generation;
+
+    RolapResultCache() {
+    }
+
+    /**
+     * Returns the singleton instance.
+     */
+    public static RolapResultCache instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the key under which to cache the result of executing a query on
+     * a connection, or null if the result must not be cached.
+     *
+     * @param connection Connection
+     * @param query Query
+     * @return Key, or null
+     */
+    Key key(RolapConnection connection, Query query) {
+        if (!MondrianProperties.instance().EnableResultCache.get()
+            || MondrianProperties.instance().DisableCaching.get()
+            || connection.getScenario() != null
+            || query.getResultStyle() == ResultStyle.LIST
+            || isVolatile(query))
+        {
+            return null;
+        }
+        final RolapSchema schema = connection.getSchema();
+        final List<Object> parameterValues = new ArrayList<Object>();
+        for (Parameter parameter : query.getParameters()) {
+            parameterValues.add(parameter.getName());
+            parameterValues.add(parameter.getValue());
+        }
+        final long generation;
+        synchronized (this) {
+            generation = this.generation;
+        }
+        return new Key(
+            schema.key,
+            schema.getChecksum(),
+            Util.unparse(query),
+            connection.getRole(),
+            connection.getLocale(),
+            parameterValues,
+            generation);
+    }
+
+    /**
+     * Returns the cached result for a key, or null.
+     *
+     * @param key Key
+     * @param connection Connection that is executing the query
+     * @param execution Execution
+     * @return Cached result, or null
+     */
+    Result get(Key key, RolapConnection connection, Execution execution) {
+        final Entry entry;
+        synchronized (this) {
+            entry = map.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Result cache hit: " + key.mdx);
+        }
+        return new CachedResult(entry, connection, execution);
+    }
+
+    /**
+     * Stores a copy of a result, unless it cannot be copied or is too large.
+     *
+     * @param key Key, as returned by {@link #key}
+     * @param result Result
+     */
+    void put(Key key, Result result) {
+        final long maxBytes =
+            MondrianProperties.instance().ResultCacheMaxMegabytes.get()
+            * 1024L * 1024L;
+        final Entry entry = copy(result, maxBytes / 4);
+        if (entry == null) {
+            return;
+        }
+        synchronized (this) {
+            if (key.generation != generation) {
+                return;
+            }
+            final Entry previous = map.put(key, entry);
+            if (previous != null) {
+                byteCount -= previous.byteCount;
+            }
+            byteCount += entry.byteCount;
+            final Iterator<Entry> iterator = map.values().iterator();
+            while (byteCount > maxBytes && iterator.hasNext()) {
+                byteCount -= iterator.next().byteCount;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Evicts the results that read any of a collection of stars.
+     *
+     * @param stars Stars whose cells have changed
+     */
+    public synchronized void evict(Collection<RolapStar> stars) {
+        ++generation;
+        final Iterator<Entry> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (!Collections.disjoint(entry.stars, stars)) {
+                byteCount -= entry.byteCount;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Evicts the results of queries on a schema.
+     *
+     * @param schema Schema
+     */
+    public synchronized void evict(RolapSchema schema) {
+        ++generation;
+        final Iterator<Map.Entry<Key, Entry>> iterator =
+            map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, Entry> mapEntry = iterator.next();
+            if (mapEntry.getKey().schemaKey.equals(schema.key)) {
+                byteCount -= mapEntry.getValue().byteCount;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Evicts all results.
+     */
+    public synchronized void clear() {
+        ++generation;
+        map.clear();
+        byteCount = 0;
+    }
+
+    /**
+     * Returns the number of cached results.
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the {@link RolapCell} that corresponds to a cell. If the cell
+     * belongs to a cached result, the query is executed again.
+     *
+     * @param cell Cell of a result returned by {@link RolapConnection}
+     * @return Cell that has an evaluator
+     */
+    public static RolapCell getRolapCell(Cell cell) {
+        if (cell instanceof CachedCell) {
+            return (RolapCell) ((CachedCell) cell).getLiveCell();
+        }
+        return (RolapCell) cell;
+    }
+
+    private static boolean isVolatile(Query query) {
+        final boolean[] found = {false};
+        query.accept(
+            new MdxVisitorImpl() {
+                final Set<Member> visited = new HashSet<Member>();
+
+                public Object visit(ResolvedFunCall call) {
+                    final FunDef funDef = call.getFunDef();
+                    if (VOLATILE_FUNCTIONS.contains(funDef.getName())
+                        || UdfResolver.isUserDefined(funDef))
+                    {
+                        found[0] = true;
+                    }
+                    return null;
+                }
+
+                public Object visit(MemberExpr memberExpr) {
+                    // Look inside calculated members defined in the schema.
+                    final Member member = memberExpr.getMember();
+                    if (member.isCalculated()
+                        && member.getExpression() != null
+                        && visited.add(member))
+                    {
+                        member.getExpression().accept(this);
+                    }
+                    return null;
+                }
+            });
+        return found[0];
+    }
+
+    /**
+     * Copies a result into an entry. Returns null if the result cannot be
+     * cached, or if its estimated size exceeds a given number of bytes.
+     */
+    private static Entry copy(Result result, long maxBytes) {
+        final Query query = result.getQuery();
+        final Axis[] axes = result.getAxes();
+        final RolapAxis[] axisCopies = new RolapAxis[axes.length];
+        long bytes = 0;
+        long cellCount = 1;
+        for (int i = 0; i < axes.length; i++) {
+            axisCopies[i] = copy(axes[i]);
+            if (axisCopies[i] == null) {
+                return null;
+            }
+            final TupleList tupleList = axisCopies[i].getTupleList();
+            bytes += tupleList.size() * (16L + 8L * tupleList.getArity());
+            cellCount *= tupleList.size();
+        }
+        final RolapAxis slicerAxis = copy(result.getSlicerAxis());
+        if (slicerAxis == null
+            || bytes + cellCount * 64L > maxBytes)
+        {
+            return null;
+        }
+
+        final List<Property> properties = new ArrayList<Property>();
+        for (String name : Property.enumeration.getNames()) {
+            final Property property =
+                Property.enumeration.getValue(name, true);
+            if (property.isCellProperty()
+                && property != Property.CELL_ORDINAL
+                && property != Property.VALUE
+                && property != Property.FORMATTED_VALUE
+                && query.hasCellProperty(name))
+            {
+                properties.add(property);
+            }
+        }
+
+        final int n = (int) cellCount;
+        final Object[] values = new Object[n];
+        final String[] formattedValues = new String[n];
+        final String[] formatStrings = new String[n];
+        final Object[][] propertyValues = new Object[properties.size()][n];
+        final Modulos modulos = Modulos.Generator.create(axisCopies);
+        for (int ordinal = 0; ordinal < n; ordinal++) {
+            final Cell cell = result.getCell(modulos.getCellPos(ordinal));
+            if (cell.isError()) {
+                return null;
+            }
+            final Object value = cell.getValue();
+            final String formattedValue = cell.getFormattedValue();
+            values[ordinal] = value;
+            formattedValues[ordinal] = formattedValue;
+            formatStrings[ordinal] = cell.getCachedFormatString();
+            for (int i = 0; i < properties.size(); i++) {
+                propertyValues[i][ordinal] =
+                    cell.getPropertyValue(properties.get(i).name);
+            }
+            bytes += 64L + size(value) + size(formattedValue);
+            if (bytes > maxBytes) {
+                return null;
+            }
+        }
+
+        final Set<RolapStar> stars = new HashSet<RolapStar>();
+        for (RolapCube cube : ((RolapCube) query.getCube()).getBaseCubes()) {
+            if (cube.getStar() != null) {
+                stars.add(cube.getStar());
+            }
+        }
+        return new Entry(
+            axisCopies, slicerAxis, modulos, values, formattedValues,
+            formatStrings, properties, propertyValues, stars, bytes);
+    }
+
+    private static RolapAxis copy(Axis axis) {
+        if (!(axis instanceof RolapAxis)) {
+            return null;
+        }
+        final TupleList tupleList = ((RolapAxis) axis).getTupleList();
+        if (!tupleList.isEmpty()
+            && !tupleList.get(0).isEmpty()
+            && tupleList.get(0).get(0).getDimension().isHighCardinality())
+        {
+            // Positions of high-cardinality dimensions are read on demand.
+            return null;
+        }
+        final TupleList copy =
+            TupleCollections.createList(
+                tupleList.getArity(), tupleList.size());
+        copy.addAll(tupleList);
+        return new RolapAxis(TupleCollections.unmodifiableList(copy));
+    }
+
+    private static long size(Object value) {
+        if (value instanceof String) {
+            return 40L + 2L * ((String) value).length();
+        }
+        return value == null ? 0L : 16L;
+    }
+
+    /**
+     * Key of a cached result.
+     */
+    static class Key {
+        private final SchemaKey schemaKey;
+        private final ByteString checksum;
+        private final String mdx;
+        private final Role role;
+        private final Locale locale;
+        private final List<Object> parameterValues;
+        private final int hash;
+
+        /**
+         * Value of {@link RolapResultCache#generation} when the key was
+         * created. Not part of the identity of the key.
+         */
+        private final long generation;
+
+        Key(
+            SchemaKey schemaKey,
+            ByteString checksum,
+            String mdx,
+            Role role,
+            Locale locale,
+            List<Object> parameterValues,
+            long generation)
+        {
+            this.schemaKey = schemaKey;
+            this.checksum = checksum;
+            this.mdx = mdx;
+            this.role = role;
+            this.locale = locale;
+            this.parameterValues = parameterValues;
+            this.generation = generation;
+            this.hash =
+                Arrays.hashCode(
+                    new Object[] {
+                        schemaKey, checksum, mdx, role, locale,
+                        parameterValues
+                    });
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return hash == that.hash
+                && mdx.equals(that.mdx)
+                && schemaKey.equals(that.schemaKey)
+                && Util.equals(checksum, that.checksum)
+                && Util.equals(role, that.role)
+                && Util.equals(locale, that.locale)
+                && parameterValues.equals(that.parameterValues);
+        }
+    }
+
+    /**
+     * Immutable copy of a result.
+     */
+    private static class Entry {
+        final RolapAxis[] axes;
+        final RolapAxis slicerAxis;
+        final Modulos modulos;
+        final Object[] values;
+        final String[] formattedValues;
+        final String[] formatStrings;
+        final List<Property> properties;
+        final Object[][] propertyValues;
+        final Set<RolapStar> stars;
+        final long byteCount;
+
+        Entry(
+            RolapAxis[] axes,
+            RolapAxis slicerAxis,
+            Modulos modulos,
+            Object[] values,
+            String[] formattedValues,
+            String[] formatStrings,
+            List<Property> properties,
+            Object[][] propertyValues,
+            Set<RolapStar> stars,
+            long byteCount)
+        {
+            this.axes = axes;
+            this.slicerAxis = slicerAxis;
+            this.modulos = modulos;
+            this.values = values;
+            this.formattedValues = formattedValues;
+            this.formatStrings = formatStrings;
+            this.properties = properties;
+            this.propertyValues = propertyValues;
+            this.stars = stars;
+            this.byteCount = byteCount;
+        }
+    }
+
+    /**
+     * Result served from the cache.
+     *
+     * <p>Its axes and cells are those of the cached entry. Operations that
+     * need an evaluator are delegated to the result of executing the query
+     * again, which is created on first use.
+     */
+    static class CachedResult extends ResultBase {
+        private final Entry entry;
+        private final RolapConnection connection;
+        private Result liveResult;
+
+        CachedResult(
+            Entry entry,
+            RolapConnection connection,
+            Execution execution)
+        {
+            super(execution, entry.axes.clone());
+            this.entry = entry;
+            this.connection = connection;
+            this.slicerAxis = entry.slicerAxis;
+        }
+
+        protected Logger getLogger() {
+            return LOGGER;
+        }
+
+        public Cell getCell(int[] pos) {
+            if (pos.length != axes.length) {
+                throw Util.newError(
+                    "coordinates should have dimension " + axes.length);
+            }
+            for (int i = 0; i < pos.length; i++) {
+                if (pos[i] < 0
+                    || pos[i] >= axes[i].getPositions().size())
+                {
+                    throw Util.newError("coordinates out of range");
+                }
+            }
+            return new CachedCell(
+                this, pos.clone(), entry.modulos.getCellOrdinal(pos));
+        }
+
+        /**
+         * Returns the result of executing the query again, bypassing the
+         * cache.
+         */
+        synchronized Result getLiveResult() {
+            if (liveResult == null) {
+                final Statement statement = execution.getMondrianStatement();
+                liveResult =
+                    connection.executeUncached(
+                        new Execution(
+                            statement, statement.getQueryTimeoutMillis()));
+            }
+            return liveResult;
+        }
+
+        public void close() {
+            final Result result;
+            synchronized (this) {
+                result = liveResult;
+            }
+            if (result != null) {
+                result.close();
+            }
+        }
+    }
+
+    /**
+     * Cell of a {@link CachedResult}.
+     */
+    static class CachedCell implements Cell {
+        private final CachedResult result;
+        private final int[] pos;
+        private final int ordinal;
+
+        CachedCell(CachedResult result, int[] pos, int ordinal) {
+            this.result = result;
+            this.pos = pos;
+            this.ordinal = ordinal;
+        }
+
+        /**
+         * Returns the corresponding cell of the live result.
+         */
+        Cell getLiveCell() {
+            return result.getLiveResult().getCell(pos);
+        }
+
+        public List<Integer> getCoordinateList() {
+            final List<Integer> list = new ArrayList<Integer>(pos.length);
+            for (int p : pos) {
+                list.add(p);
+            }
+            return list;
+        }
+
+        public Object getValue() {
+            return result.entry.values[ordinal];
+        }
+
+        public String getCachedFormatString() {
+            return result.entry.formatStrings[ordinal];
+        }
+
+        public String getFormattedValue() {
+            return result.entry.formattedValues[ordinal];
+        }
+
+        public boolean isNull() {
+            return result.entry.values[ordinal] == null;
+        }
+
+        public boolean isError() {
+            // Results with errors are not cached.
+            return false;
+        }
+
+        public String getDrillThroughSQL(boolean extendedContext) {
+            return getLiveCell().getDrillThroughSQL(extendedContext);
+        }
+
+        public boolean canDrillThrough() {
+            return getLiveCell().canDrillThrough();
+        }
+
+        public int getDrillThroughCount() {
+            return getLiveCell().getDrillThroughCount();
+        }
+
+        public Object getPropertyValue(String propertyName) {
+            final boolean matchCase =
+                MondrianProperties.instance().CaseSensitive.get();
+            final Property property =
+                Property.lookup(propertyName, matchCase);
+            if (property == Property.CELL_ORDINAL) {
+                return ordinal;
+            } else if (property == Property.VALUE) {
+                return getValue();
+            } else if (property == Property.FORMATTED_VALUE) {
+                return getFormattedValue();
+            }
+            final int i = result.entry.properties.indexOf(property);
+            if (i >= 0) {
+                return result.entry.propertyValues[i][ordinal];
+            }
+            return getLiveCell().getPropertyValue(propertyName);
+        }
+
+        public Member getContextMember(Hierarchy hierarchy) {
+            return result.getMember(pos, hierarchy);
+        }
+
+        public void setValue(
+            Scenario scenario,
+            Object newValue,
+            AllocationPolicy allocationPolicy,
+            Object... allocationArgs)
+        {
+            getLiveCell().setValue(
+                scenario, newValue, allocationPolicy, allocationArgs);
+        }
+    }
+}
+
+// End RolapResultCache.java
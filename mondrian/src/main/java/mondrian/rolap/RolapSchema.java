@@ -47,6 +47,7 @@ import mondrian.olap.type.NumericType;
 import mondrian.olap.type.StringType;
 import mondrian.olap.type.Type;
 import mondrian.resource.MondrianResource;
+import mondrian.rolap.agg.SegmentWarmer;
 import mondrian.rolap.aggmatcher.AggTableManager;
 import mondrian.spi.DataSourceChangeListener;
 import mondrian.spi.Dialect;
@@ -82,6 +83,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A <code>RolapSchema</code> is a collection of {@link RolapCube}s and shared {@link RolapDimension}s. It is shared
@@ -115,19 +118,19 @@ public class RolapSchema implements Schema {
   /**
    * Holds cubes in this schema.
    */
-  private final Map<String, RolapCube> mapNameToCube = new HashMap<>();
+  private final Map<String, RolapCube> mapNameToCube;
 
   /**
    * Maps {@link String shared hierarchy name} to {@link MemberReader}. Shared between all statements which use this
    * connection.
    */
-  private final Map<String, MemberReader> mapSharedHierarchyToReader = new HashMap<>();
+  private final Map<String, MemberReader> mapSharedHierarchyToReader;
 
   /**
    * Maps {@link String names of shared hierarchies} to {@link RolapHierarchy the canonical instance of those
    * hierarchies}.
    */
-  private final Map<String, RolapHierarchy> mapSharedHierarchyNameToHierarchy = new HashMap<>();
+  private final Map<String, RolapHierarchy> mapSharedHierarchyNameToHierarchy;
 
   /**
    * The default role for connections to this schema.
@@ -154,7 +157,7 @@ public class RolapSchema implements Schema {
   /**
    * Maps {@link String names of sets} to {@link NamedSet named sets}.
    */
-  private final Map<String, NamedSet> mapNameToSet = new HashMap<>();
+  private final Map<String, NamedSet> mapNameToSet;
 
   /**
    * Table containing all standard MDX functions, plus user-defined functions for this schema.
@@ -163,7 +166,7 @@ public class RolapSchema implements Schema {
 
   private MondrianDef.Schema xmlSchema;
 
-  final List<RolapSchemaParameter> parameterList = new ArrayList<>();
+  final List<RolapSchemaParameter> parameterList;
 
   private Date schemaLoadDate;
 
@@ -183,6 +186,23 @@ public class RolapSchema implements Schema {
    */
   private final String id;
 
+  /**
+   * Schema whose cubes, shared dimensions, named sets, parameters and stars this schema uses, or null if it has its
+   * own. See {@link #RolapSchema(SchemaKey, ByteString, RolapSchema, MondrianDef.Schema)}.
+   */
+  private final RolapSchema base;
+
+  /**
+   * Number of schemas, this one and its overlays, that use this schema's structure and have not been cleaned up. Only
+   * used if this schema has its own structure. When it reaches zero, the segments and aggregate tables are flushed.
+   */
+  private final AtomicInteger structureUseCount = new AtomicInteger( 1 );
+
+  /**
+   * Whether {@link #finalCleanUp} has released this schema's use of its structure.
+   */
+  private final AtomicBoolean released = new AtomicBoolean();
+
   /**
    * This is ONLY called by other constructors (and MUST be called by them) and NEVER by the Pool.
    *
@@ -197,6 +217,13 @@ public class RolapSchema implements Schema {
     this.id = Util.generateUuidString();
     this.key = key;
     this.md5Bytes = md5Bytes;
+    this.base = null;
+    this.mapNameToCube = new HashMap<>();
+    this.mapSharedHierarchyToReader = new HashMap<>();
+    this.mapSharedHierarchyNameToHierarchy = new HashMap<>();
+    this.mapNameToSet = new HashMap<>();
+    this.parameterList = new ArrayList<>();
+    this.rolapStarRegistry = new RolapStarRegistry();
 
     if ( useContentChecksum && md5Bytes == null ) {
       throw new AssertionError();
@@ -235,10 +262,94 @@ public class RolapSchema implements Schema {
     this.id = Util.generateUuidString();
     this.key = key;
     this.md5Bytes = md5Bytes;
+    this.base = null;
+    this.mapNameToCube = new HashMap<>();
+    this.mapSharedHierarchyToReader = new HashMap<>();
+    this.mapSharedHierarchyNameToHierarchy = new HashMap<>();
+    this.mapNameToSet = new HashMap<>();
+    this.parameterList = new ArrayList<>();
+    this.rolapStarRegistry = new RolapStarRegistry();
     this.defaultRole = Util.createRootRole( this );
     this.internalConnection = internalConnection;
   }
 
+  /**
+   * Creates a schema that shares the structure of <code>base</code>, and has the roles of <code>xmlSchema</code>.
+   *
+   * <p>The definitions of the two schemas must differ only in their roles (see {@link #structureChecksum}). This
+   * schema uses the cubes, shared dimensions, named sets, parameters and stars of the base schema, and therefore its
+   * member and segment caches. The caller must have called {@link #retainStructure()} on the base schema.</p>
+   *
+   * @param key       Key
+   * @param md5Bytes  MD5 hash of this schema's definition
+   * @param base      Schema whose structure to share
+   * @param xmlSchema Definition of this schema
+   */
+  RolapSchema( SchemaKey key, ByteString md5Bytes, RolapSchema base, MondrianDef.Schema xmlSchema ) {
+    assert base.base == null;
+    this.id = Util.generateUuidString();
+    this.key = key;
+    this.md5Bytes = md5Bytes;
+    this.base = base;
+    this.name = base.name;
+    this.internalConnection = base.internalConnection;
+    this.mapNameToCube = base.mapNameToCube;
+    this.mapSharedHierarchyToReader = base.mapSharedHierarchyToReader;
+    this.mapSharedHierarchyNameToHierarchy = base.mapSharedHierarchyNameToHierarchy;
+    this.mapNameToSet = base.mapNameToSet;
+    this.parameterList = base.parameterList;
+    this.rolapStarRegistry = base.rolapStarRegistry;
+    this.funTable = base.funTable;
+    this.annotationMap = base.annotationMap;
+    this.dataSourceChangeListener = base.dataSourceChangeListener;
+    this.xmlSchema = xmlSchema;
+    final RoleImpl rootRole = new RoleImpl();
+    grantSchema( rootRole, Access.ALL );
+    rootRole.makeImmutable();
+    this.defaultRole = rootRole;
+    loadRoles( xmlSchema );
+    setSchemaLoadDate();
+  }
+
+  /**
+   * Registers another schema as a user of this schema's structure, so that cleaning up this schema does not flush the
+   * segments and aggregate tables while the other schema uses them.
+   *
+   * @return Whether this schema's structure is still in use; false if it has been cleaned up, and cannot be shared
+   */
+  boolean retainStructure() {
+    assert base == null;
+    while ( true ) {
+      final int count = structureUseCount.get();
+
+      if ( count == 0 ) {
+        return false;
+      }
+
+      if ( structureUseCount.compareAndSet( count, count + 1 ) ) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases a use of this schema's structure. The last release flushes the segments and aggregate tables.
+   */
+  void releaseStructure() {
+    assert base == null;
+    if ( structureUseCount.decrementAndGet() == 0 ) {
+      flushSegments();
+      flushJdbcSchema();
+    }
+  }
+
+  /**
+   * Returns whether every schema that uses this schema's structure has been cleaned up.
+   */
+  boolean isStructureReleased() {
+    return ( base == null ? this : base ).structureUseCount.get() == 0;
+  }
+
   protected void flushSegments() {
     final RolapConnection localInternalConnection = getInternalConnection();
 
@@ -267,11 +378,19 @@ public class RolapSchema implements Schema {
    * data must be refreshed.
    */
   protected void finalCleanUp() {
-    // Cleanup the segment data.
-    flushSegments();
-
-    // Cleanup the agg JDBC cache
-    flushJdbcSchema();
+    RolapResultCache.instance().evict( this );
+
+    // Overlays share the segments and aggregate tables of their base schema. Whichever of them is cleaned up last
+    // flushes them.
+    final RolapSchema owner = base == null ? this : base;
+
+    if ( released.compareAndSet( false, true ) ) {
+      owner.releaseStructure();
+    } else if ( owner.structureUseCount.get() == 0 ) {
+      // Cleaned up again, after all users have been cleaned up; flush any segments loaded since.
+      owner.flushSegments();
+      owner.flushJdbcSchema();
+    }
   }
 
   protected void finalize() {
@@ -356,10 +475,7 @@ public class RolapSchema implements Schema {
         md5Bytes = new ByteString( Util.digestMd5( catalogStr ) );
       }
 
-      // throw error if we have an incompatible schema
-      checkSchemaVersion( def );
-
-      xmlSchema = new MondrianDef.Schema( def );
+      xmlSchema = parse( def );
 
       if ( getLogger().isDebugEnabled() ) {
         StringWriter sw = new StringWriter( 4096 );
@@ -377,9 +493,54 @@ public class RolapSchema implements Schema {
 
     aggTableManager.initialize( connectInfo );
     setSchemaLoadDate();
+    SegmentWarmer.warm( MondrianServer.forConnection( internalConnection ).getAggregationManager().getCacheMgr(),
+      this );
+  }
+
+  /**
+   * Parses the text of a catalog.
+   *
+   * @param catalogUrl URL of catalog, for error messages
+   * @param catalogStr Text of catalog
+   * @return Schema definition
+   */
+  static MondrianDef.Schema parse( String catalogUrl, String catalogStr ) {
+    try {
+      return parse( XOMUtil.createDefaultParser().parse( catalogStr ) );
+    } catch ( XOMException e ) {
+      throw Util.newError( e, "while parsing catalog " + catalogUrl );
+    }
   }
 
-  private void checkSchemaVersion( final DOMWrapper schemaDom ) {
+  private static MondrianDef.Schema parse( DOMWrapper def ) throws XOMException {
+    // throw error if we have an incompatible schema
+    checkSchemaVersion( def );
+
+    return new MondrianDef.Schema( def );
+  }
+
+  /**
+   * Returns a checksum of a schema definition that ignores its roles. Two schemas with the same structure checksum
+   * and the same connection have the same cubes, and read the same data.
+   *
+   * @param xmlSchema Schema definition
+   * @return MD5 hash of the definition, less its roles
+   */
+  static ByteString structureChecksum( MondrianDef.Schema xmlSchema ) {
+    final MondrianDef.Role[] roles = xmlSchema.roles;
+    final String defaultRole = xmlSchema.defaultRole;
+
+    try {
+      xmlSchema.roles = new MondrianDef.Role[ 0 ];
+      xmlSchema.defaultRole = null;
+      return new ByteString( Util.digestMd5( xmlSchema.toXML() ) );
+    } finally {
+      xmlSchema.roles = roles;
+      xmlSchema.defaultRole = defaultRole;
+    }
+  }
+
+  private static void checkSchemaVersion( final DOMWrapper schemaDom ) {
     String schemaVersion = schemaDom.getAttribute( "metamodelVersion" );
 
     if ( schemaVersion == null ) {
@@ -402,7 +563,7 @@ public class RolapSchema implements Schema {
     }
   }
 
-  private boolean hasMondrian4Elements( final DOMWrapper schemaDom ) {
+  private static boolean hasMondrian4Elements( final DOMWrapper schemaDom ) {
     // check for Mondrian 4 schema elements:
     for ( DOMWrapper child : schemaDom.getChildren() ) {
       if ( "PhysicalSchema".equals( child.getTagName() ) ) {
@@ -538,27 +699,18 @@ public class RolapSchema implements Schema {
       XOMUtil.discard( param );
     }
 
-    // Create cubes.
-    for ( MondrianDef.Cube xmlCube : xmlSchema.cubes ) {
-      if ( xmlCube.isEnabled() ) {
-        RolapCube cube = new RolapCube( this, xmlSchema, xmlCube, true );
-        XOMUtil.discard( cube );
-      }
-    }
-
-    // Create virtual cubes.
-    for ( MondrianDef.VirtualCube xmlVirtualCube : xmlSchema.virtualCubes ) {
-      if ( xmlVirtualCube.isEnabled() ) {
-        RolapCube cube = new RolapCube( this, xmlSchema, xmlVirtualCube, true );
-        XOMUtil.discard( cube );
-      }
-    }
+    // Create cubes, then virtual cubes.
+    new RolapCubeLoader( this, xmlSchema, MondrianProperties.instance().SchemaLoadThreads.get() ).load();
 
     // Create named sets.
     for ( MondrianDef.NamedSet xmlNamedSet : xmlSchema.namedSets ) {
       mapNameToSet.put( xmlNamedSet.name, createNamedSet( xmlNamedSet ) );
     }
 
+    loadRoles( xmlSchema );
+  }
+
+  private void loadRoles( MondrianDef.Schema xmlSchema ) {
     // Create roles.
     for ( MondrianDef.Role xmlRole : xmlSchema.roles ) {
       Role role = createRole( xmlRole );
@@ -618,7 +770,10 @@ public class RolapSchema implements Schema {
 
     if ( internalConnection != null && "true".equals(
       internalConnection.getProperty( RolapConnectionProperties.Ignore.name() ) ) ) {
-      warningList.add( ex );
+      // cubes may be created in parallel; see RolapCubeLoader
+      synchronized ( warningList ) {
+        warningList.add( ex );
+      }
     } else {
       throw ex;
     }
@@ -676,9 +831,21 @@ public class RolapSchema implements Schema {
     return RoleImpl.union( roleList );
   }
 
+  /**
+   * Grants a role access to this schema. An overlay's cubes and dimensions belong to its base schema, against which a
+   * role checks access to them, so access is granted to the base schema too.
+   */
+  private void grantSchema( RoleImpl role, Access access ) {
+    role.grant( this, access );
+
+    if ( base != null ) {
+      role.grant( base, access );
+    }
+  }
+
   // package-local visibility for testing purposes
   void handleSchemaGrant( RoleImpl role, MondrianDef.SchemaGrant schemaGrant ) {
-    role.grant( this, getAccess( schemaGrant.access, schemaAllowed ) );
+    grantSchema( role, getAccess( schemaGrant.access, schemaAllowed ) );
 
     for ( MondrianDef.CubeGrant cubeGrant : schemaGrant.cubeGrants ) {
       handleCubeGrant( role, cubeGrant );
@@ -868,7 +1035,9 @@ public class RolapSchema implements Schema {
    * Finds a cube called 'cube' in the current catalog, or return null if no cube exists.
    */
   protected RolapCube lookupCube( final String cubeName ) {
-    return mapNameToCube.get( Util.normalizeName( cubeName ) );
+    synchronized ( mapNameToCube ) {
+      return mapNameToCube.get( Util.normalizeName( cubeName ) );
+    }
   }
 
   /**
@@ -906,7 +1075,7 @@ public class RolapSchema implements Schema {
   public List<RolapCube> getCubesWithStar( RolapStar star ) {
     List<RolapCube> list = new ArrayList<>();
 
-    for ( RolapCube cube : mapNameToCube.values() ) {
+    for ( RolapCube cube : getCubeList() ) {
       if ( star == cube.getStar() ) {
         list.add( cube );
       }
@@ -921,29 +1090,37 @@ public class RolapSchema implements Schema {
    * @see #lookupCube(String)
    */
   protected void addCube( final RolapCube cube ) {
-    mapNameToCube.put( Util.normalizeName( cube.getName() ), cube );
+    // Cubes may be created in parallel (see RolapCubeLoader), so every
+    // access to the map is synchronized.
+    synchronized ( mapNameToCube ) {
+      mapNameToCube.put( Util.normalizeName( cube.getName() ), cube );
+    }
   }
 
   public boolean removeCube( final String cubeName ) {
-    final RolapCube cube = mapNameToCube.remove( Util.normalizeName( cubeName ) );
-    return cube != null;
+    synchronized ( mapNameToCube ) {
+      return mapNameToCube.remove( Util.normalizeName( cubeName ) ) != null;
+    }
   }
 
   public Cube[] getCubes() {
-    Collection<RolapCube> cubes = mapNameToCube.values();
-    return cubes.toArray( new RolapCube[ 0 ] );
+    synchronized ( mapNameToCube ) {
+      return mapNameToCube.values().toArray( new RolapCube[ 0 ] );
+    }
   }
 
   public List<RolapCube> getCubeList() {
-    return new ArrayList<>( mapNameToCube.values() );
+    synchronized ( mapNameToCube ) {
+      return new ArrayList<>( mapNameToCube.values() );
+    }
   }
 
-  public Hierarchy[] getSharedHierarchies() {
+  public synchronized Hierarchy[] getSharedHierarchies() {
     Collection<RolapHierarchy> hierarchies = mapSharedHierarchyNameToHierarchy.values();
     return hierarchies.toArray( new RolapHierarchy[ 0 ] );
   }
 
-  RolapHierarchy getSharedHierarchy( final String name ) {
+  synchronized RolapHierarchy getSharedHierarchy( final String name ) {
     return mapSharedHierarchyNameToHierarchy.get( name );
   }
 
@@ -1235,7 +1412,7 @@ public class RolapSchema implements Schema {
     }
   }
 
-  private final RolapStarRegistry rolapStarRegistry = new RolapStarRegistry();
+  private final RolapStarRegistry rolapStarRegistry;
 
   public RolapStarRegistry getRolapStarRegistry() {
     return rolapStarRegistry;
@@ -12,6 +12,8 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.MondrianDef;
+import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.aggmatcher.JdbcSchema;
@@ -19,16 +21,24 @@ import mondrian.spi.DynamicSchemaProcessor;
 import mondrian.util.ByteString;
 import mondrian.util.ClassResolver;
 import mondrian.util.ExpiringReference;
+import mondrian.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static mondrian.rolap.RolapConnectionProperties.JdbcConnectionUuid;
@@ -39,6 +49,14 @@ import static mondrian.rolap.RolapConnectionProperties.UseSchemaPool;
  * A collection of schemas, identified by their connection properties (catalog name, JDBC URL, and so forth).
  *
  * <p>To lookup a schema, call <code>RolapSchemaPool.{@link #instance}().{@link #get}</code>.</p>
+ *
+ * <p>Schemas are built outside the pool's lock. If several threads ask for the same schema while it is being built,
+ * one of them builds it and the others wait for it; requests for other schemas are not held up. To rebuild a schema
+ * without making its users wait, call {@link #reload}.</p>
+ *
+ * <p>If {@link MondrianProperties#ShareSchemaStructure} is set, a schema that differs from a pooled schema only in its
+ * roles is created as an overlay of the pooled schema; see
+ * {@link RolapSchema#RolapSchema(SchemaKey, ByteString, RolapSchema, MondrianDef.Schema)}.</p>
  */
 public class RolapSchemaPool {
   static final Logger LOGGER = LogManager.getLogger( RolapSchemaPool.class );
@@ -52,8 +70,23 @@ public class RolapSchemaPool {
   // this field can probably be removed.
   private final Map<ByteString, ExpiringReference<RolapSchema>> mapMd5ToSchema = new HashMap<>();
 
+  /**
+   * Schemas that are being built, keyed by {@link SchemaKey} or, if the content checksum is used, by MD5 hash.
+   * Guarded by {@link #lock}.
+   */
+  private final Map<Object, Future<RolapSchema>> mapKeyToLoad = new HashMap<>();
+
+  /**
+   * Schemas whose structure other schemas may share, keyed by structure checksum and connection. Guarded by
+   * {@link #lock}.
+   */
+  private final Map<Pair<ByteString, ConnectionKey>, WeakReference<RolapSchema>> mapStructureToSchema =
+    new HashMap<>();
+
   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+  private static ExecutorService reloadExecutor;
+
   private RolapSchemaPool() {
   }
 
@@ -137,14 +170,17 @@ public class RolapSchemaPool {
     return null;
   }
 
-  private RolapSchema getByKey( String catalogUrl, DataSource dataSource, Util.PropertyList connectInfo,
-                                String pinSchemaTimeout, String catalogStr, SchemaKey key ) {
+  private RolapSchema getByKey( final String catalogUrl, final DataSource dataSource,
+                                final Util.PropertyList connectInfo, String pinSchemaTimeout, final String catalogStr,
+                                final SchemaKey key ) {
     RolapSchema schema = lookUp( mapKeyToSchema, key, pinSchemaTimeout );
 
     if ( schema != null ) {
       return schema;
     }
 
+    Future<RolapSchema> existingLoad;
+    FutureTask<RolapSchema> load;
     lock.writeLock().lock();
 
     try {
@@ -163,22 +199,29 @@ public class RolapSchemaPool {
         }
       }
 
-      schema = createRolapSchema( catalogUrl, dataSource, connectInfo, catalogStr, key, null );
+      // If another thread is building the schema, wait for it rather than building it again.
+      existingLoad = mapKeyToLoad.get( key );
 
-      if ( LOGGER.isDebugEnabled() ) {
-        LOGGER.debug( "create: {}", schema );
+      if ( existingLoad == null ) {
+        load = new FutureTask<>( () -> createRolapSchema( catalogUrl, dataSource, connectInfo, catalogStr, key, null ) );
+        mapKeyToLoad.put( key, load );
+      } else {
+        load = null;
       }
-
-      putSchema( schema, null, pinSchemaTimeout );
-
-      return schema;
     } finally {
       lock.writeLock().unlock();
     }
+
+    if ( existingLoad != null ) {
+      return getResult( existingLoad );
+    }
+
+    return runLoad( key, load, null, pinSchemaTimeout );
   }
 
-  private RolapSchema getByChecksum( String catalogUrl, DataSource dataSource, Util.PropertyList connectInfo,
-                                     String pinSchemaTimeout, String catalogStr, SchemaKey key ) {
+  private RolapSchema getByChecksum( final String catalogUrl, final DataSource dataSource,
+                                     final Util.PropertyList connectInfo, String pinSchemaTimeout,
+                                     final String catalogStr, final SchemaKey key ) {
     final ByteString md5Bytes = new ByteString( Util.digestMd5( catalogStr ) );
     RolapSchema schema = lookUp( mapMd5ToSchema, md5Bytes, pinSchemaTimeout );
 
@@ -186,6 +229,8 @@ public class RolapSchemaPool {
       return schema;
     }
 
+    Future<RolapSchema> existingLoad;
+    FutureTask<RolapSchema> load;
     lock.writeLock().lock();
 
     try {
@@ -205,24 +250,256 @@ public class RolapSchemaPool {
         }
       }
 
-      schema = createRolapSchema( catalogUrl, dataSource, connectInfo, catalogStr, key, md5Bytes );
+      // As in getByKey(), wait for another thread that is building the same schema
+      existingLoad = mapKeyToLoad.get( md5Bytes );
+
+      if ( existingLoad == null ) {
+        load = new FutureTask<>(
+          () -> createRolapSchema( catalogUrl, dataSource, connectInfo, catalogStr, key, md5Bytes ) );
+        mapKeyToLoad.put( md5Bytes, load );
+      } else {
+        load = null;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    if ( existingLoad != null ) {
+      return getResult( existingLoad );
+    }
+
+    return runLoad( md5Bytes, load, md5Bytes, pinSchemaTimeout );
+  }
+
+  /**
+   * Builds a schema, without holding the pool's lock, and adds it to the pool. Other threads that want the same
+   * schema wait for <tt>load</tt> meanwhile.
+   *
+   * <p>If the pool was cleared, or the key removed, while the schema was being built, the schema is returned but not
+   * added to the pool.</p>
+   */
+  private RolapSchema runLoad( Object loadKey, FutureTask<RolapSchema> load, ByteString md5Bytes,
+                               String pinSchemaTimeout ) {
+    load.run();
+    RolapSchema schema = null;
+
+    try {
+      schema = getResult( load );
 
       if ( LOGGER.isDebugEnabled() ) {
         LOGGER.debug( "create: schema-name={}, schema-id={}", schema.getName(), System.identityHashCode( schema ) );
       }
+    } finally {
+      lock.writeLock().lock();
 
-      putSchema( schema, md5Bytes, pinSchemaTimeout );
+      try {
+        if ( mapKeyToLoad.get( loadKey ) == load ) {
+          mapKeyToLoad.remove( loadKey );
 
-      return schema;
+          if ( schema != null ) {
+            putSchema( schema, md5Bytes, pinSchemaTimeout );
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    return schema;
+  }
+
+  private static RolapSchema getResult( Future<RolapSchema> load ) {
+    try {
+      return load.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw Util.newError( e, "interrupted while waiting for schema to load" );
+    } catch ( ExecutionException e ) {
+      final Throwable cause = e.getCause();
+
+      if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+
+      if ( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+
+      throw Util.newError( cause, "while loading schema" );
+    }
+  }
+
+  /**
+   * Rebuilds a schema in the background, re-reading its catalog, and replaces it in the pool once the new schema is
+   * ready. Until then, the old schema continues to be returned by {@link #get}; connections that already use the old
+   * schema keep using it.
+   *
+   * <p>If the schema is already being rebuilt, returns the rebuild that is in progress.</p>
+   *
+   * @param schema Schema to rebuild
+   * @return Future that yields the new schema
+   */
+  public Future<RolapSchema> reload( final RolapSchema schema ) {
+    final Util.PropertyList connectInfo = schema.getInternalConnection().getConnectInfo();
+    final String pinSchemaTimeout = connectInfo.get( PinSchemaTimeout.name(), "-1s" );
+    final boolean useContentChecksum =
+      Boolean.parseBoolean( connectInfo.get( RolapConnectionProperties.UseContentChecksum.name() ) );
+    final CompletableFuture<RolapSchema> load = new CompletableFuture<>();
+    lock.writeLock().lock();
+
+    try {
+      final Future<RolapSchema> existingLoad = mapKeyToLoad.get( schema.key );
+
+      if ( existingLoad != null ) {
+        return existingLoad;
+      }
+
+      mapKeyToLoad.put( schema.key, load );
     } finally {
       lock.writeLock().unlock();
     }
+
+    getReloadExecutor().execute( () -> {
+      RolapSchema newSchema = null;
+      Throwable throwable = null;
+
+      try {
+        newSchema = rebuild( schema );
+      } catch ( Throwable e ) {
+        LOGGER.warn( "Error reloading schema " + schema.getName(), e );
+        throwable = e;
+      }
+
+      // Swap before completing the future, so that whoever waits for the new schema finds it in the pool.
+      lock.writeLock().lock();
+
+      try {
+        if ( mapKeyToLoad.get( schema.key ) == load ) {
+          mapKeyToLoad.remove( schema.key );
+
+          if ( newSchema != null ) {
+            swapSchema( schema, newSchema, useContentChecksum, pinSchemaTimeout );
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      if ( throwable != null ) {
+        load.completeExceptionally( throwable );
+      } else {
+        load.complete( newSchema );
+      }
+    } );
+    return load;
+  }
+
+  // is package-local for testing purposes
+  RolapSchema rebuild( RolapSchema oldSchema ) {
+    final RolapConnection connection = oldSchema.getInternalConnection();
+    final Util.PropertyList connectInfo = connection.getConnectInfo();
+    final String catalogUrl = connectInfo.get( RolapConnectionProperties.Catalog.name() );
+    final boolean useContentChecksum =
+      Boolean.parseBoolean( connectInfo.get( RolapConnectionProperties.UseContentChecksum.name() ) );
+
+    final String catalogStr = getSchemaContent( connectInfo, catalogUrl );
+    final SchemaContentKey schemaContentKey = SchemaContentKey.create( connectInfo, catalogUrl, catalogStr );
+    final SchemaKey key = new SchemaKey( schemaContentKey, oldSchema.key.right );
+    final ByteString md5Bytes = useContentChecksum ? new ByteString( Util.digestMd5( catalogStr ) ) : null;
+    final RolapSchema schema =
+      createRolapSchema( catalogUrl, connection.getDataSource(), connectInfo, catalogStr, key, md5Bytes );
+
+    if ( LOGGER.isDebugEnabled() ) {
+      LOGGER.debug( "reload: old-schema={}, new-schema={}", oldSchema, schema );
+    }
+
+    return schema;
+  }
+
+  /**
+   * Replaces <tt>oldSchema</tt> with <tt>newSchema</tt>, unless another schema has taken the old schema's place in
+   * the meantime. Must be called under the write lock.
+   */
+  private void swapSchema( RolapSchema oldSchema, RolapSchema newSchema, boolean useContentChecksum,
+                           String pinTimeout ) {
+    final ExpiringReference<RolapSchema> ref = mapKeyToSchema.get( oldSchema.key );
+    final RolapSchema current = ref == null ? null : ref.get();
+
+    if ( current != null && current != oldSchema ) {
+      return;
+    }
+
+    mapKeyToSchema.remove( oldSchema.key );
+
+    final ExpiringReference<RolapSchema> md5Ref = mapMd5ToSchema.get( oldSchema.getChecksum() );
+
+    if ( md5Ref != null && md5Ref.get() == oldSchema ) {
+      mapMd5ToSchema.remove( oldSchema.getChecksum() );
+    }
+
+    putSchema( newSchema, useContentChecksum ? newSchema.getChecksum() : null, pinTimeout );
+  }
+
+  private static synchronized ExecutorService getReloadExecutor() {
+    if ( reloadExecutor == null ) {
+      reloadExecutor = Util.getExecutorService( 1, 0, 1, "mondrian.rolap.RolapSchemaPool$reloader", null );
+    }
+
+    return reloadExecutor;
   }
 
   // is extracted and made package-local for testing purposes
   RolapSchema createRolapSchema( String catalogUrl, DataSource dataSource, Util.PropertyList connectInfo,
                                  String catalogStr, SchemaKey key, ByteString md5Bytes ) {
-    return new RolapSchema( key, md5Bytes, catalogUrl, catalogStr, connectInfo, dataSource );
+    if ( !MondrianProperties.instance().ShareSchemaStructure.get() ) {
+      return new RolapSchema( key, md5Bytes, catalogUrl, catalogStr, connectInfo, dataSource );
+    }
+
+    final MondrianDef.Schema xmlSchema = RolapSchema.parse( catalogUrl, catalogStr );
+    final Pair<ByteString, ConnectionKey> structureKey =
+      Pair.of( RolapSchema.structureChecksum( xmlSchema ), key.right );
+    RolapSchema base = null;
+    lock.readLock().lock();
+
+    try {
+      final WeakReference<RolapSchema> ref = mapStructureToSchema.get( structureKey );
+
+      if ( ref != null ) {
+        base = ref.get();
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    // The base may have been cleaned up since it was found; if so, create a schema with its own structure.
+    if ( base != null && base.retainStructure() ) {
+      if ( LOGGER.isDebugEnabled() ) {
+        LOGGER.debug( "create: key={} shares structure of schema={}", key, base );
+      }
+
+      try {
+        return new RolapSchema( key, md5Bytes != null ? md5Bytes : new ByteString( Util.digestMd5( catalogStr ) ),
+          base, xmlSchema );
+      } catch ( RuntimeException e ) {
+        base.releaseStructure();
+        throw e;
+      }
+    }
+
+    final RolapSchema schema = new RolapSchema( key, md5Bytes, catalogUrl, catalogStr, connectInfo, dataSource );
+    lock.writeLock().lock();
+
+    try {
+      final WeakReference<RolapSchema> ref = mapStructureToSchema.get( structureKey );
+
+      if ( ref == null || ref.get() == null ) {
+        mapStructureToSchema.put( structureKey, new WeakReference<>( schema ) );
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    return schema;
   }
 
   /**
@@ -360,6 +637,19 @@ public class RolapSchemaPool {
       }
 
       mapKeyToSchema.remove( key );
+      mapKeyToLoad.remove( key );
+
+      if ( schema != null ) {
+        // Schemas that already share the removed schema's structure keep it; new ones will not.
+        for ( Iterator<WeakReference<RolapSchema>> iterator = mapStructureToSchema.values().iterator();
+              iterator.hasNext(); ) {
+          final RolapSchema base = iterator.next().get();
+
+          if ( base == null || base == schema ) {
+            iterator.remove();
+          }
+        }
+      }
     } finally {
       lock.writeLock().unlock();
     }
@@ -390,6 +680,8 @@ public class RolapSchemaPool {
 
       mapKeyToSchema.clear();
       mapMd5ToSchema.clear();
+      mapKeyToLoad.clear();
+      mapStructureToSchema.clear();
     } finally {
       lock.writeLock().unlock();
     }
@@ -556,6 +556,23 @@ public class RolapSchemaReader
         return childMembers;
     }
 
+    public List<Member> lookupMemberChildrenByNames(
+        List<Member> parents,
+        List<Id.NameSegment> childNames,
+        MatchType matchType)
+    {
+        if (parents.isEmpty() || childNames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final RolapMember firstParent = (RolapMember) parents.get(0);
+        MemberChildrenConstraint constraint = sqlConstraintFactory
+            .getChildrenByNamesConstraint(firstParent, childNames);
+        final List<RolapMember> children = new ArrayList<RolapMember>();
+        getMemberReader(firstParent.getHierarchy()).getMemberChildren(
+            Util.<RolapMember>cast(parents), children, constraint);
+        return new ArrayList<Member>(children);
+    }
+
     public Member getCalculatedMember(List<Id.Segment> nameParts) {
         // There are no calculated members defined against a schema.
         return null;
@@ -16,6 +16,7 @@ import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.rolap.aggmatcher.AggStarLattice;
 import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.Locus;
 import mondrian.spi.*;
@@ -76,10 +77,9 @@ public class RolapStar {
     private boolean cacheAggregations;
 
     /**
-     * Partially ordered list of AggStars associated with this RolapStar's fact
-     * table.
+     * AggStars associated with this RolapStar's fact table.
      */
-    private final List<AggStar> aggStars = new LinkedList<AggStar>();
+    private final AggStarLattice aggStarLattice = new AggStarLattice(this);
 
     private DataSourceChangeListener changeListener;
 
@@ -423,58 +423,48 @@ public class RolapStar {
      * i.e., this star has some aggstars, then those aggstars are cleared.
      */
     public void prepareToLoadAggregates() {
-        aggStars.clear();
+        aggStarLattice.clear();
     }
 
     /**
      * Adds an {@link AggStar} to this star.
      *
-     * <p>Internally the AggStars are added in sort order, smallest row count
-     * to biggest, so that the most efficient AggStar is encountered first;
-     * ties do not matter.
+     * <p>The AggStar's size is not computed until a query first looks for
+     * an aggregate table; see {@link AggStarLattice}.
      */
     public void addAggStar(AggStar aggStar) {
-        // Add it before the first AggStar which is larger, if there is one.
-        long size = aggStar.getSize();
-        ListIterator<AggStar> lit = aggStars.listIterator();
-        while (lit.hasNext()) {
-            AggStar as = lit.next();
-            if (as.getSize() >= size) {
-                lit.previous();
-                lit.add(aggStar);
-                return;
-            }
-        }
-
-        // There is no larger star. Add at the end of the list.
-        aggStars.add(aggStar);
+        aggStarLattice.add(aggStar);
     }
 
     /**
      * Clears the list of agg stars.
      */
     void clearAggStarList() {
-        aggStars.clear();
+        aggStarLattice.clear();
     }
 
     /**
-     * Reorder the list of aggregate stars. This should be called if the
-     * algorithm used to order the AggStars has been changed.
+     * Discards the choices of aggregate stars made so far. This should be
+     * called if the algorithm used to compare the AggStars has been changed.
      */
     public void reOrderAggStarList() {
-        List<AggStar> oldList = new ArrayList<AggStar>(aggStars);
-        aggStars.clear();
-        for (AggStar aggStar : oldList) {
-            addAggStar(aggStar);
-        }
+        aggStarLattice.invalidate();
     }
 
     /**
-     * Returns this RolapStar's aggregate table AggStars, ordered in ascending
-     * order of size.
+     * Returns this RolapStar's aggregate table AggStars, in the order they
+     * were added.
      */
     public List<AggStar> getAggStars() {
-        return aggStars;
+        return aggStarLattice.getAggStars();
+    }
+
+    /**
+     * Returns the index of this RolapStar's aggregate table AggStars, which
+     * chooses the best AggStar for a query.
+     */
+    public AggStarLattice getAggStarLattice() {
+        return aggStarLattice;
     }
 
     /**
@@ -1029,6 +1019,17 @@ public class RolapStar {
             return approxCardinality.get();
         }
 
+        /**
+         * Returns the column cardinality if it is already known, otherwise a
+         * negative value. Unlike {@link #getCardinality()}, never issues a
+         * query.
+         *
+         * @return the column cardinality, or a negative value if unknown
+         */
+        public long getApproxCardinality() {
+            return approxCardinality.get();
+        }
+
         /**
          * Generates a predicate that a column matches one of a list of values.
          *
@@ -20,6 +20,7 @@ import mondrian.spi.Dialect;
 import mondrian.spi.StatisticsProvider;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.sql.DataSource;
 
 /**
@@ -27,13 +28,18 @@ import javax.sql.DataSource;
  *
  * <p>Wrapper around a chain of {@link mondrian.spi.StatisticsProvider}s,
  * followed by a cache to store the results.</p>
+ *
+ * <p>The cache is thread safe; aggregate table row counts, for instance, are
+ * gathered in parallel.</p>
  */
 public class RolapStatisticsCache {
     private final RolapStar star;
-    private final Map<List, Long> columnMap = new HashMap<List, Long>();
-    private final Map<List, Long> tableMap = new HashMap<List, Long>();
+    private final Map<List, Long> columnMap =
+        new ConcurrentHashMap<List, Long>();
+    private final Map<List, Long> tableMap =
+        new ConcurrentHashMap<List, Long>();
     private final Map<String, Long> queryMap =
-        new HashMap<String, Long>();
+        new ConcurrentHashMap<String, Long>();
 
     public RolapStatisticsCache(RolapStar star) {
         this.star = star;
@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.olap.Level;
+import mondrian.olap.Member;
+import mondrian.olap.Role;
+import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.rolap.sql.SqlQuery;
+
+import java.util.*;
+
+/**
+ * Restricts the members of a level to those that a role may be able to see:
+ * the members granted to the role, and the descendants of members granted to
+ * the role.
+ *
+ * <p>The restriction is a superset of the members that the role can see;
+ * {@link RestrictedMemberReader} still checks each member it reads.
+ *
+ * @see mondrian.olap.RoleImpl#getAccessibleAncestors
+ */
+class RoleAccessConstraint extends DefaultTupleConstraint {
+    private final Collection<List<Member>> memberLists;
+    private final Object cacheKey;
+
+    /**
+     * Creates a RoleAccessConstraint.
+     *
+     * @param hierarchyAccess Access of the role to the hierarchy
+     * @param accessibleAncestors Members whose grants can make members of the
+     *   level accessible, grouped by level
+     */
+    RoleAccessConstraint(
+        Role.HierarchyAccess hierarchyAccess,
+        Map<Level, List<Member>> accessibleAncestors)
+    {
+        this.memberLists = accessibleAncestors.values();
+        this.cacheKey =
+            Arrays.asList(RoleAccessConstraint.class, hierarchyAccess);
+    }
+
+    public void addLevelConstraint(
+        SqlQuery sqlQuery,
+        RolapCube baseCube,
+        AggStar aggStar,
+        RolapLevel level)
+    {
+        final List<List<RolapMember>> lists =
+            new ArrayList<List<RolapMember>>();
+        for (List<Member> members : memberLists) {
+            final List<RolapMember> list = new ArrayList<RolapMember>();
+            for (Member member : members) {
+                // The level may be that of the shared hierarchy underlying
+                // the cube hierarchy that the members belong to.
+                if (member instanceof RolapCubeMember
+                    && !(level instanceof RolapCubeLevel))
+                {
+                    list.add(((RolapCubeMember) member).getRolapMember());
+                } else {
+                    list.add((RolapMember) member);
+                }
+            }
+            lists.add(list);
+        }
+        SqlConstraintUtils.addMemberOrDescendantConstraint(
+            sqlQuery, baseCube, aggStar, lists);
+    }
+
+    public String toString() {
+        return "RoleAccessConstraint";
+    }
+
+    public Object getCacheKey() {
+        return cacheKey;
+    }
+}
+
+// End RoleAccessConstraint.java
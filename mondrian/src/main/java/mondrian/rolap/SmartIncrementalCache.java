@@ -28,7 +28,11 @@ public class SmartIncrementalCache<K, V extends Collection> {
     SmartCache<K, V> cache;
 
     public SmartIncrementalCache() {
-        cache = new SoftSmartCache<K, V>();
+        this(new SoftSmartCache<K, V>());
+    }
+
+    public SmartIncrementalCache(SmartCache<K, V> cache) {
+        this.cache = cache;
     }
 
     public V put(final K  key, final V value) {
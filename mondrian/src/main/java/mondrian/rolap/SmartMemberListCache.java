@@ -54,7 +54,11 @@ public class SmartMemberListCache <K, V> {
     SmartCache<Pair<K, Object>, V> cache;
 
     public SmartMemberListCache() {
-        cache = new SoftSmartCache<Pair<K, Object>, V>();
+        this(new SoftSmartCache<Pair<K, Object>, V>());
+    }
+
+    public SmartMemberListCache(SmartCache<Pair<K, Object>, V> cache) {
+        this.cache = cache;
     }
 
     public Object put(K key, SqlConstraint constraint, V value) {
@@ -21,6 +21,9 @@ import mondrian.rolap.TupleReader.MemberBuilder;
 import mondrian.rolap.sql.MemberChildrenConstraint;
 import mondrian.rolap.sql.TupleConstraint;
 import mondrian.util.ConcatenableList;
+import mondrian.util.Pair;
+import mondrian.util.SingleFlight;
+import mondrian.util.SlotFuture;
 
 import java.util.*;
 
@@ -29,9 +32,11 @@ import java.util.*;
  * cache of members and their children. If a member is 'in cache', there is a
  * list of its children. It also caches the members of levels.
  *
- * <p>Synchronization: the MemberReader <code>source</code> must be called
- * from synchronized(this) context - it does not synchronize itself (probably
- * it should).</p>
+ * <p>Synchronization: lookups that hit the cache do not lock. The
+ * MemberReader <code>source</code> does not synchronize itself, so it is
+ * only called from synchronized(cacheHelper) context. Concurrent requests
+ * for the same level members or the same children (same constraint) are
+ * loaded once; the other threads wait for, and share, the result.</p>
  *
  * <p>Constraints: Member.Children and Level.Members may be constrained by a
  * SqlConstraint object. In this case a subset of all members is returned.
@@ -48,13 +53,25 @@ public class SmartMemberReader implements MemberReader {
     private final SqlConstraintFactory sqlConstraintFactory =
         SqlConstraintFactory.instance();
 
-    /** access to <code>source</code> must be synchronized(this) */
+    /** access to <code>source</code> must be synchronized(cacheHelper) */
     protected final MemberReader source;
 
     protected final MemberCacheHelper cacheHelper;
 
     protected List<RolapMember> rootMembers;
 
+    /** Loads of level members in progress, keyed by (level, constraint
+     * cache key). */
+    private final SingleFlight<Pair<Object, Object>, List<RolapMember>>
+        levelLoads =
+        new SingleFlight<Pair<Object, Object>, List<RolapMember>>();
+
+    /** Loads of children in progress, keyed by (parent member, constraint
+     * cache key). */
+    private final SingleFlight<Pair<Object, Object>, List<RolapMember>>
+        childLoads =
+        new SingleFlight<Pair<Object, Object>, List<RolapMember>>();
+
     SmartMemberReader(MemberReader source) {
         this(source, true);
     }
@@ -140,21 +157,78 @@ public class SmartMemberReader implements MemberReader {
     public List<RolapMember> getMembersInLevel(
         RolapLevel level, TupleConstraint constraint)
     {
-        synchronized (cacheHelper) {
-            checkCacheStatus();
-
+        checkCacheStatus();
+        while (true) {
             List<RolapMember> members =
-                cacheHelper.getLevelMembersFromCache(level, constraint);
+                getMembersInLevelFromCache(level, constraint);
+            if (members != null) {
+                return members;
+            }
+            final Object cacheKey = constraint.getCacheKey();
+            if (cacheKey == null || Thread.holdsLock(cacheHelper)) {
+                // Not cacheable, or we are already loading; waiting for
+                // another load could deadlock.
+                synchronized (cacheHelper) {
+                    return readMembersInLevel(level, constraint);
+                }
+            }
+            final Pair<Object, Object> key =
+                new Pair<Object, Object>(level, cacheKey);
+            final SlotFuture<List<RolapMember>> pending = levelLoads.join(key);
+            if (pending == null) {
+                members = null;
+                try {
+                    synchronized (cacheHelper) {
+                        members = readMembersInLevel(level, constraint);
+                    }
+                } finally {
+                    levelLoads.complete(key, members);
+                }
+                return members;
+            }
+            members = Util.safeGet(pending, "while loading members");
             if (members != null) {
                 return members;
             }
+            // The other load failed. Try again.
+        }
+    }
+
+    /**
+     * Returns the cached members of a level, or null if they are not
+     * cached. Does not lock.
+     *
+     * @param level Level
+     * @param constraint Constraint
+     * @return Cached members, or null
+     */
+    protected List<RolapMember> getMembersInLevelFromCache(
+        RolapLevel level, TupleConstraint constraint)
+    {
+        return cacheHelper.getLevelMembersFromCache(level, constraint);
+    }
 
-            members =
-                source.getMembersInLevel(
-                    level, constraint);
-            cacheHelper.putChildren(level, constraint, members);
+    /**
+     * Reads the members of a level into cache. Called from
+     * synchronized(cacheHelper) context.
+     *
+     * @param level Level
+     * @param constraint Constraint
+     * @return Members
+     */
+    protected List<RolapMember> readMembersInLevel(
+        RolapLevel level, TupleConstraint constraint)
+    {
+        List<RolapMember> members =
+            cacheHelper.getLevelMembersFromCache(level, constraint);
+        if (members != null) {
             return members;
         }
+        members =
+            source.getMembersInLevel(
+                level, constraint);
+        cacheHelper.putChildren(level, constraint, members);
+        return members;
     }
 
     public int getLevelMemberCount(RolapLevel level) {
@@ -196,27 +270,140 @@ public class SmartMemberReader implements MemberReader {
         List<RolapMember> children,
         MemberChildrenConstraint constraint)
     {
-        synchronized (cacheHelper) {
-            checkCacheStatus();
-
-            List<RolapMember> missed = new ArrayList<RolapMember>();
-            for (RolapMember parentMember : parentMembers) {
-                List<RolapMember> list =
-                    cacheHelper.getChildrenFromCache(parentMember, constraint);
-                if (list == null) {
-                    // the null member has no children
-                    if (!parentMember.isNull()) {
-                        missed.add(parentMember);
-                    }
-                } else {
-                    children.addAll(list);
+        checkCacheStatus();
+
+        List<RolapMember> missed = new ArrayList<RolapMember>();
+        for (RolapMember parentMember : parentMembers) {
+            List<RolapMember> list =
+                getChildrenFromCache(parentMember, constraint);
+            if (list == null) {
+                // the null member has no children
+                if (!parentMember.isNull()) {
+                    missed.add(parentMember);
                 }
+            } else {
+                children.addAll(list);
             }
-            if (missed.size() > 0) {
+        }
+        if (missed.size() > 0) {
+            loadMemberChildren(missed, children, constraint);
+        }
+        return Util.toNullValuesMap(children);
+    }
+
+    /**
+     * Returns the cached children of a member, or null if they are not
+     * cached. Does not lock.
+     *
+     * @param parentMember Parent member
+     * @param constraint Constraint
+     * @return Cached children, or null
+     */
+    protected List<RolapMember> getChildrenFromCache(
+        RolapMember parentMember,
+        MemberChildrenConstraint constraint)
+    {
+        return cacheHelper.getChildrenFromCache(parentMember, constraint);
+    }
+
+    /**
+     * Loads the children of members that were not found in cache, and
+     * appends them to <code>children</code>.
+     *
+     * <p>Parents whose children are already being loaded by another thread
+     * (with the same constraint) are not read again; this thread waits for
+     * that load and uses its result.
+     *
+     * @param missed Members whose children are not in cache
+     * @param children Children are written here
+     * @param constraint Constraint
+     */
+    private void loadMemberChildren(
+        List<RolapMember> missed,
+        List<RolapMember> children,
+        MemberChildrenConstraint constraint)
+    {
+        final Object cacheKey =
+            constraint == null ? null : constraint.getCacheKey();
+        if (cacheKey == null || Thread.holdsLock(cacheHelper)) {
+            // Not cacheable, or we are already loading; waiting for another
+            // load could deadlock.
+            synchronized (cacheHelper) {
                 readMemberChildren(missed, children, constraint);
             }
+            return;
+        }
+
+        final List<RolapMember> claimed = new ArrayList<RolapMember>();
+        final List<Pair<RolapMember, SlotFuture<List<RolapMember>>>> pending =
+            new ArrayList<Pair<RolapMember, SlotFuture<List<RolapMember>>>>();
+        for (RolapMember parentMember : missed) {
+            final SlotFuture<List<RolapMember>> future =
+                childLoads.join(
+                    new Pair<Object, Object>(parentMember, cacheKey));
+            if (future == null) {
+                claimed.add(parentMember);
+            } else {
+                pending.add(Pair.of(parentMember, future));
+            }
+        }
+
+        if (!claimed.isEmpty()) {
+            final Map<RolapMember, List<RolapMember>> childrenByParent =
+                new HashMap<RolapMember, List<RolapMember>>();
+            try {
+                final List<RolapMember> loaded = new ArrayList<RolapMember>();
+                synchronized (cacheHelper) {
+                    // Another thread may have loaded some of them since we
+                    // looked.
+                    final List<RolapMember> stillMissed =
+                        new ArrayList<RolapMember>();
+                    for (RolapMember parentMember : claimed) {
+                        final List<RolapMember> list =
+                            getChildrenFromCache(parentMember, constraint);
+                        if (list == null) {
+                            stillMissed.add(parentMember);
+                        } else {
+                            loaded.addAll(list);
+                        }
+                    }
+                    if (!stillMissed.isEmpty()) {
+                        readMemberChildren(stillMissed, loaded, constraint);
+                    }
+                }
+                for (RolapMember parentMember : claimed) {
+                    childrenByParent.put(
+                        parentMember, new ArrayList<RolapMember>());
+                }
+                for (RolapMember child : loaded) {
+                    final List<RolapMember> list =
+                        childrenByParent.get(child.getParentMember());
+                    if (list != null) {
+                        list.add(child);
+                    }
+                }
+                children.addAll(loaded);
+            } finally {
+                // If the load failed, the map is empty, and waiting threads
+                // are told to load for themselves.
+                for (RolapMember parentMember : claimed) {
+                    childLoads.complete(
+                        new Pair<Object, Object>(parentMember, cacheKey),
+                        childrenByParent.get(parentMember));
+                }
+            }
+        }
+
+        for (Pair<RolapMember, SlotFuture<List<RolapMember>>> pair : pending) {
+            final List<RolapMember> list =
+                Util.safeGet(pair.right, "while loading member children");
+            if (list != null) {
+                children.addAll(list);
+            } else {
+                loadMemberChildren(
+                    Collections.singletonList(pair.left), children, constraint);
+            }
         }
-        return Util.toNullValuesMap(children);
     }
 
     public RolapMember lookupMember(
@@ -323,34 +510,32 @@ public class SmartMemberReader implements MemberReader {
     }
 
     public RolapMember getLeadMember(RolapMember member, int n) {
-        // uncertain if this method needs to be synchronized
-        synchronized (cacheHelper) {
-            if (n == 0 || member.isNull()) {
-                return member;
-            } else {
-                SiblingIterator iter = new SiblingIterator(this, member);
-                if (n > 0) {
-                    RolapMember sibling = null;
-                    while (n-- > 0) {
-                        if (!iter.hasNext()) {
-                            return (RolapMember)
-                                member.getHierarchy().getNullMember();
-                        }
-                        sibling = iter.nextMember();
+        // No need to synchronize: getMemberChildren is thread-safe.
+        if (n == 0 || member.isNull()) {
+            return member;
+        } else {
+            SiblingIterator iter = new SiblingIterator(this, member);
+            if (n > 0) {
+                RolapMember sibling = null;
+                while (n-- > 0) {
+                    if (!iter.hasNext()) {
+                        return (RolapMember)
+                            member.getHierarchy().getNullMember();
                     }
-                    return sibling;
-                } else {
-                    n = -n;
-                    RolapMember sibling = null;
-                    while (n-- > 0) {
-                        if (!iter.hasPrevious()) {
-                            return (RolapMember)
-                                member.getHierarchy().getNullMember();
-                        }
-                        sibling = iter.previousMember();
+                    sibling = iter.nextMember();
+                }
+                return sibling;
+            } else {
+                n = -n;
+                RolapMember sibling = null;
+                while (n-- > 0) {
+                    if (!iter.hasPrevious()) {
+                        return (RolapMember)
+                            member.getHierarchy().getNullMember();
                     }
-                    return sibling;
+                    sibling = iter.previousMember();
                 }
+                return sibling;
             }
         }
     }
@@ -0,0 +1,298 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.server.Locus;
+import mondrian.server.monitor.SqlAdmissionQueueInfo;
+import mondrian.server.monitor.SqlStatementEvent.Purpose;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.eigenbase.util.property.IntegerProperty;
+
+import javax.sql.DataSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Limits the number of SQL statements of one purpose that hold a connection
+ * to a data source at a time.
+ *
+ * <p>There is one queue for each data source and
+ * {@link Purpose purpose}, obtained by calling
+ * {@link #forDataSource(DataSource, Purpose)}, so that a slow data source
+ * does not hold up statements against other data sources. The statements
+ * of all purposes against a data source share a limit,
+ * {@link MondrianProperties#QueryLimit}. A purpose may also have a lower
+ * limit of its own, such as {@link MondrianProperties#QueryLimitTuples}, so
+ * that statements of one purpose cannot take every permit and hold up
+ * statements of the others.
+ *
+ * <p>{@link SqlStatement} acquires a permit before it takes a connection
+ * from the pool, so that waiting statements do not hold connections, and
+ * releases it when it is closed. Statements are admitted in the order they
+ * arrive. A waiting statement checks every
+ * {@link #WAIT_SLICE_MILLIS} milliseconds whether its execution has been
+ * canceled or has timed out, and if so, leaves the queue.
+ *
+ * <p>Each queue records how many statements it has admitted and how long
+ * they waited; see {@link #getInfos()}.
+ *
+ * <p><b>Thread safety</b>. SqlAdmissionQueue is thread safe.
+ */
+public class SqlAdmissionQueue {
+    /** Longest time that a waiting statement sleeps before checking whether
+     * it has been canceled. */
+    private static final long WAIT_SLICE_MILLIS = 100;
+
+    private static final Cache<DataSource, SqlAdmissionQueue[]> QUEUES =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private final String name;
+    private final Purpose purpose;
+    private final int limit;
+
+    /** Statements admitted by all queues of the data source. Its monitor
+     * guards the fields below, and those of the other queues of the data
+     * source. */
+    private final DataSourceCount dataSourceCount;
+
+    private final Deque<Object> waiters = new ArrayDeque<Object>();
+    private int admitted;
+    private long totalAdmittedCount;
+    private long totalQueueNanos;
+    private long maxQueueNanos;
+
+    /**
+     * Creates a SqlAdmissionQueue that shares a limit with the other queues
+     * of a data source.
+     *
+     * @param name Name of the data source, for messages
+     * @param purpose Purpose of the statements
+     * @param limit Maximum number of statements of this purpose admitted at
+     *   a time
+     * @param dataSourceCount Statements admitted against the data source
+     */
+    SqlAdmissionQueue(
+        String name,
+        Purpose purpose,
+        int limit,
+        DataSourceCount dataSourceCount)
+    {
+        this.name = name;
+        this.purpose = purpose;
+        this.limit = Math.max(1, Math.min(limit, dataSourceCount.limit));
+        this.dataSourceCount = dataSourceCount;
+    }
+
+    /**
+     * Creates a SqlAdmissionQueue that does not share its limit.
+     *
+     * @param name Name of the data source, for messages
+     * @param purpose Purpose of the statements
+     * @param limit Maximum number of statements admitted at a time
+     */
+    SqlAdmissionQueue(String name, Purpose purpose, int limit) {
+        this(name, purpose, limit, new DataSourceCount(limit));
+    }
+
+    /**
+     * Returns the queue for statements of a given purpose against a data
+     * source, creating it if necessary.
+     *
+     * @param dataSource Data source
+     * @param purpose Purpose of statement
+     * @return Queue
+     */
+    public static SqlAdmissionQueue forDataSource(
+        final DataSource dataSource,
+        Purpose purpose)
+    {
+        try {
+            return QUEUES.get(
+                dataSource,
+                () -> {
+                    final String name = String.valueOf(dataSource);
+                    final DataSourceCount dataSourceCount =
+                        new DataSourceCount(
+                            MondrianProperties.instance().QueryLimit.get());
+                    final Purpose[] purposes = Purpose.values();
+                    final SqlAdmissionQueue[] queues =
+                        new SqlAdmissionQueue[purposes.length];
+                    for (Purpose p : purposes) {
+                        queues[p.ordinal()] =
+                            new SqlAdmissionQueue(
+                                name, p, getLimit(p), dataSourceCount);
+                    }
+                    return queues;
+                })[purpose.ordinal()];
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static int getLimit(Purpose purpose) {
+        final MondrianProperties properties = MondrianProperties.instance();
+        final IntegerProperty property;
+        switch (purpose) {
+        case CELL_SEGMENT:
+            property = properties.QueryLimitCellSegment;
+            break;
+        case TUPLES:
+            property = properties.QueryLimitTuples;
+            break;
+        case DRILL_THROUGH:
+            property = properties.QueryLimitDrillThrough;
+            break;
+        default:
+            property = properties.QueryLimitOther;
+            break;
+        }
+        return property.get() > 0
+            ? property.get()
+            : properties.QueryLimit.get();
+    }
+
+    /**
+     * Returns information about each queue.
+     */
+    public static List<SqlAdmissionQueueInfo> getInfos() {
+        final List<SqlAdmissionQueueInfo> list =
+            new ArrayList<SqlAdmissionQueueInfo>();
+        for (SqlAdmissionQueue[] queues : QUEUES.asMap().values()) {
+            for (SqlAdmissionQueue queue : queues) {
+                list.add(queue.getInfo());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Acquires a permit to execute a statement, waiting if necessary.
+     *
+     * @param locus Locus of the statement; its execution is checked for
+     *   cancellation and timeout while waiting
+     * @return Time spent waiting, in nanoseconds
+     */
+    public long acquire(Locus locus) {
+        final long startNanos = System.nanoTime();
+        final Object waiter = new Object();
+        synchronized (dataSourceCount) {
+            if (waiters.isEmpty() && canAdmit()) {
+                admit(0);
+                return 0;
+            }
+            waiters.add(waiter);
+        }
+        boolean done = false;
+        try {
+            while (true) {
+                if (locus != null) {
+                    locus.execution.checkCancelOrTimeout();
+                }
+                synchronized (dataSourceCount) {
+                    if (waiters.peek() == waiter && canAdmit()) {
+                        waiters.remove();
+                        done = true;
+                        final long queueNanos =
+                            System.nanoTime() - startNanos;
+                        admit(queueNanos);
+                        // There may be a permit for the next waiter, too.
+                        dataSourceCount.notifyAll();
+                        return queueNanos;
+                    }
+                    dataSourceCount.wait(WAIT_SLICE_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Util.newError(
+                e,
+                "Interrupted while waiting to execute SQL against " + name);
+        } finally {
+            if (!done) {
+                synchronized (dataSourceCount) {
+                    waiters.remove(waiter);
+                    dataSourceCount.notifyAll();
+                }
+            }
+        }
+    }
+
+    private boolean canAdmit() {
+        assert Thread.holdsLock(dataSourceCount);
+        return admitted < limit
+            && dataSourceCount.admitted < dataSourceCount.limit;
+    }
+
+    private void admit(long queueNanos) {
+        assert Thread.holdsLock(dataSourceCount);
+        ++dataSourceCount.admitted;
+        ++admitted;
+        ++totalAdmittedCount;
+        totalQueueNanos += queueNanos;
+        maxQueueNanos = Math.max(maxQueueNanos, queueNanos);
+    }
+
+    /**
+     * Releases a permit acquired by {@link #acquire}.
+     */
+    public void release() {
+        synchronized (dataSourceCount) {
+            --dataSourceCount.admitted;
+            --admitted;
+            dataSourceCount.notifyAll();
+        }
+    }
+
+    /**
+     * Returns information about this queue.
+     */
+    public SqlAdmissionQueueInfo getInfo() {
+        synchronized (dataSourceCount) {
+            return new SqlAdmissionQueueInfo(
+                null,
+                name,
+                purpose.name(),
+                limit,
+                admitted,
+                waiters.size(),
+                dataSourceCount.limit,
+                dataSourceCount.admitted,
+                totalAdmittedCount,
+                totalQueueNanos / 1000000L,
+                maxQueueNanos / 1000000L);
+        }
+    }
+
+    /**
+     * Number of statements admitted against a data source, by the queues of
+     * all purposes, and the limit on that number.
+     */
+    static class DataSourceCount {
+        final int limit;
+        int admitted;
+
+        DataSourceCount(int limit) {
+            this.limit = Math.max(1, limit);
+        }
+    }
+}
+
+// End SqlAdmissionQueue.java
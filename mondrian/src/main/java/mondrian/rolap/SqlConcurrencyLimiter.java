@@ -0,0 +1,268 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.resource.MondrianResource;
+import mondrian.server.Locus;
+import mondrian.server.monitor.SqlConcurrencyLimitInfo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Limits the number of SQL statements that run concurrently against a data
+ * source, adapting the limit to how the data source responds.
+ *
+ * <p>The limit is adjusted after each statement, additive-increase /
+ * multiplicative-decrease style. Two exponentially weighted averages of
+ * execute time are kept, a slow one (the data source's normal response time)
+ * and a fast one (its response time just now). If the statement failed, or
+ * the fast average exceeds the slow one by a factor of
+ * {@link #GRADIENT_THRESHOLD}, the data source is assumed to be overloaded
+ * and the limit shrinks by {@link #DECREASE_FACTOR}. Otherwise, if the limit
+ * was in use, it grows by {@code 1 / limit}, that is, by about one for
+ * each limit's worth of statements.
+ *
+ * <p>A statement that finds the limit in use waits, if fewer than
+ * {@link MondrianProperties#SqlConcurrencyLimitQueueSize} statements are
+ * already waiting. A statement that cannot wait, or waits longer than
+ * {@link MondrianProperties#SqlConcurrencyLimitQueueTimeout} milliseconds,
+ * is rejected with a {@link mondrian.olap.ResourceLimitExceededException};
+ * when a data source is overloaded it is better to fail some statements
+ * quickly than for all of them to time out.
+ *
+ * <p>There is one limiter per data source, obtained by calling
+ * {@link #forDataSource(DataSource)}. {@link SqlStatement} acquires a permit
+ * before it gets a connection, and releases it when it is closed.
+ *
+ * <p><b>Thread safety</b>. SqlConcurrencyLimiter is thread safe.
+ */
+public class SqlConcurrencyLimiter {
+    private static final Logger LOGGER =
+        LogManager.getLogger(SqlConcurrencyLimiter.class);
+
+    /** Ratio of recent to normal execute time above which the data source
+     * is considered overloaded. */
+    static final double GRADIENT_THRESHOLD = 2.0;
+
+    /** Factor by which the limit shrinks when the data source is
+     * overloaded. */
+    static final double DECREASE_FACTOR = 0.9;
+
+    private static final double SLOW_ALPHA = 0.01;
+    private static final double FAST_ALPHA = 0.2;
+
+    /** Longest time that a waiting statement sleeps before checking whether
+     * it has been canceled. */
+    private static final long WAIT_SLICE_MILLIS = 100;
+
+    private static final Cache<DataSource, SqlConcurrencyLimiter> LIMITERS =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private final String name;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long queueTimeoutMillis;
+
+    // All of the following are guarded by this.
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long rejectedCount;
+    private double slowNanos = -1;
+    private double fastNanos = -1;
+
+    /**
+     * Creates a SqlConcurrencyLimiter.
+     *
+     * @param name Name of the data source, for messages
+     * @param initialLimit Initial limit
+     * @param maxLimit Maximum limit
+     * @param queueSize Maximum number of waiting statements
+     * @param queueTimeoutMillis Maximum time a statement may wait
+     */
+    SqlConcurrencyLimiter(
+        String name,
+        int initialLimit,
+        int maxLimit,
+        int queueSize,
+        long queueTimeoutMillis)
+    {
+        this.name = name;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.queueSize = Math.max(0, queueSize);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    /**
+     * Returns the limiter for a data source, creating it if necessary, or
+     * null if concurrency limiting is disabled.
+     *
+     * @param dataSource Data source
+     * @return Limiter, or null
+     */
+    public static SqlConcurrencyLimiter forDataSource(
+        final DataSource dataSource)
+    {
+        final MondrianProperties properties = MondrianProperties.instance();
+        if (!properties.SqlConcurrencyLimitEnable.get()) {
+            return null;
+        }
+        try {
+            return LIMITERS.get(
+                dataSource,
+                () -> new SqlConcurrencyLimiter(
+                    String.valueOf(dataSource),
+                    properties.SqlConcurrencyLimitInitial.get(),
+                    properties.SqlConcurrencyLimitMax.get(),
+                    properties.SqlConcurrencyLimitQueueSize.get(),
+                    properties.SqlConcurrencyLimitQueueTimeout.get()));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns information about the limiter of each data source.
+     */
+    public static List<SqlConcurrencyLimitInfo> getInfos() {
+        final List<SqlConcurrencyLimitInfo> list =
+            new ArrayList<SqlConcurrencyLimitInfo>();
+        for (SqlConcurrencyLimiter limiter : LIMITERS.asMap().values()) {
+            list.add(limiter.getInfo());
+        }
+        return list;
+    }
+
+    /**
+     * Acquires a permit to execute a statement, waiting if necessary.
+     *
+     * @param locus Locus of the statement; its execution is checked for
+     *   cancellation and timeout while waiting
+     * @throws mondrian.olap.ResourceLimitExceededException if the queue is
+     *   full, or the statement waited too long
+     */
+    public void acquire(Locus locus) {
+        final long deadline =
+            System.currentTimeMillis() + queueTimeoutMillis;
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                ++inFlight;
+                return;
+            }
+            if (queued >= queueSize) {
+                throw reject();
+            }
+            ++queued;
+        }
+        try {
+            while (true) {
+                if (locus != null) {
+                    locus.execution.checkCancelOrTimeout();
+                }
+                synchronized (this) {
+                    if (inFlight < (int) limit) {
+                        ++inFlight;
+                        return;
+                    }
+                    final long remaining =
+                        deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw reject();
+                    }
+                    wait(Math.min(remaining, WAIT_SLICE_MILLIS));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject();
+        } finally {
+            synchronized (this) {
+                --queued;
+            }
+        }
+    }
+
+    /**
+     * Releases a permit acquired by {@link #acquire}, and adjusts the limit
+     * according to how the statement fared.
+     *
+     * @param executeNanos Time taken to execute the statement, or -1 if it
+     *   did not get as far as executing
+     * @param success Whether the statement succeeded
+     */
+    public synchronized void release(long executeNanos, boolean success) {
+        final boolean saturated = inFlight >= (int) limit;
+        --inFlight;
+        if (executeNanos >= 0) {
+            if (slowNanos < 0) {
+                slowNanos = fastNanos = executeNanos;
+            } else {
+                slowNanos += SLOW_ALPHA * (executeNanos - slowNanos);
+                fastNanos += FAST_ALPHA * (executeNanos - fastNanos);
+            }
+        }
+        if (!success || fastNanos > GRADIENT_THRESHOLD * slowNanos) {
+            final double newLimit = Math.max(1, limit * DECREASE_FACTOR);
+            if ((int) newLimit < (int) limit && LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    "Reducing SQL concurrency limit of " + name
+                    + " to " + (int) newLimit);
+            }
+            limit = newLimit;
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1d / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the current limit.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns information about this limiter.
+     */
+    public synchronized SqlConcurrencyLimitInfo getInfo() {
+        return new SqlConcurrencyLimitInfo(
+            null,
+            name,
+            (int) limit,
+            inFlight,
+            queued,
+            rejectedCount,
+            slowNanos < 0 ? 0 : (long) slowNanos / 1000000L,
+            fastNanos < 0 ? 0 : (long) fastNanos / 1000000L);
+    }
+
+    private synchronized RuntimeException reject() {
+        ++rejectedCount;
+        return MondrianResource.instance().SqlConcurrencyLimitExceeded.ex(
+            name, (int) limit, queued);
+    }
+}
+
+// End SqlConcurrencyLimiter.java
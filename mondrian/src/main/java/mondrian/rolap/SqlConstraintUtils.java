@@ -468,7 +468,7 @@ public class SqlConstraintUtils {
 
       // No extra slicers.... just use the = method
       final StringBuilder buf = new StringBuilder();
-      sqlQuery.getDialect().quote( buf, value, column.getDatatype() );
+      sqlQuery.quote( buf, value, column.getDatatype() );
       sqlQuery.addWhere( expr, " = ", buf.toString() );
     }
   }
@@ -989,6 +989,54 @@ public class SqlConstraintUtils {
     }
   }
 
+  /**
+   * Creates a condition that holds for the members of a list of lists, and for their descendants. The members of each
+   * list must belong to the same level; the lists may belong to different levels of the same hierarchy. For example,
+   * given [USA].[CA] and [USA].[WA].[Seattle], generates "WHERE (state IN ('CA')) OR (city IN ('Seattle') AND state IN
+   * ('WA'))".
+   *
+   * <p>
+   * If a list contains a member that cannot be expressed in SQL, such as the all member, no condition is generated.
+   *
+   * @param sqlQuery
+   *          the query to modify
+   * @param baseCube
+   *          base cube if virtual
+   * @param aggStar
+   *          Definition of the aggregate table, or null
+   * @param memberLists
+   *          the lists of members, each from a single level
+   */
+  public static void addMemberOrDescendantConstraint( SqlQuery sqlQuery, RolapCube baseCube, AggStar aggStar,
+      Collection<List<RolapMember>> memberLists ) {
+    if ( memberLists.isEmpty() ) {
+      sqlQuery.addWhere( "(1 = 0)" );
+      return;
+    }
+    final StringBuilder buf = new StringBuilder();
+    for ( List<RolapMember> members : memberLists ) {
+      if ( members.isEmpty() ) {
+        continue;
+      }
+      final String condition =
+          generateSingleValueInExpr( sqlQuery, baseCube, aggStar, members, null, false, false, true );
+      if ( condition.length() == 0 ) {
+        // The members do not restrict the query, so neither does the
+        // disjunction.
+        return;
+      }
+      if ( buf.length() > 0 ) {
+        buf.append( " or " );
+      }
+      buf.append( "(" ).append( condition ).append( ")" );
+    }
+    if ( buf.length() == 0 ) {
+      sqlQuery.addWhere( "(1 = 0)" );
+    } else {
+      sqlQuery.addWhere( "(" + buf + ")" );
+    }
+  }
+
   private static StarColumnPredicate getColumnPredicates( RolapStar.Column column, Collection<RolapMember> members ) {
     switch ( members.size() ) {
       case 0:
@@ -1381,6 +1429,7 @@ public class SqlConstraintUtils {
       String columnString, Dialect.Datatype datatype ) {
     String constraint;
     List<String> values = new ArrayList<String>();
+    List<String> rawValues = new ArrayList<String>();
     boolean containsNull = false;
 
     for ( String columnValue : columnValues ) {
@@ -1393,7 +1442,7 @@ public class SqlConstraintUtils {
           Double.valueOf( columnValue );
         }
         final StringBuilder buf = new StringBuilder();
-        query.getDialect().quote( buf, columnValue, datatype );
+        query.quote( buf, columnValue, datatype );
         String value = buf.toString();
         if ( caseSensitive && datatype == Dialect.Datatype.String ) {
           // Some databases (like DB2) compare case-sensitive.
@@ -1406,10 +1455,13 @@ public class SqlConstraintUtils {
           }
         }
         values.add( value );
+        rawValues.add( columnValue );
       }
     }
 
-    if ( caseSensitive && datatype == Dialect.Datatype.String && !MondrianProperties.instance().CaseSensitive.get() ) {
+    final boolean upper =
+        caseSensitive && datatype == Dialect.Datatype.String && !MondrianProperties.instance().CaseSensitive.get();
+    if ( upper ) {
       columnString = query.getDialect().toUpper( columnString );
     }
 
@@ -1422,7 +1474,9 @@ public class SqlConstraintUtils {
     } else {
       StringBuilder builder = new StringBuilder();
       builder.append( "( " );
-      if ( !values.isEmpty() ) {
+      // If the query binds its values as parameters, bind the list as one
+      // array if the dialect can; otherwise generate an IN list.
+      if ( !values.isEmpty() && ( upper || !query.quoteArray( builder, columnString, rawValues, datatype ) ) ) {
         builder.append( columnString ).append( " IN (" );
         for ( int i = 0; i < values.size(); i++ ) {
           String value = values.get( i );
@@ -1468,7 +1522,7 @@ public class SqlConstraintUtils {
       final StringBuilder buf = new StringBuilder();
       buf.append( columnString );
       buf.append( " = " );
-      query.getDialect().quote( buf, columnValue, datatype );
+      query.quote( buf, columnValue, datatype );
       return buf.toString();
     }
   }
@@ -1574,7 +1628,7 @@ public class SqlConstraintUtils {
           memberBuf.append( ", " );
         }
 
-        sqlQuery.getDialect().quote( memberBuf, value, level.getDatatype() );
+        sqlQuery.quote( memberBuf, value, level.getDatatype() );
 
         // Only needs to compare up to the first(lowest) unique level.
         if ( p.getLevel() == fromLevel ) {
@@ -230,7 +230,8 @@ class SqlMemberSource implements MemberReader, MemberBuilder {
    */
   private String makeLevelMemberCountSql( RolapLevel level, DataSource dataSource, boolean[] mustCount ) {
     mustCount[ 0 ] = false;
-    SqlQuery sqlQuery = SqlQuery.newQuery( dataSource, "while generating query to count members in level " + level );
+    SqlQuery sqlQuery =
+        SqlQuery.newParameterizedQuery( dataSource, "while generating query to count members in level " + level );
     int levelDepth = level.getDepth();
     RolapLevel[] levels = (RolapLevel[]) hierarchy.getLevels();
 
@@ -319,7 +320,7 @@ class SqlMemberSource implements MemberReader, MemberBuilder {
       }
 
       SqlQuery outerQuery =
-        SqlQuery.newQuery( dataSource, "while generating query to count members in level " + level );
+        SqlQuery.newParameterizedQuery( dataSource, "while generating query to count members in level " + level );
       outerQuery.addSelect( "count(*)", null );
       // Note: the "init" is for Postgres, which requires FROM-queries to have an alias
       boolean failIfExists = true;
@@ -463,7 +464,7 @@ RME is this right
       }
     }
 
-    SqlQuery newQuery = SqlQuery.newQuery( dataSource,
+    SqlQuery newQuery = SqlQuery.newParameterizedQuery( dataSource,
       "while generating query to retrieve children of " + "parent/child hierarchy member " + parentMember );
 
     newQuery.addSelect( "count(*)", null );
@@ -524,7 +525,8 @@ RME is this right
   }
 
   private Pair<String, List<SqlStatement.Type>> makeKeysSql( DataSource dataSource ) {
-    SqlQuery sqlQuery = SqlQuery.newQuery( dataSource, "while generating query to retrieve members of " + hierarchy );
+    SqlQuery sqlQuery =
+        SqlQuery.newParameterizedQuery( dataSource, "while generating query to retrieve members of " + hierarchy );
     RolapLevel[] levels = (RolapLevel[]) hierarchy.getLevels();
 
     for ( RolapLevel level : levels ) {
@@ -637,7 +639,7 @@ RME is this right
   SqlQuery makeChildMemberSqlQuery( RolapMember member, DataSource dataSource, MemberChildrenConstraint constraint,
                                     boolean applyOrderBy ) {
     SqlQuery sqlQuery =
-      SqlQuery.newQuery( dataSource, "while generating query to retrieve children of member " + member );
+      SqlQuery.newParameterizedQuery( dataSource, "while generating query to retrieve children of member " + member );
 
     // If this is a non-empty constraint, it is more efficient to join to
     // an aggregate table than to the fact table. See whether a suitable
@@ -1185,7 +1187,7 @@ RME is this right
   }
 
   private SqlQuery makeChildMemberSqlPCRootQuery( RolapMember member ) {
-    SqlQuery sqlQuery = SqlQuery.newQuery( dataSource,
+    SqlQuery sqlQuery = SqlQuery.newParameterizedQuery( dataSource,
       "while generating query to retrieve children of parent/child " + "hierarchy member " + member );
     Util.assertTrue( member.isAll(),
       "In the current implementation, parent/child hierarchies must " + "have only one level (plus the 'All' level)." );
@@ -1280,7 +1282,7 @@ RME is this right
   }
 
   private SqlQuery makeChildMemberSqlPCQuery( RolapMember member, boolean applyOrderBy ) {
-    SqlQuery sqlQuery = SqlQuery.newQuery( dataSource,
+    SqlQuery sqlQuery = SqlQuery.newParameterizedQuery( dataSource,
       "while generating query to retrieve children of " + "parent/child hierarchy member " + member );
     RolapLevel level = member.getLevel();
 
@@ -1291,7 +1293,7 @@ RME is this right
     String parentId = level.getParentExp().getExpression( sqlQuery );
 
     StringBuilder buf = new StringBuilder();
-    sqlQuery.getDialect().quote( buf, member.getKey(), level.getDatatype() );
+    sqlQuery.quote( buf, member.getKey(), level.getDatatype() );
     sqlQuery.addWhere( parentId, " = ", buf.toString() );
 
     hierarchy.addToFrom( sqlQuery, level.getKeyExp() );
@@ -12,10 +12,11 @@
 
 package mondrian.rolap;
 
-import mondrian.olap.MondrianProperties;
+import mondrian.olap.ResourceLimitExceededException;
 import mondrian.olap.Util;
 import mondrian.olap.Util.Functor1;
 import mondrian.resource.MondrianResource;
+import mondrian.rolap.sql.ParameterizedSql;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
 import mondrian.server.monitor.SqlStatementEndEvent;
@@ -33,6 +34,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -41,7 +43,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -74,19 +75,22 @@ public class SqlStatement {
   // used for SQL logging, allows for a SQL Statement UID
   private static final AtomicLong ID_GENERATOR = new AtomicLong();
 
-  private static final Semaphore querySemaphore = new Semaphore( MondrianProperties.instance().QueryLimit.get(), true );
-
   private final DataSource dataSource;
   private Connection jdbcConnection;
   private ResultSet resultSet;
   private final String sql;
+  private final ParameterizedSql parameterizedSql;
   private final List<Type> types;
   private final int maxRows;
   private final int firstRowOrdinal;
   private final Locus locus;
   private final int resultSetType;
   private final int resultSetConcurrency;
-  private boolean haveSemaphore;
+  private SqlAdmissionQueue admissionQueue;
+  private long queueNanos;
+  private SqlConcurrencyLimiter limiter;
+  private long executeNanos = -1;
+  private boolean failed;
   public int rowCount;
   private long startTimeMillis;
   private final List<Accessor> accessors = new ArrayList<>();
@@ -113,7 +117,10 @@ public class SqlStatement {
     this.callback = callback;
     this.id = ID_GENERATOR.getAndIncrement();
     this.dataSource = dataSource;
-    this.sql = sql;
+    // SQL whose values are bound as parameters is executed via a prepared statement; its text, with a '?' for each
+    // parameter, is what we log.
+    this.parameterizedSql = ParameterizedSql.parse( sql );
+    this.sql = parameterizedSql == null ? sql : parameterizedSql.getSql();
     this.types = types;
     this.maxRows = maxRows;
     this.firstRowOrdinal = firstRowOrdinal;
@@ -138,10 +145,19 @@ public class SqlStatement {
       // Check execution state
       locus.execution.checkCancelOrTimeout();
 
-      this.jdbcConnection = dataSource.getConnection();
-      querySemaphore.acquire();
+      // Wait for admission among the statements of the same purpose against the data source, then for the data
+      // source's concurrency limit, if there is one, before taking a connection from its pool.
+      final SqlAdmissionQueue admissionQueue = SqlAdmissionQueue.forDataSource( dataSource, getPurpose() );
+      queueNanos = admissionQueue.acquire( locus );
+      this.admissionQueue = admissionQueue;
+
+      final SqlConcurrencyLimiter limiter = SqlConcurrencyLimiter.forDataSource( dataSource );
+      if ( limiter != null ) {
+        limiter.acquire( locus );
+        this.limiter = limiter;
+      }
 
-      haveSemaphore = true;
+      this.jdbcConnection = dataSource.getConnection();
       // Trace start of execution.
       if ( RolapUtil.SQL_LOGGER.isDebugEnabled() ) {
         StringBuilder sqllog = new StringBuilder();
@@ -154,6 +170,9 @@ public class SqlStatement {
 
         sqllog.append( sql );
         sqllog.append( ']' );
+        if ( parameterizedSql != null ) {
+          sqllog.append( " with parameters " ).append( parameterizedSql.getParameterValues() );
+        }
         RolapUtil.SQL_LOGGER.debug( sqllog.toString() );
       }
 
@@ -170,10 +189,22 @@ public class SqlStatement {
       startTimeNanos = System.nanoTime();
       startTimeMillis = System.currentTimeMillis();
 
-      if ( resultSetType < 0 || resultSetConcurrency < 0 ) {
-        statement = jdbcConnection.createStatement();
+      final PreparedStatement preparedStatement;
+      if ( parameterizedSql == null ) {
+        preparedStatement = null;
+        if ( resultSetType < 0 || resultSetConcurrency < 0 ) {
+          statement = jdbcConnection.createStatement();
+        } else {
+          statement = jdbcConnection.createStatement( resultSetType, resultSetConcurrency );
+        }
       } else {
-        statement = jdbcConnection.createStatement( resultSetType, resultSetConcurrency );
+        if ( resultSetType < 0 || resultSetConcurrency < 0 ) {
+          preparedStatement = jdbcConnection.prepareStatement( sql );
+        } else {
+          preparedStatement = jdbcConnection.prepareStatement( sql, resultSetType, resultSetConcurrency );
+        }
+        statement = preparedStatement;
+        parameterizedSql.bind( preparedStatement );
       }
 
       if ( maxRows > 0 ) {
@@ -191,7 +222,7 @@ public class SqlStatement {
 
       locus.getServer().getMonitor().sendEvent(
         new SqlStatementStartEvent( startTimeMillis, id, locus, sql, getPurpose(), getCellRequestCount() ) );
-      this.resultSet = statement.executeQuery( sql );
+      this.resultSet = preparedStatement == null ? statement.executeQuery( sql ) : preparedStatement.executeQuery();
 
       // skip to first row specified in request
       this.state = State.ACTIVE;
@@ -213,10 +244,13 @@ public class SqlStatement {
 
       long timeMillis = System.currentTimeMillis();
       long timeNanos = System.nanoTime();
-      final long executeNanos = timeNanos - startTimeNanos;
+      executeNanos = timeNanos - startTimeNanos;
       final long executeMillis = executeNanos / 1000000;
       Util.addDatabaseTime( executeMillis );
       status = ", exec " + executeMillis + " ms";
+      if ( queueNanos > 0 ) {
+        status += ", queued " + queueNanos / 1000000 + " ms";
+      }
 
       locus.getServer().getMonitor()
         .sendEvent( new SqlStatementExecuteEvent( timeMillis, id, locus, sql, getPurpose(), executeNanos ) );
@@ -231,11 +265,18 @@ public class SqlStatement {
       }
     } catch ( Throwable e ) {
       status = ", failed (" + e + ")";
+      // Only errors from the database count against its concurrency limit; cancellation and timeout do not.
+      failed = e instanceof SQLException;
 
       // This statement was leaked to us. It is our responsibility to dispose of it.
       Util.close( null, statement, null );
 
-      // Now handle this exception.
+      // Now handle this exception. Rejection by the concurrency limiter is passed on as is, so that callers can tell
+      // that the statement was shed rather than failed.
+      if ( e instanceof ResourceLimitExceededException ) {
+        close();
+        throw (ResourceLimitExceededException) e;
+      }
       throw handle( e );
     } finally {
       RolapUtil.SQL_LOGGER.debug( "{}: {}", id, status );
@@ -262,9 +303,14 @@ public class SqlStatement {
 
     state = State.CLOSED;
 
-    if ( haveSemaphore ) {
-      haveSemaphore = false;
-      querySemaphore.release();
+    if ( admissionQueue != null ) {
+      admissionQueue.release();
+      admissionQueue = null;
+    }
+
+    if ( limiter != null ) {
+      limiter.release( executeNanos, !failed );
+      limiter = null;
     }
 
     // According to the JDBC spec, closing a statement automatically closes its result sets, and closing a connection
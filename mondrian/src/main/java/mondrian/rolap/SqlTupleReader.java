@@ -973,7 +973,7 @@ public class SqlTupleReader implements TupleReader {
       final int savepoint =
         getEvaluator( constraint ).savepoint();
 
-      SqlQuery unionQuery = SqlQuery.newQuery( dataSource, "" );
+      SqlQuery unionQuery = SqlQuery.newParameterizedQuery( dataSource, "" );
 
       try {
         for ( RolapCube baseCube : fullyJoiningBaseCubes ) {
@@ -1167,7 +1167,7 @@ public class SqlTupleReader implements TupleReader {
   Pair<String, List<SqlStatement.Type>> sqlForEmptyTuple(
     DataSource dataSource,
     final Collection<RolapCube> baseCubes ) {
-    final SqlQuery sqlQuery = SqlQuery.newQuery( dataSource, null );
+    final SqlQuery sqlQuery = SqlQuery.newParameterizedQuery( dataSource, null );
     sqlQuery.addSelect( "0", null );
     sqlQuery.addFrom( baseCubes.iterator().next().getFact(), null, true );
     sqlQuery.addWhere( "1 = 0" );
@@ -1191,7 +1191,7 @@ public class SqlTupleReader implements TupleReader {
       "while generating query to retrieve members of level(s) " + targets;
 
     // Allow query to use optimization hints from the table definition
-    SqlQuery sqlQuery = SqlQuery.newQuery( dataSource, s );
+    SqlQuery sqlQuery = SqlQuery.newParameterizedQuery( dataSource, s );
     sqlQuery.setAllowHints( allowHints );
 
 
@@ -75,6 +75,17 @@ public abstract class AbstractQuerySpec implements QuerySpec {
             measure.getExpression() == null
                 ? "*"
                 : measure.generateExprString(sqlQuery);
+        if (measure.getAggregator().isSketch()) {
+            // Fetch the distinct values of the operand in each cell; the
+            // loader adds them to the cell's sketch. Their type is that of
+            // the operand, not the measure.
+            final String alias =
+                sqlQuery.addSelect(exprInner, null, getMeasureAlias(i));
+            if (isAggregate()) {
+                sqlQuery.addGroupBy(exprInner, alias);
+            }
+            return;
+        }
         String exprOuter = measure.getAggregator().getExpression(exprInner);
         sqlQuery.addSelect(
             exprOuter,
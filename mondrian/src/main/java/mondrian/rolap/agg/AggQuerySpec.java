@@ -12,6 +12,7 @@
 
 package mondrian.rolap.agg;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.rolap.RolapStar;
 import mondrian.rolap.SqlStatement.Type;
 import mondrian.rolap.StarColumnPredicate;
@@ -56,7 +57,10 @@ class AggQuerySpec {
     }
 
     protected SqlQuery newSqlQuery() {
-        return getStar().getSqlQuery();
+        final SqlQuery sqlQuery = getStar().getSqlQuery();
+        sqlQuery.setParameterized(
+            MondrianProperties.instance().GenerateParameterizedSql.get());
+        return sqlQuery;
     }
 
     public RolapStar getStar() {
@@ -147,7 +151,12 @@ class AggQuerySpec {
         } else {
             expr = column.generateExprString(query);
         }
-        query.addSelect(expr, null, alias);
+        final String selectAlias = query.addSelect(expr, null, alias);
+        if (rollup && column.getAggregator().isSketch()) {
+            // Sketches cannot be merged in SQL. Fetch each one, and let the
+            // loader merge them.
+            query.addGroupBy(expr, selectAlias);
+        }
     }
 
     protected void generateSql(final SqlQuery sqlQuery) {
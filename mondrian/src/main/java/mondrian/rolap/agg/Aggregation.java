@@ -138,6 +138,13 @@ public class Aggregation {
                 segments, levelBitKey, measureBitKey, predicates, columns);
         if (groupingSetsCollector.useGroupingSets()) {
             groupingSetsCollector.add(groupingSet);
+        } else if (groupingSetsCollector.deferLoads()) {
+            groupingSetsCollector.addLoad(
+                new SegmentLoader.Load(
+                    cellRequestCount,
+                    new ArrayList<GroupingSet>(
+                        Collections.singletonList(groupingSet)),
+                    compoundPredicateList));
         } else {
             final SegmentLoader segmentLoader = new SegmentLoader(cacheMgr);
             segmentLoader.load(
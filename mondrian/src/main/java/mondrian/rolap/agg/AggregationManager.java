@@ -142,6 +142,10 @@ public class AggregationManager extends RolapAggregationManager {
                 for (Future<Boolean> future : futures) {
                     Util.discard(Util.safeGet(future, "Flush cache"));
                 }
+                for (Runnable refresh : result.refreshes) {
+                    refresh.run();
+                }
+                SegmentWarmer.warm(cacheMgr, getStarList(region));
             }
 
             public void flush(final CellRegion region) {
@@ -239,7 +243,13 @@ public class AggregationManager extends RolapAggregationManager {
              && !hasCompoundPredicates)
         {
             final boolean[] rollup = {false};
-            AggStar aggStar = findAgg(star, levelBitKey, measureBitKey, rollup);
+            AggStar aggStar =
+                star.getAggStarLattice().findAgg(
+                    levelBitKey,
+                    measureBitKey,
+                    groupingSetsList.getDefaultColumns(),
+                    groupingSetsList.getDefaultPredicates(),
+                    rollup);
 
             if (aggStar != null) {
                 // Got a match, hot damn
@@ -346,190 +356,8 @@ public class AggregationManager extends RolapAggregationManager {
         final BitKey measureBitKey,
         boolean[] rollup)
     {
-        // If there is no distinct count measure, isDistinct == false,
-        // then all we want is an AggStar whose BitKey is a superset
-        // of the combined measure BitKey and foreign-key/level BitKey.
-        //
-        // On the other hand, if there is at least one distinct count
-        // measure, isDistinct == true, then what is wanted is an AggStar
-        // whose measure BitKey is a superset of the measure BitKey,
-        // whose level BitKey is an exact match and the aggregate table
-        // can NOT have any foreign keys.
-        assert rollup != null;
-        BitKey fullBitKey = levelBitKey.or(measureBitKey);
-
-        // a levelBitKey with all parent bits set.
-        final BitKey expandedLevelBitKey = expandLevelBitKey(
-            star, levelBitKey.copy());
-
-        // The AggStars are already ordered from smallest to largest so
-        // we need only find the first one and return it.
-        for (AggStar aggStar : star.getAggStars()) {
-            // superset match
-            if (!aggStar.superSetMatch(fullBitKey)) {
-                continue;
-            }
-            boolean isDistinct = measureBitKey.intersects(
-                aggStar.getDistinctMeasureBitKey());
-
-            // The AggStar has no "distinct count" measures so
-            // we can use it without looking any further.
-            if (!isDistinct) {
-                // Need to use SUM if the query levels don't match
-                // the agg stars levels, or if the agg star is not
-                // fully collapsed.
-                rollup[0] = !aggStar.isFullyCollapsed()
-                    || aggStar.hasIgnoredColumns()
-                    || (levelBitKey.isEmpty()
-                    || !aggStar.getLevelBitKey().equals(levelBitKey));
-                return aggStar;
-            } else if (aggStar.hasIgnoredColumns()) {
-                // we cannot safely pull a distinct count from an agg
-                // table if ignored columns are present since granularity
-                // may not be at the level of the dc measure
-                LOGGER.info(
-                    aggStar.getFactTable().getName()
-                    + " cannot be used for distinct-count measures since it has"
-                    + " unused or ignored columns.");
-                continue;
-            }
-
-            // If there are distinct measures, we can only rollup in limited
-            // circumstances.
-
-            // No foreign keys (except when its used as a distinct count
-            //   measure).
-            // Level key exact match.
-            // Measure superset match.
-
-            // Compute the core levels -- those which can be safely
-            // rolled up to. For example,
-            // if the measure is 'distinct customer count',
-            // and the agg table has levels customer_id,
-            // then gender is a core level.
-            final BitKey distinctMeasuresBitKey =
-                measureBitKey.and(aggStar.getDistinctMeasureBitKey());
-            final BitSet distinctMeasures = distinctMeasuresBitKey.toBitSet();
-            BitKey combinedLevelBitKey = null;
-            for (int k = distinctMeasures.nextSetBit(0); k >= 0;
-                k = distinctMeasures.nextSetBit(k + 1))
-            {
-                final AggStar.FactTable.Measure distinctMeasure =
-                    aggStar.lookupMeasure(k);
-                BitKey rollableLevelBitKey =
-                    distinctMeasure.getRollableLevelBitKey();
-                if (combinedLevelBitKey == null) {
-                    combinedLevelBitKey = rollableLevelBitKey;
-                } else {
-                    // TODO use '&=' to remove unnecessary copy
-                    combinedLevelBitKey =
-                        combinedLevelBitKey.and(rollableLevelBitKey);
-                }
-            }
-
-            if (aggStar.hasForeignKeys()) {
-/*
-                    StringBuilder buf = new StringBuilder(256);
-                    buf.append("");
-                    buf.append(star.getFactTable().getAlias());
-                    buf.append(Util.nl);
-                    buf.append("foreign =");
-                    buf.append(levelBitKey);
-                    buf.append(Util.nl);
-                    buf.append("measure =");
-                    buf.append(measureBitKey);
-                    buf.append(Util.nl);
-                    buf.append("aggstar =");
-                    buf.append(aggStar.getBitKey());
-                    buf.append(Util.nl);
-                    buf.append("distinct=");
-                    buf.append(aggStar.getDistinctMeasureBitKey());
-                    buf.append(Util.nl);
-                    buf.append("AggStar=");
-                    buf.append(aggStar.getFactTable().getName());
-                    buf.append(Util.nl);
-                    for (Iterator columnIter =
-                            aggStar.getFactTable().getColumns().iterator();
-                         columnIter.hasNext();) {
-                        AggStar.Table.Column column =
-                                (AggStar.Table.Column) columnIter.next();
-                        buf.append("   ");
-                        buf.append(column);
-                        buf.append(Util.nl);
-                    }
-System.out.println(buf.toString());
-*/
-                // This is a little pessimistic. If the measure is
-                // 'count(distinct customer_id)' and one of the foreign keys is
-                // 'customer_id' then it is OK to roll up.
-
-                // Some of the measures in this query are distinct count.
-                // Get all of the foreign key columns.
-                // For each such measure, is it based upon a foreign key.
-                // Are there any foreign keys left over. No, can use AggStar.
-                BitKey fkBitKey = aggStar.getForeignKeyBitKey().copy();
-                for (AggStar.FactTable.Measure measure
-                    : aggStar.getFactTable().getMeasures())
-                {
-                    if (measure.isDistinct()) {
-                        if (measureBitKey.get(measure.getBitPosition())) {
-                            fkBitKey.clear(measure.getBitPosition());
-                        }
-                    }
-                }
-                if (!fkBitKey.isEmpty()) {
-                    // there are foreign keys left so we can not use this
-                    // AggStar.
-                    continue;
-                }
-            }
-
-            // We can use the expandedLevelBitKey here because
-            // presence of parent level columns won't effect granularity,
-            // so will still be an allowable agg match
-            if (!aggStar.select(
-                    expandedLevelBitKey, combinedLevelBitKey, measureBitKey))
-            {
-                continue;
-            }
-
-            if (expandedLevelBitKey.isEmpty()) {
-                // We won't be able to resolve a distinct count measure like
-                // this. We need to resolve the distinct values but we don't
-                // have any levels for which we constraint on. This would
-                // result in either a bloated value (non-distinct) or
-                // only the first (non-rolled-up) to be returned.
-                continue;
-            }
-            rollup[0] = !aggStar.getLevelBitKey().equals(expandedLevelBitKey);
-            return aggStar;
-        }
-        return null;
-    }
-
-    /**
-     * Sets the bits for parent columns.
-     */
-    private static BitKey expandLevelBitKey(
-        RolapStar star, BitKey levelBitKey)
-    {
-        int bitPos = levelBitKey.nextSetBit(0);
-        while (bitPos >= 0) {
-            levelBitKey = setParentsBitKey(star, levelBitKey, bitPos);
-            bitPos = levelBitKey.nextSetBit(bitPos + 1);
-        }
-        return levelBitKey;
-    }
-
-    private static BitKey setParentsBitKey(
-        RolapStar star, BitKey levelBitKey, int bitPos)
-    {
-        RolapStar.Column parent = star.getColumn(bitPos).getParentColumn();
-        if (parent == null) {
-            return levelBitKey;
-        }
-        levelBitKey.set(parent.getBitPosition());
-        return setParentsBitKey(star, levelBitKey, parent.getBitPosition());
+        return star.getAggStarLattice().findAgg(
+            levelBitKey, measureBitKey, null, null, rollup);
     }
 
     public PinSet createPinSet() {
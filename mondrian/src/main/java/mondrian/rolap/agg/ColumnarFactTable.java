@@ -0,0 +1,1764 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianDef;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.resource.MondrianResource;
+import mondrian.rolap.*;
+import mondrian.rolap.sql.SqlQuery;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+import mondrian.spi.Dialect;
+import mondrian.spi.SegmentColumn;
+import mondrian.util.Pair;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Copy of a fact table, held in memory in columnar form, from which
+ * segments can be loaded without SQL.
+ *
+ * <p>Each table of the star (the fact table and the dimension tables joined
+ * to it) is read separately. Each column of a table that a level uses, and
+ * each column by which tables are joined, is held as an array of codes into
+ * a dictionary of the column's distinct values. Codes are stored in a byte,
+ * short or int array, whichever is the narrowest that can hold them. Each
+ * measure whose aggregator is sum, count, min, max or avg is held as an
+ * array of doubles and a bit set of nulls.
+ *
+ * <p>Tables are joined in memory when a segment is loaded, and only the
+ * tables that the segment's columns need, just as the SQL for the segment
+ * would join only those tables. For each dimension table, the join maps
+ * each code of the foreign key in its parent to a row of the table. If a
+ * dimension table's key is not unique, joining to it would multiply fact
+ * rows; segments that need such a table are loaded by SQL.
+ *
+ * <p>To load a {@link GroupingSetsList}, {@link #load} divides the fact
+ * rows into ranges, which it processes in parallel. Each range is processed
+ * a vector of rows at a time, one column at a time: rows are first joined
+ * to the dimension tables they need, dropping rows that have no match; a
+ * column's predicate is evaluated once per dictionary value, so filtering a
+ * vector is a lookup per row; group keys are then built from the codes of
+ * the surviving rows, and the measures accumulated into per-group slots.
+ * The partial results are merged and returned in the same form as
+ * {@link SegmentLoader#processData}, so that the segments are built exactly
+ * as if the rows had come from SQL.
+ *
+ * <p>Tables are listed in {@link MondrianProperties#ColumnarFactTables}.
+ * A table is read in the background the first time a segment of its star
+ * is loaded, and refreshed every
+ * {@link MondrianProperties#ColumnarRefreshInterval} seconds. While a table
+ * is being read or refreshed, queries use SQL or the previous contents.
+ *
+ * <p>Flushing a region of the cache re-reads only the fact rows in the
+ * region (see {@link #flush(Collection, SegmentColumn[])}): the rows of the
+ * previous contents that fall in the region are dropped and the region's
+ * rows are read again by SQL, so that rows updated, deleted or inserted in
+ * the region are reflected. The dimension tables, which are small, are
+ * read again in full. Until that is done, segments are loaded by SQL, so
+ * that the segments that are rebuilt after the flush see the current data.
+ * A flush that does not constrain any column held in memory, such as a
+ * flush of all of a cube's measures, discards the copy altogether (see
+ * {@link #invalidate(Collection)}).
+ */
+public class ColumnarFactTable {
+    private static final Logger LOGGER =
+        LogManager.getLogger(ColumnarFactTable.class);
+
+    /** Number of rows processed at a time, one column at a time. */
+    static final int VECTOR_SIZE = 4096;
+
+    /** Minimum number of rows worth processing in a separate task. */
+    private static final int MIN_ROWS_PER_TASK = 1 << 16;
+
+    /** Largest number of combinations of group codes for which slots are
+     * found by indexing an array rather than hashing. */
+    private static final int DENSE_GROUP_LIMIT = 1 << 20;
+
+    private static final Cache<RolapStar, ColumnarFactTable> TABLES =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private static Pair<String, Map<String, String>> parsedSpec;
+
+    /** Executor for the ranges of rows of a load. */
+    private static ExecutorService executor;
+
+    /** Executor that reads tables into memory, so that reading a table
+     * does not hold up loads. */
+    private static ExecutorService refreshExecutor;
+
+    private final RolapStar star;
+    private final String refreshColumn;
+
+    /** Tables of the star: the fact table first, and each dimension table
+     * after its parent. */
+    private final RolapStar.Table[] tables;
+
+    /** For each table, the ordinal of its parent table, or -1 for the fact
+     * table. */
+    private final int[] parents;
+
+    /** For each table, the columns read from it: a {@link RolapStar.Column}
+     * for each level column, and a {@link MondrianDef.Expression} for each
+     * join key. */
+    private final List<List<Object>> tableColumns;
+
+    /** For each dimension table, the index in its own columns of the key by
+     * which it is joined to its parent. */
+    private final int[] keyColumns;
+
+    /** For each dimension table, the index in its parent's columns of the
+     * foreign key by which it is joined. */
+    private final int[] foreignKeyColumns;
+
+    /** For each bit position of the star, the ordinal of the table of the
+     * level column, or -1. */
+    private final int[] levelTable;
+
+    /** For each bit position of the star, the index of the level column in
+     * the columns of its table. */
+    private final int[] levelIndex;
+
+    private final RolapStar.Measure[] measures;
+
+    /** For each bit position of the star, the index of the measure in
+     * {@link #measures}, or -1. */
+    private final int[] measureIndex;
+
+    private volatile Snapshot snapshot;
+    private volatile boolean failed;
+    private volatile long loadMillis;
+    private final AtomicBoolean reading = new AtomicBoolean();
+
+    /** Contents from before a flush, whose flushed rows are being read
+     * again, or null. Guarded by this. */
+    private volatile Snapshot stale;
+
+    /** Regions flushed since {@link #stale} was current. Guarded by this. */
+    private final List<Slice> slices = new ArrayList<Slice>();
+
+    /** Incremented each time the table is invalidated or flushed, so that a
+     * read that started before does not install its result. Guarded by
+     * this. */
+    private int generation;
+
+    /**
+     * Creates a ColumnarFactTable. Does not read any data.
+     *
+     * @param star Star
+     * @param refreshColumn Name of fact table column that increases as rows
+     *   are inserted, or null
+     */
+    ColumnarFactTable(RolapStar star, String refreshColumn) {
+        this.star = star;
+        this.refreshColumn = refreshColumn;
+
+        // List the tables, parents before children.
+        final List<RolapStar.Table> tableList =
+            new ArrayList<RolapStar.Table>();
+        final Map<RolapStar.Table, Integer> tableOrdinals =
+            new IdentityHashMap<RolapStar.Table, Integer>();
+        tableList.add(star.getFactTable());
+        tableOrdinals.put(star.getFactTable(), 0);
+        for (int t = 0; t < tableList.size(); t++) {
+            for (RolapStar.Table child : tableList.get(t).getChildren()) {
+                tableOrdinals.put(child, tableList.size());
+                tableList.add(child);
+            }
+        }
+        this.tables = tableList.toArray(new RolapStar.Table[0]);
+        this.parents = new int[tables.length];
+        this.tableColumns = new ArrayList<List<Object>>();
+        for (int t = 0; t < tables.length; t++) {
+            final RolapStar.Table parent = tables[t].getParentTable();
+            parents[t] = parent == null ? -1 : tableOrdinals.get(parent);
+            tableColumns.add(new ArrayList<Object>());
+        }
+
+        final List<RolapStar.Measure> measureList =
+            new ArrayList<RolapStar.Measure>();
+        this.levelTable = new int[star.getColumnCount()];
+        this.levelIndex = new int[star.getColumnCount()];
+        this.measureIndex = new int[star.getColumnCount()];
+        Arrays.fill(levelTable, -1);
+        Arrays.fill(levelIndex, -1);
+        Arrays.fill(measureIndex, -1);
+        for (int i = 0; i < star.getColumnCount(); i++) {
+            final RolapStar.Column column = star.getColumn(i);
+            if (column instanceof RolapStar.Measure) {
+                final RolapStar.Measure measure = (RolapStar.Measure) column;
+                if (measure.getExpression() != null
+                    && isSupported(measure.getAggregator()))
+                {
+                    measureIndex[i] = measureList.size();
+                    measureList.add(measure);
+                }
+            } else if (column.getExpression() != null) {
+                final Integer t = tableOrdinals.get(column.getTable());
+                if (t != null) {
+                    levelTable[i] = t;
+                    levelIndex[i] = tableColumns.get(t).size();
+                    tableColumns.get(t).add(column);
+                }
+            }
+        }
+        this.measures = measureList.toArray(new RolapStar.Measure[0]);
+
+        this.keyColumns = new int[tables.length];
+        this.foreignKeyColumns = new int[tables.length];
+        for (int t = 1; t < tables.length; t++) {
+            final RolapStar.Condition condition =
+                tables[t].getJoinCondition();
+            keyColumns[t] = tableColumns.get(t).size();
+            tableColumns.get(t).add(condition.getRight());
+            foreignKeyColumns[t] = tableColumns.get(parents[t]).size();
+            tableColumns.get(parents[t]).add(condition.getLeft());
+        }
+    }
+
+    /**
+     * Returns the in-memory copy of a star's fact table, or null if the
+     * table is not listed in {@link MondrianProperties#ColumnarFactTables}
+     * or has not been read yet.
+     *
+     * <p>Starts reading the table, or refreshing it, if necessary.
+     *
+     * @param star Star
+     * @return In-memory table ready to load segments, or null
+     */
+    public static ColumnarFactTable forStar(final RolapStar star) {
+        final Map<String, String> spec = getSpec();
+        final String alias = star.getFactTable().getAlias();
+        if (!spec.containsKey(alias)) {
+            return null;
+        }
+        final ColumnarFactTable table;
+        try {
+            table = TABLES.get(
+                star,
+                () -> new ColumnarFactTable(star, spec.get(alias)));
+        } catch (ExecutionException e) {
+            throw Util.newError(e.getCause(), "Error creating columnar table");
+        }
+        table.readIfNecessary();
+        return table.snapshot == null ? null : table;
+    }
+
+    /**
+     * Discards the in-memory copies of the fact tables of some stars,
+     * because their data may have changed. Segments are loaded by SQL until
+     * the tables have been read again.
+     *
+     * @param stars Stars
+     */
+    public static void invalidate(Collection<RolapStar> stars) {
+        for (RolapStar star : stars) {
+            final ColumnarFactTable table = TABLES.getIfPresent(star);
+            if (table != null) {
+                table.invalidate();
+            }
+        }
+    }
+
+    private synchronized void invalidate() {
+        ++generation;
+        snapshot = null;
+        stale = null;
+        slices.clear();
+        failed = false;
+        loadMillis = 0;
+    }
+
+    /**
+     * Re-reads the fact rows in a flushed region of the cache, because they
+     * may have been updated, deleted or inserted. Segments of the stars are
+     * loaded by SQL until the rows have been read, which happens in the
+     * background. Discards the in-memory copy of a star's tables, as
+     * {@link #invalidate(Collection)} does, if the region does not
+     * constrain any column held in memory.
+     *
+     * @param stars Stars
+     * @param region Values of each column in the flushed region; a column
+     *   whose values are null is not constrained
+     */
+    public static void flush(
+        Collection<RolapStar> stars,
+        SegmentColumn[] region)
+    {
+        for (RolapStar star : stars) {
+            final ColumnarFactTable table = TABLES.getIfPresent(star);
+            if (table != null) {
+                table.flush(region);
+            }
+        }
+    }
+
+    private void flush(SegmentColumn[] region) {
+        synchronized (this) {
+            final Snapshot base = stale != null ? stale : snapshot;
+            final Slice slice = base == null ? null : toSlice(base, region);
+            if (slice == null
+                || refreshColumn != null && base.highWater == null)
+            {
+                // Without a high-water mark, an incremental refresh could
+                // not tell the rows read again from the rows never read.
+                invalidate();
+                return;
+            }
+            ++generation;
+            stale = base;
+            snapshot = null;
+            slices.add(slice);
+        }
+        getRefreshExecutor().execute(this::rebuild);
+    }
+
+    /**
+     * Converts a flushed region into the columns of this table, returning
+     * null if the region does not constrain any column, or constrains a
+     * column that is not held in memory.
+     */
+    private Slice toSlice(Snapshot base, SegmentColumn[] region) {
+        final List<RolapStar.Column> columns =
+            new ArrayList<RolapStar.Column>();
+        final List<StarColumnPredicate> predicates =
+            new ArrayList<StarColumnPredicate>();
+        for (SegmentColumn segmentColumn : region) {
+            if (segmentColumn.values == null) {
+                continue;
+            }
+            final RolapStar.Column column =
+                findColumn(segmentColumn.columnExpression);
+            if (column == null || !canLoad(base, column)) {
+                return null;
+            }
+            final List<StarColumnPredicate> valuePredicates =
+                new ArrayList<StarColumnPredicate>();
+            for (Comparable value : segmentColumn.values) {
+                valuePredicates.add(new ValueColumnPredicate(column, value));
+            }
+            columns.add(column);
+            predicates.add(
+                valuePredicates.size() == 1
+                    ? valuePredicates.get(0)
+                    : new ListColumnPredicate(column, valuePredicates));
+        }
+        if (columns.isEmpty()) {
+            return null;
+        }
+        return new Slice(
+            columns.toArray(new RolapStar.Column[columns.size()]),
+            predicates.toArray(new StarColumnPredicate[predicates.size()]));
+    }
+
+    /**
+     * Returns the level column held in memory whose expression is given, or
+     * null.
+     */
+    private RolapStar.Column findColumn(String columnExpression) {
+        for (int i = 0; i < levelTable.length; i++) {
+            if (levelTable[i] >= 0) {
+                final RolapStar.Column column = star.getColumn(i);
+                if (column.getExpression().getGenericExpression()
+                    .equals(columnExpression))
+                {
+                    return column;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the rows of the regions flushed since the table was last
+     * current, in the current thread, and installs the result.
+     *
+     * <p>If the table is flushed again while the rows are being read,
+     * discards what was read; the rebuild scheduled by that flush reads
+     * the rows of all regions. If the table has too many rows, discards
+     * the contents, so that segments are loaded by SQL. After an error,
+     * the table is read again in full the next time it is used.
+     */
+    void rebuild() {
+        final int generation;
+        final Snapshot base;
+        final List<Slice> sliceList;
+        synchronized (this) {
+            if (stale == null) {
+                return;
+            }
+            generation = this.generation;
+            base = stale;
+            sliceList = new ArrayList<Slice>(slices);
+        }
+        Snapshot newSnapshot;
+        boolean error = false;
+        try {
+            newSnapshot = read(base, sliceList);
+        } catch (RuntimeException e) {
+            LOGGER.warn(
+                "Error reading flushed rows of fact table '"
+                + star.getFactTable().getAlias() + "' into memory", e);
+            newSnapshot = null;
+            error = true;
+        }
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+            stale = null;
+            slices.clear();
+            snapshot = newSnapshot;
+            if (newSnapshot == null && !error) {
+                failed = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of fact rows held in memory, or -1 if the table
+     * has not been read.
+     */
+    int getRowCount() {
+        final Snapshot snapshot = this.snapshot;
+        return snapshot == null ? -1 : snapshot.rowCount;
+    }
+
+    private static synchronized Map<String, String> getSpec() {
+        final String value =
+            MondrianProperties.instance().ColumnarFactTables.get();
+        if (parsedSpec == null || !Util.equals(parsedSpec.left, value)) {
+            final Map<String, String> map = new HashMap<String, String>();
+            if (value != null) {
+                for (String entry : value.split(",")) {
+                    entry = entry.trim();
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+                    final int colon = entry.indexOf(':');
+                    if (colon < 0) {
+                        map.put(entry, null);
+                    } else {
+                        map.put(
+                            entry.substring(0, colon).trim(),
+                            entry.substring(colon + 1).trim());
+                    }
+                }
+            }
+            parsedSpec = Pair.of(value, map);
+        }
+        return parsedSpec.right;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final int threadCount = Runtime.getRuntime().availableProcessors();
+            executor =
+                Util.getExecutorService(
+                    // We use the same value for coreSize and maxSize
+                    // because that's the behavior we want. All extra
+                    // tasks will be put on an unbounded queue.
+                    threadCount,
+                    threadCount,
+                    1,
+                    "mondrian.rolap.agg.ColumnarFactTable$worker",
+                    null);
+        }
+        return executor;
+    }
+
+    private static synchronized ExecutorService getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor =
+                Util.getExecutorService(
+                    1,
+                    1,
+                    1,
+                    "mondrian.rolap.agg.ColumnarFactTable$reader",
+                    null);
+        }
+        return refreshExecutor;
+    }
+
+    private static boolean isSupported(RolapAggregator aggregator) {
+        return aggregator == RolapAggregator.Sum
+            || aggregator == RolapAggregator.Count
+            || aggregator == RolapAggregator.Min
+            || aggregator == RolapAggregator.Max
+            || aggregator == RolapAggregator.Avg;
+    }
+
+    /**
+     * Starts reading the table in the background if it has not been read,
+     * or if it is due to be refreshed.
+     */
+    private void readIfNecessary() {
+        if (failed || stale != null) {
+            // Too many rows, or the rows of a flushed region are being read
+            // again.
+            return;
+        }
+        if (snapshot != null) {
+            final int interval =
+                MondrianProperties.instance().ColumnarRefreshInterval.get();
+            if (interval <= 0
+                || System.currentTimeMillis() - loadMillis < interval * 1000L)
+            {
+                return;
+            }
+        }
+        if (!reading.compareAndSet(false, true)) {
+            return;
+        }
+        getRefreshExecutor().execute(
+            () -> {
+                try {
+                    refresh();
+                } finally {
+                    reading.set(false);
+                }
+            });
+    }
+
+    /**
+     * Reads the table, or the rows added since it was last read, in the
+     * current thread.
+     *
+     * <p>If the table has too many rows, discards the previous contents,
+     * so that segments are loaded by SQL. If the table is invalidated while
+     * it is being read, discards what was read.
+     */
+    void refresh() {
+        final int generation;
+        final Snapshot base;
+        synchronized (this) {
+            if (stale != null) {
+                // A pending rebuild will bring the table up to date.
+                return;
+            }
+            generation = this.generation;
+            base = refreshColumn == null ? null : snapshot;
+        }
+        Snapshot newSnapshot;
+        boolean error = false;
+        try {
+            newSnapshot = read(base, null);
+        } catch (RuntimeException e) {
+            LOGGER.warn(
+                "Error reading fact table '"
+                + star.getFactTable().getAlias() + "' into memory", e);
+            newSnapshot = null;
+            error = true;
+        }
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+            if (newSnapshot != null) {
+                snapshot = newSnapshot;
+            } else if (!error || snapshot == null) {
+                // Too many rows, or never read. An error while refreshing
+                // keeps the previous contents until the next refresh.
+                snapshot = null;
+                failed = true;
+            }
+            loadMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Reads the tables of the star, returning null if any has too many
+     * rows.
+     *
+     * @param base Previous contents, if only some fact rows are to be read;
+     *   otherwise null
+     * @param sliceList Flushed regions whose fact rows are to be read
+     *   again, or null to read the fact rows added since the previous
+     *   contents
+     */
+    private Snapshot read(Snapshot base, List<Slice> sliceList) {
+        final BitSet flushed =
+            sliceList == null ? null : flushedRows(base, sliceList);
+        final Image[] images = new Image[tables.length];
+        for (int t = 0; t < tables.length; t++) {
+            final Builder builder =
+                new Builder(t, t == 0 ? base : null, t == 0 ? flushed : null);
+            final int baseRowCount = builder.rowCount;
+            if (!read(builder, t == 0 ? base : null, sliceList)) {
+                return null;
+            }
+            images[t] = builder.build();
+            if (t == 0) {
+                LOGGER.debug(
+                    "Read " + (images[0].rowCount - baseRowCount)
+                    + " rows of fact table '"
+                    + star.getFactTable().getAlias() + "' into memory");
+            }
+        }
+        return new Snapshot(images, join(images));
+    }
+
+    /**
+     * Returns the fact rows of a snapshot that are in any of a list of
+     * flushed regions.
+     */
+    private BitSet flushedRows(Snapshot base, List<Slice> sliceList) {
+        final BitSet flushed = new BitSet(base.rowCount);
+        for (Slice slice : sliceList) {
+            final int[] columnTables = new int[slice.columns.length];
+            final Codes[] columnCodes = new Codes[slice.columns.length];
+            final boolean[][] allowed = new boolean[slice.columns.length][];
+            for (int i = 0; i < slice.columns.length; i++) {
+                final int bit = slice.columns[i].getBitPosition();
+                columnTables[i] = levelTable[bit];
+                final Image image = base.images[columnTables[i]];
+                columnCodes[i] = image.codes[levelIndex[bit]];
+                final Object[] dictionary =
+                    image.dictionaries[levelIndex[bit]];
+                allowed[i] = new boolean[dictionary.length];
+                for (int code = 0; code < dictionary.length; code++) {
+                    allowed[i][code] =
+                        slice.predicates[i].evaluate(dictionary[code]);
+                }
+            }
+            for (int row = 0; row < base.rowCount; row++) {
+                if (flushed.get(row)) {
+                    continue;
+                }
+                boolean match = true;
+                for (int i = 0; i < columnTables.length && match; i++) {
+                    final int tableRow =
+                        joinedRow(base, columnTables[i], row);
+                    match = tableRow >= 0
+                        && allowed[i][columnCodes[i].get(tableRow)];
+                }
+                if (match) {
+                    flushed.set(row);
+                }
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * Returns the row of a table that a fact row joins to, or -1 if it
+     * joins to none. A fact row that joins to no row of a table is not
+     * returned by the SQL that joins to that table, so is never in a
+     * flushed region.
+     */
+    private int joinedRow(Snapshot base, int table, int factRow) {
+        if (table == 0) {
+            return factRow;
+        }
+        final int parentRow = joinedRow(base, parents[table], factRow);
+        if (parentRow < 0) {
+            return -1;
+        }
+        return base.joins[table][
+            base.images[parents[table]].codes[foreignKeyColumns[table]]
+                .get(parentRow)];
+    }
+
+    /**
+     * Reads the rows of one table into a builder.
+     *
+     * @param builder Builder
+     * @param base Previous contents of the fact table, or null
+     * @param sliceList Flushed regions whose fact rows are to be read
+     *   again, or null to read the fact rows added since the previous
+     *   contents
+     * @return Whether the table has no more than
+     *   {@link MondrianProperties#ColumnarMaxRows} rows
+     */
+    private boolean read(
+        Builder builder,
+        Snapshot base,
+        List<Slice> sliceList)
+    {
+        final RolapStar.Table table = tables[builder.table];
+        final SqlQuery query = star.getSqlQuery();
+        table.addToFrom(query, false, false);
+        for (Object column : tableColumns.get(builder.table)) {
+            if (column instanceof RolapStar.Column) {
+                query.addSelect(
+                    ((RolapStar.Column) column).generateExprString(query),
+                    ((RolapStar.Column) column).getInternalType());
+            } else {
+                query.addSelect(
+                    ((MondrianDef.Expression) column).getExpression(query),
+                    null);
+            }
+        }
+        if (builder.table == 0) {
+            for (RolapStar.Measure measure : measures) {
+                query.addSelect(measure.generateExprString(query), null);
+            }
+            if (refreshColumn != null) {
+                final Dialect dialect = query.getDialect();
+                final String expr =
+                    dialect.quoteIdentifier(table.getAlias(), refreshColumn);
+                query.addSelect(expr, null);
+                if (base != null && base.highWater != null) {
+                    // A refresh reads the rows above the high-water mark;
+                    // re-reading a flushed region reads those below it, so
+                    // that no row is read twice.
+                    final StringBuilder buf = new StringBuilder(expr);
+                    buf.append(sliceList == null ? " > " : " <= ");
+                    dialect.quote(
+                        buf,
+                        base.highWater,
+                        base.highWater instanceof Number
+                            ? Dialect.Datatype.Numeric
+                            : Dialect.Datatype.String);
+                    query.addWhere(buf.toString());
+                }
+            }
+            if (sliceList != null) {
+                final StringBuilder buf = new StringBuilder();
+                for (Slice slice : sliceList) {
+                    if (buf.length() > 0) {
+                        buf.append(" or ");
+                    }
+                    buf.append("(");
+                    for (int i = 0; i < slice.columns.length; i++) {
+                        slice.columns[i].getTable().addToFrom(
+                            query, false, true);
+                        if (i > 0) {
+                            buf.append(" and ");
+                        }
+                        slice.predicates[i].toSql(query, buf);
+                    }
+                    buf.append(")");
+                }
+                query.addWhere(buf.toString());
+            }
+        }
+        final Pair<String, List<SqlStatement.Type>> pair =
+            query.toSqlAndTypes();
+        final Locus locus =
+            new Locus(
+                new Execution(
+                    star.getSchema().getInternalConnection()
+                        .getInternalStatement(),
+                    0),
+                "ColumnarFactTable.read",
+                "Error while reading fact table into memory");
+        final SqlStatement stmt =
+            RolapUtil.executeQuery(
+                star.getDataSource(), pair.left, pair.right, 0, 0, locus,
+                -1, -1, RolapUtil.getDefaultCallback(locus));
+        try {
+            final List<SqlStatement.Type> types = stmt.guessTypes();
+            final ResultSet resultSet = stmt.getResultSet();
+            final int maxRows =
+                MondrianProperties.instance().ColumnarMaxRows.get();
+            while (resultSet.next()) {
+                if (builder.rowCount >= maxRows) {
+                    LOGGER.warn(
+                        "Table '" + table.getAlias() + "' of star '"
+                        + star.getFactTable().getAlias()
+                        + "' has more than " + maxRows
+                        + " rows; the fact table will not be held in memory");
+                    return false;
+                }
+                ++stmt.rowCount;
+                builder.add(resultSet, types);
+            }
+            return true;
+        } catch (SQLException e) {
+            throw stmt.handle(e);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Computes, for each dimension table, the row that each code of the
+     * foreign key in its parent joins to.
+     *
+     * @return For each table, the rows joined to, or null if the table's key
+     *   is not unique (or the fact table)
+     */
+    private int[][] join(Image[] images) {
+        final int[][] joins = new int[tables.length][];
+        for (int t = 1; t < tables.length; t++) {
+            if (parents[t] > 0 && joins[parents[t]] == null) {
+                continue;
+            }
+            final Image image = images[t];
+            final Object[] keys = image.dictionaries[keyColumns[t]];
+            final Codes keyCodes = image.codes[keyColumns[t]];
+            final Map<Object, Integer> rowOfKey =
+                new HashMap<Object, Integer>();
+            boolean unique = true;
+            for (int row = 0; row < image.rowCount && unique; row++) {
+                final Object key = joinKey(keys[keyCodes.get(row)]);
+                if (key != null && rowOfKey.put(key, row) != null) {
+                    unique = false;
+                }
+            }
+            if (!unique) {
+                LOGGER.warn(
+                    "Key of table '" + tables[t].getAlias() + "' of star '"
+                    + star.getFactTable().getAlias()
+                    + "' is not unique; segments that use it will be loaded"
+                    + " by SQL");
+                continue;
+            }
+            final Object[] foreignKeys =
+                images[parents[t]].dictionaries[foreignKeyColumns[t]];
+            final int[] rows = new int[foreignKeys.length];
+            for (int code = 0; code < foreignKeys.length; code++) {
+                final Integer row = rowOfKey.get(joinKey(foreignKeys[code]));
+                rows[code] = row == null ? -1 : row;
+            }
+            joins[t] = rows;
+        }
+        return joins;
+    }
+
+    /**
+     * Converts the value of a join key so that keys compare equal whenever
+     * the database would consider them equal, even if the columns have
+     * different numeric types. Returns null for a null key, which joins to
+     * nothing.
+     */
+    private static Object joinKey(Object value) {
+        if (value == null || value == RolapUtil.sqlNullValue) {
+            return null;
+        }
+        if (value instanceof Integer
+            || value instanceof Long
+            || value instanceof Short
+            || value instanceof Byte
+            || value instanceof BigInteger)
+        {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Number) {
+            final double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < Long.MAX_VALUE) {
+                return (long) d;
+            }
+            return d;
+        }
+        return value;
+    }
+
+    /**
+     * Returns whether this table can load the segments of a grouping sets
+     * list.
+     */
+    boolean canLoad(
+        GroupingSetsList groupingSetsList,
+        List<StarPredicate> compoundPredicateList)
+    {
+        return canLoad(this.snapshot, groupingSetsList, compoundPredicateList);
+    }
+
+    private boolean canLoad(
+        Snapshot snapshot,
+        GroupingSetsList groupingSetsList,
+        List<StarPredicate> compoundPredicateList)
+    {
+        if (snapshot == null || groupingSetsList.useGroupingSets()) {
+            return false;
+        }
+        final RolapStar.Column[] columns = groupingSetsList.getDefaultColumns();
+        final int[] dictionarySizes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (!canLoad(snapshot, columns[i])) {
+                return false;
+            }
+            final int bit = columns[i].getBitPosition();
+            dictionarySizes[i] =
+                snapshot.images[levelTable[bit]]
+                    .dictionaries[levelIndex[bit]].length;
+        }
+        if (keySpace(dictionarySizes) < 0) {
+            // Group keys would overflow and collide; let SQL do it.
+            return false;
+        }
+        for (Segment segment : groupingSetsList.getDefaultSegments()) {
+            final RolapStar.Measure measure = segment.measure;
+            if (measureIndex[measure.getBitPosition()] < 0
+                && !(measure.getExpression() == null
+                     && measure.getAggregator() == RolapAggregator.Count))
+            {
+                return false;
+            }
+        }
+        if (compoundPredicateList != null) {
+            for (StarPredicate predicate : compoundPredicateList) {
+                for (RolapStar.Column column
+                    : predicate.getConstrainedColumnList())
+                {
+                    if (!canLoad(snapshot, column)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of distinct group keys of columns whose
+     * dictionaries have the given sizes, or -1 if that number does not fit
+     * in a long. A group key combines the dictionary codes of the columns,
+     * so if it does not fit, different groups would have the same key.
+     *
+     * @param dictionarySizes Number of values in each column's dictionary
+     * @return Number of distinct group keys, or -1
+     */
+    static long keySpace(int[] dictionarySizes) {
+        long space = 1;
+        for (int dictionarySize : dictionarySizes) {
+            final int n = Math.max(1, dictionarySize);
+            if (space > Long.MAX_VALUE / n) {
+                return -1;
+            }
+            space *= n;
+        }
+        return space;
+    }
+
+    /**
+     * Returns whether a column is held in memory, and its table and the
+     * tables between it and the fact table can be joined.
+     */
+    private boolean canLoad(Snapshot snapshot, RolapStar.Column column) {
+        int t = levelTable[column.getBitPosition()];
+        if (t < 0) {
+            return false;
+        }
+        for (; t > 0; t = parents[t]) {
+            if (snapshot.joins[t] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the rows that the SQL for a grouping sets list would return.
+     *
+     * @param groupingSetsList Grouping sets list; must satisfy
+     *   {@link #canLoad}
+     * @param compoundPredicateList Compound predicates, or null
+     * @param axisContainsNull Output, whether each axis has a null value
+     * @param axisValueSets Output, the values of each axis
+     * @return Rows, or null if the table has been invalidated or refreshed
+     *   since {@link #canLoad} was called and can no longer load them
+     */
+    SegmentLoader.RowList load(
+        GroupingSetsList groupingSetsList,
+        List<StarPredicate> compoundPredicateList,
+        boolean[] axisContainsNull,
+        SortedSet<Comparable>[] axisValueSets)
+    {
+        final Snapshot snapshot = this.snapshot;
+        if (!canLoad(snapshot, groupingSetsList, compoundPredicateList)) {
+            return null;
+        }
+        final Query query =
+            new Query(snapshot, groupingSetsList, compoundPredicateList);
+        final Execution execution = Locus.peek().execution;
+
+        // Process ranges of rows in parallel; this thread does the first.
+        final int taskCount =
+            Math.max(
+                1,
+                Math.min(
+                    Runtime.getRuntime().availableProcessors(),
+                    snapshot.rowCount / MIN_ROWS_PER_TASK));
+        final int rowsPerTask = (snapshot.rowCount + taskCount - 1) / taskCount;
+        final List<Future<Groups>> futures = new ArrayList<Future<Groups>>();
+        for (int i = 1; i < taskCount; i++) {
+            final int start = i * rowsPerTask;
+            final int end = Math.min(snapshot.rowCount, start + rowsPerTask);
+            futures.add(
+                getExecutor().submit(
+                    () -> query.aggregate(start, end, execution)));
+        }
+        final Groups groups =
+            query.aggregate(
+                0, Math.min(snapshot.rowCount, rowsPerTask), execution);
+        try {
+            for (Future<Groups> future : futures) {
+                groups.merge(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Util.newError(e, "Interrupted while loading segment");
+        } catch (ExecutionException e) {
+            throw Util.newError(e.getCause(), "Error while loading segment");
+        } finally {
+            for (Future<Groups> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        final int limit = MondrianProperties.instance().ResultLimit.get();
+        if (limit > 0 && groups.size > limit) {
+            throw MondrianResource.instance().SegmentFetchLimitExceeded.ex(
+                limit);
+        }
+        return query.toRowList(groups, axisContainsNull, axisValueSets);
+    }
+
+    /**
+     * Fact rows in a flushed region of the cache: those whose value of each
+     * column satisfies the column's predicate.
+     */
+    private static class Slice {
+        final RolapStar.Column[] columns;
+        final StarColumnPredicate[] predicates;
+
+        Slice(RolapStar.Column[] columns, StarColumnPredicate[] predicates) {
+            this.columns = columns;
+            this.predicates = predicates;
+        }
+    }
+
+    /**
+     * Immutable contents of the tables of a star at a point in time.
+     */
+    static class Snapshot {
+        final Image[] images;
+        /** For each dimension table, the row joined to by each code of the
+         * foreign key in its parent, or -1; null if the table cannot be
+         * joined. */
+        final int[][] joins;
+        final int rowCount;
+        final double[][] measureValues;
+        final BitSet[] measureNulls;
+        final Comparable highWater;
+
+        Snapshot(Image[] images, int[][] joins) {
+            this.images = images;
+            this.joins = joins;
+            this.rowCount = images[0].rowCount;
+            this.measureValues = images[0].measureValues;
+            this.measureNulls = images[0].measureNulls;
+            this.highWater = images[0].highWater;
+        }
+    }
+
+    /**
+     * Immutable contents of one table.
+     */
+    static class Image {
+        final int rowCount;
+        final Object[][] dictionaries;
+        final Codes[] codes;
+        final double[][] measureValues;
+        final BitSet[] measureNulls;
+        final Comparable highWater;
+
+        Image(
+            int rowCount,
+            Object[][] dictionaries,
+            Codes[] codes,
+            double[][] measureValues,
+            BitSet[] measureNulls,
+            Comparable highWater)
+        {
+            this.rowCount = rowCount;
+            this.dictionaries = dictionaries;
+            this.codes = codes;
+            this.measureValues = measureValues;
+            this.measureNulls = measureNulls;
+            this.highWater = highWater;
+        }
+    }
+
+    /**
+     * Accumulates rows of a table read from JDBC, and builds an
+     * {@link Image}.
+     */
+    private class Builder {
+        final int table;
+        private final List<Object> columns;
+        private final List<Map<Object, Integer>> codeMaps =
+            new ArrayList<Map<Object, Integer>>();
+        private final List<List<Object>> dictionaries =
+            new ArrayList<List<Object>>();
+        private final int[][] codes;
+        private final double[][] measureValues;
+        private final BitSet[] measureNulls;
+        private Comparable highWater;
+        int rowCount;
+
+        /**
+         * Creates a Builder.
+         *
+         * @param table Ordinal of table
+         * @param base Previous contents, to which rows are to be added; only
+         *   for the fact table; otherwise null
+         * @param dropped Rows of the previous contents not to keep, or null
+         *   to keep all
+         */
+        Builder(int table, Snapshot base, BitSet dropped) {
+            this.table = table;
+            this.columns = tableColumns.get(table);
+            final Image baseImage = base == null ? null : base.images[0];
+            final int measureCount = table == 0 ? measures.length : 0;
+            final int keptRowCount =
+                baseImage == null
+                    ? 0
+                    : dropped == null
+                    ? baseImage.rowCount
+                    : baseImage.rowCount - dropped.cardinality();
+            final int capacity = keptRowCount + 1024;
+            codes = new int[columns.size()][capacity];
+            measureValues = new double[measureCount][capacity];
+            measureNulls = new BitSet[measureCount];
+            for (int i = 0; i < columns.size(); i++) {
+                final Map<Object, Integer> codeMap =
+                    new HashMap<Object, Integer>();
+                final List<Object> dictionary = new ArrayList<Object>();
+                if (baseImage != null) {
+                    dictionary.addAll(Arrays.asList(baseImage.dictionaries[i]));
+                    for (int code = 0; code < dictionary.size(); code++) {
+                        codeMap.put(dictionary.get(code), code);
+                    }
+                    for (int baseRow = 0, row = 0;
+                        baseRow < baseImage.rowCount;
+                        baseRow++)
+                    {
+                        if (dropped == null || !dropped.get(baseRow)) {
+                            codes[i][row++] = baseImage.codes[i].get(baseRow);
+                        }
+                    }
+                }
+                codeMaps.add(codeMap);
+                dictionaries.add(dictionary);
+            }
+            for (int j = 0; j < measureCount; j++) {
+                measureNulls[j] = new BitSet();
+                if (baseImage == null) {
+                    continue;
+                }
+                if (dropped == null) {
+                    System.arraycopy(
+                        baseImage.measureValues[j], 0, measureValues[j], 0,
+                        baseImage.rowCount);
+                    measureNulls[j].or(baseImage.measureNulls[j]);
+                    continue;
+                }
+                for (int baseRow = 0, row = 0;
+                    baseRow < baseImage.rowCount;
+                    baseRow++)
+                {
+                    if (!dropped.get(baseRow)) {
+                        measureValues[j][row] =
+                            baseImage.measureValues[j][baseRow];
+                        if (baseImage.measureNulls[j].get(baseRow)) {
+                            measureNulls[j].set(row);
+                        }
+                        ++row;
+                    }
+                }
+            }
+            if (baseImage != null) {
+                rowCount = keptRowCount;
+                highWater = baseImage.highWater;
+            }
+        }
+
+        void add(ResultSet resultSet, List<SqlStatement.Type> types)
+            throws SQLException
+        {
+            if (rowCount == capacity()) {
+                grow();
+            }
+            int columnIndex = 0;
+            for (int i = 0; i < columns.size(); i++, columnIndex++) {
+                final Object value =
+                    readLevel(resultSet, columnIndex, types.get(columnIndex));
+                Integer code = codeMaps.get(i).get(value);
+                if (code == null) {
+                    code = dictionaries.get(i).size();
+                    dictionaries.get(i).add(value);
+                    codeMaps.get(i).put(value, code);
+                }
+                codes[i][rowCount] = code;
+            }
+            for (int j = 0; j < measureValues.length; j++, columnIndex++) {
+                if (measures[j].getDatatype().isNumeric()) {
+                    final double value = resultSet.getDouble(columnIndex + 1);
+                    if (resultSet.wasNull()) {
+                        measureNulls[j].set(rowCount);
+                    } else {
+                        measureValues[j][rowCount] = value;
+                    }
+                } else if (resultSet.getObject(columnIndex + 1) == null) {
+                    measureNulls[j].set(rowCount);
+                }
+            }
+            if (table == 0 && refreshColumn != null) {
+                final Object value = resultSet.getObject(columnIndex + 1);
+                if (value instanceof Comparable
+                    && (highWater == null
+                        || ((Comparable) value).compareTo(highWater) > 0))
+                {
+                    highWater = (Comparable) value;
+                }
+            }
+            ++rowCount;
+        }
+
+        private int capacity() {
+            return measureValues.length > 0
+                ? measureValues[0].length
+                : codes.length > 0 ? codes[0].length : Integer.MAX_VALUE;
+        }
+
+        private void grow() {
+            final int capacity = capacity() * 2;
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = Arrays.copyOf(codes[i], capacity);
+            }
+            for (int j = 0; j < measureValues.length; j++) {
+                measureValues[j] = Arrays.copyOf(measureValues[j], capacity);
+            }
+        }
+
+        Image build() {
+            final Object[][] dictionaryArrays = new Object[columns.size()][];
+            final Codes[] codeArrays = new Codes[columns.size()];
+            for (int i = 0; i < columns.size(); i++) {
+                dictionaryArrays[i] = dictionaries.get(i).toArray();
+                codeArrays[i] =
+                    Codes.of(codes[i], rowCount, dictionaryArrays[i].length);
+            }
+            final double[][] measureArrays =
+                new double[measureValues.length][];
+            for (int j = 0; j < measureValues.length; j++) {
+                measureArrays[j] = Arrays.copyOf(measureValues[j], rowCount);
+            }
+            return new Image(
+                rowCount, dictionaryArrays, codeArrays, measureArrays,
+                measureNulls, highWater);
+        }
+    }
+
+    /**
+     * Reads the value of a level column, converting it as
+     * {@link SegmentLoader#processData} does, so that values compare equal
+     * to the keys of members and to the values in predicates.
+     */
+    private static Object readLevel(
+        ResultSet resultSet,
+        int columnIndex,
+        SqlStatement.Type type)
+        throws SQLException
+    {
+        switch (type) {
+        case OBJECT:
+        case STRING:
+            final Object o = resultSet.getObject(columnIndex + 1);
+            if (o == null) {
+                return RolapUtil.sqlNullValue;
+            }
+            return o instanceof byte[] ? new String((byte[]) o) : o;
+        case INT:
+            final int intValue = resultSet.getInt(columnIndex + 1);
+            return resultSet.wasNull() ? RolapUtil.sqlNullValue : intValue;
+        case LONG:
+            final long longValue = resultSet.getLong(columnIndex + 1);
+            return resultSet.wasNull() ? RolapUtil.sqlNullValue : longValue;
+        case DOUBLE:
+            final double doubleValue = resultSet.getDouble(columnIndex + 1);
+            return resultSet.wasNull() ? RolapUtil.sqlNullValue : doubleValue;
+        case DECIMAL:
+            final BigDecimal decimal = resultSet.getBigDecimal(columnIndex + 1);
+            return decimal == null
+                ? RolapUtil.sqlNullValue
+                : (Object) decimal.doubleValue();
+        default:
+            throw Util.unexpected(type);
+        }
+    }
+
+    /**
+     * Dictionary codes of a column, packed into the narrowest array that
+     * can hold them.
+     */
+    abstract static class Codes {
+        abstract int get(int row);
+
+        static Codes of(int[] codes, int rowCount, int dictionarySize) {
+            if (dictionarySize <= 1 << 8) {
+                final byte[] bytes = new byte[rowCount];
+                for (int i = 0; i < rowCount; i++) {
+                    bytes[i] = (byte) codes[i];
+                }
+                return new Codes() {
+                    int get(int row) {
+                        return bytes[row] & 0xFF;
+                    }
+                };
+            } else if (dictionarySize <= 1 << 16) {
+                final short[] shorts = new short[rowCount];
+                for (int i = 0; i < rowCount; i++) {
+                    shorts[i] = (short) codes[i];
+                }
+                return new Codes() {
+                    int get(int row) {
+                        return shorts[row] & 0xFFFF;
+                    }
+                };
+            } else {
+                final int[] ints = Arrays.copyOf(codes, rowCount);
+                return new Codes() {
+                    int get(int row) {
+                        return ints[row];
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * A grouping sets list translated into the terms of a snapshot.
+     */
+    private class Query {
+        private final Snapshot snapshot;
+        private final RolapStar.Column[] columns;
+        /** For each column, the image of its table. */
+        private final Image[] columnImages;
+        /** For each column, the ordinal of its table. */
+        private final int[] columnTables;
+        /** For each column, the index of the column in its table. */
+        private final int[] columnIndexes;
+        /** For each column, which dictionary codes satisfy its predicate, or
+         * null if all do. */
+        private final boolean[][] allowed;
+        private final long[] strides;
+        private final long groupSpace;
+        /** Ordinals of the dimension tables to join, parents first. */
+        private final int[] joinTables;
+        private final List<StarPredicate> compoundPredicates;
+        private final int[][] compoundTables;
+        private final int[][] compoundIndexes;
+        private final RolapAggregator[] aggregators;
+        private final int[] measureOrdinals;
+
+        Query(
+            Snapshot snapshot,
+            GroupingSetsList groupingSetsList,
+            List<StarPredicate> compoundPredicateList)
+        {
+            this.snapshot = snapshot;
+            this.columns = groupingSetsList.getDefaultColumns();
+            final StarColumnPredicate[] predicates =
+                groupingSetsList.getDefaultPredicates();
+            final boolean[] joined = new boolean[tables.length];
+            columnImages = new Image[columns.length];
+            columnTables = new int[columns.length];
+            columnIndexes = new int[columns.length];
+            allowed = new boolean[columns.length][];
+            strides = new long[columns.length];
+            long space = 1;
+            for (int i = 0; i < columns.length; i++) {
+                final int bit = columns[i].getBitPosition();
+                columnTables[i] = levelTable[bit];
+                columnIndexes[i] = levelIndex[bit];
+                columnImages[i] = snapshot.images[columnTables[i]];
+                markJoined(joined, columnTables[i]);
+                final Object[] dictionary =
+                    columnImages[i].dictionaries[columnIndexes[i]];
+                final StarColumnPredicate predicate = predicates[i];
+                if (predicate != null
+                    && !(predicate instanceof LiteralStarPredicate
+                         && ((LiteralStarPredicate) predicate).getValue()))
+                {
+                    allowed[i] = new boolean[dictionary.length];
+                    for (int code = 0; code < dictionary.length; code++) {
+                        allowed[i][code] = predicate.evaluate(dictionary[code]);
+                    }
+                }
+                // canLoad has checked that the product of the dictionary
+                // sizes fits in a long.
+                strides[i] = space;
+                space *= Math.max(1, dictionary.length);
+            }
+            groupSpace = space;
+            compoundPredicates =
+                compoundPredicateList == null
+                    ? Collections.<StarPredicate>emptyList()
+                    : compoundPredicateList;
+            compoundTables = new int[compoundPredicates.size()][];
+            compoundIndexes = new int[compoundPredicates.size()][];
+            for (int p = 0; p < compoundPredicates.size(); p++) {
+                final List<RolapStar.Column> constrainedColumns =
+                    compoundPredicates.get(p).getConstrainedColumnList();
+                compoundTables[p] = new int[constrainedColumns.size()];
+                compoundIndexes[p] = new int[constrainedColumns.size()];
+                for (int c = 0; c < constrainedColumns.size(); c++) {
+                    final int bit = constrainedColumns.get(c).getBitPosition();
+                    compoundTables[p][c] = levelTable[bit];
+                    compoundIndexes[p][c] = levelIndex[bit];
+                    markJoined(joined, levelTable[bit]);
+                }
+            }
+            int joinCount = 0;
+            for (int t = 1; t < tables.length; t++) {
+                if (joined[t]) {
+                    ++joinCount;
+                }
+            }
+            joinTables = new int[joinCount];
+            for (int t = 1, k = 0; t < tables.length; t++) {
+                if (joined[t]) {
+                    joinTables[k++] = t;
+                }
+            }
+            final List<Segment> segments =
+                groupingSetsList.getDefaultSegments();
+            aggregators = new RolapAggregator[segments.size()];
+            measureOrdinals = new int[segments.size()];
+            for (int j = 0; j < segments.size(); j++) {
+                final RolapStar.Measure measure = segments.get(j).measure;
+                aggregators[j] = measure.getAggregator();
+                measureOrdinals[j] = measureIndex[measure.getBitPosition()];
+            }
+        }
+
+        /**
+         * Marks a table, and the tables between it and the fact table, as
+         * needing to be joined.
+         */
+        private void markJoined(boolean[] joined, int table) {
+            for (int t = table; t > 0 && !joined[t]; t = parents[t]) {
+                joined[t] = true;
+            }
+        }
+
+        /**
+         * Aggregates a range of rows.
+         */
+        Groups aggregate(int start, int end, Execution execution) {
+            final Groups groups =
+                new Groups(
+                    aggregators,
+                    groupSpace <= DENSE_GROUP_LIMIT ? (int) groupSpace : -1);
+            // Rows are identified by their position in the vector. For each
+            // table, the row of that table joined to each position.
+            final int[] selection = new int[VECTOR_SIZE];
+            final int[][] rows = new int[tables.length][];
+            rows[0] = new int[VECTOR_SIZE];
+            for (int t : joinTables) {
+                rows[t] = new int[VECTOR_SIZE];
+            }
+            final long[] keys = new long[VECTOR_SIZE];
+            final int[] slots = new int[VECTOR_SIZE];
+            final List<Object> values = new ArrayList<Object>();
+            for (int vectorStart = start; vectorStart < end;
+                vectorStart += VECTOR_SIZE)
+            {
+                if (execution != null) {
+                    execution.checkCancelOrTimeout();
+                }
+                final int vectorEnd = Math.min(end, vectorStart + VECTOR_SIZE);
+
+                int n = 0;
+                for (int row = vectorStart; row < vectorEnd; row++) {
+                    rows[0][n] = row;
+                    selection[n] = n;
+                    ++n;
+                }
+
+                // Join, one table at a time, dropping rows with no match.
+                for (int t : joinTables) {
+                    if (n == 0) {
+                        break;
+                    }
+                    final int[] parentRows = rows[parents[t]];
+                    final Codes foreignKeys =
+                        snapshot.images[parents[t]].codes[foreignKeyColumns[t]];
+                    final int[] join = snapshot.joins[t];
+                    final int[] tableRows = rows[t];
+                    int m = 0;
+                    for (int k = 0; k < n; k++) {
+                        final int position = selection[k];
+                        final int row =
+                            join[foreignKeys.get(parentRows[position])];
+                        if (row >= 0) {
+                            tableRows[position] = row;
+                            selection[m++] = position;
+                        }
+                    }
+                    n = m;
+                }
+
+                // Filter, one column at a time.
+                for (int i = 0; i < columns.length && n > 0; i++) {
+                    final boolean[] columnAllowed = allowed[i];
+                    if (columnAllowed == null) {
+                        continue;
+                    }
+                    final Codes codes =
+                        columnImages[i].codes[columnIndexes[i]];
+                    final int[] tableRows = rows[columnTables[i]];
+                    int m = 0;
+                    for (int k = 0; k < n; k++) {
+                        if (columnAllowed[codes.get(tableRows[selection[k]])]) {
+                            selection[m++] = selection[k];
+                        }
+                    }
+                    n = m;
+                }
+                for (int p = 0; p < compoundPredicates.size() && n > 0; p++) {
+                    final StarPredicate predicate = compoundPredicates.get(p);
+                    final int[] predicateTables = compoundTables[p];
+                    final int[] predicateIndexes = compoundIndexes[p];
+                    int m = 0;
+                    for (int k = 0; k < n; k++) {
+                        values.clear();
+                        for (int c = 0; c < predicateTables.length; c++) {
+                            final Image image =
+                                snapshot.images[predicateTables[c]];
+                            final int row =
+                                rows[predicateTables[c]][selection[k]];
+                            values.add(
+                                image.dictionaries[predicateIndexes[c]][
+                                    image.codes[predicateIndexes[c]]
+                                        .get(row)]);
+                        }
+                        if (predicate.evaluate(values)) {
+                            selection[m++] = selection[k];
+                        }
+                    }
+                    n = m;
+                }
+
+                // Build group keys, one column at a time.
+                Arrays.fill(keys, 0, n, 0L);
+                for (int i = 0; i < columns.length; i++) {
+                    final Codes codes =
+                        columnImages[i].codes[columnIndexes[i]];
+                    final int[] tableRows = rows[columnTables[i]];
+                    final long stride = strides[i];
+                    for (int k = 0; k < n; k++) {
+                        keys[k] += codes.get(tableRows[selection[k]]) * stride;
+                    }
+                }
+                for (int k = 0; k < n; k++) {
+                    slots[k] = groups.slot(keys[k]);
+                }
+
+                // Accumulate, one measure at a time.
+                for (int j = 0; j < aggregators.length; j++) {
+                    final int ordinal = measureOrdinals[j];
+                    if (ordinal < 0) {
+                        // count(*)
+                        for (int k = 0; k < n; k++) {
+                            ++groups.counts[j][slots[k]];
+                        }
+                        continue;
+                    }
+                    final double[] measureValues =
+                        snapshot.measureValues[ordinal];
+                    final BitSet nulls = snapshot.measureNulls[ordinal];
+                    final double[] accumulators = groups.values[j];
+                    final long[] counts = groups.counts[j];
+                    final RolapAggregator aggregator = aggregators[j];
+                    for (int k = 0; k < n; k++) {
+                        final int row = rows[0][selection[k]];
+                        if (nulls.get(row)) {
+                            continue;
+                        }
+                        final int slot = slots[k];
+                        final double value = measureValues[row];
+                        if (counts[slot]++ == 0) {
+                            accumulators[slot] = value;
+                        } else if (aggregator == RolapAggregator.Min) {
+                            accumulators[slot] =
+                                Math.min(accumulators[slot], value);
+                        } else if (aggregator == RolapAggregator.Max) {
+                            accumulators[slot] =
+                                Math.max(accumulators[slot], value);
+                        } else {
+                            accumulators[slot] += value;
+                        }
+                    }
+                }
+            }
+            return groups;
+        }
+
+        /**
+         * Converts groups into rows, in the layout of
+         * {@link SegmentLoader#processData}.
+         */
+        SegmentLoader.RowList toRowList(
+            Groups groups,
+            boolean[] axisContainsNull,
+            SortedSet<Comparable>[] axisValueSets)
+        {
+            final List<SqlStatement.Type> types =
+                new ArrayList<SqlStatement.Type>();
+            for (int i = 0; i < columns.length; i++) {
+                types.add(SqlStatement.Type.OBJECT);
+            }
+            for (RolapAggregator aggregator : aggregators) {
+                types.add(
+                    aggregator == RolapAggregator.Count
+                        ? SqlStatement.Type.INT
+                        : SqlStatement.Type.DOUBLE);
+            }
+            final SegmentLoader.RowList rows =
+                new SegmentLoader.RowList(types, Math.max(groups.size, 1));
+            for (int slot = 0; slot < groups.size; slot++) {
+                rows.createRow();
+                final long key = groups.keys[slot];
+                for (int i = 0; i < columns.length; i++) {
+                    final Object[] dictionary =
+                        columnImages[i].dictionaries[columnIndexes[i]];
+                    final int code =
+                        (int) ((key / strides[i]) % dictionary.length);
+                    final Object value = dictionary[code];
+                    if (value == RolapUtil.sqlNullValue) {
+                        axisContainsNull[i] = true;
+                    } else {
+                        axisValueSets[i].add((Comparable) value);
+                    }
+                    rows.setObject(i, value);
+                }
+                for (int j = 0; j < aggregators.length; j++) {
+                    final int column = columns.length + j;
+                    final long count = groups.counts[j][slot];
+                    final double value = groups.values[j][slot];
+                    if (aggregators[j] == RolapAggregator.Count) {
+                        rows.setInt(column, (int) count);
+                    } else if (count == 0) {
+                        rows.setNull(column, true);
+                    } else if (aggregators[j] == RolapAggregator.Avg) {
+                        rows.setDouble(column, value / count);
+                    } else {
+                        rows.setDouble(column, value);
+                    }
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Partial aggregates, one slot per group.
+     */
+    static class Groups {
+        private final RolapAggregator[] aggregators;
+        /** If not null, the slot of each group key. */
+        private final int[] denseSlots;
+        private final Map<Long, Integer> sparseSlots;
+        long[] keys = new long[16];
+        final double[][] values;
+        final long[][] counts;
+        int size;
+
+        Groups(RolapAggregator[] aggregators, int denseSpace) {
+            this.aggregators = aggregators;
+            if (denseSpace >= 0) {
+                denseSlots = new int[denseSpace];
+                Arrays.fill(denseSlots, -1);
+                sparseSlots = null;
+            } else {
+                denseSlots = null;
+                sparseSlots = new HashMap<Long, Integer>();
+            }
+            values = new double[aggregators.length][keys.length];
+            counts = new long[aggregators.length][keys.length];
+        }
+
+        /**
+         * Returns the slot of a group, creating it if necessary.
+         */
+        int slot(long key) {
+            if (denseSlots != null) {
+                int slot = denseSlots[(int) key];
+                if (slot < 0) {
+                    slot = newSlot(key);
+                    denseSlots[(int) key] = slot;
+                }
+                return slot;
+            }
+            Integer slot = sparseSlots.get(key);
+            if (slot == null) {
+                slot = newSlot(key);
+                sparseSlots.put(key, slot);
+            }
+            return slot;
+        }
+
+        private int newSlot(long key) {
+            if (size == keys.length) {
+                final int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                for (int j = 0; j < aggregators.length; j++) {
+                    values[j] = Arrays.copyOf(values[j], capacity);
+                    counts[j] = Arrays.copyOf(counts[j], capacity);
+                }
+            }
+            keys[size] = key;
+            return size++;
+        }
+
+        /**
+         * Merges another set of partial aggregates into this one.
+         */
+        void merge(Groups other) {
+            for (int otherSlot = 0; otherSlot < other.size; otherSlot++) {
+                final int slot = slot(other.keys[otherSlot]);
+                for (int j = 0; j < aggregators.length; j++) {
+                    final long otherCount = other.counts[j][otherSlot];
+                    if (otherCount == 0) {
+                        continue;
+                    }
+                    final double otherValue = other.values[j][otherSlot];
+                    if (counts[j][slot] == 0) {
+                        values[j][slot] = otherValue;
+                    } else if (aggregators[j] == RolapAggregator.Min) {
+                        values[j][slot] =
+                            Math.min(values[j][slot], otherValue);
+                    } else if (aggregators[j] == RolapAggregator.Max) {
+                        values[j][slot] =
+                            Math.max(values[j][slot], otherValue);
+                    } else {
+                        values[j][slot] += otherValue;
+                    }
+                    counts[j][slot] += otherCount;
+                }
+            }
+        }
+    }
+}
+
+// End ColumnarFactTable.java
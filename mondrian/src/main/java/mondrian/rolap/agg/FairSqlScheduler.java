@@ -0,0 +1,285 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.resource.MondrianResource;
+import mondrian.server.Execution;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Default implementation of {@link SqlScheduler}.
+ *
+ * <p>Queued requests are chosen as follows:<ol>
+ * <li>Requests of higher {@link SqlScheduler.Priority priority} first.</li>
+ * <li>Among requests of the same priority, owners (connections) take turns,
+ *     so that one connection that submits dozens of statements does not
+ *     hold up the others.</li>
+ * <li>Among the requests of one owner, the cheapest first, then in order of
+ *     submission.</li>
+ * <li>A request is not started while its data source is already running
+ *     {@link MondrianProperties#SqlSchedulerMaxConcurrentPerDataSource}
+ *     statements; requests for other data sources may overtake it.</li>
+ * </ol>
+ *
+ * <p>The time each request spends queued is added to the query timing of
+ * its statement, under the name "{@value #TIMING_NAME}".
+ *
+ * <p>Statements run on a thread pool of
+ * {@link MondrianProperties#SegmentCacheManagerNumberSqlThreads} threads.
+ * Each submission enqueues the request and hands a "dispatch" task to the
+ * pool; a dispatch task runs whichever request is next, not necessarily the
+ * one that was submitted with it.
+ */
+public class FairSqlScheduler implements SqlScheduler {
+    private static final Logger LOGGER =
+        LogManager.getLogger(FairSqlScheduler.class);
+
+    static final String TIMING_NAME = "SqlSchedulerQueueWait";
+
+    private final ExecutorService executor;
+    private final int maxPerDataSource;
+
+    /** Queued tasks by priority, then by owner. Owners are kept in the
+     * order in which they are next to be served. Guarded by this. */
+    private final Map<Priority, LinkedHashMap<Object, Queue<Task<?>>>> queues =
+        new EnumMap<Priority, LinkedHashMap<Object, Queue<Task<?>>>>(
+            Priority.class);
+
+    /** Number of running statements by data source. Guarded by this. */
+    private final Map<Object, Integer> runningCounts =
+        new HashMap<Object, Integer>();
+
+    private int queuedCount;
+    private long sequence;
+
+    /**
+     * Creates a FairSqlScheduler with thread counts and limits from
+     * {@link MondrianProperties}.
+     */
+    public FairSqlScheduler() {
+        this(
+            MondrianProperties.instance()
+                .SegmentCacheManagerNumberSqlThreads.get(),
+            MondrianProperties.instance()
+                .SqlSchedulerMaxConcurrentPerDataSource.get());
+    }
+
+    /**
+     * Creates a FairSqlScheduler.
+     *
+     * @param threadCount Number of threads
+     * @param maxPerDataSource Maximum number of statements that may run
+     *   concurrently against the same data source, or 0 for no limit
+     */
+    public FairSqlScheduler(int threadCount, int maxPerDataSource) {
+        this.maxPerDataSource = maxPerDataSource;
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new LinkedHashMap<Object, Queue<Task<?>>>());
+        }
+        this.executor =
+            Util.getExecutorService(
+                // We use the same value for coreSize and maxSize
+                // because that's the behavior we want. All extra
+                // tasks will be put on an unbounded queue.
+                threadCount,
+                threadCount,
+                1,
+                "mondrian.rolap.agg.SegmentCacheManager$sqlExecutor",
+                (r, executor) -> {
+                    throw MondrianResource.instance()
+                        .SqlQueryLimitReached.ex();
+                });
+    }
+
+    public <T> Future<T> submit(Request request, Callable<T> callable) {
+        final Task<T> task;
+        synchronized (this) {
+            task = new Task<T>(request, callable, sequence++);
+            final LinkedHashMap<Object, Queue<Task<?>>> ownerQueues =
+                queues.get(request.priority);
+            Queue<Task<?>> queue = ownerQueues.get(request.owner);
+            if (queue == null) {
+                queue = new PriorityQueue<Task<?>>();
+                ownerQueues.put(request.owner, queue);
+            }
+            queue.add(task);
+            ++queuedCount;
+        }
+        try {
+            executor.execute(new Dispatcher());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                remove(task);
+            }
+            throw e;
+        }
+        return task;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Removes the next eligible task from the queues, and counts it as
+     * running. Returns null if there is no eligible task.
+     */
+    private synchronized Task<?> next() {
+        for (LinkedHashMap<Object, Queue<Task<?>>> ownerQueues
+            : queues.values())
+        {
+            for (Iterator<Map.Entry<Object, Queue<Task<?>>>> iterator =
+                     ownerQueues.entrySet().iterator();
+                 iterator.hasNext();)
+            {
+                final Map.Entry<Object, Queue<Task<?>>> entry =
+                    iterator.next();
+                final Task<?> task = entry.getValue().peek();
+                if (!isEligible(task)) {
+                    continue;
+                }
+                entry.getValue().remove();
+                --queuedCount;
+
+                // This owner goes to the back of the line.
+                iterator.remove();
+                if (!entry.getValue().isEmpty()) {
+                    ownerQueues.put(entry.getKey(), entry.getValue());
+                }
+
+                final Object dataSourceKey = task.request.dataSourceKey;
+                final Integer count = runningCounts.get(dataSourceKey);
+                runningCounts.put(
+                    dataSourceKey, count == null ? 1 : count + 1);
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private boolean isEligible(Task<?> task) {
+        if (task.isCancelled() || maxPerDataSource <= 0) {
+            return true;
+        }
+        final Integer count = runningCounts.get(task.request.dataSourceKey);
+        return count == null || count < maxPerDataSource;
+    }
+
+    private synchronized void finished(Task<?> task) {
+        final Object dataSourceKey = task.request.dataSourceKey;
+        final int count = runningCounts.get(dataSourceKey) - 1;
+        if (count == 0) {
+            runningCounts.remove(dataSourceKey);
+        } else {
+            runningCounts.put(dataSourceKey, count);
+        }
+    }
+
+    private void remove(Task<?> task) {
+        final Queue<Task<?>> queue =
+            queues.get(task.request.priority).get(task.request.owner);
+        if (queue != null && queue.remove(task)) {
+            --queuedCount;
+            if (queue.isEmpty()) {
+                queues.get(task.request.priority).remove(task.request.owner);
+            }
+        }
+    }
+
+    /**
+     * Runs the next eligible task, if there is one.
+     */
+    private class Dispatcher implements Runnable {
+        public void run() {
+            final Task<?> task = next();
+            if (task == null) {
+                // Every queued task is waiting for a busy data source. A
+                // dispatcher will be started when a statement finishes.
+                return;
+            }
+            try {
+                final long waitMillis =
+                    System.currentTimeMillis() - task.enqueueTimeMillis;
+                // Statements outside any execution have no timing to mark.
+                final Execution execution = task.request.locus.execution;
+                if (execution != null) {
+                    execution.getQueryTiming()
+                        .markFull(TIMING_NAME, waitMillis);
+                }
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(
+                        "Starting " + task.request + " after waiting "
+                        + waitMillis + "ms");
+                }
+                task.run();
+            } finally {
+                if (!task.isDone()) {
+                    // The task did not get to run; do not leave its caller
+                    // waiting forever.
+                    task.cancel(false);
+                }
+                finished(task);
+                final boolean more;
+                synchronized (FairSqlScheduler.this) {
+                    more = queuedCount > 0;
+                }
+                if (more && !executor.isShutdown()) {
+                    executor.execute(new Dispatcher());
+                }
+            }
+        }
+    }
+
+    /**
+     * Queued task. Ordered by estimated cost (unknown cost last), then by
+     * the order of submission.
+     */
+    private static class Task<T>
+        extends FutureTask<T>
+        implements Comparable<Task<?>>
+    {
+        private final Request request;
+        private final long sequence;
+        private final long enqueueTimeMillis = System.currentTimeMillis();
+
+        Task(Request request, Callable<T> callable, long sequence) {
+            super(callable);
+            this.request = request;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Task<?> o) {
+            final long cost0 =
+                request.estimatedCost < 0
+                    ? Long.MAX_VALUE
+                    : request.estimatedCost;
+            final long cost1 =
+                o.request.estimatedCost < 0
+                    ? Long.MAX_VALUE
+                    : o.request.estimatedCost;
+            if (cost0 != cost1) {
+                return cost0 < cost1 ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : sequence == o.sequence ? 0 : 1;
+        }
+    }
+}
+
+// End FairSqlScheduler.java
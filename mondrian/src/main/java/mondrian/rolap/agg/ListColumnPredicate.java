@@ -337,10 +337,31 @@ public class ListColumnPredicate extends AbstractColumnPredicate {
                 firstNotNull = predicate2;
             }
             ++notNullCount;
-            sqlQuery.getDialect().quote(buf, key, column.getDatatype());
+            sqlQuery.quote(buf, key, column.getDatatype());
         }
         buf.append(')');
 
+        // If the query binds its values as parameters, bind the list as one
+        // array if the dialect can, so that the SQL does not depend on the
+        // number of values; for example, "x = ANY (?)".
+        if (notNullCount > 1 && sqlQuery.isParameterized()) {
+            final List<Object> values = new ArrayList<Object>();
+            for (StarColumnPredicate predicate1 : predicates) {
+                final Object key =
+                    ((ValueColumnPredicate) predicate1).getValue();
+                if (key != RolapUtil.sqlNullValue) {
+                    values.add(key);
+                }
+            }
+            final StringBuilder arrayBuf = new StringBuilder();
+            if (sqlQuery.quoteArray(
+                    arrayBuf, expr, values, column.getDatatype()))
+            {
+                buf.setLength(marker);
+                buf.append(arrayBuf);
+            }
+        }
+
         // If all of the predicates were non-null, return what we've got, for
         // example, "x in (1, 2, 3)".
         if (notNullCount >= predicates.size()) {
@@ -366,7 +387,7 @@ public class ListColumnPredicate extends AbstractColumnPredicate {
             buf.append('(');
             buf.append(expr);
             buf.append(" = ");
-            sqlQuery.getDialect().quote(
+            sqlQuery.quote(
                 buf,
                 firstNotNull.getValue(),
                 column.getDatatype());
@@ -377,7 +398,7 @@ public class ListColumnPredicate extends AbstractColumnPredicate {
 
         default:
             // Nulls and values, for example,
-            // "(x in (1, 2) or x IS NULL)".
+            // "(x in (1, 2) or x IS NULL)" or "(x = ANY (?) or x IS NULL)".
             String save = buf.substring(marker);
             buf.setLength(marker); // backtrack
             buf.append('(');
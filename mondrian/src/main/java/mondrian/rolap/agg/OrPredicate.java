@@ -13,6 +13,7 @@
 
 package mondrian.rolap.agg;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.rolap.*;
 import mondrian.rolap.sql.SqlQuery;
 
@@ -175,10 +176,11 @@ public class OrPredicate extends ListPredicate {
         }
 
         // First add the column names;
+        final StringBuilder lhs = new StringBuilder();
         boolean multiInList = inListRhsBitKey.toBitSet().cardinality() > 1;
         if (multiInList) {
             // Multi-IN list
-            buf.append("(");
+            lhs.append("(");
         }
 
         boolean firstColumn = true;
@@ -186,35 +188,71 @@ public class OrPredicate extends ListPredicate {
             if (firstColumn) {
                 firstColumn = false;
             } else {
-                buf.append(", ");
+                lhs.append(", ");
             }
             String expr = columnMap.get(colPos).generateExprString(sqlQuery);
-            buf.append(expr);
+            lhs.append(expr);
         }
         if (multiInList) {
             // Multi-IN list
-            buf.append(")");
+            lhs.append(")");
         }
-        buf.append(" in (");
 
-        boolean firstPredicate = true;
-        for (StarPredicate predicate : predicateList) {
-            if (firstPredicate) {
-                firstPredicate = false;
-            } else {
-                buf.append(", ");
+        // If the list is too long for the DBMS, split it into several IN
+        // lists joined by OR.
+        final int chunkSize = getInListSize(sqlQuery);
+        final boolean chunked = predicateList.size() > chunkSize;
+        if (chunked) {
+            buf.append("(");
+        }
+        for (int i = 0; i < predicateList.size(); i += chunkSize) {
+            if (i > 0) {
+                buf.append(" or ");
             }
+            buf.append(lhs);
+            buf.append(" in (");
 
-            if (predicate instanceof AndPredicate) {
-                ((AndPredicate) predicate).toInListSql(
-                    sqlQuery, buf, inListRhsBitKey);
-            } else {
-                assert predicate instanceof ValueColumnPredicate;
-                ((ValueColumnPredicate) predicate).toInListSql(sqlQuery, buf);
+            boolean firstPredicate = true;
+            for (StarPredicate predicate
+                : predicateList.subList(
+                    i, Math.min(predicateList.size(), i + chunkSize)))
+            {
+                if (firstPredicate) {
+                    firstPredicate = false;
+                } else {
+                    buf.append(", ");
+                }
+
+                if (predicate instanceof AndPredicate) {
+                    ((AndPredicate) predicate).toInListSql(
+                        sqlQuery, buf, inListRhsBitKey);
+                } else {
+                    assert predicate instanceof ValueColumnPredicate;
+                    ((ValueColumnPredicate) predicate).toInListSql(
+                        sqlQuery, buf);
+                }
             }
+            buf.append(")");
+        }
+        if (chunked) {
+            buf.append(")");
         }
         buf.append(")");
-        buf.append(")");
+    }
+
+    /**
+     * Returns the maximum number of values in an IN list: the value of
+     * {@link MondrianProperties#MaxConstraints} if large aggregate sets are
+     * enabled and the DBMS limits the size of IN lists, otherwise unlimited.
+     */
+    private static int getInListSize(SqlQuery sqlQuery) {
+        final MondrianProperties properties = MondrianProperties.instance();
+        if (properties.LargeAggregateSets.get()
+            && !sqlQuery.getDialect().supportsUnlimitedValueList())
+        {
+            return Math.max(1, properties.MaxConstraints.get());
+        }
+        return Integer.MAX_VALUE;
     }
 
     public void toSql(SqlQuery sqlQuery, StringBuilder buf) {
@@ -257,6 +257,9 @@ public class Segment {
   }
 
   SegmentDataset createDataset( SegmentAxis[] axes, boolean sparse, SqlStatement.Type type, int size ) {
+    if ( measure.getAggregator().isSketch() ) {
+      return new SketchSegmentDataset();
+    }
     if ( sparse ) {
       return new SparseSegmentDataset();
     } else {
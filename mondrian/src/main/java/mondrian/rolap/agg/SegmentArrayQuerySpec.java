@@ -13,6 +13,7 @@
 
 package mondrian.rolap.agg;
 
+import mondrian.olap.MondrianProperties;
 import mondrian.rolap.*;
 import mondrian.rolap.sql.SqlQuery;
 
@@ -83,6 +84,14 @@ class SegmentArrayQuerySpec extends AbstractQuerySpec {
         return true;
     }
 
+    @Override
+    protected SqlQuery newSqlQuery() {
+        final SqlQuery sqlQuery = super.newSqlQuery();
+        sqlQuery.setParameterized(
+            MondrianProperties.instance().GenerateParameterizedSql.get());
+        return sqlQuery;
+    }
+
     public int getMeasureCount() {
         return segments.size();
     }
@@ -30,6 +30,7 @@ import org.olap4j.impl.UnmodifiableArrayList;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.Function;
 
 /**
  * Helper class that contains methods to convert between
@@ -389,24 +390,255 @@ public class SegmentBuilder {
         // Build the axis list.
         final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
             new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
-        BigInteger bigValueCount = BigInteger.ONE;
         for (AxisInfo axis : axes) {
             axisList.add(Pair.of(axis.valueSet, axis.hasNull));
-            int size = axis.values.length;
+        }
+        final SegmentBody body =
+            toBody(
+                cellValues,
+                axisList,
+                rollupAggregator instanceof RolapAggregator
+                    && ((RolapAggregator) rollupAggregator).isSketch(),
+                datatype,
+                values -> rollupAggregator.aggregate(values, datatype));
+
+        // Create header.
+        final List<SegmentColumn> constrainedColumns =
+            new ArrayList<SegmentColumn>();
+        for (int i = 0; i < axes.size(); i++) {
+            AxisInfo axisInfo = axes.get(i);
+
+            constrainedColumns.add(
+                new SegmentColumn(
+                    axisInfo.column.getColumnExpression(),
+                    axisInfo.column.getValueCount(),
+                    axisInfo.lostPredicate
+                        ? axisList.get(i).left
+                        : axisInfo.column.values));
+        }
+        final SegmentHeader header =
+            new SegmentHeader(
+                firstHeader.schemaName,
+                firstHeader.schemaChecksum,
+                firstHeader.cubeName,
+                firstHeader.measureName,
+                constrainedColumns,
+                firstHeader.compoundPredicates,
+                firstHeader.rolapStarFactTableName,
+                targetBitkey,
+                Collections.<SegmentColumn>emptyList());
+        if (LOGGER.isDebugEnabled()) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("SegmentBuilder.rollup: done rolling up segments with parameters: \n");
+            builder.append("keepColumns=" + keepColumns + "\n");
+            builder.append("aggregator=" + rollupAggregator + "\n");
+            builder.append("datatype=" + datatype + "\n");
+            for (Map.Entry<SegmentHeader, SegmentBody > segment : segments) {
+                builder.append(segment.getKey() + "\n");
+            }
+            if (LOGGER.isTraceEnabled()) {
+              builder.append("AxisInfos constructed:");
+              for (AxisInfo axis : axes) {
+                  SortedSet<Comparable> colVals = axis.column.getValues();
+                  builder.append(
+                      String.format(
+                          "column.columnExpression=%s\n"
+                          + "column.valueCount=%s\n"
+                          + "column.values=%s\n"
+                          + "requestedValues=%s\n"
+                          + "valueSet=%s\n"
+                          + "values=%s\n"
+                          + "hasNull=%b\n"
+                          + "src=%d\n"
+                          + "lostPredicate=%b\n",
+                          axis.column.columnExpression,
+                          axis.column.getValueCount(),
+                          Arrays.toString(
+                              colVals == null ? null
+                              : colVals.toArray()),
+                          axis.requestedValues,
+                          axis.valueSet,
+                          Arrays.asList(axis.values),
+                          axis.hasNull,
+                          axis.src,
+                          axis.lostPredicate));
+              }
+            }
+            builder.append("Resulted in Segment:  \n");
+            builder.append(header);
+            if (LOGGER.isTraceEnabled()) {
+              builder.append(body.toString());
+            }
+            builder.append(", " + (System.currentTimeMillis() - startTime) + " ms \n");
+            LOGGER.debug(builder.toString());
+        }
+        return Pair.of(header, body);
+    }
+
+    /**
+     * Replaces the cells of a segment that lie in its excluded region with
+     * cells freshly loaded for that region, and returns a header and body
+     * that have no excluded region.
+     *
+     * <p>The header must have exactly one excluded region, on a column
+     * that is not a wildcard. The slice must have the same dimensionality as
+     * the header, and must have been loaded for the region's values of that
+     * column and the header's values of the others.
+     *
+     * @param header Header with one excluded region
+     * @param body Body of the segment, which still holds the excluded cells
+     * @param sliceBody Body of the slice loaded for the excluded region
+     * @param datatype Data type of the measure
+     * @param sketch Whether the measure is a sketch, whose body is sparse
+     * @return Header and body of the patched segment
+     */
+    public static Pair<SegmentHeader, SegmentBody> patch(
+        SegmentHeader header,
+        SegmentBody body,
+        SegmentBody sliceBody,
+        Datatype datatype,
+        boolean sketch)
+    {
+        assert header.getExcludedRegions().size() == 1;
+        final SegmentColumn region = header.getExcludedRegions().get(0);
+        final List<SegmentColumn> columns = header.getConstrainedColumns();
+        int excludedAxis = -1;
+        final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int i = 0; i < columns.size(); i++) {
+            final SortedSet<Comparable> values =
+                new TreeSet<Comparable>(body.getAxisValueSets()[i]);
+            if (columns.get(i).columnExpression.equals(
+                    region.columnExpression))
+            {
+                // Values that are no longer in the data must go.
+                excludedAxis = i;
+                values.removeAll(region.values);
+            }
+            values.addAll(sliceBody.getAxisValueSets()[i]);
+            axisList.add(
+                Pair.of(
+                    values,
+                    body.getNullAxisFlags()[i]
+                        || sliceBody.getNullAxisFlags()[i]));
+        }
+        assert excludedAxis >= 0;
+
+        final Map<CellKey, List<Object>> cellValues =
+            new HashMap<CellKey, List<Object>>();
+        addCells(cellValues, body, axisList, excludedAxis, region.values);
+        addCells(cellValues, sliceBody, axisList, -1, null);
+
+        final SegmentHeader newHeader =
+            new SegmentHeader(
+                header.schemaName,
+                header.schemaChecksum,
+                header.cubeName,
+                header.measureName,
+                columns,
+                header.compoundPredicates,
+                header.rolapStarFactTableName,
+                header.getConstrainedColumnsBitKey(),
+                Collections.<SegmentColumn>emptyList());
+        // The slice's value wins if a cell somehow occurs in both.
+        final SegmentBody newBody =
+            toBody(
+                cellValues,
+                axisList,
+                sketch,
+                datatype,
+                values -> values.get(values.size() - 1));
+        return Pair.of(newHeader, newBody);
+    }
+
+    /**
+     * Adds the cells of a segment body to a map, translating their
+     * coordinates to a new set of axes, and skipping cells whose value on
+     * a given axis is in a given set.
+     */
+    private static void addCells(
+        Map<CellKey, List<Object>> cellValues,
+        SegmentBody body,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        int excludedAxis,
+        Set<Comparable> excludedValues)
+    {
+        final int arity = axisList.size();
+        final Comparable[][] sourceValues = new Comparable[arity][];
+        final Comparable[][] targetValues = new Comparable[arity][];
+        for (int i = 0; i < arity; i++) {
+            final SortedSet<Comparable> source = body.getAxisValueSets()[i];
+            sourceValues[i] = source.toArray(new Comparable[source.size()]);
+            final SortedSet<Comparable> target = axisList.get(i).left;
+            targetValues[i] = target.toArray(new Comparable[target.size()]);
+        }
+        entryLoop:
+        for (Map.Entry<CellKey, Object> entry : body.getValueMap().entrySet()) {
+            final int[] ordinals = entry.getKey().getOrdinals();
+            final int[] pos = new int[arity];
+            for (int i = 0; i < arity; i++) {
+                if (ordinals[i] == sourceValues[i].length) {
+                    // The null value follows the others.
+                    pos[i] = targetValues[i].length;
+                    continue;
+                }
+                final Comparable value = sourceValues[i][ordinals[i]];
+                if (i == excludedAxis && excludedValues.contains(value)) {
+                    continue entryLoop;
+                }
+                pos[i] =
+                    Util.binarySearch(
+                        targetValues[i], 0, targetValues[i].length, value);
+                assert pos[i] >= 0;
+            }
+            final CellKey key = CellKey.Generator.newCellKey(pos);
+            List<Object> list = cellValues.get(key);
+            if (list == null) {
+                list = new ArrayList<Object>(1);
+                cellValues.put(key, list);
+            }
+            list.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Creates a segment body, dense or sparse as the number of cells
+     * requires, from the values of each cell.
+     *
+     * @param cellValues Values of each cell
+     * @param axisList Values of each axis, and whether it contains null
+     * @param alwaysSparse Whether to create a sparse body regardless of
+     *   density
+     * @param datatype Data type of the values
+     * @param aggregate Combines the values of a cell into one
+     * @return Segment body
+     */
+    private static SegmentBody toBody(
+        Map<CellKey, List<Object>> cellValues,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        boolean alwaysSparse,
+        Datatype datatype,
+        Function<List<Object>, Object> aggregate)
+    {
+        BigInteger bigValueCount = BigInteger.ONE;
+        for (Pair<SortedSet<Comparable>, Boolean> axis : axisList) {
+            final int size = axis.left.size();
             bigValueCount = bigValueCount.multiply(
-                BigInteger.valueOf(axis.hasNull ? size + 1 : size));
+                BigInteger.valueOf(axis.right ? size + 1 : size));
         }
 
         // The logic used here for the sparse check follows
         // SegmentLoader.setAxisDataAndDecideSparseUse.
         // The two methods use different data structures (AxisInfo/SegmentAxis)
         // so combining logic is probably more trouble than it's worth.
+        // Sketches are always sparse, like SketchSegmentDataset.
         final boolean sparse =
             bigValueCount.compareTo
                 (BigInteger.valueOf(Integer.MAX_VALUE)) > 0
                 || SegmentLoader.useSparse(
                     bigValueCount.doubleValue(),
-                    cellValues.size());
+                    cellValues.size())
+                || alwaysSparse;
         final int[] axisMultipliers =
             computeAxisMultipliers(axisList);
 
@@ -429,9 +661,7 @@ public class SegmentBuilder {
             {
                 data.put(
                     CellKey.Generator.newCellKey(entry.getKey().getOrdinals()),
-                    rollupAggregator.aggregate(
-                        entry.getValue(),
-                        datatype));
+                    aggregate.apply(entry.getValue()));
             }
             body =
                 new SparseSegmentBody(
@@ -451,9 +681,7 @@ public class SegmentBuilder {
                         CellKey.Generator.getOffset(
                             entry.getKey().getOrdinals(), axisMultipliers);
                     final Object value =
-                        rollupAggregator.aggregate(
-                            entry.getValue(),
-                            datatype);
+                        aggregate.apply(entry.getValue());
                     if (value != null) {
                         ints[offset] = (Integer) value;
                         nullValues.clear(offset);
@@ -475,9 +703,7 @@ public class SegmentBuilder {
                         CellKey.Generator.getOffset(
                             entry.getKey().getOrdinals(), axisMultipliers);
                     final Object value =
-                        rollupAggregator.aggregate(
-                            entry.getValue(),
-                            datatype);
+                        aggregate.apply(entry.getValue());
                     if (value != null) {
                         doubles[offset] = (Double) value;
                         nullValues.clear(offset);
@@ -498,9 +724,7 @@ public class SegmentBuilder {
                         CellKey.Generator.getOffset(
                             entry.getKey().getOrdinals(), axisMultipliers);
                     objects[offset] =
-                        rollupAggregator.aggregate(
-                            entry.getValue(),
-                            datatype);
+                        aggregate.apply(entry.getValue());
                 }
                 body =
                     new DenseObjectSegmentBody(
@@ -508,78 +732,7 @@ public class SegmentBuilder {
                         axisList);
             }
         }
-
-        // Create header.
-        final List<SegmentColumn> constrainedColumns =
-            new ArrayList<SegmentColumn>();
-        for (int i = 0; i < axes.size(); i++) {
-            AxisInfo axisInfo = axes.get(i);
-
-            constrainedColumns.add(
-                new SegmentColumn(
-                    axisInfo.column.getColumnExpression(),
-                    axisInfo.column.getValueCount(),
-                    axisInfo.lostPredicate
-                        ? axisList.get(i).left
-                        : axisInfo.column.values));
-        }
-        final SegmentHeader header =
-            new SegmentHeader(
-                firstHeader.schemaName,
-                firstHeader.schemaChecksum,
-                firstHeader.cubeName,
-                firstHeader.measureName,
-                constrainedColumns,
-                firstHeader.compoundPredicates,
-                firstHeader.rolapStarFactTableName,
-                targetBitkey,
-                Collections.<SegmentColumn>emptyList());
-        if (LOGGER.isDebugEnabled()) {
-            StringBuilder builder = new StringBuilder();
-            builder.append("SegmentBuilder.rollup: done rolling up segments with parameters: \n");
-            builder.append("keepColumns=" + keepColumns + "\n");
-            builder.append("aggregator=" + rollupAggregator + "\n");
-            builder.append("datatype=" + datatype + "\n");
-            for (Map.Entry<SegmentHeader, SegmentBody > segment : segments) {
-                builder.append(segment.getKey() + "\n");
-            }
-            if (LOGGER.isTraceEnabled()) {
-              builder.append("AxisInfos constructed:");
-              for (AxisInfo axis : axes) {
-                  SortedSet<Comparable> colVals = axis.column.getValues();
-                  builder.append(
-                      String.format(
-                          "column.columnExpression=%s\n"
-                          + "column.valueCount=%s\n"
-                          + "column.values=%s\n"
-                          + "requestedValues=%s\n"
-                          + "valueSet=%s\n"
-                          + "values=%s\n"
-                          + "hasNull=%b\n"
-                          + "src=%d\n"
-                          + "lostPredicate=%b\n",
-                          axis.column.columnExpression,
-                          axis.column.getValueCount(),
-                          Arrays.toString(
-                              colVals == null ? null
-                              : colVals.toArray()),
-                          axis.requestedValues,
-                          axis.valueSet,
-                          Arrays.asList(axis.values),
-                          axis.hasNull,
-                          axis.src,
-                          axis.lostPredicate));
-              }
-            }
-            builder.append("Resulted in Segment:  \n");
-            builder.append(header);
-            if (LOGGER.isTraceEnabled()) {
-              builder.append(body.toString());
-            }
-            builder.append(", " + (System.currentTimeMillis() - startTime) + " ms \n");
-            LOGGER.debug(builder.toString());
-        }
-        return Pair.of(header, body);
+        return body;
     }
 
     private static boolean allHeadersHaveSameDimensionality(
@@ -779,7 +932,7 @@ public class SegmentBuilder {
             Collections.<SegmentColumn>emptyList());
     }
 
-    private static RolapStar.Column[] getConstrainedColumns(
+    static RolapStar.Column[] getConstrainedColumns(
         RolapStar star,
         BitKey bitKey)
     {
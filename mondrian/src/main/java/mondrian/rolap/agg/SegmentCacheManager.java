@@ -39,6 +39,7 @@ import mondrian.spi.SegmentColumn;
 import mondrian.spi.SegmentHeader;
 
 import mondrian.util.BlockingHashMap;
+import mondrian.util.ClassResolver;
 import mondrian.util.MDCUtil;
 import mondrian.util.Pair;
 
@@ -269,26 +270,12 @@ public class SegmentCacheManager {
       } );
 
   /**
-   * Executor with which to execute SQL requests.
+   * Scheduler with which to execute SQL requests.
    *
-   * <p>TODO: create using factory and/or configuration parameters. Executor
-   * should be shared within MondrianServer or target JDBC database.
+   * <p>TODO: Scheduler should be shared within MondrianServer or target JDBC
+   * database.
    */
-  public final ExecutorService sqlExecutor =
-    Util.getExecutorService(
-      // We use the same value for coreSize and maxSize
-      // because that's the behavior we want. All extra
-      // tasks will be put on an unbounded queue.
-      MondrianProperties.instance()
-        .SegmentCacheManagerNumberSqlThreads.get(),
-      MondrianProperties.instance()
-        .SegmentCacheManagerNumberSqlThreads.get(),
-      1,
-      "mondrian.rolap.agg.SegmentCacheManager$sqlExecutor",
-      ( r, executor ) -> {
-        throw MondrianResource.instance()
-          .SqlQueryLimitReached.ex();
-      } );
+  public final SqlScheduler sqlScheduler = createSqlScheduler();
 
   // NOTE: This list is only mutable for testing purposes. Would rather it
   // were immutable.
@@ -533,7 +520,26 @@ public class SegmentCacheManager {
   public void shutdown() {
     execute( new ShutdownCommand() );
     cacheExecutor.shutdown();
-    sqlExecutor.shutdown();
+    sqlScheduler.shutdown();
+  }
+
+  /**
+   * Creates the SQL scheduler, as specified by the
+   * {@link MondrianProperties#SqlScheduler} property.
+   *
+   * @return SQL scheduler
+   */
+  private static SqlScheduler createSqlScheduler() {
+    final String className =
+      MondrianProperties.instance().SqlScheduler.get();
+    if ( className == null || className.equals( "" ) ) {
+      return new FairSqlScheduler();
+    }
+    try {
+      return ClassResolver.INSTANCE.instantiateSafe( className );
+    } catch ( Exception e ) {
+      throw Util.newError( e, "Cannot create SQL scheduler " + className );
+    }
   }
 
   public SegmentBuilder.SegmentConverter getConverter(
@@ -789,6 +795,7 @@ public class SegmentCacheManager {
       final List<Member> measures = CacheControlImpl.findMeasures( region );
       final SegmentColumn[] flushRegion = CacheControlImpl.findAxisValues( region );
       final List<RolapStar> starList = CacheControlImpl.getStarList( region );
+      ColumnarFactTable.flush( starList, flushRegion );
 
       final List<SegmentHeader> headers = getIntersectingHeaders( measures, flushRegion );
 
@@ -811,6 +818,8 @@ public class SegmentCacheManager {
       // empty, we should trash it completely.
       final List<Callable<Boolean>> callableList =
         new ArrayList<>();
+      final List<Runnable> refreshList = new ArrayList<>();
+      final boolean refresh = MondrianProperties.instance().RefreshFlushedSegments.get();
       for ( final SegmentHeader header : headers ) {
         if ( !header.canConstrain( flushRegion ) ) {
           // We have to delete that segment altogether.
@@ -834,8 +843,18 @@ public class SegmentCacheManager {
         }
         // Update all of the cache workers.
         clearCacheWorkers( callableList, header, newHeader );
+
+        // Reload the excluded cells once the cache workers are updated.
+        if ( refresh && SegmentRefresher.canRefresh( newHeader ) ) {
+          for ( final RolapStar star : starList ) {
+            if ( star.getFactTable().getAlias().equals( newHeader.rolapStarFactTableName ) ) {
+              refreshList.add( () -> SegmentRefresher.refresh( cacheMgr, star, newHeader ) );
+              break;
+            }
+          }
+        }
       }
-      return new FlushResult( callableList );
+      return new FlushResult( callableList, refreshList );
     }
 
     private void clearCacheWorkers( List<Callable<Boolean>> callableList, SegmentHeader header,
@@ -967,8 +986,19 @@ public class SegmentCacheManager {
   public static class FlushResult {
     public final List<Callable<Boolean>> tasks;
 
+    /**
+     * Actions to run after the tasks have completed; each starts the background refresh of a segment that was
+     * constrained.
+     */
+    public final List<Runnable> refreshes;
+
     public FlushResult( List<Callable<Boolean>> tasks ) {
+      this( tasks, Collections.<Runnable>emptyList() );
+    }
+
+    public FlushResult( List<Callable<Boolean>> tasks, List<Runnable> refreshes ) {
       this.tasks = tasks;
+      this.refreshes = refreshes;
     }
   }
 
@@ -18,6 +18,7 @@ import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.SegmentCacheManager.AbortException;
+import mondrian.rolap.aggmatcher.AggAdvisor;
 import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
@@ -25,6 +26,9 @@ import mondrian.server.monitor.SqlStatementEvent;
 import mondrian.spi.*;
 import mondrian.util.*;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.sql.ResultSet;
@@ -54,6 +58,14 @@ import java.util.concurrent.*;
  */
 public class SegmentLoader {
 
+  private static final Logger LOGGER = LogManager.getLogger( SegmentLoader.class );
+
+  /**
+   * Smallest and largest fetch sizes chosen by {@link #getFetchSize(Dialect, int)}.
+   */
+  private static final int MIN_FETCH_SIZE = 500;
+  private static final int MAX_FETCH_SIZE = 10000;
+
   private final SegmentCacheManager cacheMgr;
 
   /**
@@ -114,13 +126,93 @@ public class SegmentLoader {
       }
     }
     try {
-      segmentFutures.add( cacheMgr.sqlExecutor.submit( new SegmentLoadCommand( Locus.peek(), this, cellRequestCount,
-          groupingSets, compoundPredicateList ) ) );
+      final Locus locus = Locus.peek();
+      final SqlScheduler.Request request = makeSchedulerRequest( locus, groupingSets );
+      SegmentWarmer.recordLoad( request, groupingSets, compoundPredicateList );
+      segmentFutures.add( cacheMgr.sqlScheduler.submit( request,
+          new SegmentLoadCommand( locus, this, cellRequestCount, groupingSets, compoundPredicateList ) ) );
     } catch ( Exception e ) {
       throw new MondrianException( e );
     }
   }
 
+  /**
+   * Describes a load to the {@link SqlScheduler}. Statements of the schema's internal connection, and statements
+   * outside any execution, are considered batch work; others are interactive.
+   */
+  static SqlScheduler.Request makeSchedulerRequest( Locus locus, List<GroupingSet> groupingSets ) {
+    final RolapStar star = groupingSets.get( 0 ).getSegments().get( 0 ).getStar();
+    return makeSchedulerRequest( locus, star, estimateCost( groupingSets ) );
+  }
+
+  private static SqlScheduler.Request makeSchedulerRequest( Locus locus, RolapStar star, long estimatedCost ) {
+    final Execution execution = locus.execution;
+    final mondrian.server.Statement statement = execution == null ? null : execution.getMondrianStatement();
+    final SqlScheduler.Priority priority;
+    final Object owner;
+    if ( statement == null ) {
+      priority = SqlScheduler.Priority.BATCH;
+      owner = null;
+    } else {
+      final RolapConnection connection = statement.getMondrianConnection();
+      priority =
+          connection == star.getSchema().getInternalConnection() ? SqlScheduler.Priority.BATCH
+              : SqlScheduler.Priority.INTERACTIVE;
+      owner = connection.getId();
+    }
+    return new SqlScheduler.Request( locus, priority, owner, star.getDataSource(), estimatedCost );
+  }
+
+  /**
+   * Estimates the number of rows a load will return, from the number of values in each column's predicate, or, if the
+   * column is not constrained, from the column cardinality held by the {@link RolapStatisticsCache}. Does not issue
+   * queries; returns -1 if a cardinality is not yet known.
+   */
+  static long estimateCost( List<GroupingSet> groupingSets ) {
+    // The first grouping set is the most detailed; the others roll up from it.
+    final GroupingSet groupingSet = groupingSets.get( 0 );
+    final StarColumnPredicate[] predicates = groupingSet.getPredicates();
+    final RolapStar.Column[] columns = groupingSet.getColumns();
+    long cost = 1;
+    for ( int i = 0; i < columns.length; i++ ) {
+      final StarColumnPredicate predicate = predicates[i];
+      long n;
+      if ( predicate instanceof ValueColumnPredicate ) {
+        n = 1;
+      } else if ( predicate instanceof ListColumnPredicate ) {
+        final List<Object> values = new ArrayList<Object>();
+        predicate.values( values );
+        n = values.size();
+      } else {
+        n = columns[i].getApproxCardinality();
+      }
+      if ( n < 0 ) {
+        return -1;
+      }
+      cost *= Math.max( n, 1 );
+      if ( cost > Integer.MAX_VALUE ) {
+        return Integer.MAX_VALUE;
+      }
+    }
+    return cost * groupingSet.getSegments().size();
+  }
+
+  /**
+   * Estimates the number of rows a <code>UNION ALL</code> statement will return: the sum of the estimates of its
+   * loads. Returns -1 if the estimate of any load is not known.
+   */
+  static long estimateUnionCost( List<Load> loads ) {
+    long cost = 0;
+    for ( Load load : loads ) {
+      final long loadCost = estimateCost( load.groupingSets );
+      if ( loadCost < 0 ) {
+        return -1;
+      }
+      cost = Math.min( cost + loadCost, Integer.MAX_VALUE );
+    }
+    return cost;
+  }
+
   private static class SegmentLoadCommand implements Callable<Map<Segment, SegmentWithData>> {
     private final Locus locus;
     private final SegmentLoader segmentLoader;
@@ -161,27 +253,250 @@ public class SegmentLoader {
       int arity = defaultColumns.length;
       SortedSet<Comparable>[] axisValueSets = getDistinctValueWorkspace( arity );
 
-      stmt = createExecuteSql( cellRequestCount, groupingSetsList, compoundPredicateList );
+      boolean[] axisContainsNull = new boolean[arity];
+
+      // If the fact table is held in memory, compute the rows from it
+      // rather than by executing SQL.
+      final ColumnarFactTable columnar = ColumnarFactTable.forStar( groupingSetsList.getStar() );
+      RowList rows = null;
+      if ( columnar != null && columnar.canLoad( groupingSetsList, compoundPredicateList ) ) {
+        rows = columnar.load( groupingSetsList, compoundPredicateList, axisContainsNull, axisValueSets );
+      }
+      if ( rows == null ) {
+        final long startNanos = System.nanoTime();
+        stmt = createExecuteSql( cellRequestCount, groupingSetsList, compoundPredicateList );
+
+        if ( stmt == null ) {
+          // Nothing to do. We're done here.
+          return segmentMap;
+        }
 
+        rows = processData( stmt, axisContainsNull, axisValueSets, groupingSetsList );
+        AggAdvisor.record( groupingSetsList.getStar(), groupingSetsList.getDefaultLevelBitKey(), groupingSetsList
+            .getDefaultMeasureBitKey(), System.nanoTime() - startNanos );
+      }
+
+      buildSegments( groupingSetsList, rows, axisContainsNull, axisValueSets, segmentMap );
+
+      return segmentMap;
+    } catch ( Throwable e ) {
+      throwable = e;
       if ( stmt == null ) {
-        // Nothing to do. We're done here.
-        return segmentMap;
+        throw new MondrianException( e );
+      }
+      throw stmt.handle( e );
+    } finally {
+      if ( stmt != null ) {
+        stmt.close();
       }
+      setFailOnStillLoadingSegments( segmentMap, groupingSetsList, throwable );
+    }
+  }
 
-      boolean[] axisContainsNull = new boolean[arity];
+  /**
+   * Builds the segments of a grouping sets list from the rows that were loaded for it, and adds them to a map.
+   */
+  private void buildSegments( GroupingSetsList groupingSetsList, RowList rows, boolean[] axisContainsNull,
+      SortedSet<Comparable>[] axisValueSets, Map<Segment, SegmentWithData> segmentMap ) {
+    final int arity = axisValueSets.length;
+    boolean sparse = setAxisDataAndDecideSparseUse( axisValueSets, axisContainsNull, groupingSetsList, rows );
+
+    final Map<BitKey, GroupingSetsList.Cohort> groupingDataSetsMap =
+        createDataSetsForGroupingSets( groupingSetsList, sparse, rows.getTypes().subList( arity, rows.getTypes()
+            .size() ) );
+
+    loadDataToDataSets( groupingSetsList, rows, groupingDataSetsMap );
+
+    setDataToSegments( groupingSetsList, groupingDataSetsMap, segmentMap );
+  }
+
+  /**
+   * Loads the segments of several loads on the same star. Loads that can be answered without SQL are loaded
+   * individually; the others are combined into a single SQL statement, each load's query being a branch of a
+   * <code>UNION ALL</code>.
+   *
+   * <p>
+   * The first column of the statement is the ordinal of the branch that produced the row. Each branch's columns follow,
+   * in order; in a given row, the columns of the other branches are null.
+   *
+   * @param loads
+   *          Loads; all must be on the same star
+   * @param segmentFutures
+   *          List of futures wherein the statement will place the segments it has loaded, when it completes
+   */
+  public void loadUnion( List<Load> loads, List<Future<Map<Segment, SegmentWithData>>> segmentFutures ) {
+    if ( !MondrianProperties.instance().DisableCaching.get() ) {
+      for ( Load load : loads ) {
+        for ( GroupingSet groupingSet : load.groupingSets ) {
+          for ( Segment segment : groupingSet.getSegments() ) {
+            final SegmentCacheIndex index = cacheMgr.getIndexRegistry().getIndex( segment.star );
+            index.add( segment.getHeader(), new SegmentBuilder.StarSegmentConverter( segment.measure,
+                load.compoundPredicateList ), true );
+            // Make sure that we are registered as a client of
+            // the segment by invoking getFuture.
+            Util.discard( index.getFuture( Locus.peek().execution, segment.getHeader() ) );
+          }
+        }
+      }
+    }
+    try {
+      final Locus locus = Locus.peek();
+      final RolapStar star = loads.get( 0 ).groupingSets.get( 0 ).getSegments().get( 0 ).getStar();
+      final SqlScheduler.Request request = makeSchedulerRequest( locus, star, estimateUnionCost( loads ) );
+      for ( Load load : loads ) {
+        SegmentWarmer.recordLoad( request, load.groupingSets, load.compoundPredicateList );
+      }
+      segmentFutures.add( cacheMgr.sqlScheduler.submit( request, new UnionLoadCommand( locus, this, loads ) ) );
+    } catch ( Exception e ) {
+      throw new MondrianException( e );
+    }
+  }
+
+  /**
+   * A load of the segments of a list of grouping sets, which has not yet been started.
+   *
+   * @see mondrian.rolap.GroupingSetsCollector#deferLoads()
+   */
+  public static class Load {
+    final int cellRequestCount;
+    final List<GroupingSet> groupingSets;
+    final List<StarPredicate> compoundPredicateList;
+
+    /**
+     * Creates a Load.
+     *
+     * @param cellRequestCount
+     *          Number of missed cells that led to this request
+     * @param groupingSets
+     *          List of grouping sets whose segments are loaded
+     * @param compoundPredicateList
+     *          Compound predicates
+     */
+    public Load( int cellRequestCount, List<GroupingSet> groupingSets, List<StarPredicate> compoundPredicateList ) {
+      this.cellRequestCount = cellRequestCount;
+      this.groupingSets = groupingSets;
+      this.compoundPredicateList = compoundPredicateList;
+    }
+
+    public int getCellRequestCount() {
+      return cellRequestCount;
+    }
+
+    public List<GroupingSet> getGroupingSets() {
+      return groupingSets;
+    }
+
+    public List<StarPredicate> getCompoundPredicateList() {
+      return compoundPredicateList;
+    }
+
+    public RolapStar getStar() {
+      return groupingSets.get( 0 ).getSegments().get( 0 ).getStar();
+    }
+  }
+
+  private static class UnionLoadCommand implements Callable<Map<Segment, SegmentWithData>> {
+    private final Locus locus;
+    private final SegmentLoader segmentLoader;
+    private final List<Load> loads;
+    private final MDCUtil mdc = new MDCUtil();
+
+    UnionLoadCommand( Locus locus, SegmentLoader segmentLoader, List<Load> loads ) {
+      this.locus = locus;
+      this.segmentLoader = segmentLoader;
+      this.loads = loads;
+    }
+
+    public Map<Segment, SegmentWithData> call() throws Exception {
+      mdc.setContextMap();
+      Locus.push( locus );
+      try {
+        return segmentLoader.loadUnionImpl( loads );
+      } finally {
+        Locus.pop( locus );
+      }
+    }
+  }
+
+  /**
+   * A load that is one branch of a <code>UNION ALL</code> statement.
+   */
+  private static class Branch {
+    final Load load;
+    final GroupingSetsList groupingSetsList;
+    final boolean[] axisContainsNull;
+    final SortedSet<Comparable>[] axisValueSets;
+    int offset;
+    int rowCount;
+    RowList rows;
+    boolean[] numeric;
+
+    Branch( Load load, GroupingSetsList groupingSetsList, SortedSet<Comparable>[] axisValueSets ) {
+      this.load = load;
+      this.groupingSetsList = groupingSetsList;
+      this.axisValueSets = axisValueSets;
+      this.axisContainsNull = new boolean[axisValueSets.length];
+    }
+  }
 
-      RowList rows = processData( stmt, axisContainsNull, axisValueSets, groupingSetsList );
+  private Map<Segment, SegmentWithData> loadUnionImpl( List<Load> loads ) {
+    final Map<Segment, SegmentWithData> segmentMap = new HashMap<Segment, SegmentWithData>();
 
-      boolean sparse = setAxisDataAndDecideSparseUse( axisValueSets, axisContainsNull, groupingSetsList, rows );
+    // Loads that the in-memory copy of the fact table can answer do not
+    // need to be part of the statement.
+    final List<Branch> branches = new ArrayList<Branch>();
+    final ColumnarFactTable columnar = ColumnarFactTable.forStar( loads.get( 0 ).getStar() );
+    for ( Load load : loads ) {
+      final GroupingSetsList groupingSetsList = new GroupingSetsList( load.groupingSets );
+      if ( columnar != null && columnar.canLoad( groupingSetsList, load.compoundPredicateList ) ) {
+        segmentMap.putAll( loadImpl( load.cellRequestCount, load.groupingSets, load.compoundPredicateList ) );
+      } else {
+        branches.add( new Branch( load, groupingSetsList, getDistinctValueWorkspace( groupingSetsList
+            .getDefaultColumns().length ) ) );
+      }
+    }
+    if ( branches.size() <= 1 ) {
+      for ( Branch branch : branches ) {
+        segmentMap.putAll( loadImpl( branch.load.cellRequestCount, branch.load.groupingSets,
+            branch.load.compoundPredicateList ) );
+      }
+      return segmentMap;
+    }
 
-      final Map<BitKey, GroupingSetsList.Cohort> groupingDataSetsMap =
-          createDataSetsForGroupingSets( groupingSetsList, sparse, rows.getTypes().subList( arity, rows.getTypes()
-              .size() ) );
+    SqlStatement stmt = null;
+    Throwable throwable = null;
+    try {
+      final long startNanos = System.nanoTime();
+      stmt = createExecuteUnionSql( branches );
+      if ( stmt == null ) {
+        // Nothing to do. We're done here.
+        return segmentMap;
+      }
 
-      loadDataToDataSets( groupingSetsList, rows, groupingDataSetsMap );
+      final List<SqlStatement.Type> types = stmt.guessTypes();
+      for ( Branch branch : branches ) {
+        branch.rows = createRowList( types, branch.offset, branch.axisValueSets.length, branch.groupingSetsList );
+        branch.numeric = numericMeasures( branch.groupingSetsList );
+      }
+      final ResultSet rawRows = stmt.getResultSet();
+      final Execution execution = Locus.peek().execution;
+      while ( rawRows.next() ) {
+        // Check if the MDX query was canceled.
+        CancellationChecker.checkCancelOrTimeout( ++stmt.rowCount, execution );
 
-      setDataToSegments( groupingSetsList, groupingDataSetsMap, segmentMap );
+        final Branch branch = branches.get( rawRows.getInt( 1 ) );
+        checkResultLimit( ++branch.rowCount );
+        processRow( rawRows, types, branch.offset, branch.rows, branch.axisContainsNull, branch.axisValueSets,
+            branch.groupingSetsList, branch.numeric );
+      }
+      final long nanos = System.nanoTime() - startNanos;
 
+      for ( Branch branch : branches ) {
+        AggAdvisor.record( branch.groupingSetsList.getStar(), branch.groupingSetsList.getDefaultLevelBitKey(),
+            branch.groupingSetsList.getDefaultMeasureBitKey(), nanos / branches.size() );
+        buildSegments( branch.groupingSetsList, branch.rows, branch.axisContainsNull, branch.axisValueSets,
+            segmentMap );
+      }
       return segmentMap;
     } catch ( Throwable e ) {
       throwable = e;
@@ -193,8 +508,64 @@ public class SegmentLoader {
       if ( stmt != null ) {
         stmt.close();
       }
-      setFailOnStillLoadingSegments( segmentMap, groupingSetsList, throwable );
+      for ( Branch branch : branches ) {
+        setFailOnStillLoadingSegments( segmentMap, branch.groupingSetsList, throwable );
+      }
+    }
+  }
+
+  /**
+   * Creates and executes a <code>UNION ALL</code> statement that retrieves the cells of several loads, and sets the
+   * offset of each branch's columns.
+   *
+   * @param branches
+   *          Branches
+   * @return An executed SQL statement, or null
+   */
+  private SqlStatement createExecuteUnionSql( List<Branch> branches ) {
+    final RolapStar star = branches.get( 0 ).groupingSetsList.getStar();
+    final Dialect dialect = star.getSqlQueryDialect();
+    final List<Pair<String, List<SqlStatement.Type>>> pairs = new ArrayList<Pair<String, List<SqlStatement.Type>>>();
+    final List<SqlStatement.Type> types = new ArrayList<SqlStatement.Type>();
+    types.add( SqlStatement.Type.INT );
+    final List<Segment> segments = new ArrayList<Segment>();
+    int cellRequestCount = 0;
+    for ( Branch branch : branches ) {
+      final Pair<String, List<SqlStatement.Type>> pair =
+          AggregationManager.generateSql( branch.groupingSetsList, branch.load.compoundPredicateList );
+      pairs.add( pair );
+      branch.offset = types.size();
+      types.addAll( pair.right );
+      segments.addAll( branch.groupingSetsList.getDefaultSegments() );
+      cellRequestCount += branch.load.cellRequestCount;
     }
+
+    final StringBuilder buf = new StringBuilder();
+    for ( int i = 0; i < branches.size(); i++ ) {
+      final Branch branch = branches.get( i );
+      final int width = pairs.get( i ).right.size();
+      if ( i > 0 ) {
+        buf.append( Util.nl ).append( "union all" ).append( Util.nl );
+      }
+      buf.append( "select " ).append( i );
+      if ( i == 0 ) {
+        buf.append( dialect.allowsAs() ? " as " : " " );
+        dialect.quoteIdentifier( buf, "branch" );
+      }
+      for ( int k = 1; k < branch.offset; k++ ) {
+        buf.append( ", null" );
+      }
+      buf.append( ", " );
+      dialect.quoteIdentifier( buf, "u" + i );
+      buf.append( ".*" );
+      for ( int k = branch.offset + width; k < types.size(); k++ ) {
+        buf.append( ", null" );
+      }
+      buf.append( " from (" ).append( pairs.get( i ).left ).append( ")" );
+      buf.append( dialect.allowsAs() ? " as " : " " );
+      dialect.quoteIdentifier( buf, "u" + i );
+    }
+    return executeSql( star, buf.toString(), types, cellRequestCount, segments );
   }
 
   /**
@@ -433,19 +804,30 @@ public class SegmentLoader {
     RolapStar star = groupingSetsList.getStar();
     Pair<String, List<SqlStatement.Type>> pair =
         AggregationManager.generateSql( groupingSetsList, compoundPredicateList );
+    return executeSql( star, pair.left, pair.right, cellRequestCount, groupingSetsList.getDefaultSegments() );
+  }
+
+  /**
+   * Executes a SQL statement that retrieves the cells of some segments, and links the statement to the segments so
+   * that it is canceled if they are no longer needed.
+   */
+  private SqlStatement executeSql( RolapStar star, String sql, List<SqlStatement.Type> types, int cellRequestCount,
+      final List<Segment> segments ) {
     final Locus locus =
         new SqlStatement.StatementLocus( Locus.peek().execution, "Segment.load", "Error while loading segment",
             SqlStatementEvent.Purpose.CELL_SEGMENT, cellRequestCount );
+    final int fetchSize = getFetchSize( star.getSqlQueryDialect(), cellRequestCount );
 
     // When caching is enabled, we must register the SQL statement
     // in the index. We don't want to cancel SQL statements that are shared
     // across threads unless it is safe.
     final Util.Functor1<Void, Statement> callbackWithCaching = new Util.Functor1<Void, Statement>() {
       public Void apply( final Statement stmt ) {
+        setFetchSize( stmt, fetchSize );
         cacheMgr.execute( new SegmentCacheManager.Command<Void>() {
           public Void call() throws Exception {
             boolean atLeastOneActive = false;
-            for ( Segment seg : groupingSetsList.getDefaultSegments() ) {
+            for ( Segment seg : segments ) {
               final SegmentCacheIndex index = cacheMgr.getIndexRegistry().getIndex( seg.star );
               // Make sure to check if the segment still
               // exists in the index. It could have been
@@ -477,13 +859,14 @@ public class SegmentLoader {
     // with the execution instance for cleanup.
     final Util.Functor1<Void, Statement> callbackNoCaching = new Util.Functor1<Void, Statement>() {
       public Void apply( final Statement stmt ) {
+        setFetchSize( stmt, fetchSize );
         locus.execution.registerStatement( locus, stmt );
         return null;
       }
     };
 
     try {
-      return RolapUtil.executeQuery( star.getDataSource(), pair.left, pair.right, 0, 0, locus, -1, -1,
+      return RolapUtil.executeQuery( star.getDataSource(), sql, types, 0, 0, locus, -1, -1,
           // Only one of the two callbacks are required, depending if we
           // cache the segments or not.
           MondrianProperties.instance().DisableCaching.get() ? callbackNoCaching : callbackWithCaching );
@@ -496,27 +879,56 @@ public class SegmentLoader {
     }
   }
 
+  /**
+   * Returns how many rows the JDBC driver should fetch per round trip when loading segments, or 0 to leave the
+   * driver's default.
+   *
+   * <p>
+   * If {@link MondrianProperties#SegmentFetchSize} is positive, it is used. If it is zero, the size is derived from
+   * the number of cells requested: large enough that big segments do not take thousands of round trips (Oracle's
+   * driver fetches 10 rows at a time by default), small enough not to buffer much more than the segment. MySQL and
+   * MariaDB drivers read the whole result unless asked to stream, so their default is kept.
+   *
+   * @param dialect
+   *          Dialect
+   * @param cellRequestCount
+   *          Number of missed cells that led to this request
+   * @return Fetch size, or 0
+   */
+  static int getFetchSize( Dialect dialect, int cellRequestCount ) {
+    final int fetchSize = MondrianProperties.instance().SegmentFetchSize.get();
+    if ( fetchSize != 0 ) {
+      return Math.max( fetchSize, 0 );
+    }
+    switch ( dialect.getDatabaseProduct() ) {
+      case MYSQL:
+      case MARIADB:
+      case INFOBRIGHT:
+        return 0;
+      default:
+        return Math.max( MIN_FETCH_SIZE, Math.min( cellRequestCount, MAX_FETCH_SIZE ) );
+    }
+  }
+
+  private static void setFetchSize( Statement stmt, int fetchSize ) {
+    if ( fetchSize <= 0 ) {
+      return;
+    }
+    try {
+      stmt.setFetchSize( fetchSize );
+    } catch ( SQLException e ) {
+      // The fetch size is only a hint; carry on without it.
+      LOGGER.debug( "Could not set fetch size " + fetchSize, e );
+    }
+  }
+
   RowList processData( SqlStatement stmt, final boolean[] axisContainsNull,
       final SortedSet<Comparable>[] axisValueSets, final GroupingSetsList groupingSetsList ) throws SQLException {
-    List<Segment> segments = groupingSetsList.getDefaultSegments();
-    int measureCount = segments.size();
     ResultSet rawRows = loadData( stmt, groupingSetsList );
     assert stmt != null;
     final List<SqlStatement.Type> types = stmt.guessTypes();
-    int arity = axisValueSets.length;
-    final int groupingColumnStartIndex = arity + measureCount;
-
-    // If we're using grouping sets, the SQL query will have a number of
-    // indicator columns, and we roll these into a single BitSet column in
-    // the processed data set.
-    final List<SqlStatement.Type> processedTypes;
-    if ( groupingSetsList.useGroupingSets() ) {
-      processedTypes = new ArrayList<SqlStatement.Type>( types.subList( 0, groupingColumnStartIndex ) );
-      processedTypes.add( SqlStatement.Type.OBJECT );
-    } else {
-      processedTypes = types;
-    }
-    final RowList processedRows = new RowList( processedTypes, 100 );
+    final RowList processedRows = createRowList( types, 0, axisValueSets.length, groupingSetsList );
+    final boolean[] numeric = numericMeasures( groupingSetsList );
 
     Execution execution = Locus.peek().execution;
     while ( rawRows.next() ) {
@@ -524,178 +936,229 @@ public class SegmentLoader {
       CancellationChecker.checkCancelOrTimeout( ++stmt.rowCount, execution );
 
       checkResultLimit( stmt.rowCount );
-      processedRows.createRow();
+      processRow( rawRows, types, 0, processedRows, axisContainsNull, axisValueSets, groupingSetsList, numeric );
+    }
+    return processedRows;
+  }
 
-      // get the columns
-      int columnIndex = 0;
-      for ( int axisIndex = 0; axisIndex < arity; axisIndex++, columnIndex++ ) {
-        final SqlStatement.Type type = types.get( columnIndex );
-        switch ( type ) {
-          case OBJECT:
-          case STRING:
-            Object o = rawRows.getObject( columnIndex + 1 );
-            if ( o == null ) {
-              o = RolapUtil.sqlNullValue;
-              if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
-                  groupingSetsList, axisIndex ) ) {
-                axisContainsNull[axisIndex] = true;
-              }
-            } else {
-              // We assume that all values are Comparable. Boolean
-              // wasn't Comparable until JDK 1.5, but we can live with
-              // that bug because JDK 1.4 is no longer important.
-
-              // byte [] is not Comparable.
-              // For our case it can be binary array. It was typed as String.
-              // So it can be processing (comparing and displaying) correctly as String
-              if ( o instanceof byte[] ) {
-                o = new String( (byte[]) o );
-              }
-              axisValueSets[axisIndex].add( (Comparable) o );
-            }
-            processedRows.setObject( columnIndex, o );
-            break;
-          case INT:
-            final int intValue = rawRows.getInt( columnIndex + 1 );
-            if ( intValue == 0 && rawRows.wasNull() ) {
-              if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
-                  groupingSetsList, axisIndex ) ) {
-                axisContainsNull[axisIndex] = true;
-              }
-              processedRows.setNull( columnIndex, true );
-            } else {
-              axisValueSets[axisIndex].add( intValue );
-              processedRows.setInt( columnIndex, intValue );
-            }
-            break;
-          case LONG:
-            final long longValue = rawRows.getLong( columnIndex + 1 );
-            if ( longValue == 0 && rawRows.wasNull() ) {
-              if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
-                  groupingSetsList, axisIndex ) ) {
-                axisContainsNull[axisIndex] = true;
-              }
-              processedRows.setNull( columnIndex, true );
-            } else {
-              axisValueSets[axisIndex].add( longValue );
-              processedRows.setLong( columnIndex, longValue );
-            }
-            break;
-          case DOUBLE:
-            final double doubleValue = rawRows.getDouble( columnIndex + 1 );
-            if ( doubleValue == 0 && rawRows.wasNull() ) {
-              if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
-                  groupingSetsList, axisIndex ) ) {
-                axisContainsNull[axisIndex] = true;
-              }
-              processedRows.setNull( columnIndex, true );
-            } else {
-              axisValueSets[axisIndex].add( doubleValue );
-              processedRows.setDouble( columnIndex, doubleValue );
-            }
-            break;
-          case DECIMAL:
-            final BigDecimal decimal = rawRows.getBigDecimal( columnIndex + 1 );
-            if ( decimal == null && rawRows.wasNull() ) {
-              if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
-                  groupingSetsList, axisIndex ) ) {
-                axisContainsNull[axisIndex] = true;
-              }
-              processedRows.setNull( columnIndex, true );
-            } else {
-              final double val = rawRows.getBigDecimal( columnIndex + 1 ).doubleValue();
-              if ( val == Double.NEGATIVE_INFINITY || val == Double.POSITIVE_INFINITY ) {
-                throw MondrianResource.instance().JavaDoubleOverflow.ex( rawRows.getMetaData().getColumnName(
-                    columnIndex + 1 ) );
-              }
-              axisValueSets[axisIndex].add( val );
-              processedRows.setDouble( columnIndex, val );
-            }
-            break;
-          default:
-            throw Util.unexpected( type );
-        }
-      }
+  /**
+   * Creates the list into which the rows of a grouping sets list are processed.
+   *
+   * @param types
+   *          Types of the columns of the result set
+   * @param offset
+   *          Number of result set columns preceding those of this grouping sets list
+   * @param arity
+   *          Number of axes
+   * @param groupingSetsList
+   *          Grouping sets list
+   * @return Empty row list
+   */
+  private static RowList createRowList( List<SqlStatement.Type> types, int offset, int arity,
+      GroupingSetsList groupingSetsList ) {
+    final int groupingColumnStartIndex = arity + groupingSetsList.getDefaultSegments().size();
 
-      // pre-compute which measures are numeric
-      final boolean[] numeric = new boolean[measureCount];
-      int k = 0;
-      for ( Segment segment : segments ) {
-        numeric[k++] = segment.measure.getDatatype().isNumeric();
-      }
+    // If we're using grouping sets, the SQL query will have a number of
+    // indicator columns, and we roll these into a single BitSet column in
+    // the processed data set.
+    final List<SqlStatement.Type> processedTypes =
+        new ArrayList<SqlStatement.Type>( types.subList( offset, offset + groupingColumnStartIndex ) );
+    if ( groupingSetsList.useGroupingSets() ) {
+      processedTypes.add( SqlStatement.Type.OBJECT );
+    }
+    return new RowList( processedTypes, 100 );
+  }
 
-      // get the measure
-      for ( int i = 0; i < measureCount; i++, columnIndex++ ) {
-        final SqlStatement.Type type = types.get( columnIndex );
-        switch ( type ) {
-          case OBJECT:
-          case STRING:
-            Object o = rawRows.getObject( columnIndex + 1 );
-            if ( o == null ) {
-              o = Util.nullValue; // convert to placeholder
-            } else if ( numeric[i] ) {
-              if ( o instanceof Double ) {
-                // nothing to do
-              } else if ( o instanceof BigDecimal ) {
-                // nothing to do // PDI-16761 if we cast it to double type we lose precision
-              } else if ( o instanceof Number ) {
-                o = ( (Number) o ).doubleValue();
-              } else if ( o instanceof byte[] ) {
-                // On MySQL 5.0 in German locale, values can come
-                // out as byte arrays. Don't know why. Bug 1594119.
-                o = Double.parseDouble( new String( (byte[]) o ) );
-              } else {
-                o = Double.parseDouble( o.toString() );
-              }
+  /**
+   * Reads the current row of a result set into a row list.
+   *
+   * @param rawRows
+   *          Result set, positioned on a row
+   * @param types
+   *          Types of the columns of the result set
+   * @param offset
+   *          Number of result set columns preceding those of this grouping sets list
+   * @param processedRows
+   *          Row list to which to add the row
+   * @param axisContainsNull
+   *          Output, whether each axis has a null value
+   * @param axisValueSets
+   *          Output, the values of each axis
+   * @param groupingSetsList
+   *          Grouping sets list
+   * @param numeric
+   *          Which measures are numeric; see {@link #numericMeasures(GroupingSetsList)}
+   */
+  private void processRow( ResultSet rawRows, List<SqlStatement.Type> types, int offset, RowList processedRows,
+      boolean[] axisContainsNull, SortedSet<Comparable>[] axisValueSets, GroupingSetsList groupingSetsList,
+      boolean[] numeric ) throws SQLException {
+    List<Segment> segments = groupingSetsList.getDefaultSegments();
+    int measureCount = segments.size();
+    int arity = axisValueSets.length;
+    final int groupingColumnStartIndex = offset + arity + measureCount;
+
+    processedRows.createRow();
+
+    // get the columns
+    int columnIndex = 0;
+    for ( int axisIndex = 0; axisIndex < arity; axisIndex++, columnIndex++ ) {
+      final SqlStatement.Type type = types.get( offset + columnIndex );
+      switch ( type ) {
+        case OBJECT:
+        case STRING:
+          Object o = rawRows.getObject( offset + columnIndex + 1 );
+          if ( o == null ) {
+            o = RolapUtil.sqlNullValue;
+            if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
+                groupingSetsList, axisIndex ) ) {
+              axisContainsNull[axisIndex] = true;
             }
-            processedRows.setObject( columnIndex, o );
-            break;
-          case INT:
-            final int intValue = rawRows.getInt( columnIndex + 1 );
+          } else {
+            // We assume that all values are Comparable. Boolean
+            // wasn't Comparable until JDK 1.5, but we can live with
+            // that bug because JDK 1.4 is no longer important.
+
+            // byte [] is not Comparable.
+            // For our case it can be binary array. It was typed as String.
+            // So it can be processing (comparing and displaying) correctly as String
+            if ( o instanceof byte[] ) {
+              o = new String( (byte[]) o );
+            }
+            axisValueSets[axisIndex].add( (Comparable) o );
+          }
+          processedRows.setObject( columnIndex, o );
+          break;
+        case INT:
+          final int intValue = rawRows.getInt( offset + columnIndex + 1 );
+          if ( intValue == 0 && rawRows.wasNull() ) {
+            if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
+                groupingSetsList, axisIndex ) ) {
+              axisContainsNull[axisIndex] = true;
+            }
+            processedRows.setNull( columnIndex, true );
+          } else {
+            axisValueSets[axisIndex].add( intValue );
             processedRows.setInt( columnIndex, intValue );
-            if ( intValue == 0 && rawRows.wasNull() ) {
-              processedRows.setNull( columnIndex, true );
+          }
+          break;
+        case LONG:
+          final long longValue = rawRows.getLong( offset + columnIndex + 1 );
+          if ( longValue == 0 && rawRows.wasNull() ) {
+            if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
+                groupingSetsList, axisIndex ) ) {
+              axisContainsNull[axisIndex] = true;
             }
-            break;
-          case LONG:
-            final long longValue = rawRows.getLong( columnIndex + 1 );
+            processedRows.setNull( columnIndex, true );
+          } else {
+            axisValueSets[axisIndex].add( longValue );
             processedRows.setLong( columnIndex, longValue );
-            if ( longValue == 0 && rawRows.wasNull() ) {
-              processedRows.setNull( columnIndex, true );
+          }
+          break;
+        case DOUBLE:
+          final double doubleValue = rawRows.getDouble( offset + columnIndex + 1 );
+          if ( doubleValue == 0 && rawRows.wasNull() ) {
+            if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
+                groupingSetsList, axisIndex ) ) {
+              axisContainsNull[axisIndex] = true;
             }
-            break;
-          case DOUBLE:
-            final double doubleValue = rawRows.getDouble( columnIndex + 1 );
+            processedRows.setNull( columnIndex, true );
+          } else {
+            axisValueSets[axisIndex].add( doubleValue );
             processedRows.setDouble( columnIndex, doubleValue );
-            if ( doubleValue == 0 && rawRows.wasNull() ) {
-              processedRows.setNull( columnIndex, true );
+          }
+          break;
+        case DECIMAL:
+          final BigDecimal decimal = rawRows.getBigDecimal( offset + columnIndex + 1 );
+          if ( decimal == null ) {
+            if ( !groupingSetsList.useGroupingSets() || !isAggregateNull( rawRows, groupingColumnStartIndex,
+                groupingSetsList, axisIndex ) ) {
+              axisContainsNull[axisIndex] = true;
             }
-            break;
-          case DECIMAL:
-            final BigDecimal decimal = rawRows.getBigDecimal( columnIndex + 1 );
-            if ( decimal == null && rawRows.wasNull() ) {
-              // processedRows.setDouble( columnIndex, 0 );
-              processedRows.setNull( columnIndex, true );
-            } else {
-              final double val = rawRows.getBigDecimal( columnIndex + 1 ).doubleValue();
-              if ( val == Double.NEGATIVE_INFINITY || val == Double.POSITIVE_INFINITY ) {
-                throw MondrianResource.instance().JavaDoubleOverflow.ex( rawRows.getMetaData().getColumnName(
-                    columnIndex + 1 ) );
-              }
-              processedRows.setDouble( columnIndex, val );
+            processedRows.setNull( columnIndex, true );
+          } else {
+            final double val = decimal.doubleValue();
+            if ( val == Double.NEGATIVE_INFINITY || val == Double.POSITIVE_INFINITY ) {
+              throw MondrianResource.instance().JavaDoubleOverflow.ex( rawRows.getMetaData().getColumnName(
+                  offset + columnIndex + 1 ) );
             }
-            break;
-          default:
-            throw Util.unexpected( type );
-        }
+            axisValueSets[axisIndex].add( val );
+            processedRows.setDouble( columnIndex, val );
+          }
+          break;
+        default:
+          throw Util.unexpected( type );
       }
+    }
 
-      if ( groupingSetsList.useGroupingSets() ) {
-        processedRows.setObject( columnIndex, getRollupBitKey( groupingSetsList.getRollupColumns().size(), rawRows,
-            columnIndex ) );
+    // get the measure
+    for ( int i = 0; i < measureCount; i++, columnIndex++ ) {
+      final SqlStatement.Type type = types.get( offset + columnIndex );
+      switch ( type ) {
+        case OBJECT:
+        case STRING:
+          Object o = rawRows.getObject( offset + columnIndex + 1 );
+          if ( o == null ) {
+            o = Util.nullValue; // convert to placeholder
+          } else if ( numeric[i] ) {
+            if ( o instanceof Double ) {
+              // nothing to do
+            } else if ( o instanceof BigDecimal ) {
+              // nothing to do // PDI-16761 if we cast it to double type we lose precision
+            } else if ( o instanceof Number ) {
+              o = ( (Number) o ).doubleValue();
+            } else if ( o instanceof byte[] ) {
+              // On MySQL 5.0 in German locale, values can come
+              // out as byte arrays. Don't know why. Bug 1594119.
+              o = Double.parseDouble( new String( (byte[]) o ) );
+            } else {
+              o = Double.parseDouble( o.toString() );
+            }
+          }
+          processedRows.setObject( columnIndex, o );
+          break;
+        case INT:
+        case LONG:
+        case DOUBLE:
+          // Read straight into the column's primitive array.
+          processedRows.populateFrom( columnIndex, rawRows, offset + columnIndex + 1 );
+          break;
+        case DECIMAL:
+          final BigDecimal decimal = rawRows.getBigDecimal( offset + columnIndex + 1 );
+          if ( decimal == null ) {
+            processedRows.setNull( columnIndex, true );
+          } else {
+            final double val = decimal.doubleValue();
+            if ( val == Double.NEGATIVE_INFINITY || val == Double.POSITIVE_INFINITY ) {
+              throw MondrianResource.instance().JavaDoubleOverflow.ex( rawRows.getMetaData().getColumnName(
+                  offset + columnIndex + 1 ) );
+            }
+            processedRows.setDouble( columnIndex, val );
+          }
+          break;
+        default:
+          throw Util.unexpected( type );
       }
     }
-    return processedRows;
+
+    if ( groupingSetsList.useGroupingSets() ) {
+      processedRows.setObject( columnIndex, getRollupBitKey( groupingSetsList.getRollupColumns().size(), rawRows,
+          offset + columnIndex ) );
+    }
+  }
+
+  /**
+   * Returns which measures of a grouping sets list are numeric, and whose non-numeric values must therefore be
+   * converted to numbers as they are read.
+   */
+  private static boolean[] numericMeasures( GroupingSetsList groupingSetsList ) {
+    final List<Segment> segments = groupingSetsList.getDefaultSegments();
+    final boolean[] numeric = new boolean[segments.size()];
+    int k = 0;
+    for ( Segment segment : segments ) {
+      // The values of a sketch measure are keys, whatever the measure's type.
+      numeric[k++] = segment.measure.getDatatype().isNumeric() && !segment.measure.getAggregator().isSketch();
+    }
+    return numeric;
   }
 
   private void checkResultLimit( int currentCount ) {
@@ -881,6 +1344,21 @@ public class SegmentLoader {
       }
     }
 
+    /**
+     * Reads a value of the current row from a result set, using the accessor for the column's type, so that native
+     * values are not boxed.
+     *
+     * @param column
+     *          Column index
+     * @param resultSet
+     *          Result set, positioned on a row
+     * @param resultSetColumn
+     *          1-based index of the result set column to read
+     */
+    void populateFrom( int column, ResultSet resultSet, int resultSetColumn ) throws SQLException {
+      columns[column].populateFrom( currentRow, resultSet, resultSetColumn );
+    }
+
     public List<SqlStatement.Type> getTypes() {
       return new AbstractList<SqlStatement.Type>() {
         public SqlStatement.Type get( int index ) {
@@ -1008,7 +1486,11 @@ public class SegmentLoader {
         throw new UnsupportedOperationException();
       }
 
-      public abstract void populateFrom( int row, ResultSet resultSet ) throws SQLException;
+      public void populateFrom( int row, ResultSet resultSet ) throws SQLException {
+        populateFrom( row, resultSet, ordinal + 1 );
+      }
+
+      public abstract void populateFrom( int row, ResultSet resultSet, int resultSetColumn ) throws SQLException;
 
       public Object getObject( int row ) {
         throw new UnsupportedOperationException();
@@ -1047,8 +1529,8 @@ public class SegmentLoader {
         objects = Util.copyOf( objects, newSize );
       }
 
-      public void populateFrom( int row, ResultSet resultSet ) throws SQLException {
-        objects[row] = resultSet.getObject( ordinal + 1 );
+      public void populateFrom( int row, ResultSet resultSet, int resultSetColumn ) throws SQLException {
+        objects[row] = resultSet.getObject( resultSetColumn );
       }
 
       public void setObject( int row, Object value ) {
@@ -1091,8 +1573,8 @@ public class SegmentLoader {
         ints = Util.copyOf( ints, newSize );
       }
 
-      public void populateFrom( int row, ResultSet resultSet ) throws SQLException {
-        int i = ints[row] = resultSet.getInt( ordinal + 1 );
+      public void populateFrom( int row, ResultSet resultSet, int resultSetColumn ) throws SQLException {
+        int i = ints[row] = resultSet.getInt( resultSetColumn );
         if ( i == 0 ) {
           getNullIndicators().set( row, resultSet.wasNull() );
         }
@@ -1131,8 +1613,8 @@ public class SegmentLoader {
         longs = Util.copyOf( longs, newSize );
       }
 
-      public void populateFrom( int row, ResultSet resultSet ) throws SQLException {
-        long i = longs[row] = resultSet.getLong( ordinal + 1 );
+      public void populateFrom( int row, ResultSet resultSet, int resultSetColumn ) throws SQLException {
+        long i = longs[row] = resultSet.getLong( resultSetColumn );
         if ( i == 0 ) {
           getNullIndicators().set( row, resultSet.wasNull() );
         }
@@ -1171,8 +1653,8 @@ public class SegmentLoader {
         doubles = Util.copyOf( doubles, newSize );
       }
 
-      public void populateFrom( int row, ResultSet resultSet ) throws SQLException {
-        double d = doubles[row] = resultSet.getDouble( ordinal + 1 );
+      public void populateFrom( int row, ResultSet resultSet, int resultSetColumn ) throws SQLException {
+        double d = doubles[row] = resultSet.getDouble( resultSetColumn );
         if ( d == 0d ) {
           getNullIndicators().set( row, resultSet.wasNull() );
         }
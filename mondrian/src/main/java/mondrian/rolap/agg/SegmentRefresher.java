@@ -0,0 +1,343 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.cache.SegmentCacheIndex;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentColumn;
+import mondrian.spi.SegmentHeader;
+import mondrian.util.Pair;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reloads, in the background, the cells that a flush has excluded from a
+ * segment, and replaces the segment with one that holds the fresh cells and
+ * has no excluded region.
+ *
+ * <p>If {@link MondrianProperties#RefreshFlushedSegments} is set,
+ * {@link SegmentCacheManager.FlushCommand} schedules a refresh for each
+ * segment that it constrains. Only the flushed slice is read from the
+ * database; the segment's other cells are kept. If the segment is flushed
+ * again, or removed from the cache, while the slice is being read, the
+ * refresh is abandoned.
+ */
+public class SegmentRefresher {
+    private static final Logger LOGGER =
+        LogManager.getLogger(SegmentRefresher.class);
+
+    private static ExecutorService executor;
+
+    private final SegmentCacheManager cacheMgr;
+    private final RolapStar star;
+    private final SegmentHeader header;
+    private final Locus locus;
+
+    SegmentRefresher(
+        SegmentCacheManager cacheMgr,
+        RolapStar star,
+        SegmentHeader header)
+    {
+        this.cacheMgr = cacheMgr;
+        this.star = star;
+        this.header = header;
+        this.locus =
+            new Locus(
+                new Execution(
+                    star.getSchema().getInternalConnection()
+                        .getInternalStatement(),
+                    0),
+                "SegmentRefresher.refresh",
+                "Error while refreshing flushed segment");
+    }
+
+    /**
+     * Returns whether a segment header can be refreshed; that is, whether
+     * it has exactly one excluded region, and that region is a list of
+     * values.
+     */
+    static boolean canRefresh(SegmentHeader header) {
+        if (header.getExcludedRegions().size() != 1) {
+            return false;
+        }
+        final SegmentColumn region = header.getExcludedRegions().get(0);
+        return region.values != null && !region.values.isEmpty();
+    }
+
+    /**
+     * Starts refreshing a segment in the background.
+     *
+     * @param cacheMgr Cache manager
+     * @param star Star that the segment belongs to
+     * @param header Header of the segment, which has just been constrained
+     */
+    public static void refresh(
+        final SegmentCacheManager cacheMgr,
+        final RolapStar star,
+        final SegmentHeader header)
+    {
+        getExecutor().execute(
+            () -> {
+                try {
+                    new SegmentRefresher(cacheMgr, star, header).run();
+                } catch (RuntimeException e) {
+                    LOGGER.warn(
+                        "Error refreshing segment " + header.getDescription(),
+                        e);
+                }
+            });
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor =
+                Util.getExecutorService(
+                    1,
+                    0,
+                    1,
+                    "mondrian.rolap.agg.SegmentRefresher$worker",
+                    null);
+        }
+        return executor;
+    }
+
+    /**
+     * Refreshes the segment in the current thread.
+     *
+     * @return Whether the segment was replaced
+     */
+    boolean run() {
+        Locus.push(locus);
+        try {
+            return refresh();
+        } finally {
+            Locus.pop(locus);
+        }
+    }
+
+    private boolean refresh() {
+        final SegmentBody body = cacheMgr.compositeCache.get(header);
+        if (body == null) {
+            return false;
+        }
+
+        // Start loading the slice, unless a query has already loaded it.
+        final SliceLoad sliceLoad =
+            cacheMgr.execute(new StartSliceLoadCommand(body));
+        if (sliceLoad == null) {
+            return false;
+        }
+        if (sliceLoad.future != null) {
+            Util.safeGet(sliceLoad.future, "SegmentRefresher.refresh");
+        }
+        final SegmentHeader sliceHeader = sliceLoad.slice.getHeader();
+        final SegmentBody sliceBody = cacheMgr.compositeCache.get(sliceHeader);
+        if (sliceBody == null) {
+            return false;
+        }
+
+        final RolapStar.Measure measure = sliceLoad.slice.measure;
+        final Pair<SegmentHeader, SegmentBody> patched =
+            SegmentBuilder.patch(
+                header,
+                body,
+                sliceBody,
+                measure.getDatatype(),
+                measure.getAggregator().isSketch());
+
+        // Store the body before the header is in the index, so that no query
+        // finds the header without the body.
+        cacheMgr.compositeCache.put(patched.left, patched.right);
+        final Boolean swapped =
+            cacheMgr.execute(new SwapCommand(patched.left, sliceHeader));
+        if (swapped == null) {
+            // Another load has put the same segment in the index.
+            return false;
+        }
+        if (swapped) {
+            cacheMgr.compositeCache.remove(header);
+            cacheMgr.compositeCache.remove(sliceHeader);
+        } else {
+            cacheMgr.compositeCache.remove(patched.left);
+        }
+        return swapped;
+    }
+
+    /**
+     * Segment that holds the cells of the flushed region, and the load that
+     * is reading it, or null if it is already in the cache.
+     */
+    private static class SliceLoad {
+        final Segment slice;
+        final Future<Map<Segment, SegmentWithData>> future;
+
+        SliceLoad(
+            Segment slice,
+            Future<Map<Segment, SegmentWithData>> future)
+        {
+            this.slice = slice;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Command that creates the slice and, if it is not in the index, starts
+     * loading it. Returns null if the segment is no longer in the index.
+     */
+    private class StartSliceLoadCommand
+        extends SegmentCacheManager.Command<SliceLoad>
+    {
+        private final SegmentBody body;
+
+        StartSliceLoadCommand(SegmentBody body) {
+            this.body = body;
+        }
+
+        public SliceLoad call() {
+            final SegmentCacheIndex index =
+                cacheMgr.getIndexRegistry().getIndex(star);
+            if (!index.contains(header)) {
+                return null;
+            }
+            final SegmentBuilder.SegmentConverter converter =
+                index.getConverter(
+                    header.schemaName,
+                    header.schemaChecksum,
+                    header.cubeName,
+                    header.rolapStarFactTableName,
+                    header.measureName,
+                    header.compoundPredicates);
+            if (converter == null) {
+                return null;
+            }
+            final Segment segment = converter.convert(header, body);
+            final Segment slice =
+                SegmentBuilder.toSegment(
+                    sliceHeader(),
+                    star,
+                    segment.getConstrainedColumnsBitKey(),
+                    segment.getColumns(),
+                    segment.measure,
+                    segment.getCompoundPredicateList());
+            if (index.contains(slice.getHeader())) {
+                return new SliceLoad(slice, null);
+            }
+            final BitKey measureBitKey =
+                BitKey.Factory.makeBitKey(star.getColumnCount());
+            measureBitKey.set(segment.measure.getBitPosition());
+            final List<GroupingSet> groupingSets =
+                new ArrayList<GroupingSet>(
+                    Collections.singletonList(
+                        new GroupingSet(
+                            Collections.singletonList(slice),
+                            slice.getConstrainedColumnsBitKey(),
+                            measureBitKey,
+                            slice.predicates,
+                            slice.getColumns())));
+            final List<Future<Map<Segment, SegmentWithData>>> futures =
+                new ArrayList<Future<Map<Segment, SegmentWithData>>>();
+            new SegmentLoader(cacheMgr).load(
+                0,
+                groupingSets,
+                segment.getCompoundPredicateList(),
+                futures);
+            return new SliceLoad(slice, futures.get(0));
+        }
+
+        public Locus getLocus() {
+            return locus;
+        }
+    }
+
+    /**
+     * Returns a header like the segment's, but whose values on the excluded
+     * column are those of the excluded region, and with no excluded region.
+     */
+    private SegmentHeader sliceHeader() {
+        final SegmentColumn region = header.getExcludedRegions().get(0);
+        final List<SegmentColumn> columns = new ArrayList<SegmentColumn>();
+        for (SegmentColumn column : header.getConstrainedColumns()) {
+            if (!column.columnExpression.equals(region.columnExpression)) {
+                columns.add(column);
+                continue;
+            }
+            final SortedSet<Comparable> values =
+                new TreeSet<Comparable>(region.values);
+            if (column.values != null) {
+                values.retainAll(column.values);
+            }
+            columns.add(
+                new SegmentColumn(
+                    column.columnExpression, column.valueCount, values));
+        }
+        return new SegmentHeader(
+            header.schemaName,
+            header.schemaChecksum,
+            header.cubeName,
+            header.measureName,
+            columns,
+            header.compoundPredicates,
+            header.rolapStarFactTableName,
+            header.getConstrainedColumnsBitKey(),
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    /**
+     * Command that replaces the constrained segment with the patched one in
+     * the index, and removes the slice. Returns true if it did so, false if
+     * the constrained segment is no longer in the index, null if the patched
+     * segment already is.
+     */
+    private class SwapCommand extends SegmentCacheManager.Command<Boolean> {
+        private final SegmentHeader newHeader;
+        private final SegmentHeader sliceHeader;
+
+        SwapCommand(SegmentHeader newHeader, SegmentHeader sliceHeader) {
+            this.newHeader = newHeader;
+            this.sliceHeader = sliceHeader;
+        }
+
+        public Boolean call() {
+            final SegmentCacheIndex index =
+                cacheMgr.getIndexRegistry().getIndex(star);
+            if (index.contains(newHeader)) {
+                return null;
+            }
+            if (!index.contains(header)) {
+                return false;
+            }
+            index.update(header, newHeader);
+            if (index.contains(sliceHeader)) {
+                index.remove(sliceHeader);
+            }
+            return true;
+        }
+
+        public Locus getLocus() {
+            return locus;
+        }
+    }
+}
+
+// End SegmentRefresher.java
@@ -0,0 +1,548 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapSchema;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.StarPredicate;
+import mondrian.rolap.cache.SegmentCacheIndex;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+import mondrian.spi.SegmentHeader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the segments that queries load, and reloads the most used of them
+ * after a restart or a flush, so that the first queries find them in the
+ * cache.
+ *
+ * <p>If {@link MondrianProperties#SegmentWarmup} is set, every segment loaded
+ * on behalf of a user is recorded with the number of times it has been
+ * loaded and when it was last loaded. Segments that have compound predicates
+ * are not recorded, because their predicates cannot be rebuilt from the
+ * header. If {@link MondrianProperties#SegmentWarmupFile} is set, the
+ * record is saved to that file from time to time, and read when the JVM
+ * first needs it.
+ *
+ * <p>When a schema has loaded, and after a region of the cache is flushed,
+ * the warmer reloads the highest scoring segments of each star through
+ * {@link SegmentLoader}. The loads run on the schema's internal connection,
+ * and so at {@link SqlScheduler.Priority#BATCH batch} priority. At most
+ * {@link MondrianProperties#SegmentWarmupThreads} run at a time, and none
+ * starts after {@link MondrianProperties#SegmentWarmupTimeLimit}.
+ *
+ * <p>To report how well the warm-up predicts the workload, the warmer counts
+ * the segments that queries find in the cache and that it loaded, and the
+ * segments that queries have to load themselves; see {@link #getCoverage()}.
+ */
+public class SegmentWarmer {
+    private static final Logger LOGGER =
+        LogManager.getLogger(SegmentWarmer.class);
+
+    /** Half-life of a load, in milliseconds. A segment loaded a day ago
+     * scores half as much as one loaded now. */
+    private static final long HALF_LIFE_MILLIS = 24L * 60 * 60 * 1000;
+
+    /** Maximum number of segments recorded. */
+    private static final int MAX_ENTRIES = 10000;
+
+    /** Number of new loads after which the record is saved. */
+    private static final int SAVE_INTERVAL = 100;
+
+    private static SegmentWarmer instance;
+
+    private final Map<SegmentHeader, Entry> entries =
+        new ConcurrentHashMap<SegmentHeader, Entry>();
+    private final Set<SegmentHeader> warmed =
+        Collections.newSetFromMap(
+            new ConcurrentHashMap<SegmentHeader, Boolean>());
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong unsavedCount = new AtomicLong();
+    private final ExecutorService executor;
+    private final String fileName;
+
+    SegmentWarmer(String fileName) {
+        this.fileName = fileName;
+        this.executor =
+            Util.getExecutorService(
+                1,
+                0,
+                1,
+                "mondrian.rolap.agg.SegmentWarmer$worker",
+                null);
+        if (fileName != null) {
+            read(new File(fileName));
+        }
+    }
+
+    /**
+     * Returns the warmer, or null if
+     * {@link MondrianProperties#SegmentWarmup} is not set.
+     */
+    public static synchronized SegmentWarmer instance() {
+        if (!MondrianProperties.instance().SegmentWarmup.get()) {
+            return null;
+        }
+        if (instance == null) {
+            final String fileName =
+                MondrianProperties.instance().SegmentWarmupFile.get();
+            instance =
+                new SegmentWarmer(Util.isEmpty(fileName) ? null : fileName);
+        }
+        return instance;
+    }
+
+    /**
+     * Records a load, if it was made on behalf of a user. Called by
+     * {@link SegmentLoader}.
+     */
+    static void recordLoad(
+        SqlScheduler.Request request,
+        List<GroupingSet> groupingSets,
+        List<StarPredicate> compoundPredicateList)
+    {
+        if (request.priority != SqlScheduler.Priority.INTERACTIVE) {
+            return;
+        }
+        final SegmentWarmer warmer = instance();
+        if (warmer == null) {
+            return;
+        }
+        for (GroupingSet groupingSet : groupingSets) {
+            for (Segment segment : groupingSet.getSegments()) {
+                warmer.missCount.incrementAndGet();
+                if (compoundPredicateList == null
+                    || compoundPredicateList.isEmpty())
+                {
+                    warmer.record(
+                        segment.getHeader(), System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a query has found a segment in the cache. Called by
+     * {@link mondrian.rolap.FastBatchingCellReader}.
+     *
+     * @param header Header of segment
+     */
+    public static void recordHit(SegmentHeader header) {
+        final SegmentWarmer warmer = instance();
+        if (warmer != null && warmer.warmed.contains(header)) {
+            warmer.hitCount.incrementAndGet();
+        }
+    }
+
+    void record(SegmentHeader header, long now) {
+        Entry entry = entries.get(header);
+        if (entry == null) {
+            entry = new Entry(header);
+            final Entry previous = entries.putIfAbsent(header, entry);
+            if (previous != null) {
+                entry = previous;
+            } else if (entries.size() > MAX_ENTRIES) {
+                prune(now);
+            }
+        }
+        entry.add(now);
+        if (fileName != null
+            && unsavedCount.incrementAndGet() % SAVE_INTERVAL == 0)
+        {
+            executor.execute(() -> write(new File(fileName)));
+        }
+    }
+
+    /**
+     * Removes the lowest scoring quarter of the entries.
+     */
+    private synchronized void prune(long now) {
+        if (entries.size() <= MAX_ENTRIES) {
+            return;
+        }
+        final List<Entry> list = sort(entries.values(), now);
+        for (Entry entry : list.subList(list.size() * 3 / 4, list.size())) {
+            entries.remove(entry.header);
+        }
+    }
+
+    private static List<Entry> sort(Collection<Entry> entries, final long now) {
+        final List<Entry> list = new ArrayList<Entry>(entries);
+        Collections.sort(
+            list,
+            (e1, e2) -> Double.compare(e2.score(now), e1.score(now)));
+        return list;
+    }
+
+    /**
+     * Returns the headers of the highest scoring segments of a star, highest
+     * first.
+     *
+     * @param star Star
+     * @param count Maximum number of headers
+     * @param now Current time
+     * @return Headers
+     */
+    List<SegmentHeader> top(RolapStar star, int count, long now) {
+        final RolapSchema schema = star.getSchema();
+        final String factTableName = star.getFactTable().getAlias();
+        final List<Entry> list = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            final SegmentHeader header = entry.header;
+            if (header.rolapStarFactTableName.equals(factTableName)
+                && header.schemaName.equals(schema.getName())
+                && Util.equals(header.schemaChecksum, schema.getChecksum()))
+            {
+                list.add(entry);
+            }
+        }
+        final List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+        for (Entry entry : sort(list, now)) {
+            if (headers.size() >= count) {
+                break;
+            }
+            headers.add(entry.header);
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the fraction of the segments used by queries since the last
+     * warm-up that the warm-up had loaded, or -1 if queries have used no
+     * segments.
+     */
+    public double getCoverage() {
+        final long hits = hitCount.get();
+        final long total = hits + missCount.get();
+        return total == 0 ? -1d : (double) hits / total;
+    }
+
+    /**
+     * Starts warming up the stars of a schema in the background.
+     *
+     * @param cacheMgr Cache manager
+     * @param schema Schema that has just loaded
+     */
+    public static void warm(SegmentCacheManager cacheMgr, RolapSchema schema) {
+        final SegmentWarmer warmer = instance();
+        if (warmer != null) {
+            for (RolapStar star : schema.getStars()) {
+                warmer.warmAsync(cacheMgr, star);
+            }
+        }
+    }
+
+    /**
+     * Starts warming up some stars in the background.
+     *
+     * @param cacheMgr Cache manager
+     * @param stars Stars whose cache has just been flushed
+     */
+    public static void warm(
+        SegmentCacheManager cacheMgr,
+        Collection<RolapStar> stars)
+    {
+        final SegmentWarmer warmer = instance();
+        if (warmer != null) {
+            for (RolapStar star : stars) {
+                warmer.warmAsync(cacheMgr, star);
+            }
+        }
+    }
+
+    private void warmAsync(
+        final SegmentCacheManager cacheMgr,
+        final RolapStar star)
+    {
+        executor.execute(
+            () -> {
+                try {
+                    warm(cacheMgr, star);
+                } catch (RuntimeException e) {
+                    LOGGER.warn(
+                        "Error warming up star "
+                        + star.getFactTable().getAlias(),
+                        e);
+                }
+            });
+    }
+
+    /**
+     * Warms up a star in the current thread.
+     *
+     * @return Number of segments loaded
+     */
+    int warm(SegmentCacheManager cacheMgr, RolapStar star) {
+        final MondrianProperties properties = MondrianProperties.instance();
+        final long start = System.currentTimeMillis();
+        final long deadline =
+            start + properties.SegmentWarmupTimeLimit.get() * 1000L;
+        final int maxLoads = Math.max(1, properties.SegmentWarmupThreads.get());
+        final List<SegmentHeader> headers =
+            top(star, properties.SegmentWarmupCount.get(), start);
+        if (headers.isEmpty()) {
+            return 0;
+        }
+
+        // Report how well the previous warm-up predicted the workload, and
+        // start counting afresh.
+        if (LOGGER.isInfoEnabled() && !warmed.isEmpty()) {
+            LOGGER.info(
+                "Previous warm-up covered " + hitCount.get() + " of "
+                + (hitCount.get() + missCount.get())
+                + " segments used by queries");
+        }
+        hitCount.set(0);
+        missCount.set(0);
+
+        final Locus locus =
+            new Locus(
+                new Execution(
+                    star.getSchema().getInternalConnection()
+                        .getInternalStatement(),
+                    0),
+                "SegmentWarmer.warm",
+                "Error while warming up segment cache");
+        final Deque<Future<Map<Segment, SegmentWithData>>> futures =
+            new ArrayDeque<Future<Map<Segment, SegmentWithData>>>();
+        int loadCount = 0;
+        Locus.push(locus);
+        try {
+            for (SegmentHeader header : headers) {
+                if (System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+                while (futures.size() >= maxLoads) {
+                    await(futures.removeFirst(), deadline);
+                }
+                final Future<Map<Segment, SegmentWithData>> future =
+                    cacheMgr.execute(
+                        new StartLoadCommand(cacheMgr, star, header, locus));
+                if (future != null) {
+                    warmed.add(header);
+                    futures.addLast(future);
+                    ++loadCount;
+                }
+            }
+            while (!futures.isEmpty()) {
+                await(futures.removeFirst(), deadline);
+            }
+        } finally {
+            Locus.pop(locus);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "Warmed up " + loadCount + " of " + headers.size()
+                + " segments of star " + star.getFactTable().getAlias()
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return loadCount;
+    }
+
+    private static void await(
+        Future<Map<Segment, SegmentWithData>> future,
+        long deadline)
+    {
+        try {
+            future.get(
+                Math.max(1, deadline - System.currentTimeMillis()),
+                TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The load carries on, but we no longer wait for it.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Util.newError(e, "Interrupted while warming up cache");
+        } catch (ExecutionException e) {
+            LOGGER.warn("Error while warming up cache", e.getCause());
+        }
+    }
+
+    /**
+     * Reads the record from a file. If the file does not exist, or cannot be
+     * read, starts with an empty record.
+     */
+    @SuppressWarnings("unchecked")
+    void read(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (ObjectInputStream in =
+                 new ObjectInputStream(
+                     new BufferedInputStream(new FileInputStream(file))))
+        {
+            for (Entry entry : (List<Entry>) in.readObject()) {
+                entries.put(entry.header, entry);
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOGGER.warn("Could not read segment warm-up file " + file, e);
+        }
+    }
+
+    /**
+     * Writes the record to a file.
+     */
+    synchronized void write(File file) {
+        final List<Entry> list = new ArrayList<Entry>(entries.values());
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            try (ObjectOutputStream out =
+                     new ObjectOutputStream(
+                         new BufferedOutputStream(
+                             new FileOutputStream(tempFile))))
+            {
+                out.writeObject(list);
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not delete " + file);
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not write segment warm-up file " + file, e);
+        }
+    }
+
+    /**
+     * How often, and how recently, a segment has been loaded.
+     */
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final SegmentHeader header;
+        private long count;
+        private long lastLoaded;
+
+        Entry(SegmentHeader header) {
+            this.header = header;
+        }
+
+        synchronized void add(long now) {
+            ++count;
+            lastLoaded = Math.max(lastLoaded, now);
+        }
+
+        /**
+         * Returns the score of this segment: the number of loads, halved
+         * for every {@link #HALF_LIFE_MILLIS} since the last load.
+         */
+        synchronized double score(long now) {
+            final double age = Math.max(0, now - lastLoaded);
+            return count * Math.pow(0.5, age / HALF_LIFE_MILLIS);
+        }
+    }
+
+    /**
+     * Command that starts loading a segment, unless the segment is already
+     * in the cache or no longer matches the star. Returns the future of the
+     * load, or null if it did not start one.
+     */
+    private static class StartLoadCommand
+        extends SegmentCacheManager.Command
+            <Future<Map<Segment, SegmentWithData>>>
+    {
+        private final SegmentCacheManager cacheMgr;
+        private final RolapStar star;
+        private final SegmentHeader header;
+        private final Locus locus;
+
+        StartLoadCommand(
+            SegmentCacheManager cacheMgr,
+            RolapStar star,
+            SegmentHeader header,
+            Locus locus)
+        {
+            this.cacheMgr = cacheMgr;
+            this.star = star;
+            this.header = header;
+            this.locus = locus;
+        }
+
+        public Future<Map<Segment, SegmentWithData>> call() {
+            final SegmentCacheIndex index =
+                cacheMgr.getIndexRegistry().getIndex(star);
+            if (index.contains(header)) {
+                return null;
+            }
+            final RolapStar.Measure measure =
+                star.getFactTable().lookupMeasureByName(
+                    header.cubeName, header.measureName);
+            if (measure == null) {
+                return null;
+            }
+            final BitKey bitKey = header.getConstrainedColumnsBitKey();
+            for (int bit : bitKey) {
+                if (bit >= star.getColumnCount()) {
+                    return null;
+                }
+            }
+            final RolapStar.Column[] columns =
+                SegmentBuilder.getConstrainedColumns(star, bitKey);
+            for (int i = 0; i < columns.length; i++) {
+                if (!columns[i].getExpression().getGenericExpression()
+                    .equals(
+                        header.getConstrainedColumns().get(i)
+                            .columnExpression))
+                {
+                    // The star has changed since the segment was recorded.
+                    return null;
+                }
+            }
+            final Segment segment =
+                SegmentBuilder.toSegment(
+                    header,
+                    star,
+                    bitKey,
+                    columns,
+                    measure,
+                    Collections.<StarPredicate>emptyList());
+            final BitKey measureBitKey =
+                BitKey.Factory.makeBitKey(star.getColumnCount());
+            measureBitKey.set(measure.getBitPosition());
+            final List<GroupingSet> groupingSets =
+                new ArrayList<GroupingSet>(
+                    Collections.singletonList(
+                        new GroupingSet(
+                            Collections.singletonList(segment),
+                            bitKey,
+                            measureBitKey,
+                            segment.predicates,
+                            columns)));
+            final List<Future<Map<Segment, SegmentWithData>>> futures =
+                new ArrayList<Future<Map<Segment, SegmentWithData>>>();
+            new SegmentLoader(cacheMgr).load(
+                0,
+                groupingSets,
+                Collections.<StarPredicate>emptyList(),
+                futures);
+            return futures.get(0);
+        }
+
+        public Locus getLocus() {
+            return locus;
+        }
+    }
+}
+
+// End SegmentWarmer.java
@@ -0,0 +1,109 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.CellKey;
+import mondrian.util.HyperLogLog;
+
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Segment dataset whose cells hold {@link HyperLogLog} sketches, for
+ * measures whose aggregator {@link mondrian.rolap.RolapAggregator#isSketch()
+ * is a sketch}.
+ *
+ * <p>Each row returned by the segment's query contributes one value to the
+ * sketch of its cell: a key, which is added to the sketch, or a serialized
+ * sketch (from an aggregate table), which is merged into it.
+ *
+ * <p>Sketch datasets are always sparse: a sketch is much larger than the
+ * overhead of a hash table entry.
+ */
+class SketchSegmentDataset extends SparseSegmentDataset {
+    private final int precision;
+
+    /**
+     * Creates a SketchSegmentDataset whose sketches have the precision
+     * given by {@link MondrianProperties#ApproxDistinctCountPrecision}.
+     */
+    SketchSegmentDataset() {
+        this(
+            Math.max(
+                HyperLogLog.MIN_PRECISION,
+                Math.min(
+                    HyperLogLog.MAX_PRECISION,
+                    MondrianProperties.instance()
+                        .ApproxDistinctCountPrecision.get())));
+    }
+
+    /**
+     * Creates a SketchSegmentDataset.
+     *
+     * @param precision Precision of sketches
+     */
+    SketchSegmentDataset(int precision) {
+        this.precision = precision;
+    }
+
+    public void populateFrom(
+        int[] pos, SegmentLoader.RowList rowList, int column)
+    {
+        if (rowList.isNull(column)) {
+            return;
+        }
+        final Object o = rowList.getObject(column);
+        if (o == null || o == Util.nullValue) {
+            return;
+        }
+        final CellKey key = CellKey.Generator.newCellKey(pos);
+        final HyperLogLog other = toSketch(o);
+        HyperLogLog sketch = (HyperLogLog) getObject(key);
+        if (sketch == null) {
+            sketch = new HyperLogLog(precision);
+            put(key, sketch);
+        }
+        if (other == null) {
+            sketch.add(o);
+        } else if (other.getPrecision() >= sketch.getPrecision()) {
+            sketch.merge(other);
+        } else {
+            put(key, HyperLogLog.union(Arrays.asList(sketch, other)));
+        }
+    }
+
+    /**
+     * Returns the sketch that a value represents, or null if the value is a
+     * key.
+     */
+    private static HyperLogLog toSketch(Object o) {
+        try {
+            if (o instanceof byte[]) {
+                return HyperLogLog.fromBytes((byte[]) o);
+            }
+            if (o instanceof Blob) {
+                final Blob blob = (Blob) o;
+                return HyperLogLog.fromBytes(
+                    blob.getBytes(1, (int) blob.length()));
+            }
+            return null;
+        } catch (SQLException e) {
+            throw Util.newError(e, "Error while reading sketch");
+        }
+    }
+}
+
+// End SketchSegmentDataset.java
@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.server.Locus;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Schedules the SQL statements that load segments.
+ *
+ * <p>The {@link SegmentCacheManager} owns one scheduler, and
+ * {@link SegmentLoader} submits each batch of grouping sets to it. The
+ * scheduler decides which queued request runs next, and how many run at a
+ * time.
+ *
+ * <p>The implementation is specified by the
+ * {@link mondrian.olap.MondrianProperties#SqlScheduler} property. It must
+ * have a public constructor that takes no arguments. The default
+ * implementation is {@link FairSqlScheduler}.
+ *
+ * <p>Implementations must be thread safe.
+ */
+public interface SqlScheduler {
+    /**
+     * Submits a task for execution.
+     *
+     * @param request Describes the task, for the purposes of scheduling
+     * @param task Task that executes the SQL statement
+     * @param <T> Result type
+     * @return Future for the result of the task
+     */
+    <T> Future<T> submit(Request request, Callable<T> task);
+
+    /**
+     * Shuts down this scheduler. Tasks that have not started are abandoned.
+     */
+    void shutdown();
+
+    /**
+     * Priority of a request. Requests of a higher priority run before
+     * requests of a lower priority, whatever their owner.
+     */
+    enum Priority {
+        /** Request on behalf of a user who is waiting for the result. */
+        INTERACTIVE,
+
+        /** Request that nobody is waiting for, such as cache warm-up. */
+        BATCH
+    }
+
+    /**
+     * Describes a request to a {@link SqlScheduler}.
+     */
+    final class Request {
+        /** Locus of the statement that made the request. */
+        public final Locus locus;
+        /** Priority. */
+        public final Priority priority;
+        /** Object on whose behalf the request is made, typically a
+         * connection; requests of the same priority and different owners
+         * are served in turn. */
+        public final Object owner;
+        /** Key of the data source that will execute the statement. */
+        public final Object dataSourceKey;
+        /** Estimated cost of the statement, in rows; -1 if unknown. */
+        public final long estimatedCost;
+
+        /**
+         * Creates a Request.
+         *
+         * @param locus Locus
+         * @param priority Priority
+         * @param owner Owner
+         * @param dataSourceKey Data source key
+         * @param estimatedCost Estimated cost in rows, or -1 if unknown
+         */
+        public Request(
+            Locus locus,
+            Priority priority,
+            Object owner,
+            Object dataSourceKey,
+            long estimatedCost)
+        {
+            assert locus != null;
+            assert priority != null;
+            this.locus = locus;
+            this.priority = priority;
+            this.owner = owner;
+            this.dataSourceKey = dataSourceKey;
+            this.estimatedCost = estimatedCost;
+        }
+
+        public String toString() {
+            return "Request(priority=" + priority
+                + ", owner=" + owner
+                + ", estimatedCost=" + estimatedCost + ")";
+        }
+    }
+}
+
+// End SqlScheduler.java
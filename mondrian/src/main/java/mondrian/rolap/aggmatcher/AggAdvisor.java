@@ -0,0 +1,515 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.Cube;
+import mondrian.olap.Dimension;
+import mondrian.olap.Hierarchy;
+import mondrian.olap.Level;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapCubeLevel;
+import mondrian.rolap.RolapStar;
+import mondrian.server.monitor.AggregateRecommendationInfo;
+import mondrian.util.Pair;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Recommends aggregate tables for a star, based upon the segment loads that
+ * queries have actually made.
+ *
+ * <p>When {@link MondrianProperties#AggregateAdvisor} is set, each segment
+ * load that executes SQL is {@link #record recorded}: the columns it was
+ * grouped by, its measures, and how long the SQL took. Loads with the same
+ * columns are accumulated into one workload entry.
+ *
+ * <p>{@link #recommend} then considers, as candidate aggregate tables, the
+ * column sets of the workload and the unions of each pair of them. The
+ * number of rows in a candidate is estimated as the product of its columns'
+ * cardinalities, capped by the number of rows in the fact table. A query
+ * can be answered by any candidate whose columns include its own, and the
+ * SQL time it would save is taken to be in proportion to the reduction in
+ * rows scanned. Candidates are chosen greedily, each time picking the one
+ * that saves the most time per row stored, given those already chosen.
+ *
+ * <p>Each {@link Recommendation} generates, using {@link AggGen}, the DDL
+ * to create and populate a collapsed aggregate table, and the
+ * {@code <AggName>} element to declare it in the schema.
+ *
+ * <p>Operators see the recommendations for every star through
+ * {@link mondrian.server.monitor.Monitor#getAggregateRecommendations()},
+ * which is also exposed over JMX.
+ */
+public class AggAdvisor {
+    private static final Cache<RolapStar, AggAdvisor> ADVISORS =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private final RolapStar star;
+
+    /** Workload, keyed by cube name and level bit key. */
+    private final Map<Pair<String, BitKey>, Usage> usages =
+        new HashMap<Pair<String, BitKey>, Usage>();
+
+    /**
+     * Creates an AggAdvisor.
+     *
+     * @param star Star
+     */
+    AggAdvisor(RolapStar star) {
+        this.star = star;
+    }
+
+    /**
+     * Returns the advisor of a star, creating it if necessary.
+     *
+     * @param star Star
+     * @return Advisor
+     */
+    public static AggAdvisor forStar(final RolapStar star) {
+        try {
+            return ADVISORS.get(star, () -> new AggAdvisor(star));
+        } catch (ExecutionException e) {
+            throw Util.newError(e.getCause(), "Error creating advisor");
+        }
+    }
+
+    /**
+     * Records a segment load, if {@link MondrianProperties#AggregateAdvisor}
+     * is set.
+     *
+     * @param star Star
+     * @param levelBitKey Columns that the load grouped by
+     * @param measureBitKey Measures that the load computed
+     * @param sqlNanos Time taken to execute the SQL and fetch its rows
+     */
+    public static void record(
+        RolapStar star,
+        BitKey levelBitKey,
+        BitKey measureBitKey,
+        long sqlNanos)
+    {
+        if (MondrianProperties.instance().AggregateAdvisor.get()) {
+            forStar(star).add(levelBitKey, measureBitKey, sqlNanos);
+        }
+    }
+
+    /**
+     * Adds a segment load to the workload.
+     */
+    void add(BitKey levelBitKey, BitKey measureBitKey, long sqlNanos) {
+        // A load's measures may belong to more than one of the star's cubes
+        // (for example, via a virtual cube); record each cube's share.
+        final Map<String, BitKey> measureBitKeys =
+            new HashMap<String, BitKey>();
+        for (int bit : measureBitKey) {
+            final RolapStar.Column column = star.getColumn(bit);
+            if (!(column instanceof RolapStar.Measure)) {
+                continue;
+            }
+            final String cubeName =
+                ((RolapStar.Measure) column).getCubeName();
+            BitKey bitKey = measureBitKeys.get(cubeName);
+            if (bitKey == null) {
+                bitKey = measureBitKey.emptyCopy();
+                measureBitKeys.put(cubeName, bitKey);
+            }
+            bitKey.set(bit);
+        }
+        synchronized (usages) {
+            for (Map.Entry<String, BitKey> entry : measureBitKeys.entrySet()) {
+                final Pair<String, BitKey> key =
+                    Pair.of(entry.getKey(), levelBitKey.copy());
+                Usage usage = usages.get(key);
+                if (usage == null) {
+                    usage = new Usage(entry.getKey(), key.right);
+                    usages.put(key, usage);
+                }
+                usage.measureBitKey = usage.measureBitKey == null
+                    ? entry.getValue()
+                    : usage.measureBitKey.or(entry.getValue());
+                ++usage.count;
+                usage.nanos += sqlNanos / measureBitKeys.size();
+            }
+        }
+    }
+
+    /**
+     * Discards the workload recorded so far.
+     */
+    public void clear() {
+        synchronized (usages) {
+            usages.clear();
+        }
+    }
+
+    /**
+     * Returns aggregate tables that would most reduce the SQL time of the
+     * workload recorded so far, best first.
+     *
+     * @param limit Maximum number of tables
+     * @return Recommended tables
+     */
+    public List<Recommendation> recommend(int limit) {
+        final List<Usage> usageList;
+        synchronized (usages) {
+            usageList = new ArrayList<Usage>();
+            for (Usage usage : usages.values()) {
+                usageList.add(usage.copy());
+            }
+        }
+        final long factRowCount = Math.max(1, getFactRowCount());
+
+        // Candidates are the workload's column sets and their pairwise
+        // unions, per cube.
+        final Map<Pair<String, BitKey>, Candidate> candidates =
+            new LinkedHashMap<Pair<String, BitKey>, Candidate>();
+        for (Usage usage : usageList) {
+            addCandidate(candidates, usage.cubeName, usage.levelBitKey);
+        }
+        for (Usage usage : usageList) {
+            for (Usage usage2 : usageList) {
+                if (usage.cubeName.equals(usage2.cubeName)) {
+                    addCandidate(
+                        candidates,
+                        usage.cubeName,
+                        usage.levelBitKey.or(usage2.levelBitKey));
+                }
+            }
+        }
+        for (Candidate candidate : candidates.values()) {
+            candidate.rowCount =
+                Math.min(factRowCount, estimateRowCount(candidate.bitKey));
+        }
+
+        // Greedily choose the candidate that saves the most time per row,
+        // given those already chosen.
+        final Map<Usage, Long> costs = new HashMap<Usage, Long>();
+        for (Usage usage : usageList) {
+            costs.put(usage, factRowCount);
+        }
+        final List<Recommendation> recommendations =
+            new ArrayList<Recommendation>();
+        while (recommendations.size() < limit) {
+            Candidate best = null;
+            double bestBenefit = 0;
+            double bestRatio = 0;
+            for (Candidate candidate : candidates.values()) {
+                double benefit = 0;
+                for (Usage usage : usageList) {
+                    if (!usage.cubeName.equals(candidate.cubeName)
+                        || !candidate.bitKey.isSuperSetOf(usage.levelBitKey))
+                    {
+                        continue;
+                    }
+                    final long saved = costs.get(usage) - candidate.rowCount;
+                    if (saved > 0) {
+                        benefit +=
+                            (double) usage.nanos * saved / factRowCount;
+                    }
+                }
+                final double ratio = benefit / Math.max(1, candidate.rowCount);
+                if (benefit > 0 && ratio > bestRatio) {
+                    best = candidate;
+                    bestBenefit = benefit;
+                    bestRatio = ratio;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            candidates.remove(Pair.of(best.cubeName, best.bitKey));
+            BitKey measureBitKey = null;
+            for (Usage usage : usageList) {
+                if (usage.cubeName.equals(best.cubeName)
+                    && best.bitKey.isSuperSetOf(usage.levelBitKey))
+                {
+                    costs.put(
+                        usage, Math.min(costs.get(usage), best.rowCount));
+                    measureBitKey = measureBitKey == null
+                        ? usage.measureBitKey
+                        : measureBitKey.or(usage.measureBitKey);
+                }
+            }
+            recommendations.add(
+                new Recommendation(
+                    recommendations.size() + 1,
+                    best.cubeName,
+                    best.bitKey,
+                    measureBitKey,
+                    best.rowCount,
+                    (long) bestBenefit));
+        }
+        return recommendations;
+    }
+
+    /**
+     * Returns information about the tables recommended for the workload of
+     * each star, up to {@link MondrianProperties#AggregateAdvisorMaxTables}
+     * per star.
+     *
+     * @return Recommended tables, best first within each star
+     */
+    public static List<AggregateRecommendationInfo> getInfos() {
+        final int limit =
+            MondrianProperties.instance().AggregateAdvisorMaxTables.get();
+        final List<AggregateRecommendationInfo> list =
+            new ArrayList<AggregateRecommendationInfo>();
+        for (AggAdvisor advisor : ADVISORS.asMap().values()) {
+            for (Recommendation recommendation : advisor.recommend(limit)) {
+                list.add(recommendation.getInfo());
+            }
+        }
+        return list;
+    }
+
+    private static void addCandidate(
+        Map<Pair<String, BitKey>, Candidate> candidates,
+        String cubeName,
+        BitKey bitKey)
+    {
+        final Pair<String, BitKey> key = Pair.of(cubeName, bitKey);
+        if (!candidates.containsKey(key)) {
+            candidates.put(key, new Candidate(cubeName, bitKey));
+        }
+    }
+
+    long getFactRowCount() {
+        final RolapStar.Table factTable = star.getFactTable();
+        return star.getStatisticsCache().getRelationCardinality(
+            factTable.getRelation(), factTable.getAlias(), -1);
+    }
+
+    private long estimateRowCount(BitKey bitKey) {
+        long rowCount = 1;
+        for (int bit : bitKey) {
+            final long cardinality =
+                Math.max(1, star.getColumn(bit).getApproxCardinality());
+            if (rowCount > Long.MAX_VALUE / cardinality) {
+                return Long.MAX_VALUE;
+            }
+            rowCount *= cardinality;
+        }
+        return rowCount;
+    }
+
+    /**
+     * Segment loads of a cube that grouped by the same columns.
+     */
+    private static class Usage {
+        final String cubeName;
+        final BitKey levelBitKey;
+        BitKey measureBitKey;
+        int count;
+        long nanos;
+
+        Usage(String cubeName, BitKey levelBitKey) {
+            this.cubeName = cubeName;
+            this.levelBitKey = levelBitKey;
+        }
+
+        Usage copy() {
+            final Usage usage = new Usage(cubeName, levelBitKey);
+            usage.measureBitKey = measureBitKey;
+            usage.count = count;
+            usage.nanos = nanos;
+            return usage;
+        }
+    }
+
+    /**
+     * Candidate aggregate table.
+     */
+    private static class Candidate {
+        final String cubeName;
+        final BitKey bitKey;
+        long rowCount;
+
+        Candidate(String cubeName, BitKey bitKey) {
+            this.cubeName = cubeName;
+            this.bitKey = bitKey;
+        }
+    }
+
+    /**
+     * Recommended aggregate table.
+     */
+    public class Recommendation {
+        private final int rank;
+        private final String cubeName;
+        private final BitKey levelBitKey;
+        private final BitKey measureBitKey;
+        private final long rowCount;
+        private final long savedNanos;
+        private AggGen aggGen;
+
+        Recommendation(
+            int rank,
+            String cubeName,
+            BitKey levelBitKey,
+            BitKey measureBitKey,
+            long rowCount,
+            long savedNanos)
+        {
+            this.rank = rank;
+            this.cubeName = cubeName;
+            this.levelBitKey = levelBitKey;
+            this.measureBitKey = measureBitKey;
+            this.rowCount = rowCount;
+            this.savedNanos = savedNanos;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public String getCubeName() {
+            return cubeName;
+        }
+
+        /**
+         * Returns the columns that the table groups by.
+         */
+        public BitKey getLevelBitKey() {
+            return levelBitKey;
+        }
+
+        /**
+         * Returns the measures of the workload that the table would serve.
+         */
+        public BitKey getMeasureBitKey() {
+            return measureBitKey;
+        }
+
+        /**
+         * Returns the estimated number of rows in the table.
+         */
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns the estimated SQL time, in nanoseconds, that the table
+         * would have saved over the workload.
+         */
+        public long getSavedNanos() {
+            return savedNanos;
+        }
+
+        /**
+         * Returns the name of the table.
+         */
+        public String getTableName() {
+            return "agg_c_" + rank + "_" + star.getFactTable().getAlias();
+        }
+
+        /**
+         * Returns a generator of the table's DDL. Reads JDBC metadata the
+         * first time it is called.
+         */
+        public synchronized AggGen getAggGen() {
+            if (aggGen == null) {
+                final List<RolapStar.Column> columns =
+                    new ArrayList<RolapStar.Column>();
+                for (int bit : levelBitKey) {
+                    columns.add(star.getColumn(bit));
+                }
+                aggGen =
+                    new AggGen(
+                        cubeName,
+                        star,
+                        columns.toArray(new RolapStar.Column[0]))
+                    {
+                        String makeCollapsedAggregateTableName(
+                            String factTableName)
+                        {
+                            return getTableName();
+                        }
+                    };
+            }
+            return aggGen;
+        }
+
+        /**
+         * Returns the {@code <AggName>} element that declares the table in
+         * the schema.
+         */
+        public String getAggName() {
+            final Map<RolapStar.Column, String> levelNames =
+                new HashMap<RolapStar.Column, String>();
+            final Cube cube = star.getSchema().lookupCube(cubeName, false);
+            if (cube != null) {
+                for (Dimension dimension : cube.getDimensions()) {
+                    for (Hierarchy hierarchy : dimension.getHierarchies()) {
+                        for (Level level : hierarchy.getLevels()) {
+                            if (!(level instanceof RolapCubeLevel)) {
+                                continue;
+                            }
+                            final RolapStar.Column column =
+                                ((RolapCubeLevel) level).getStarKeyColumn();
+                            if (column != null) {
+                                levelNames.put(
+                                    column, level.getUniqueName());
+                            }
+                        }
+                    }
+                }
+            }
+            return getAggGen().createCollapsedAggName(levelNames, rowCount);
+        }
+
+        /**
+         * Returns information about this recommendation, including its DDL,
+         * which is null if the DDL could not be generated.
+         */
+        public AggregateRecommendationInfo getInfo() {
+            final StringBuilder buf = new StringBuilder();
+            for (int bit : levelBitKey) {
+                if (buf.length() > 0) {
+                    buf.append(", ");
+                }
+                buf.append(
+                    star.getColumn(bit).getExpression().getGenericExpression());
+            }
+            final AggGen aggGen = getAggGen();
+            final boolean ready = aggGen.isReady();
+            return new AggregateRecommendationInfo(
+                null,
+                star.getFactTable().getAlias(),
+                cubeName,
+                rank,
+                getTableName(),
+                buf.toString(),
+                rowCount,
+                savedNanos / 1000000L,
+                ready ? aggGen.createCollapsed() : null,
+                ready ? aggGen.insertIntoCollapsed() : null,
+                ready ? getAggName() : null);
+        }
+
+        public String toString() {
+            return "#" + rank + " " + getTableName()
+                + " cube=" + cubeName
+                + " levels=" + levelBitKey
+                + " rows=" + rowCount
+                + " savedMillis=" + savedNanos / 1000000;
+        }
+    }
+}
+
+// End AggAdvisor.java
@@ -20,6 +20,7 @@ import mondrian.rolap.sql.SqlQuery;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
+import org.eigenbase.xom.XMLUtil;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -54,6 +55,12 @@ public class AggGen {
     private final List<JdbcSchema.Table.Column.Usage> measures =
         new ArrayList<JdbcSchema.Table.Column.Usage>();
 
+    /** map collapsed JdbcSchema Column Usage to the RolapStar.Column it
+     * holds */
+    private final Map<JdbcSchema.Table.Column.Usage, RolapStar.Column>
+        collapsedStarColumns =
+        new HashMap<JdbcSchema.Table.Column.Usage, RolapStar.Column>();
+
     private boolean isReady;
 
     public AggGen(
@@ -297,6 +304,19 @@ public class AggGen {
                 continue;
             }
             final RolapAggregator aggregator = rMeasure.getAggregator();
+            if (aggregator.isSketch()) {
+                getLogger().warn(
+                    "For RolapStar: \""
+                    + getFactTable().getAlias()
+                    + "\" measure with name, "
+                    + name
+                    + ", is an approximate distinct count, whose sketches"
+                    + " cannot be computed in SQL."
+                    + " You will have to add this measure to the"
+                    + " aggregate table definition by hand, and populate it"
+                    + " with serialized sketches.");
+                continue;
+            }
             JdbcSchema.Table.Column c = getColumn(factTable, name);
             if (c == null) {
                 getLogger().warn(
@@ -402,7 +422,10 @@ public class AggGen {
         // NOTE: this creates a new usage for the fact table
         // I do not know if this is a problem is AggGen is run before
         // Mondrian uses aggregate tables.
-        list.add(c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY));
+        JdbcSchema.Table.Column.Usage usage =
+            c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY);
+        list.add(usage);
+        collapsedStarColumns.put(usage, rColumn);
 
         RolapStar.Column prColumn = rColumn;
         while (prColumn.getParentColumn() != null) {
@@ -429,7 +452,9 @@ public class AggGen {
             // NOTE: this creates a new usage for the fact table
             // I do not know if this is a problem is AggGen is run before
             // Mondrian uses aggregate tables.
-            list.add(c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY));
+            usage = c.newUsage(JdbcSchema.UsageType.FOREIGN_KEY);
+            list.add(usage);
+            collapsedStarColumns.put(usage, prColumn);
         }
 
         return true;
@@ -511,6 +536,7 @@ public class AggGen {
             usage.usagePrefix = rc.getUsagePrefix();
 
             list.add(usage);
+            collapsedStarColumns.put(usage, rc);
 
             if (rname.equals(name)) {
                 break;
@@ -877,6 +903,72 @@ public class AggGen {
 
 
 
+    /**
+     * Return the schema declaration of the collapsed dimension table, as an
+     * {@code <AggName>} element.
+     *
+     * @param levelNames Unique name of the level whose key each
+     *   RolapStar.Column holds; columns without a level are ignored
+     * @param approxRowCount Approximate number of rows, or -1
+     * @return AggName XML
+     */
+    public String createCollapsedAggName(
+        Map<RolapStar.Column, String> levelNames,
+        long approxRowCount)
+    {
+        StringWriter sw = new StringWriter(512);
+        PrintWriter pw = new PrintWriter(sw);
+        String prefix = "    ";
+
+        pw.print("<AggName");
+        XMLUtil.printAtt(
+            pw, "name", makeCollapsedAggregateTableName(getFactTableName()));
+        if (approxRowCount >= 0) {
+            XMLUtil.printAtt(
+                pw, "approxRowCount", String.valueOf(approxRowCount));
+        }
+        pw.println(">");
+
+        pw.print(prefix);
+        pw.print("<AggFactCount");
+        XMLUtil.printAtt(pw, "column", getFactCount());
+        pw.println("/>");
+
+        for (JdbcSchema.Table.Column.Usage usage : measures) {
+            pw.print(prefix);
+            pw.print("<AggMeasure");
+            XMLUtil.printAtt(
+                pw, "name", Util.makeFqName("Measures")
+                    + "." + Util.quoteMdxIdentifier(usage.getSymbolicName()));
+            XMLUtil.printAtt(pw, "column", getUsageName(usage));
+            pw.println("/>");
+        }
+
+        for (List<JdbcSchema.Table.Column.Usage> list
+            : collapsedColumnUsages.values())
+        {
+            for (JdbcSchema.Table.Column.Usage usage : list) {
+                String name = (usage.usagePrefix == null)
+                    ? usage.getColumn().getName()
+                    : usage.usagePrefix + usage.getColumn().getName();
+                String levelName =
+                    levelNames.get(collapsedStarColumns.get(usage));
+                pw.print(prefix);
+                if (levelName == null) {
+                    pw.print("<AggIgnoreColumn");
+                } else {
+                    pw.print("<AggLevel");
+                    XMLUtil.printAtt(pw, "name", levelName);
+                }
+                XMLUtil.printAtt(pw, "column", name);
+                pw.println("/>");
+            }
+        }
+
+        pw.println("</AggName>");
+        return sw.toString();
+    }
+
     private String getUsageName(final JdbcSchema.Table.Column.Usage usage) {
         JdbcSchema.Table.Column c = usage.getColumn();
         String name = c.getName();
@@ -1213,9 +1213,10 @@ public class AggStar {
         }
 
         /**
-         * Get the number of rows in this aggregate table.
+         * Get the number of rows in this aggregate table. The first call
+         * queries the database.
          */
-        public long getNumberOfRows() {
+        public synchronized long getNumberOfRows() {
             if (numberOfRows < 0) {
                 numberOfRows =
                     star.getStatisticsCache().getRelationCardinality(
@@ -1228,7 +1229,7 @@ public class AggStar {
         /**
          * This is for testing ONLY.
          */
-        void setNumberOfRows(int numberOfRows) {
+        synchronized void setNumberOfRows(int numberOfRows) {
             this.numberOfRows = numberOfRows;
         }
 
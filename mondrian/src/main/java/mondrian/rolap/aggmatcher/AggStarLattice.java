@@ -0,0 +1,557 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.resource.MondrianResource;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.StarColumnPredicate;
+import mondrian.rolap.agg.ListColumnPredicate;
+import mondrian.rolap.agg.ValueColumnPredicate;
+import mondrian.util.Pair;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The aggregate tables of a {@link RolapStar}, indexed so that the best
+ * aggregate table for a query can be found quickly.
+ *
+ * <p>The bit keys of the AggStars, ordered by inclusion, form a lattice; an
+ * AggStar can answer a query only if its bit key is in the upper set of the
+ * query's bit key. To find that set without testing every AggStar, the
+ * lattice keeps, for each column of the star, the set of AggStars that have
+ * that column, and intersects the sets of the query's columns.
+ *
+ * <p>Which of those AggStars can actually be used depends only on the
+ * query's level and measure bit keys, and so is memoized per pair of bit
+ * keys. Among the usable AggStars, the lattice chooses the one with the
+ * lowest {@link #cost cost}.
+ *
+ * <p>Row counts of the aggregate tables are not gathered while the schema
+ * is loading. The first lookup starts a task per AggStar, running at most
+ * {@link MondrianProperties#AggregateRowCountThreads} at a time, and each
+ * lookup waits only for the counts of the AggStars it is choosing between.
+ *
+ * <p><b>Thread safety</b>. Lookups are thread safe. Adding and removing
+ * AggStars is not, and happens only while the schema is being loaded.
+ */
+public class AggStarLattice {
+    private static final Logger LOGGER =
+        LogManager.getLogger(AggStarLattice.class);
+
+    private static final MondrianResource mres = MondrianResource.instance();
+
+    /** Cost of joining a row to a dimension table, relative to the cost of
+     * scanning a row. */
+    static final double JOIN_COST = 0.5;
+
+    /** Cost of rolling up a row, relative to the cost of scanning it. */
+    static final double ROLLUP_COST = 0.5;
+
+    private static final int MEMO_SIZE = 10000;
+
+    private static ExecutorService rowCountExecutor;
+
+    private final RolapStar star;
+
+    private final List<AggStar> aggStars = new ArrayList<AggStar>();
+
+    /** For each column bit position, the ordinals of the AggStars that have
+     * that column. Built on first lookup; null when stale. */
+    private volatile BitSet[] index;
+
+    private final Cache<Pair<BitKey, BitKey>, List<Match>> memo =
+        CacheBuilder.newBuilder().maximumSize(MEMO_SIZE).build();
+
+    private final ConcurrentMap<AggStar, Future<Long>> rowCounts =
+        new ConcurrentHashMap<AggStar, Future<Long>>();
+
+    /**
+     * Creates an AggStarLattice.
+     *
+     * @param star Star whose aggregate tables are indexed
+     */
+    public AggStarLattice(RolapStar star) {
+        this.star = star;
+    }
+
+    /**
+     * Adds an AggStar.
+     */
+    public void add(AggStar aggStar) {
+        aggStars.add(aggStar);
+        invalidate();
+    }
+
+    /**
+     * Removes all AggStars.
+     */
+    public void clear() {
+        aggStars.clear();
+        rowCounts.clear();
+        invalidate();
+    }
+
+    /**
+     * Discards memoized lookups, for example because the algorithm used to
+     * compare AggStars has changed.
+     */
+    public void invalidate() {
+        index = null;
+        memo.invalidateAll();
+    }
+
+    /**
+     * Returns the AggStars, in the order they were added.
+     */
+    public List<AggStar> getAggStars() {
+        return Collections.unmodifiableList(aggStars);
+    }
+
+    /**
+     * Finds the best aggregate table that has the desired levels and
+     * measures, or returns null if no aggregate table is suitable.
+     *
+     * <p>If there no aggregate is an exact match, returns a more
+     * granular aggregate which can be rolled up, and sets rollup to true.
+     * If one or more of the measures are distinct-count measures
+     * rollup is possible only in limited circumstances.
+     *
+     * @param levelBitKey Set of levels
+     * @param measureBitKey Set of measures
+     * @param columns Columns of the query, or null if not known
+     * @param predicates Predicates on the columns, or null if not known
+     * @param rollup Out parameter, is set to true if the aggregate is not
+     *   an exact match
+     * @return An aggregate, or null if none is suitable.
+     */
+    public AggStar findAgg(
+        BitKey levelBitKey,
+        BitKey measureBitKey,
+        RolapStar.Column[] columns,
+        StarColumnPredicate[] predicates,
+        boolean[] rollup)
+    {
+        assert rollup != null;
+        final List<Match> matches = getMatches(levelBitKey, measureBitKey);
+        if (matches.isEmpty()) {
+            return null;
+        }
+        startRowCounts();
+        final boolean byCost =
+            MondrianProperties.instance().ChooseAggregateByCost.get();
+        Match best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (Match match : matches) {
+            if (waitForRowCount(match.aggStar) == 0) {
+                continue;
+            }
+            final double cost =
+                byCost
+                    ? cost(match, levelBitKey, columns, predicates)
+                    : match.aggStar.getSize();
+            // On a tie, prefer the AggStar added later.
+            if (cost <= bestCost) {
+                best = match;
+                bestCost = cost;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        rollup[0] = best.rollup;
+        return best.aggStar;
+    }
+
+    /**
+     * Returns the AggStars that can answer a query, whatever their size.
+     */
+    private List<Match> getMatches(BitKey levelBitKey, BitKey measureBitKey) {
+        final Pair<BitKey, BitKey> key =
+            Pair.of(levelBitKey.copy(), measureBitKey.copy());
+        List<Match> matches = memo.getIfPresent(key);
+        if (matches == null) {
+            matches = computeMatches(key.left, key.right);
+            memo.put(key, matches);
+        }
+        return matches;
+    }
+
+    private List<Match> computeMatches(
+        BitKey levelBitKey,
+        BitKey measureBitKey)
+    {
+        // If there is no distinct count measure, isDistinct == false,
+        // then all we want is an AggStar whose BitKey is a superset
+        // of the combined measure BitKey and foreign-key/level BitKey.
+        //
+        // On the other hand, if there is at least one distinct count
+        // measure, isDistinct == true, then what is wanted is an AggStar
+        // whose measure BitKey is a superset of the measure BitKey,
+        // whose level BitKey is an exact match and the aggregate table
+        // can NOT have any foreign keys.
+        final BitKey fullBitKey = levelBitKey.or(measureBitKey);
+
+        // a levelBitKey with all parent bits set.
+        final BitKey expandedLevelBitKey =
+            expandLevelBitKey(levelBitKey.copy());
+
+        final List<Match> matches = new ArrayList<Match>();
+        final BitSet candidates = supersets(fullBitKey);
+        for (int i = candidates.nextSetBit(0); i >= 0;
+            i = candidates.nextSetBit(i + 1))
+        {
+            final AggStar aggStar = aggStars.get(i);
+            assert aggStar.superSetMatch(fullBitKey);
+            boolean isDistinct = measureBitKey.intersects(
+                aggStar.getDistinctMeasureBitKey());
+
+            // The AggStar has no "distinct count" measures so
+            // we can use it without looking any further.
+            if (!isDistinct) {
+                // Need to use SUM if the query levels don't match
+                // the agg stars levels, or if the agg star is not
+                // fully collapsed.
+                matches.add(
+                    new Match(
+                        aggStar,
+                        !aggStar.isFullyCollapsed()
+                        || aggStar.hasIgnoredColumns()
+                        || levelBitKey.isEmpty()
+                        || !aggStar.getLevelBitKey().equals(levelBitKey)));
+                continue;
+            } else if (aggStar.hasIgnoredColumns()) {
+                // we cannot safely pull a distinct count from an agg
+                // table if ignored columns are present since granularity
+                // may not be at the level of the dc measure
+                LOGGER.info(
+                    aggStar.getFactTable().getName()
+                    + " cannot be used for distinct-count measures since it has"
+                    + " unused or ignored columns.");
+                continue;
+            }
+
+            // If there are distinct measures, we can only rollup in limited
+            // circumstances.
+
+            // No foreign keys (except when its used as a distinct count
+            //   measure).
+            // Level key exact match.
+            // Measure superset match.
+
+            // Compute the core levels -- those which can be safely
+            // rolled up to. For example,
+            // if the measure is 'distinct customer count',
+            // and the agg table has levels customer_id,
+            // then gender is a core level.
+            final BitKey distinctMeasuresBitKey =
+                measureBitKey.and(aggStar.getDistinctMeasureBitKey());
+            final BitSet distinctMeasures = distinctMeasuresBitKey.toBitSet();
+            BitKey combinedLevelBitKey = null;
+            for (int k = distinctMeasures.nextSetBit(0); k >= 0;
+                k = distinctMeasures.nextSetBit(k + 1))
+            {
+                final AggStar.FactTable.Measure distinctMeasure =
+                    aggStar.lookupMeasure(k);
+                BitKey rollableLevelBitKey =
+                    distinctMeasure.getRollableLevelBitKey();
+                if (combinedLevelBitKey == null) {
+                    combinedLevelBitKey = rollableLevelBitKey;
+                } else {
+                    // TODO use '&=' to remove unnecessary copy
+                    combinedLevelBitKey =
+                        combinedLevelBitKey.and(rollableLevelBitKey);
+                }
+            }
+
+            if (aggStar.hasForeignKeys()) {
+                // This is a little pessimistic. If the measure is
+                // 'count(distinct customer_id)' and one of the foreign keys is
+                // 'customer_id' then it is OK to roll up.
+
+                // Some of the measures in this query are distinct count.
+                // Get all of the foreign key columns.
+                // For each such measure, is it based upon a foreign key.
+                // Are there any foreign keys left over. No, can use AggStar.
+                BitKey fkBitKey = aggStar.getForeignKeyBitKey().copy();
+                for (AggStar.FactTable.Measure measure
+                    : aggStar.getFactTable().getMeasures())
+                {
+                    if (measure.isDistinct()) {
+                        if (measureBitKey.get(measure.getBitPosition())) {
+                            fkBitKey.clear(measure.getBitPosition());
+                        }
+                    }
+                }
+                if (!fkBitKey.isEmpty()) {
+                    // there are foreign keys left so we can not use this
+                    // AggStar.
+                    continue;
+                }
+            }
+
+            // We can use the expandedLevelBitKey here because
+            // presence of parent level columns won't effect granularity,
+            // so will still be an allowable agg match
+            if (!aggStar.select(
+                    expandedLevelBitKey, combinedLevelBitKey, measureBitKey))
+            {
+                continue;
+            }
+
+            if (expandedLevelBitKey.isEmpty()) {
+                // We won't be able to resolve a distinct count measure like
+                // this. We need to resolve the distinct values but we don't
+                // have any levels for which we constraint on. This would
+                // result in either a bloated value (non-distinct) or
+                // only the first (non-rolled-up) to be returned.
+                continue;
+            }
+            matches.add(
+                new Match(
+                    aggStar,
+                    !aggStar.getLevelBitKey().equals(expandedLevelBitKey)));
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the ordinals of the AggStars whose bit key is a superset of a
+     * given bit key.
+     */
+    private BitSet supersets(BitKey bitKey) {
+        BitSet[] index = this.index;
+        if (index == null) {
+            index = buildIndex();
+            this.index = index;
+        }
+        final BitSet result = new BitSet(aggStars.size());
+        result.set(0, aggStars.size());
+        for (int bit = bitKey.nextSetBit(0); bit >= 0 && !result.isEmpty();
+            bit = bitKey.nextSetBit(bit + 1))
+        {
+            if (bit >= index.length || index[bit] == null) {
+                result.clear();
+            } else {
+                result.and(index[bit]);
+            }
+        }
+        return result;
+    }
+
+    private BitSet[] buildIndex() {
+        final BitSet[] index = new BitSet[star.getColumnCount()];
+        for (int i = 0; i < aggStars.size(); i++) {
+            final BitKey bitKey = aggStars.get(i).getBitKey();
+            for (int bit = bitKey.nextSetBit(0); bit >= 0;
+                bit = bitKey.nextSetBit(bit + 1))
+            {
+                if (bit >= index.length) {
+                    break;
+                }
+                if (index[bit] == null) {
+                    index[bit] = new BitSet(aggStars.size());
+                }
+                index[bit].set(i);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Estimates the cost of answering a query from an aggregate table.
+     *
+     * <p>The whole table is scanned, so the cost is at least its
+     * {@link AggStar#getSize() size}. The rows that satisfy the predicates
+     * are then joined to each dimension table the query needs and, if the
+     * table does not exactly match the query's levels, rolled up. The
+     * fraction of rows that satisfy a predicate is estimated as the number
+     * of values it allows divided by the cardinality of the column, if the
+     * cardinality is known.
+     */
+    double cost(
+        Match match,
+        BitKey levelBitKey,
+        RolapStar.Column[] columns,
+        StarColumnPredicate[] predicates)
+    {
+        final AggStar aggStar = match.aggStar;
+        final double size = aggStar.getSize();
+        double selectivity = 1d;
+        if (columns != null && predicates != null) {
+            for (int i = 0; i < columns.length; i++) {
+                selectivity *= selectivity(columns[i], predicates[i]);
+            }
+        }
+        final Set<AggStar.Table> joinedTables = new HashSet<AggStar.Table>();
+        for (int bit = levelBitKey.nextSetBit(0); bit >= 0;
+            bit = levelBitKey.nextSetBit(bit + 1))
+        {
+            final AggStar.Table.Column column = aggStar.lookupColumn(bit);
+            if (column != null
+                && column.getTable() != aggStar.getFactTable())
+            {
+                joinedTables.add(column.getTable());
+            }
+        }
+        final double matchedRows = size * selectivity;
+        return size
+            + matchedRows * joinedTables.size() * JOIN_COST
+            + (match.rollup ? matchedRows * ROLLUP_COST : 0d);
+    }
+
+    private static double selectivity(
+        RolapStar.Column column,
+        StarColumnPredicate predicate)
+    {
+        final long valueCount;
+        if (predicate instanceof ValueColumnPredicate) {
+            valueCount = 1;
+        } else if (predicate instanceof ListColumnPredicate) {
+            valueCount =
+                ((ListColumnPredicate) predicate).getPredicates().size();
+        } else {
+            return 1d;
+        }
+        final long cardinality = column.getApproxCardinality();
+        if (cardinality <= 0) {
+            return 1d;
+        }
+        return Math.min(1d, (double) valueCount / cardinality);
+    }
+
+    /**
+     * Starts counting the rows of each AggStar, if not already started.
+     */
+    private void startRowCounts() {
+        if (rowCounts.size() == aggStars.size()) {
+            return;
+        }
+        for (final AggStar aggStar : aggStars) {
+            if (rowCounts.containsKey(aggStar)) {
+                continue;
+            }
+            final FutureTask<Long> task =
+                new FutureTask<Long>(
+                    new Callable<Long>() {
+                        public Long call() {
+                            return countRows(aggStar);
+                        }
+                    });
+            if (rowCounts.putIfAbsent(aggStar, task) == null) {
+                getRowCountExecutor().execute(task);
+            }
+        }
+    }
+
+    private long countRows(AggStar aggStar) {
+        final long rowCount = aggStar.getFactTable().getNumberOfRows();
+        if (rowCount == 0) {
+            LOGGER.warn(
+                mres.AggTableZeroSize.str(
+                    aggStar.getFactTable().getName(),
+                    star.getFactTable().getAlias()));
+        }
+        return rowCount;
+    }
+
+    /**
+     * Waits for the row count of an AggStar and returns it.
+     */
+    private long waitForRowCount(AggStar aggStar) {
+        Future<Long> future = rowCounts.get(aggStar);
+        if (future == null) {
+            // Added after the counts started; count it in this thread.
+            return countRows(aggStar);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Util.newError(
+                e, "Interrupted while counting rows of aggregate table");
+        } catch (ExecutionException e) {
+            // Forget the failure, so that a later query tries again.
+            rowCounts.remove(aggStar, future);
+            throw Util.newError(
+                e.getCause(), "Error while counting rows of aggregate table");
+        }
+    }
+
+    private static synchronized ExecutorService getRowCountExecutor() {
+        if (rowCountExecutor == null) {
+            final int threads =
+                Math.max(
+                    1,
+                    MondrianProperties.instance().AggregateRowCountThreads
+                        .get());
+            rowCountExecutor =
+                Util.getExecutorService(
+                    // We use the same value for coreSize and maxSize
+                    // because that's the behavior we want. All extra
+                    // tasks will be put on an unbounded queue.
+                    threads,
+                    threads,
+                    1,
+                    "mondrian.rolap.aggmatcher.AggStarLattice$rowCount",
+                    null);
+        }
+        return rowCountExecutor;
+    }
+
+    /**
+     * Sets the bits for parent columns.
+     */
+    private BitKey expandLevelBitKey(BitKey levelBitKey) {
+        int bitPos = levelBitKey.nextSetBit(0);
+        while (bitPos >= 0) {
+            levelBitKey = setParentsBitKey(levelBitKey, bitPos);
+            bitPos = levelBitKey.nextSetBit(bitPos + 1);
+        }
+        return levelBitKey;
+    }
+
+    private BitKey setParentsBitKey(BitKey levelBitKey, int bitPos) {
+        RolapStar.Column parent = star.getColumn(bitPos).getParentColumn();
+        if (parent == null) {
+            return levelBitKey;
+        }
+        levelBitKey.set(parent.getBitPosition());
+        return setParentsBitKey(levelBitKey, parent.getBitPosition());
+    }
+
+    /**
+     * An AggStar that can answer a query, and whether its rows must be
+     * rolled up to answer it.
+     */
+    static class Match {
+        final AggStar aggStar;
+        final boolean rollup;
+
+        Match(AggStar aggStar, boolean rollup) {
+            this.aggStar = aggStar;
+            this.rollup = rollup;
+        }
+    }
+}
+
+// End AggStarLattice.java
@@ -292,14 +292,9 @@ public class AggTableManager {
                                 dbTable,
                                 msgRecorder,
                                 approxRowCount);
-                            if (aggStar.getSize() > 0) {
-                                star.addAggStar(aggStar);
-                            } else {
-                                getLogger().warn(
-                                    mres.AggTableZeroSize.str(
-                                        aggStar.getFactTable().getName(),
-                                        factTableName));
-                            }
+                            // Empty tables are skipped when their rows
+                            // are counted; see AggStarLattice.
+                            star.addAggStar(aggStar);
                         }
                         // Note: if the dbTable name matches but the columnsOK
                         // does not, then this is an error and the aggregate
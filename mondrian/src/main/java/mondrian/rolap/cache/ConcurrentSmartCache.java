@@ -0,0 +1,124 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An implementation of {@link SmartCache} whose reads never block.
+ *
+ * <p>Entries are held in a concurrent Guava cache. If a maximum weight is
+ * given, entries are evicted once the sum of their weights exceeds it; a
+ * collection weighs one plus its size, any other value weighs one. If the
+ * maximum weight is not positive, values are softly referenced, as in
+ * {@link SoftSmartCache}.
+ *
+ * <p>Synchronization. {@link #get} takes no lock. {@link #put},
+ * {@link #remove} and {@link #clear} share a lock with each other, and
+ * {@link #execute} holds it exclusively, so a task still sees the
+ * contents of the cache without concurrent modification.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ConcurrentSmartCache<K, V> implements SmartCache<K, V> {
+    private final Cache<K, V> cache;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates a ConcurrentSmartCache.
+     *
+     * @param maxWeight Maximum total weight of entries, or a value less than
+     *   or equal to zero to hold values by soft reference
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentSmartCache(long maxWeight) {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (maxWeight > 0) {
+            builder.maximumWeight(maxWeight)
+                .weigher(
+                    new Weigher<Object, Object>() {
+                        public int weigh(Object key, Object value) {
+                            if (value instanceof Collection) {
+                                return 1 + ((Collection) value).size();
+                            }
+                            return 1;
+                        }
+                    });
+        } else {
+            builder.softValues();
+        }
+        this.cache = (Cache<K, V>) (Cache) builder.build();
+    }
+
+    public V put(K key, V value) {
+        lock.readLock().lock();
+        try {
+            // Null values are the same as a 'remove'; the underlying cache
+            // does not allow null values.
+            if (value == null) {
+                return cache.asMap().remove(key);
+            }
+            return cache.asMap().put(key, value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public V get(K key) {
+        return cache.getIfPresent(key);
+    }
+
+    public V remove(K key) {
+        lock.readLock().lock();
+        try {
+            return cache.asMap().remove(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.readLock().lock();
+        try {
+            cache.invalidateAll();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        return (int) cache.size();
+    }
+
+    public void execute(SmartCacheTask<K, V> task) {
+        lock.writeLock().lock();
+        try {
+            final Iterator<Map.Entry<K, V>> iterator =
+                cache.asMap().entrySet().iterator();
+            task.execute(iterator);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
+
+// End ConcurrentSmartCache.java
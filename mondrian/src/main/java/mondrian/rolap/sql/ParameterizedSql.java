@@ -0,0 +1,282 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.sql;
+
+import mondrian.olap.Util;
+import mondrian.spi.Dialect;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * SQL statement whose values are bound as parameters of a prepared
+ * statement.
+ *
+ * <p>A {@link SqlQuery} that is {@link SqlQuery#setParameterized
+ * parameterized} does not inline the values of its predicates into the SQL.
+ * It writes a marker instead, which holds the value and its datatype. SQL
+ * generated this way is still a string, and can be combined with other SQL
+ * (say as a branch of a <code>UNION ALL</code>) as usual. When the statement
+ * is executed, {@link #parse} replaces the markers with <code>?</code> and
+ * collects their values, in the order they occur in the SQL, and
+ * {@link #bind} binds the values to the prepared statement.
+ *
+ * <p>Markers are delimited by control characters that do not occur in SQL.
+ * Values that contain such characters, and values of datatypes other than
+ * string and numeric, are inlined as before.
+ *
+ * <p>If the dialect {@link Dialect#requiresUntypedStringParameters()
+ * requires it}, string values are bound with an unspecified type, so that
+ * the database converts them as it would a string literal.
+ */
+public final class ParameterizedSql {
+    private static final char START = '\u0001';
+    private static final char SEPARATOR = '\u0002';
+    private static final char END = '\u0003';
+
+    private static final char SCALAR = 'S';
+    private static final char UNTYPED_SCALAR = 'U';
+    private static final char ARRAY = 'A';
+
+    private final String sql;
+    private final List<Parameter> parameters;
+
+    private ParameterizedSql(String sql, List<Parameter> parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Returns the SQL, with a <code>?</code> for each parameter.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns the values of the parameters. The value of an array parameter
+     * is a list.
+     */
+    public List<Object> getParameterValues() {
+        final List<Object> list = new ArrayList<Object>();
+        for (Parameter parameter : parameters) {
+            list.add(
+                parameter.arrayTypeName == null
+                    ? parameter.values[0]
+                    : Arrays.asList(parameter.values));
+        }
+        return list;
+    }
+
+    /**
+     * Binds the values of the parameters to a statement prepared from
+     * {@link #getSql()}.
+     *
+     * @param statement Prepared statement
+     * @throws SQLException on error
+     */
+    public void bind(PreparedStatement statement) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            final Parameter parameter = parameters.get(i);
+            if (parameter.untyped) {
+                statement.setObject(i + 1, parameter.values[0], Types.OTHER);
+            } else if (parameter.arrayTypeName == null) {
+                statement.setObject(i + 1, parameter.values[0]);
+            } else {
+                statement.setArray(
+                    i + 1,
+                    statement.getConnection().createArrayOf(
+                        parameter.arrayTypeName, parameter.values));
+            }
+        }
+    }
+
+    public String toString() {
+        return sql + " with parameters " + getParameterValues();
+    }
+
+    /**
+     * Appends a marker for a parameter whose value is a given value. Returns
+     * false, and appends nothing, if the value cannot be bound; the caller
+     * must then inline the value.
+     *
+     * @param buf Buffer
+     * @param value Value
+     * @param datatype Datatype of the value
+     * @param dialect Dialect
+     * @return Whether a marker was appended
+     */
+    static boolean appendParameter(
+        StringBuilder buf,
+        Object value,
+        Dialect.Datatype datatype,
+        Dialect dialect)
+    {
+        return appendMarker(
+            buf,
+            datatype == Dialect.Datatype.String
+                && dialect.requiresUntypedStringParameters()
+                ? UNTYPED_SCALAR
+                : SCALAR,
+            datatype,
+            null,
+            Collections.singletonList(value));
+    }
+
+    /**
+     * Appends a marker for an array parameter whose elements are the given
+     * values. Returns false, and appends nothing, if one of the values cannot
+     * be bound.
+     *
+     * @param buf Buffer
+     * @param values Values
+     * @param datatype Datatype of the values
+     * @param typeName Name of the SQL type of the elements, per
+     *   {@link Dialect#getArrayParameterTypeName(Dialect.Datatype)}
+     * @return Whether a marker was appended
+     */
+    static boolean appendArrayParameter(
+        StringBuilder buf,
+        List<?> values,
+        Dialect.Datatype datatype,
+        String typeName)
+    {
+        return appendMarker(buf, ARRAY, datatype, typeName, values);
+    }
+
+    private static boolean appendMarker(
+        StringBuilder buf,
+        char kind,
+        Dialect.Datatype datatype,
+        String typeName,
+        List<?> values)
+    {
+        switch (datatype) {
+        case String:
+        case Integer:
+        case Numeric:
+            break;
+        default:
+            return false;
+        }
+        final int marker = buf.length();
+        buf.append(START).append(kind).append(datatype.name());
+        if (typeName != null) {
+            buf.append(SEPARATOR).append(typeName);
+        }
+        for (Object value : values) {
+            final String s = value == null ? null : value.toString();
+            if (s == null || !isBindable(s, datatype)) {
+                buf.setLength(marker);
+                return false;
+            }
+            buf.append(SEPARATOR).append(s);
+        }
+        buf.append(END);
+        return true;
+    }
+
+    private static boolean isBindable(String s, Dialect.Datatype datatype) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == START || c == SEPARATOR || c == END) {
+                return false;
+            }
+        }
+        if (datatype.isNumeric()) {
+            try {
+                Util.discard(new BigDecimal(s));
+            } catch (NumberFormatException e) {
+                // For example, "NaN" or "Infinity".
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses SQL that may contain parameter markers. Returns null if it
+     * contains none.
+     *
+     * @param sql SQL
+     * @return Parameterized SQL, or null
+     */
+    public static ParameterizedSql parse(String sql) {
+        int start = sql.indexOf(START);
+        if (start < 0) {
+            return null;
+        }
+        final StringBuilder buf = new StringBuilder(sql.length());
+        final List<Parameter> parameters = new ArrayList<Parameter>();
+        int end = -1;
+        while (start >= 0) {
+            buf.append(sql, end + 1, start);
+            end = sql.indexOf(END, start);
+            final String[] fields =
+                sql.substring(start + 2, end).split(
+                    String.valueOf(SEPARATOR), -1);
+            final boolean array = sql.charAt(start + 1) == ARRAY;
+            final Dialect.Datatype datatype =
+                Dialect.Datatype.valueOf(fields[0]);
+            final int first = array ? 2 : 1;
+            final Object[] values = new Object[fields.length - first];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toValue(fields[first + i], datatype);
+            }
+            parameters.add(
+                new Parameter(
+                    array ? fields[1] : null,
+                    sql.charAt(start + 1) == UNTYPED_SCALAR,
+                    values));
+            buf.append('?');
+            start = sql.indexOf(START, end);
+        }
+        buf.append(sql, end + 1, sql.length());
+        return new ParameterizedSql(buf.toString(), parameters);
+    }
+
+    private static Object toValue(String s, Dialect.Datatype datatype) {
+        switch (datatype) {
+        case Integer:
+            try {
+                return Long.valueOf(s);
+            } catch (NumberFormatException e) {
+                return new BigDecimal(s);
+            }
+        case Numeric:
+            return new BigDecimal(s);
+        default:
+            return s;
+        }
+    }
+
+    /**
+     * Value of a parameter: one value, or the elements of an array.
+     */
+    private static class Parameter {
+        final String arrayTypeName;
+        final boolean untyped;
+        final Object[] values;
+
+        Parameter(String arrayTypeName, boolean untyped, Object[] values) {
+            this.arrayTypeName = arrayTypeName;
+            this.untyped = untyped;
+            this.values = values;
+        }
+    }
+}
+
+// End ParameterizedSql.java
@@ -94,6 +94,9 @@ public class SqlQuery {
     /** Is query supported by database vendor. Default is true*/
     private boolean isSupported = true;
 
+    /** Whether values are bound as parameters rather than inlined */
+    private boolean parameterized;
+
     /**
      * This list is used to keep track of what aliases have been  used in the
      * FROM clause. One might think that a java.util.Set would be a more
@@ -176,7 +179,9 @@ public class SqlQuery {
      */
     public SqlQuery cloneEmpty()
     {
-        return new SqlQuery(dialect);
+        final SqlQuery sqlQuery = new SqlQuery(dialect);
+        sqlQuery.setParameterized(parameterized);
+        return sqlQuery;
     }
 
     public void setDistinct(final boolean distinct) {
@@ -193,6 +198,85 @@ public class SqlQuery {
         this.allowHints = t;
     }
 
+    /**
+     * Chooses whether the values passed to {@link #quote} are bound as
+     * parameters of a prepared statement rather than inlined as literals.
+     *
+     * <p>The generated SQL contains markers, and must be executed by
+     * {@link SqlStatement}, which converts them. See
+     * {@link ParameterizedSql}.
+     *
+     * @param parameterized Whether to bind values as parameters
+     */
+    public void setParameterized(boolean parameterized) {
+        this.parameterized = parameterized;
+    }
+
+    public boolean isParameterized() {
+        return parameterized;
+    }
+
+    /**
+     * Appends a value to a buffer, either as a literal in this query's
+     * dialect, or, if this query is parameterized, as a parameter.
+     *
+     * @param buf Buffer
+     * @param value Value
+     * @param datatype Datatype of the value
+     *
+     * @see Dialect#quote(StringBuilder, Object, Dialect.Datatype)
+     */
+    public void quote(
+        StringBuilder buf,
+        Object value,
+        Dialect.Datatype datatype)
+    {
+        if (!parameterized
+            || value == null
+            || !ParameterizedSql.appendParameter(buf, value, datatype, dialect))
+        {
+            dialect.quote(buf, value, datatype);
+        }
+    }
+
+    /**
+     * Appends a predicate that tests whether an expression is one of a list
+     * of values, binding the list as one array parameter. Returns false, and
+     * appends nothing, if this query is not parameterized or its dialect
+     * cannot bind arrays of the values; the caller must then generate an
+     * <code>IN</code> list.
+     *
+     * @param buf Buffer
+     * @param expr Expression
+     * @param values Values; must not contain null
+     * @param datatype Datatype of the values
+     * @return Whether the predicate was appended
+     */
+    public boolean quoteArray(
+        StringBuilder buf,
+        String expr,
+        List<?> values,
+        Dialect.Datatype datatype)
+    {
+        if (!parameterized) {
+            return false;
+        }
+        final String typeName = dialect.getArrayParameterTypeName(datatype);
+        if (typeName == null) {
+            return false;
+        }
+        final int marker = buf.length();
+        buf.append(expr).append(" = ANY (");
+        if (!ParameterizedSql.appendArrayParameter(
+                buf, values, datatype, typeName))
+        {
+            buf.setLength(marker);
+            return false;
+        }
+        buf.append(')');
+        return true;
+    }
+
     /**
      * Adds a subquery to the FROM clause of this Query with a given alias.
      * If the query already exists it either, depending on
@@ -713,6 +797,24 @@ public class SqlQuery {
         return new SqlQuery(dialect);
     }
 
+    /**
+     * Creates a query for a data source that binds its values as parameters
+     * if {@link MondrianProperties#GenerateParameterizedSql} is true.
+     *
+     * @param dataSource Data source
+     * @param err Description of the query, for error messages
+     * @return Query
+     */
+    public static SqlQuery newParameterizedQuery(
+        DataSource dataSource,
+        String err)
+    {
+        final SqlQuery sqlQuery = newQuery(dataSource, err);
+        sqlQuery.setParameterized(
+            MondrianProperties.instance().GenerateParameterizedSql.get());
+        return sqlQuery;
+    }
+
     public void addGroupingSet(List<String> groupingColumnsExpr) {
         ClauseList groupingList = new ClauseList(false);
         for (String columnExp : groupingColumnsExpr) {
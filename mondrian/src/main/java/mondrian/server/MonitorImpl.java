@@ -15,6 +15,9 @@ package mondrian.server;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.rolap.RolapUtil;
+import mondrian.rolap.SqlAdmissionQueue;
+import mondrian.rolap.SqlConcurrencyLimiter;
+import mondrian.rolap.aggmatcher.AggAdvisor;
 import mondrian.server.monitor.*;
 import mondrian.server.monitor.MonitorMXBean;
 import mondrian.util.*;
@@ -134,6 +137,21 @@ class MonitorImpl implements Monitor, MonitorMXBean {
     return (List<SqlStatementInfo>) execute( new SqlStatementsCommand() );
   }
 
+  public List<SqlConcurrencyLimitInfo> getSqlConcurrencyLimits() {
+    // Limiters keep their own statistics, so there is no need to ask the actor.
+    return SqlConcurrencyLimiter.getInfos();
+  }
+
+  public List<SqlAdmissionQueueInfo> getSqlAdmissionQueues() {
+    // Queues keep their own statistics, too.
+    return SqlAdmissionQueue.getInfos();
+  }
+
+  public List<AggregateRecommendationInfo> getAggregateRecommendations() {
+    // Advisors keep their own workloads.
+    return AggAdvisor.getInfos();
+  }
+
   private Object execute( Command command ) {
     return ACTOR.execute( handler, command );
   }
@@ -0,0 +1,100 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server.monitor;
+
+/**
+ * Information about an aggregate table recommended for the workload of a
+ * star.
+ *
+ * @see mondrian.rolap.aggmatcher.AggAdvisor
+ */
+public class AggregateRecommendationInfo extends Info {
+    public final String factTable;
+    public final String cubeName;
+    public final int rank;
+    public final String tableName;
+    public final String columns;
+    public final long rowCount;
+    public final long savedMillis;
+    public final String createTableDdl;
+    public final String insertDdl;
+    public final String aggName;
+
+    public AggregateRecommendationInfo(
+        String stack,
+        String factTable,
+        String cubeName,
+        int rank,
+        String tableName,
+        String columns,
+        long rowCount,
+        long savedMillis,
+        String createTableDdl,
+        String insertDdl,
+        String aggName)
+    {
+        super(stack);
+        this.factTable = factTable;
+        this.cubeName = cubeName;
+        this.rank = rank;
+        this.tableName = tableName;
+        this.columns = columns;
+        this.rowCount = rowCount;
+        this.savedMillis = savedMillis;
+        this.createTableDdl = createTableDdl;
+        this.insertDdl = insertDdl;
+        this.aggName = aggName;
+    }
+
+    public String getFactTable() {
+        return factTable;
+    }
+
+    public String getCubeName() {
+        return cubeName;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getColumns() {
+        return columns;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getSavedMillis() {
+        return savedMillis;
+    }
+
+    public String getCreateTableDdl() {
+        return createTableDdl;
+    }
+
+    public String getInsertDdl() {
+        return insertDdl;
+    }
+
+    public String getAggName() {
+        return aggName;
+    }
+}
+
+// End AggregateRecommendationInfo.java
@@ -35,6 +35,12 @@ public interface Monitor {
 
     List<SqlStatementInfo> getSqlStatements();
 
+    List<SqlConcurrencyLimitInfo> getSqlConcurrencyLimits();
+
+    List<SqlAdmissionQueueInfo> getSqlAdmissionQueues();
+
+    List<AggregateRecommendationInfo> getAggregateRecommendations();
+
     /**
      * Sends an event to the monitor.
      *
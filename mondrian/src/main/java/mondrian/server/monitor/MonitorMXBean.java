@@ -28,6 +28,12 @@ public interface MonitorMXBean {
     List<StatementInfo> getStatements();
 
     List<SqlStatementInfo> getSqlStatements();
+
+    List<SqlConcurrencyLimitInfo> getSqlConcurrencyLimits();
+
+    List<SqlAdmissionQueueInfo> getSqlAdmissionQueues();
+
+    List<AggregateRecommendationInfo> getAggregateRecommendations();
 }
 
 // End MonitorMXBean.java
\ No newline at end of file
@@ -0,0 +1,100 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server.monitor;
+
+/**
+ * Information about the admission queue of SQL statements of one purpose
+ * against a data source.
+ *
+ * @see mondrian.rolap.SqlAdmissionQueue
+ */
+public class SqlAdmissionQueueInfo extends Info {
+    public final String dataSource;
+    public final String purpose;
+    public final int limit;
+    public final int admittedCount;
+    public final int queuedCount;
+    public final int dataSourceLimit;
+    public final int dataSourceAdmittedCount;
+    public final long totalAdmittedCount;
+    public final long totalQueueMillis;
+    public final long maxQueueMillis;
+
+    public SqlAdmissionQueueInfo(
+        String stack,
+        String dataSource,
+        String purpose,
+        int limit,
+        int admittedCount,
+        int queuedCount,
+        int dataSourceLimit,
+        int dataSourceAdmittedCount,
+        long totalAdmittedCount,
+        long totalQueueMillis,
+        long maxQueueMillis)
+    {
+        super(stack);
+        this.dataSource = dataSource;
+        this.purpose = purpose;
+        this.limit = limit;
+        this.admittedCount = admittedCount;
+        this.queuedCount = queuedCount;
+        this.dataSourceLimit = dataSourceLimit;
+        this.dataSourceAdmittedCount = dataSourceAdmittedCount;
+        this.totalAdmittedCount = totalAdmittedCount;
+        this.totalQueueMillis = totalQueueMillis;
+        this.maxQueueMillis = maxQueueMillis;
+    }
+
+    public String getDataSource() {
+        return dataSource;
+    }
+
+    public String getPurpose() {
+        return purpose;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getAdmittedCount() {
+        return admittedCount;
+    }
+
+    public int getQueuedCount() {
+        return queuedCount;
+    }
+
+    public int getDataSourceLimit() {
+        return dataSourceLimit;
+    }
+
+    public int getDataSourceAdmittedCount() {
+        return dataSourceAdmittedCount;
+    }
+
+    public long getTotalAdmittedCount() {
+        return totalAdmittedCount;
+    }
+
+    public long getTotalQueueMillis() {
+        return totalQueueMillis;
+    }
+
+    public long getMaxQueueMillis() {
+        return maxQueueMillis;
+    }
+}
+
+// End SqlAdmissionQueueInfo.java
@@ -0,0 +1,78 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server.monitor;
+
+/**
+ * Information about the concurrency limit of a data source.
+ *
+ * @see mondrian.rolap.SqlConcurrencyLimiter
+ */
+public class SqlConcurrencyLimitInfo extends Info {
+    public final String dataSource;
+    public final int limit;
+    public final int inFlightCount;
+    public final int queuedCount;
+    public final long rejectedCount;
+    public final long normalExecuteMillis;
+    public final long recentExecuteMillis;
+
+    public SqlConcurrencyLimitInfo(
+        String stack,
+        String dataSource,
+        int limit,
+        int inFlightCount,
+        int queuedCount,
+        long rejectedCount,
+        long normalExecuteMillis,
+        long recentExecuteMillis)
+    {
+        super(stack);
+        this.dataSource = dataSource;
+        this.limit = limit;
+        this.inFlightCount = inFlightCount;
+        this.queuedCount = queuedCount;
+        this.rejectedCount = rejectedCount;
+        this.normalExecuteMillis = normalExecuteMillis;
+        this.recentExecuteMillis = recentExecuteMillis;
+    }
+
+    public String getDataSource() {
+        return dataSource;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    public int getQueuedCount() {
+        return queuedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getNormalExecuteMillis() {
+        return normalExecuteMillis;
+    }
+
+    public long getRecentExecuteMillis() {
+        return recentExecuteMillis;
+    }
+}
+
+// End SqlConcurrencyLimitInfo.java
@@ -471,6 +471,63 @@ public interface Dialect {
      */
     boolean supportsUnlimitedValueList();
 
+    /**
+     * Returns whether this Dialect can restrict the rows returned by a query
+     * to a range, using the clause generated by
+     * {@link #generateLimitOffset(StringBuilder, int, int)}.
+     *
+     * @return whether this Dialect can limit and offset the rows of a query
+     */
+    boolean supportsLimitOffset();
+
+    /**
+     * Appends to a query a clause that skips its first {@code offset} rows
+     * and returns at most {@code limit} of the rows that follow.
+     *
+     * <p>For example, in MySQL,
+     * <code>generateLimitOffset(buf, 100, 20)</code> appends
+     * <code>" LIMIT 20 OFFSET 100"</code>.
+     *
+     * <p>Called only if {@link #supportsLimitOffset()} returns true.
+     *
+     * @param buf Buffer containing the query
+     * @param offset Number of rows to skip, or 0 to skip none
+     * @param limit Maximum number of rows to return, or 0 if unlimited
+     */
+    void generateLimitOffset(StringBuilder buf, int offset, int limit);
+
+    /**
+     * Returns the name of the SQL type of the elements of an array parameter
+     * that holds values of a given datatype, or null if this Dialect cannot
+     * bind such arrays.
+     *
+     * <p>If not null, the name can be passed to
+     * {@link java.sql.Connection#createArrayOf(String, Object[])}, and the
+     * predicate <code>expr = ANY (?)</code> tests whether a value is an
+     * element of the array bound to the parameter. Mondrian uses this to
+     * bind a list of values as one parameter, rather than one parameter per
+     * value.
+     *
+     * @param datatype Datatype of the values
+     * @return Name of the element type, or null
+     */
+    String getArrayParameterTypeName(Datatype datatype);
+
+    /**
+     * Returns whether string parameters must be bound without a type, so
+     * that the database infers their type from the context, as it does for
+     * a string literal.
+     *
+     * <p>The type of a level defaults to String, so the values of a numeric
+     * key column are often quoted as strings. Most databases convert a
+     * string parameter compared with a numeric column; PostgreSQL rejects
+     * <code>integer = character varying</code>, but accepts a parameter of
+     * unspecified type, bound with {@link java.sql.Types#OTHER}.
+     *
+     * @return Whether to bind string parameters with an unspecified type
+     */
+    boolean requiresUntypedStringParameters();
+
     /**
      * Returns true if this Dialect can include expressions in the GROUP BY
      * clause only by adding an expression to the SELECT clause and using
@@ -882,6 +882,31 @@ public class JdbcDialectImpl implements Dialect {
         return false;
     }
 
+    public boolean supportsLimitOffset() {
+        return false;
+    }
+
+    public void generateLimitOffset(
+        StringBuilder buf,
+        int offset,
+        int limit)
+    {
+        if (limit > 0) {
+            buf.append(" LIMIT ").append(limit);
+        }
+        if (offset > 0) {
+            buf.append(" OFFSET ").append(offset);
+        }
+    }
+
+    public String getArrayParameterTypeName(Datatype datatype) {
+        return null;
+    }
+
+    public boolean requiresUntypedStringParameters() {
+        return false;
+    }
+
     public boolean requiresGroupByAlias() {
         return false;
     }
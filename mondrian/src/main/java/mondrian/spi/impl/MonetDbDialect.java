@@ -86,6 +86,11 @@ public class MonetDbDialect extends JdbcDialectImpl {
         return false;
     }
 
+    @Override
+    public boolean supportsLimitOffset() {
+        return true;
+    }
+
     @Override
     public void quoteStringLiteral(StringBuilder buf, String s) {
         // Go beyond Util.singleQuoteString; also quote backslash, like MySQL.
@@ -280,6 +280,27 @@ public class MySqlDialect extends JdbcDialectImpl {
         return true;
     }
 
+    @Override
+    public boolean supportsLimitOffset() {
+        return true;
+    }
+
+    @Override
+    public void generateLimitOffset(
+        StringBuilder buf,
+        int offset,
+        int limit)
+    {
+        if (limit <= 0 && offset > 0) {
+            // MySQL does not allow OFFSET without LIMIT. Its documentation
+            // recommends the largest unsigned BIGINT.
+            buf.append(" LIMIT ").append(offset).append(", ")
+                .append("18446744073709551615");
+            return;
+        }
+        super.generateLimitOffset(buf, offset, limit);
+    }
+
     private enum Scope {
         SESSION,
         GLOBAL
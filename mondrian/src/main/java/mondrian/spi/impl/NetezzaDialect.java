@@ -81,6 +81,18 @@ public class NetezzaDialect extends PostgreSqlDialect {
         }
         return super.getType(metaData, columnIndex);
     }
+
+    @Override
+    public String getArrayParameterTypeName(Datatype datatype) {
+        // Netezza has no array types.
+        return null;
+    }
+
+    @Override
+    public boolean requiresUntypedStringParameters() {
+        // The Netezza driver is not the PostgreSQL driver.
+        return false;
+    }
 }
 
 // End NetezzaDialect.java
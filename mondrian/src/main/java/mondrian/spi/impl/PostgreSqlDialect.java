@@ -130,6 +130,29 @@ public class PostgreSqlDialect extends JdbcDialectImpl {
         return super.getType(metaData, columnIndex);
     }
 
+    @Override
+    public boolean supportsLimitOffset() {
+        return true;
+    }
+
+    @Override
+    public String getArrayParameterTypeName(Datatype datatype) {
+        switch (datatype) {
+        case Integer:
+            return "int8";
+        case Numeric:
+            return "numeric";
+        default:
+            // Not String: a level's values are strings even if its column
+            // is numeric, and varchar[] cannot be compared with a number.
+            return null;
+        }
+    }
+
+    @Override
+    public boolean requiresUntypedStringParameters() {
+        return true;
+    }
 }
 
 // End PostgreSqlDialect.java
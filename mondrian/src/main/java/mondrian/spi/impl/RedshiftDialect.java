@@ -95,6 +95,12 @@ public class RedshiftDialect extends PostgreSqlDialect {
 
     return sb.toString();
   }
+
+  @Override
+  public String getArrayParameterTypeName( Datatype datatype ) {
+    // Redshift has no array types.
+    return null;
+  }
 }
 
 // End RedshiftDialect.java
@@ -127,6 +127,11 @@ public class VerticaDialect extends JdbcDialectImpl {
     return true;
   }
 
+  @Override
+  public boolean supportsLimitOffset() {
+    return true;
+  }
+
   @Override
   public boolean allowsRegularExpressionInWhereClause() {
     return true;
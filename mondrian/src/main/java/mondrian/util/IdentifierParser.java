@@ -148,6 +148,25 @@ public class IdentifierParser extends org.olap4j.impl.IdentifierParser {
         }
     }
 
+    /**
+     * Implementation of Builder that collects the names of the members in a
+     * member list or tuple list, without resolving them.
+     */
+    public static class NameListBuilder extends MemberBuilder {
+        public final List<List<Id.Segment>> nameList =
+            new ArrayList<List<Id.Segment>>();
+
+        public void memberComplete() {
+            nameList.add(Util.convert(segmentList));
+            segmentList.clear();
+        }
+
+        @Override
+        public void tupleComplete() {
+            // nothing to do
+        }
+    }
+
     /**
      * Implementation of Builder that builds a member list.
      */
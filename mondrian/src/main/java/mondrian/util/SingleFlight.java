@@ -0,0 +1,87 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Ensures that at most one thread at a time computes the value for a given
+ * key; other threads that want the same key wait for that computation and
+ * share its result.
+ *
+ * <p>A thread calls {@link #join(Object)}. If it gets {@code null}, it has
+ * claimed the key, and must later call exactly one of {@link #complete} and
+ * {@link #abandon}. Otherwise it gets a future that yields the value
+ * computed by the thread that holds the claim. The future yields
+ * {@code null} if the computation was abandoned; the waiting thread should
+ * then try again.
+ *
+ * <p>Failures are not propagated to waiting threads: a failure may be
+ * specific to the statement that caused it (say, a cancellation or timeout)
+ * and should not abort other statements.
+ *
+ * <p><b>Thread safety</b>. SingleFlight is thread safe.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, SlotFuture<V>> inFlight =
+        new ConcurrentHashMap<K, SlotFuture<V>>();
+
+    /**
+     * Claims a key, or joins the computation of a thread that has already
+     * claimed it.
+     *
+     * @param key Key
+     * @return null if the caller has claimed the key; otherwise a future
+     *   for the value being computed by another thread
+     */
+    public SlotFuture<V> join(K key) {
+        return inFlight.putIfAbsent(key, new SlotFuture<V>());
+    }
+
+    /**
+     * Publishes the value of a claimed key to waiting threads, and releases
+     * the claim.
+     *
+     * @param key Key
+     * @param value Value
+     */
+    public void complete(K key, V value) {
+        final SlotFuture<V> future = inFlight.remove(key);
+        if (future != null) {
+            future.put(value);
+        }
+    }
+
+    /**
+     * Releases a claimed key without a value. Waiting threads receive
+     * {@code null}.
+     *
+     * @param key Key
+     */
+    public void abandon(K key) {
+        complete(key, null);
+    }
+
+    /**
+     * Returns the number of keys currently being computed.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
+
+// End SingleFlight.java
@@ -931,13 +931,23 @@ public class XmlaHandler {
     final boolean enableRowCount = MondrianProperties.instance().EnableTotalCount.booleanValue();
     final int[] rowCountSlot = enableRowCount ? new int[] { 0 } : null;
 
-    try ( OlapConnection connection = getConnection( request, Collections.emptyMap() );
-          OlapStatement statement = connection.createStatement();
-          ResultSet resultSet = getExtra( connection )
-            .executeDrillthrough( statement, request.getStatement(), advanced, tabFields, rowCountSlot ) ) {
+    // The rows are written as they are read from the result set, which is
+    // closed, with its statement and connection, when the result is closed.
+    OlapConnection connection = null;
+    OlapStatement statement = null;
+    ResultSet resultSet = null;
+    try {
+      connection = getConnection( request, Collections.emptyMap() );
+      statement = connection.createStatement();
+      resultSet = getExtra( connection )
+        .executeDrillthrough( statement, request.getStatement(), advanced, tabFields, rowCountSlot );
       int rowCount = enableRowCount ? rowCountSlot[ 0 ] : -1;
 
-      return new TabularRowSet( resultSet, rowCount );
+      final TabularRowSet rowSet = new TabularRowSet( resultSet, rowCount, statement, connection );
+      resultSet = null;
+      statement = null;
+      connection = null;
+      return rowSet;
     } catch ( XmlaException xex ) {
       throw xex;
     } catch ( SQLException sqle ) {
@@ -946,6 +956,9 @@ public class XmlaHandler {
     } catch ( RuntimeException e ) {
       // NOTE: One important error is "cannot drill through on the cell"
       throw new XmlaException( SERVER_FAULT_FC, HSB_DRILL_THROUGH_SQL_CODE, HSB_DRILL_THROUGH_SQL_FAULT_FS, e );
+    } finally {
+      // On failure, release whatever was opened.
+      Util.close( resultSet, statement, connection );
     }
   }
 
@@ -1793,6 +1806,13 @@ public class XmlaHandler {
     private final List<Object[]> rows;
     private int totalCount;
 
+    /**
+     * Result set whose rows are written as they are read, or null if the rows are held in {@link #rows}.
+     */
+    private ResultSet resultSet;
+    private OlapStatement statement;
+    private OlapConnection connection;
+
     /**
      * Creates a TabularRowSet based upon a SQL statement result.
      *
@@ -1804,6 +1824,40 @@ public class XmlaHandler {
      */
     public TabularRowSet( ResultSet rs, int totalCount ) throws SQLException {
       this.totalCount = totalCount;
+      final int columnCount = populateColumns( rs );
+
+      // Populate data; assume that SqlStatement is already positioned on first row (or isDone() is true), and assume
+      // that the number of rows returned is limited.
+      rows = new ArrayList<>();
+
+      while ( rs.next() ) {
+        rows.add( readRow( rs, columnCount ) );
+      }
+    }
+
+    /**
+     * Creates a TabularRowSet that writes the rows of a SQL statement result as it reads them, rather than reading
+     * them all first.
+     *
+     * <p>Takes ownership of the ResultSet, statement and connection, and closes them when it is closed.
+     *
+     * @param rs         Result set
+     * @param totalCount Total number of rows. If >= 0, writes the "totalCount" attribute into the XMLA response.
+     * @param statement  Statement that produced the result set
+     * @param connection Connection of the statement
+     * @throws SQLException on error
+     */
+    public TabularRowSet( ResultSet rs, int totalCount, OlapStatement statement, OlapConnection connection )
+      throws SQLException {
+      this.totalCount = totalCount;
+      this.statement = statement;
+      this.connection = connection;
+      populateColumns( rs );
+      this.resultSet = rs;
+      this.rows = null;
+    }
+
+    private int populateColumns( ResultSet rs ) throws SQLException {
       ResultSetMetaData md = rs.getMetaData();
       int columnCount = md.getColumnCount();
 
@@ -1812,19 +1866,17 @@ public class XmlaHandler {
         columns.add( new Column( md.getColumnLabel( i + 1 ), md.getColumnType( i + 1 ), md.getScale( i + 1 ) ) );
       }
 
-      // Populate data; assume that SqlStatement is already positioned on first row (or isDone() is true), and assume
-      // that the number of rows returned is limited.
-      rows = new ArrayList<>();
-
-      while ( rs.next() ) {
-        Object[] row = new Object[ columnCount ];
+      return columnCount;
+    }
 
-        for ( int i = 0; i < columnCount; i++ ) {
-          row[ i ] = rs.getObject( i + 1 );
-        }
+    private static Object[] readRow( ResultSet rs, int columnCount ) throws SQLException {
+      Object[] row = new Object[ columnCount ];
 
-        rows.add( row );
+      for ( int i = 0; i < columnCount; i++ ) {
+        row[ i ] = rs.getObject( i + 1 );
       }
+
+      return row;
     }
 
     /**
@@ -1853,11 +1905,18 @@ public class XmlaHandler {
       rows.add( row );
     }
 
-    public void close() {
-      // no resources to close
+    public void close() throws SQLException {
+      final SQLException e = Util.close( resultSet, statement, connection );
+      resultSet = null;
+      statement = null;
+      connection = null;
+
+      if ( e != null ) {
+        throw e;
+      }
     }
 
-    public void unparse( SaxWriter writer ) throws SAXException {
+    public void unparse( SaxWriter writer ) throws SAXException, OlapException {
       // write total count row if enabled
       if ( totalCount >= 0 ) {
         String countStr = Integer.toString( totalCount );
@@ -1872,30 +1931,46 @@ public class XmlaHandler {
         writer.endElement(); // row
       }
 
-      for ( Object[] row : rows ) {
-        writer.startElement( "row" );
+      if ( rows != null ) {
+        for ( Object[] row : rows ) {
+          unparseRow( writer, row );
+        }
+      } else if ( resultSet != null ) {
+        try {
+          final int columnCount = columns.size();
 
-        for ( int i = 0; i < row.length; i++ ) {
-          writer.startElement( columns.get( i ).encodedName, "xsi:type", columns.get( i ).xsdType );
-          Object value = row[ i ];
+          while ( resultSet.next() ) {
+            unparseRow( writer, readRow( resultSet, columnCount ) );
+          }
+        } catch ( SQLException e ) {
+          throw new OlapException( "Error while reading drill-through rows", e );
+        }
+      }
+    }
 
-          if ( value == null ) {
-            writer.characters( "null" );
-          } else {
-            String valueString = value.toString();
+    private void unparseRow( SaxWriter writer, Object[] row ) {
+      writer.startElement( "row" );
 
-            if ( value instanceof Number ) {
-              valueString = XmlaUtil.normalizeNumericString( valueString );
-            }
+      for ( int i = 0; i < row.length; i++ ) {
+        writer.startElement( columns.get( i ).encodedName, "xsi:type", columns.get( i ).xsdType );
+        Object value = row[ i ];
+
+        if ( value == null ) {
+          writer.characters( "null" );
+        } else {
+          String valueString = value.toString();
 
-            writer.characters( valueString );
+          if ( value instanceof Number ) {
+            valueString = XmlaUtil.normalizeNumericString( valueString );
           }
 
-          writer.endElement();
+          writer.characters( valueString );
         }
 
-        writer.endElement(); // row
+        writer.endElement();
       }
+
+      writer.endElement(); // row
     }
 
     /**